@@ -0,0 +1,156 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Limits the number of requests handled concurrently by one or more url patterns, so that a slow url pattern cannot occupy all threads of
+ * the container. Requests over the limit are rejected with 503 and {@code Retry-After} instead of waiting for a thread.</p>
+ *
+ * <p>A permit is taken without blocking when available. Otherwise, if a queue is configured and is not full, the request waits for a permit up
+ * to the queue timeout. The queue should be tiny, it is meant to absorb short bursts only.</p>
+ *
+ * <p>The same instance can be given to several url patterns to limit them as a group:</p>
+ *
+ * <blockquote><pre>
+ * final Bulkhead reports = new Bulkhead("reports", 4);
+ * this.urlMappingRegistrar
+ *         .get("/reports/daily", this::daily).bulkhead(reports)
+ *         .get("/reports/monthly", this::monthly).bulkhead(reports);
+ * </pre></blockquote>
+ *
+ * <p>This class IS thread-safe.</p>
+ *
+ * @see ServletUrlPattern#bulkhead(Bulkhead)
+ */
+public final class Bulkhead {
+
+	/**
+	 * Value of the {@code Retry-After} header of rejected requests in seconds.
+	 */
+	static final int RETRY_AFTER_SECONDS = 1;
+
+	private final String name;
+
+	private final int maxConcurrentRequests;
+
+	private final int maxQueueSize;
+
+	private final long queueTimeoutNanos;
+
+	private final Semaphore permits;
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * Creates a bulkhead without a queue, requests over the limit are rejected immediately.
+	 *
+	 * @throws IllegalArgumentException if {@code maxConcurrentRequests} is not positive
+	 */
+	public Bulkhead(String name, int maxConcurrentRequests) {
+		this(name, maxConcurrentRequests, 0, Duration.ZERO);
+	}
+
+	/**
+	 * @param maxConcurrentRequests maximum number of requests handled at the same time
+	 * @param maxQueueSize          maximum number of requests waiting for a permit, 0 for no queue
+	 * @param queueTimeout          how long a request waits for a permit before it is rejected
+	 * @throws IllegalArgumentException if {@code maxConcurrentRequests} is not positive, {@code maxQueueSize} or {@code queueTimeout} is negative
+	 */
+	public Bulkhead(String name, int maxConcurrentRequests, int maxQueueSize, Duration queueTimeout) {
+		if (maxConcurrentRequests <= 0) {
+			throw new IllegalArgumentException("maxConcurrentRequests must be positive: " + maxConcurrentRequests);
+		}
+		if (maxQueueSize < 0 || queueTimeout.isNegative()) {
+			throw new IllegalArgumentException("maxQueueSize and queueTimeout cannot be negative: " + maxQueueSize + ", " + queueTimeout);
+		}
+		this.name = name;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.maxQueueSize = maxQueueSize;
+		this.queueTimeoutNanos = queueTimeout.toNanos();
+		this.permits = new Semaphore(maxConcurrentRequests);
+	}
+
+	/**
+	 * Takes a permit, waiting in the queue if necessary. A successful call must be followed by {@link #release()}.
+	 *
+	 * @return false if the request must be rejected
+	 */
+	boolean tryAcquire() {
+		if (permits.tryAcquire()) {
+			return true;
+		}
+
+		if (maxQueueSize > 0 && queueTimeoutNanos > 0) {
+			if (queued.incrementAndGet() <= maxQueueSize) {
+				try {
+					if (permits.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+						return true;
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					queued.decrementAndGet();
+				}
+			}
+			else {
+				queued.decrementAndGet();
+			}
+		}
+
+		rejectedCount.increment();
+		return false;
+	}
+
+	void release() {
+		permits.release();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * @return number of requests being handled now
+	 */
+	public int getInFlightCount() {
+		return maxConcurrentRequests - permits.availablePermits();
+	}
+
+	/**
+	 * @return number of requests waiting for a permit now
+	 */
+	public int getQueuedCount() {
+		return Math.max(0, queued.get());
+	}
+
+	/**
+	 * @return number of requests rejected so far
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Bulkhead{" + "name='" + name + '\'' + ", inFlight=" + getInFlightCount() + '/' + maxConcurrentRequests + ", rejected=" +
+			   getRejectedCount() + '}';
+	}
+}
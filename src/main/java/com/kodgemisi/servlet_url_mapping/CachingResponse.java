@@ -0,0 +1,260 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>Response given to a request handler whose response may be cached. Everything is passed through to the wrapped response as usual while
+ * status, headers and body are recorded. Recording stops, without affecting the response, once the body gets larger than the given limit or
+ * something that must not be cached happens like setting a cookie or sending an error. Resetting the response resets the recording as well.</p>
+ *
+ * <p>Responses completed asynchronously, after the request handler returns, are not recorded.</p>
+ *
+ * @see ResponseCache
+ */
+final class CachingResponse extends HttpServletResponseWrapper {
+
+	static final byte SET_HEADER = 0;
+
+	static final byte ADD_HEADER = 1;
+
+	static final byte CONTENT_TYPE = 2;
+
+	static final byte CHARACTER_ENCODING = 3;
+
+	private final int maxBodySize;
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	/**
+	 * Header operations in the order they are made, see {@link ResponseCache.Entry#headerOperations}
+	 */
+	private final List<Object[]> headerOperations = new ArrayList<>();
+
+	private int status = SC_OK;
+
+	private boolean cacheable = true;
+
+	private TeeOutputStream outputStream;
+
+	private PrintWriter writer;
+
+	CachingResponse(HttpServletResponse response, int maxBodySize) {
+		super(response);
+		this.maxBodySize = maxBodySize;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			outputStream = new TeeOutputStream(super.getOutputStream());
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void setStatus(int status) {
+		super.setStatus(status);
+		this.status = status;
+	}
+
+	@Override
+	public void sendError(int status, String message) throws IOException {
+		cacheable = false;
+		super.sendError(status, message);
+	}
+
+	@Override
+	public void sendError(int status) throws IOException {
+		cacheable = false;
+		super.sendError(status);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		cacheable = false;
+		super.sendRedirect(location);
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		cacheable = false;
+		super.addCookie(cookie);
+	}
+
+	@Override
+	public void setLocale(Locale locale) {
+		cacheable = false;
+		super.setLocale(locale);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		super.setHeader(name, value);
+		record(SET_HEADER, name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		super.addHeader(name, value);
+		record(ADD_HEADER, name, value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		super.setIntHeader(name, value);
+		record(SET_HEADER, name, Integer.toString(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		super.addIntHeader(name, value);
+		record(ADD_HEADER, name, Integer.toString(value));
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		super.setDateHeader(name, date);
+		record(SET_HEADER, name, date);
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		super.addDateHeader(name, date);
+		record(ADD_HEADER, name, date);
+	}
+
+	@Override
+	public void setContentType(String type) {
+		super.setContentType(type);
+		record(CONTENT_TYPE, null, type);
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset) {
+		super.setCharacterEncoding(charset);
+		record(CHARACTER_ENCODING, null, charset);
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		headerOperations.clear();
+		body.reset();
+		status = SC_OK;
+		// cookies and the locale are reset too
+		cacheable = true;
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		body.reset();
+	}
+
+	private void record(byte operation, @Nullable String name, Object value) {
+		if ("Set-Cookie".equalsIgnoreCase(name)) {
+			cacheable = false;
+		}
+		if (cacheable) {
+			headerOperations.add(new Object[]{operation, name, value});
+		}
+	}
+
+	/**
+	 * Flushes the writer, if any, to complete the recorded body. Call after the request handler returns.
+	 *
+	 * @return recorded response or null if it must not be cached, e.g. it is still being written asynchronously
+	 */
+	@Nullable
+	ResponseCache.Entry toEntry(HttpServletRequest request, ResponseCache.Key key, long expiresAt) {
+		if (request.isAsyncStarted()) {
+			return null;
+		}
+		if (writer != null) {
+			writer.flush();
+		}
+		if (!cacheable || status != SC_OK) {
+			return null;
+		}
+		return new ResponseCache.Entry(key, expiresAt, headerOperations.toArray(new Object[0][]), body.toByteArray());
+	}
+
+	/**
+	 * Writes to the wrapped response's stream and records until the body gets too large.
+	 */
+	private final class TeeOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream target;
+
+		TeeOutputStream(ServletOutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target.write(b);
+			if (fits(1)) {
+				body.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			target.write(bytes, offset, length);
+			if (fits(length)) {
+				body.write(bytes, offset, length);
+			}
+		}
+
+		private boolean fits(int length) {
+			if (cacheable && body.size() + length > maxBodySize) {
+				cacheable = false;
+				body.reset();
+			}
+			return cacheable;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target.flush();
+		}
+
+		@Override
+		public boolean isReady() {
+			return target.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			target.setWriteListener(writeListener);
+		}
+	}
+}
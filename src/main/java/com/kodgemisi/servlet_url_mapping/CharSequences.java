@@ -0,0 +1,125 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+/**
+ * Allocation free helpers working on a {@code [start, end)} window of a {@link CharSequence}.
+ */
+final class CharSequences {
+
+	private CharSequences() {
+	}
+
+	/**
+	 * @return true if {@code literal} appears at {@code offset} without exceeding {@code end}
+	 */
+	static boolean regionMatches(CharSequence sequence, int offset, int end, String literal) {
+		return regionMatches(sequence, offset, end, literal, false);
+	}
+
+	/**
+	 * @param ignoreCase whether to compare ASCII letters case insensitively, other characters are always compared as is
+	 * @return true if {@code literal} appears at {@code offset} without exceeding {@code end}
+	 */
+	static boolean regionMatches(CharSequence sequence, int offset, int end, String literal, boolean ignoreCase) {
+		return regionMatches(sequence, offset, end, literal, literal.length(), ignoreCase);
+	}
+
+	/**
+	 * Same with {@link #regionMatches(CharSequence, int, int, String, boolean)} but only first {@code length} characters of {@code literal} are
+	 * compared.
+	 */
+	static boolean regionMatches(CharSequence sequence, int offset, int end, String literal, int length, boolean ignoreCase) {
+		return regionMatches(sequence, offset, end, literal, 0, length, ignoreCase);
+	}
+
+	/**
+	 * Same with {@link #regionMatches(CharSequence, int, int, String, int, boolean)} but compares {@code length} characters of {@code source}
+	 * starting at {@code sourceStart}, so that literal text doesn't need to be copied out of the text containing it.
+	 */
+	static boolean regionMatches(CharSequence sequence, int offset, int end, String source, int sourceStart, int length, boolean ignoreCase) {
+		if (end - offset < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			final char c = sequence.charAt(offset + i);
+			final char expected = source.charAt(sourceStart + i);
+			if (c != expected && !(ignoreCase && toLowerCaseAscii(c) == toLowerCaseAscii(expected))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static char toLowerCaseAscii(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * @return true if {@code sequence[start, end)} is exactly {@code literal}
+	 */
+	static boolean contentEquals(CharSequence sequence, int start, int end, String literal) {
+		return end - start == literal.length() && regionMatches(sequence, start, end, literal);
+	}
+
+	/**
+	 * @return index of the first {@code c} in {@code [from, end)} or {@code end} if there is none
+	 */
+	static int indexOf(CharSequence sequence, char c, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (sequence.charAt(i) == c) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	static boolean isDigits(CharSequence sequence, int start, int end) {
+		if (start >= end) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!isDigit(sequence.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Allocation free check that {@code Long.parseLong} of the range would return a value in {@code [0, max]}.
+	 *
+	 * @return true if the range is one or more ASCII digits, leading zeros allowed, whose value is at most {@code max}
+	 */
+	static boolean isDigitsAtMost(CharSequence sequence, int start, int end, long max) {
+		if (start >= end) {
+			return false;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			final char c = sequence.charAt(i);
+			if (!isDigit(c)) {
+				return false;
+			}
+			final int digit = c - '0';
+			if (value > (max - digit) / 10) {
+				return false;
+			}
+			value = 10 * value + digit;
+		}
+		return true;
+	}
+
+	static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+}
@@ -0,0 +1,106 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Cache of at most {@code capacity} values evicted with the CLOCK algorithm, an approximation of least recently used: a hit marks its
+ * entry as referenced, and when the cache is full the clock hand sweeps the entries in a circle, unmarking referenced ones, until it finds
+ * one not referenced since the hand last passed it. Values looked up once and never again, e.g. made-up header values, are evicted before
+ * the ones used over and over.</p>
+ *
+ * <p>This class IS thread-safe. Lookups don't lock and write only when an entry is referenced for the first time since the last sweep, so hot
+ * entries are read-only. Inserts lock.</p>
+ */
+final class ClockCache<K, V> {
+
+	private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Guarded by this
+	 */
+	private final Entry<K, V>[] clock;
+
+	/**
+	 * Guarded by this
+	 */
+	private int hand;
+
+	/**
+	 * Number of used slots of {@link #clock}, guarded by this
+	 */
+	private int used;
+
+	@SuppressWarnings("unchecked")
+	ClockCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.clock = new Entry[capacity];
+	}
+
+	@Nullable
+	V get(K key) {
+		final Entry<K, V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (!entry.referenced) {
+			entry.referenced = true;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Caches the value unless the key is cached already, evicting an entry if the cache is full.
+	 */
+	synchronized void put(K key, V value) {
+		if (entries.containsKey(key)) {
+			return;
+		}
+
+		final Entry<K, V> entry = new Entry<>(key, value);
+		if (used < clock.length) {
+			clock[used++] = entry;
+		}
+		else {
+			while (clock[hand].referenced) {
+				clock[hand].referenced = false;
+				hand = (hand + 1) % clock.length;
+			}
+			entries.remove(clock[hand].key);
+			clock[hand] = entry;
+			hand = (hand + 1) % clock.length;
+		}
+		entries.put(key, entry);
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	private static final class Entry<K, V> {
+
+		private final K key;
+
+		private final V value;
+
+		/**
+		 * Whether the entry is hit since the clock hand last passed it
+		 */
+		private volatile boolean referenced;
+
+		private Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Gzip compresses the body written by a request handler while it is written, for url patterns registered with
+ * {@link ServletUrlPattern#compress()}.</p>
+ *
+ * <p>Compression starts with the first byte written, so empty responses like 204, 304 and errors sent via {@code sendError} stay as they are.
+ * Bodies whose {@code Content-Length} is set by the handler to less than {@link #MIN_SIZE} bytes, and responses with a
+ * {@code Content-Encoding} already, are written uncompressed.</p>
+ *
+ * <p>The compressed body is completed when the request handler returns. Writing nothing until then, e.g. by completing the response
+ * asynchronously, leaves the body uncompressed; writing more after the compressed body is completed fails.</p>
+ *
+ * <p>{@link Deflater}s hold native memory costly to allocate, so they are pooled with their buffers instead of being created per response.
+ * A pool is used rather than a thread local so that nothing is left in container threads after the application is undeployed.</p>
+ *
+ * <p>This class is NOT thread-safe.</p>
+ */
+final class CompressingResponse extends HttpServletResponseWrapper {
+
+	static final String GZIP = "gzip";
+
+	/**
+	 * Bodies shorter than this don't get smaller enough to be worth compressing
+	 */
+	static final int MIN_SIZE = 256;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private static final int POOL_CAPACITY = 2 * Runtime.getRuntime().availableProcessors();
+
+	private static final Queue<Compressor> pool = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of compressors in {@link #pool}, whose size is not constant time to compute
+	 */
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Gzip header: magic number, deflate, no flags, no modification time, no extra flags, unknown operating system
+	 */
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	private GzipOutputStream outputStream;
+
+	private PrintWriter writer;
+
+	/**
+	 * Whether the body is written as is, decided at latest when the first byte is written
+	 */
+	private boolean identity;
+
+	private CompressingResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * Calls the request handler with a compressing response and finishes the compressed body once it returns.
+	 */
+	static void handle(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, ServletRequestHandler requestHandler)
+			throws IOException, ServletException {
+
+		final CompressingResponse compressingResponse = new CompressingResponse(response);
+		boolean completed = false;
+		try {
+			requestHandler.handleRequest(request, compressingResponse, servletUrl);
+			completed = true;
+		}
+		finally {
+			compressingResponse.finish(completed);
+		}
+	}
+
+	/**
+	 * Whether an {@code Accept-Encoding} header accepts gzip, i.e. lists {@code gzip} or {@code *} without {@code q=0}. An explicit
+	 * {@code gzip} entry wins over {@code *}.
+	 */
+	static boolean acceptsGzip(@Nullable String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		boolean wildcard = false;
+		int start = 0;
+		final int length = acceptEncoding.length();
+		while (start < length) {
+			final int end = CharSequences.indexOf(acceptEncoding, ',', start, length);
+			final int parameters = CharSequences.indexOf(acceptEncoding, ';', start, end);
+
+			int codingStart = start;
+			int codingEnd = parameters;
+			while (codingStart < codingEnd && acceptEncoding.charAt(codingStart) == ' ') {
+				codingStart++;
+			}
+			while (codingEnd > codingStart && acceptEncoding.charAt(codingEnd - 1) == ' ') {
+				codingEnd--;
+			}
+
+			final int codingLength = codingEnd - codingStart;
+			if (codingLength == GZIP.length() && acceptEncoding.regionMatches(true, codingStart, GZIP, 0, codingLength)) {
+				return !isZeroQuality(acceptEncoding, parameters, end);
+			}
+			if (codingLength == 1 && acceptEncoding.charAt(codingStart) == '*') {
+				wildcard = !isZeroQuality(acceptEncoding, parameters, end);
+			}
+			start = end + 1;
+		}
+		return wildcard;
+	}
+
+	/**
+	 * Whether the parameters between {@code start} and {@code end} are {@code q=0}, {@code q=0.0} etc.
+	 */
+	private static boolean isZeroQuality(String value, int start, int end) {
+		final int q = value.indexOf("q=", start);
+		if (q < 0 || q >= end) {
+			return false;
+		}
+		for (int i = q + 2; i < end; i++) {
+			final char c = value.charAt(i);
+			if (c != '0' && c != '.' && c != ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			outputStream = new GzipOutputStream(super.getOutputStream());
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		setContentLengthLong(length);
+	}
+
+	@Override
+	public void setContentLengthLong(long length) {
+		if (length < MIN_SIZE && !isCompressing()) {
+			identity = true;
+		}
+		if (identity) {
+			super.setContentLengthLong(length);
+		}
+		// otherwise the length of the compressed body is not known in advance
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if (!isContentLength(name, value)) {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if (!isContentLength(name, value)) {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		if (!isContentLength(name, Integer.toString(value))) {
+			super.setIntHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		if (!isContentLength(name, Integer.toString(value))) {
+			super.addIntHeader(name, value);
+		}
+	}
+
+	/**
+	 * @return true if the header is {@code Content-Length} and is handled via {@link #setContentLengthLong(long)}
+	 */
+	private boolean isContentLength(String name, String value) {
+		if (!"Content-Length".equalsIgnoreCase(name)) {
+			return false;
+		}
+		try {
+			setContentLengthLong(Long.parseLong(value.trim()));
+		}
+		catch (NumberFormatException e) {
+			identity = true;
+			return false;
+		}
+		return true;
+	}
+
+	private boolean isCompressing() {
+		return outputStream != null && outputStream.compressor != null;
+	}
+
+	/**
+	 * Writes the rest of the compressed body and returns the compressor to the pool. Only the latter if the handler failed. Anything written
+	 * afterwards is written as is unless compression has started.
+	 */
+	private void finish(boolean completed) throws IOException {
+		try {
+			if (completed && outputStream != null) {
+				if (writer != null) {
+					writer.flush();
+				}
+				outputStream.finish();
+			}
+		}
+		finally {
+			identity = true;
+			if (outputStream != null) {
+				outputStream.release();
+			}
+		}
+	}
+
+	/**
+	 * Deflates to the wrapped response's stream in gzip format.
+	 */
+	private final class GzipOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream target;
+
+		/**
+		 * Taken from the pool when the first byte is compressed, null before that and after releasing it
+		 */
+		@Nullable
+		private Compressor compressor;
+
+		private final byte[] single = new byte[1];
+
+		/**
+		 * Whether the compressed body is completed
+		 */
+		private boolean finished;
+
+		GzipOutputStream(ServletOutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return;
+			}
+			if (finished) {
+				throw new IllegalStateException("Compressed body is completed when the request handler returns, it cannot be written afterwards");
+			}
+			if (compressor == null && !start()) {
+				target.write(bytes, offset, length);
+				return;
+			}
+
+			compressor.crc.update(bytes, offset, length);
+			compressor.deflater.setInput(bytes, offset, length);
+			while (!compressor.deflater.needsInput()) {
+				deflate(Deflater.NO_FLUSH);
+			}
+		}
+
+		/**
+		 * @return true if the body is going to be compressed
+		 */
+		private boolean start() throws IOException {
+			if (identity || isCommitted() || getHeader("Content-Encoding") != null) {
+				identity = true;
+				return false;
+			}
+			CompressingResponse.super.setHeader("Content-Encoding", GZIP);
+			compressor = acquire();
+			target.write(HEADER);
+			return true;
+		}
+
+		private void deflate(int flush) throws IOException {
+			final int count = compressor.deflater.deflate(compressor.buffer, 0, compressor.buffer.length, flush);
+			if (count > 0) {
+				target.write(compressor.buffer, 0, count);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (compressor != null) {
+				int count;
+				do {
+					count = compressor.deflater.deflate(compressor.buffer, 0, compressor.buffer.length, Deflater.SYNC_FLUSH);
+					target.write(compressor.buffer, 0, count);
+				}
+				while (count == compressor.buffer.length);
+			}
+			target.flush();
+		}
+
+		void finish() throws IOException {
+			if (compressor == null) {
+				return;
+			}
+			compressor.deflater.finish();
+			while (!compressor.deflater.finished()) {
+				deflate(Deflater.NO_FLUSH);
+			}
+			writeIntLittleEndian((int) compressor.crc.getValue());
+			// length of the uncompressed body modulo 2^32
+			writeIntLittleEndian((int) compressor.deflater.getBytesRead());
+		}
+
+		private void writeIntLittleEndian(int value) throws IOException {
+			target.write(value);
+			target.write(value >>> 8);
+			target.write(value >>> 16);
+			target.write(value >>> 24);
+		}
+
+		void release() {
+			if (compressor != null) {
+				CompressingResponse.release(compressor);
+				compressor = null;
+				finished = true;
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return target.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			target.setWriteListener(writeListener);
+		}
+	}
+
+	private static Compressor acquire() {
+		final Compressor compressor = pool.poll();
+		if (compressor == null) {
+			return new Compressor();
+		}
+		pooled.decrementAndGet();
+		return compressor;
+	}
+
+	private static void release(Compressor compressor) {
+		if (pooled.incrementAndGet() > POOL_CAPACITY) {
+			pooled.decrementAndGet();
+			compressor.deflater.end();
+			return;
+		}
+		compressor.deflater.reset();
+		compressor.crc.reset();
+		pool.add(compressor);
+	}
+
+	private static final class Compressor {
+
+		/**
+		 * Raw deflate, the gzip header and trailer are written separately
+		 */
+		private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		private final CRC32 crc = new CRC32();
+
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+	}
+}
@@ -0,0 +1,268 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>Evaluates {@code If-None-Match} and {@code If-Modified-Since} of GET and HEAD requests against validators of a url pattern, as in
+ * <a href="https://tools.ietf.org/html/rfc7232">RFC 7232</a>.</p>
+ *
+ * <p>Validators of url patterns are computed before the request handler runs, which may still find out that the resource doesn't exist. Hence
+ * they are sent with successful and redirect responses but not with errors, see {@link #evaluate}. File validators are read from the file
+ * itself and always sent.</p>
+ *
+ * @see ServletUrlPattern#eTag(Function)
+ * @see ServletUrlPattern#lastModified(ToLongFunction)
+ */
+final class ConditionalRequests {
+
+	private ConditionalRequests() {
+	}
+
+	/**
+	 * Sets {@code ETag} and {@code Last-Modified} headers and sends 304 if the client already has the current representation.
+	 *
+	 * <p>A response sent with a content coding is a different representation than the identity one, so its entity tag gets the coding as a
+	 * suffix, e.g. {@code "v13-gzip"}. Otherwise a client or cache could combine ranges of both or validate one with the other.</p>
+	 *
+	 * @param contentCoding the {@code Content-Encoding} the response is sent with, null if none
+	 * @return true if 304 is sent and the request handler must not be called
+	 */
+	static boolean isNotModified(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl,
+								 @Nullable Function<ServletUrl, String> eTagSupplier, @Nullable ToLongFunction<ServletUrl> lastModifiedSupplier,
+								 @Nullable String contentCoding) {
+
+		if (!isConditional(request)) {
+			return false;
+		}
+
+		final String eTag = eTagOf(servletUrl, eTagSupplier, contentCoding);
+		final long lastModified = lastModifiedSupplier == null ? -1 : lastModifiedSupplier.applyAsLong(servletUrl);
+		setValidators(response, eTag, lastModified);
+
+		final boolean notModified = isNotModified(request, eTag, lastModified);
+		if (notModified) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return notModified;
+	}
+
+	/**
+	 * Same as {@link #isNotModified(HttpServletRequest, HttpServletResponse, ServletUrl, Function, ToLongFunction, String)} except that
+	 * unless 304 is sent, validators are set only if the request handler doesn't send an error: a request handler may find out that the
+	 * resource the validators describe doesn't exist, and caches must not store or revalidate a 404 under them.
+	 *
+	 * @return null if 304 is sent and the request handler must not be called, otherwise the response to pass to the request handler, see
+	 * {@link #complete(HttpServletResponse)}
+	 */
+	@Nullable
+	static HttpServletResponse evaluate(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl,
+										@Nullable Function<ServletUrl, String> eTagSupplier, @Nullable ToLongFunction<ServletUrl> lastModifiedSupplier,
+										@Nullable String contentCoding) {
+
+		if (!isConditional(request)) {
+			return response;
+		}
+
+		final String eTag = eTagOf(servletUrl, eTagSupplier, contentCoding);
+		final long lastModified = lastModifiedSupplier == null ? -1 : lastModifiedSupplier.applyAsLong(servletUrl);
+		if (isNotModified(request, eTag, lastModified)) {
+			setValidators(response, eTag, lastModified);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		return eTag == null && lastModified < 0 ? response : new ValidatedResponse(response, eTag, lastModified);
+	}
+
+	/**
+	 * Sets the validators of a response returned by {@link #evaluate} if the request handler has neither written the body nor sent an error.
+	 * Called after the request handler returns.
+	 */
+	static void complete(HttpServletResponse response) {
+		if (response instanceof ValidatedResponse) {
+			((ValidatedResponse) response).setValidators();
+		}
+	}
+
+	private static boolean isConditional(HttpServletRequest request) {
+		final String method = request.getMethod();
+		return "GET".equals(method) || "HEAD".equals(method);
+	}
+
+	@Nullable
+	private static String eTagOf(ServletUrl servletUrl, @Nullable Function<ServletUrl, String> eTagSupplier, @Nullable String contentCoding) {
+		return eTagSupplier == null ? null : withContentCoding(quote(eTagSupplier.apply(servletUrl)), contentCoding);
+	}
+
+	private static void setValidators(HttpServletResponse response, @Nullable String eTag, long lastModified) {
+		if (eTag != null) {
+			response.setHeader("ETag", eTag);
+		}
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	private static boolean isNotModified(HttpServletRequest request, @Nullable String eTag, long lastModified) {
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			// If-Modified-Since is ignored when If-None-Match is present
+			return eTag != null && matchesAny(ifNoneMatch, eTag);
+		}
+		return lastModified >= 0 && isNotModifiedSince(request, lastModified);
+	}
+
+	private static boolean isNotModifiedSince(HttpServletRequest request, long lastModified) {
+		final long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException e) {
+			return false; // invalid dates are ignored
+		}
+		// http dates have a precision of seconds
+		return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Weak comparison of the given entity tag with an {@code If-None-Match} list, without splitting the header.
+	 */
+	static boolean matchesAny(String ifNoneMatch, String eTag) {
+		final int eTagStart = opaqueTagStart(eTag, 0);
+		final int eTagLength = eTag.length() - eTagStart;
+
+		int start = 0;
+		while (start < ifNoneMatch.length()) {
+			while (start < ifNoneMatch.length() && (ifNoneMatch.charAt(start) == ' ' || ifNoneMatch.charAt(start) == ',')) {
+				start++;
+			}
+			final int end = CharSequences.indexOf(ifNoneMatch, ',', start, ifNoneMatch.length());
+			int tagEnd = end;
+			while (tagEnd > start && ifNoneMatch.charAt(tagEnd - 1) == ' ') {
+				tagEnd--;
+			}
+
+			if (tagEnd - start == 1 && ifNoneMatch.charAt(start) == '*') {
+				return true;
+			}
+			final int tagStart = opaqueTagStart(ifNoneMatch, start);
+			if (tagEnd - tagStart == eTagLength && ifNoneMatch.regionMatches(tagStart, eTag, eTagStart, eTagLength)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static int opaqueTagStart(String tags, int start) {
+		return tags.startsWith("W/", start) ? start + 2 : start;
+	}
+
+	/**
+	 * @return the quoted entity tag with the content coding appended inside the quotes, null if it is null
+	 */
+	@Nullable
+	private static String withContentCoding(@Nullable String eTag, @Nullable String contentCoding) {
+		if (eTag == null || contentCoding == null) {
+			return eTag;
+		}
+		return eTag.substring(0, eTag.length() - 1) + '-' + contentCoding + '"';
+	}
+
+	/**
+	 * @return the entity tag in double quotes unless it is already quoted, null if it is null
+	 */
+	@Nullable
+	private static String quote(@Nullable String eTag) {
+		if (eTag == null || eTag.endsWith("\"") && (eTag.startsWith("\"") || eTag.startsWith("W/\""))) {
+			return eTag;
+		}
+		return '"' + eTag + '"';
+	}
+
+	/**
+	 * <p>Sets the validators right before the body is written or the response is committed, or when the request handler returns, unless an error
+	 * status is set or sent by then.</p>
+	 *
+	 * <p>This class is NOT thread-safe, like the response it wraps.</p>
+	 */
+	private static final class ValidatedResponse extends HttpServletResponseWrapper {
+
+		@Nullable
+		private final String eTag;
+
+		private final long lastModified;
+
+		/**
+		 * Whether the validators are neither set nor discarded yet
+		 */
+		private boolean pending = true;
+
+		private ValidatedResponse(HttpServletResponse response, @Nullable String eTag, long lastModified) {
+			super(response);
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		void setValidators() {
+			if (pending) {
+				pending = false;
+				if (getStatus() < HttpServletResponse.SC_BAD_REQUEST && !isCommitted()) {
+					ConditionalRequests.setValidators((HttpServletResponse) getResponse(), eTag, lastModified);
+				}
+			}
+		}
+
+		@Override
+		public void setStatus(int status) {
+			if (status >= HttpServletResponse.SC_BAD_REQUEST) {
+				pending = false;
+			}
+			super.setStatus(status);
+		}
+
+		@Override
+		public void sendError(int status, String message) throws IOException {
+			pending = false;
+			super.sendError(status, message);
+		}
+
+		@Override
+		public void sendError(int status) throws IOException {
+			pending = false;
+			super.sendError(status);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			setValidators();
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			setValidators();
+			return super.getWriter();
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			setValidators();
+			super.flushBuffer();
+		}
+	}
+}
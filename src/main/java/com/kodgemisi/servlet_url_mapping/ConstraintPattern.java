@@ -0,0 +1,645 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Regular expression of an inline path variable constraint like {@code "{slug:[a-z0-9-]+}"}.</p>
+ *
+ * <p>Urls are attacker controlled so constraints are not evaluated by {@link java.util.regex.Pattern}, which backtracks and may take exponential
+ * time on patterns like {@code (a+)+}. Instead constraints are compiled into a non-deterministic automaton which is simulated in
+ * {@code O(input length * pattern size)} time regardless of the pattern. On top of that input length and pattern size are capped.</p>
+ *
+ * <p>Supported syntax is a subset of {@link java.util.regex.Pattern}'s: literals, escaped characters, {@code .}, character classes with ranges and
+ * negation, {@code \d \D \w \W \s \S}, groups ({@code (...)} and {@code (?:...)}), alternation and the {@code * + ? {n} {n,} {n,m}} quantifiers
+ * (also their lazy forms which are equivalent here). A constraint always has to match the whole path variable so {@code ^} and {@code $} are
+ * allowed only at the beginning and at the end. Backreferences, lookarounds, possessive quantifiers, flags and other constructs are rejected.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+final class ConstraintPattern {
+
+	/**
+	 * Path variables longer than this never match a constraint.
+	 */
+	static final int MAX_INPUT_LENGTH = 256;
+
+	/**
+	 * Maximum number of automaton states, mostly consumed by counted repetitions like {@code {2,100}}.
+	 */
+	static final int MAX_PROGRAM_SIZE = 1024;
+
+	private static final int MAX_REPETITION = 256;
+
+	private static final byte CHAR = 0;
+
+	private static final byte SPLIT = 1;
+
+	private static final byte JUMP = 2;
+
+	private static final byte MATCH = 3;
+
+	/**
+	 * Per thread arrays the automaton is simulated in, shared by all constraints and grown to the largest program simulated. Simulating doesn't
+	 * call any other code, so a thread simulates one constraint at a time.
+	 */
+	private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+	private final String regex;
+
+	private final byte[] opcodes;
+
+	/**
+	 * Jump target for {@link #JUMP} and first target for {@link #SPLIT}
+	 */
+	private final int[] x;
+
+	/**
+	 * Second target for {@link #SPLIT}
+	 */
+	private final int[] y;
+
+	private final CharClass[] charClasses;
+
+	private ConstraintPattern(String regex, Program program) {
+		this.regex = regex;
+		this.opcodes = new byte[program.size];
+		this.x = new int[program.size];
+		this.y = new int[program.size];
+		this.charClasses = new CharClass[program.size];
+		for (int i = 0; i < program.size; i++) {
+			opcodes[i] = program.opcodes.get(i);
+			x[i] = program.x.get(i);
+			y[i] = program.y.get(i);
+			charClasses[i] = program.charClasses.get(i);
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the regex has a syntax error, uses an unsupported construct or is too big
+	 */
+	static ConstraintPattern compile(String regex) throws IllegalArgumentException {
+		final Parser parser = new Parser(regex);
+		final Node node = parser.parse();
+		final Program program = new Program(regex);
+		node.emit(program);
+		program.add(MATCH, 0, 0, null);
+		return new ConstraintPattern(regex, program);
+	}
+
+	/**
+	 * @return true if the whole {@code sequence[start, end)} matches
+	 */
+	boolean matches(CharSequence sequence, int start, int end) {
+		return end - start <= MAX_INPUT_LENGTH && simulate(sequence, start, end, null);
+	}
+
+	/**
+	 * Finds all {@code e} in {@code [start, end]} such that {@code sequence[start, e)} matches, in a single pass. Ends further than
+	 * {@link #MAX_INPUT_LENGTH} from {@code start} never match and are not written.
+	 *
+	 * @param ends {@code ends[e - start]} is set to true if {@code sequence[start, e)} matches, false otherwise. Must have at least
+	 *             {@code MAX_INPUT_LENGTH + 1} elements.
+	 */
+	void matchingEnds(CharSequence sequence, int start, int end, boolean[] ends) {
+		final int limit = Math.min(end, start + MAX_INPUT_LENGTH);
+		Arrays.fill(ends, 0, limit - start + 1, false);
+		simulate(sequence, start, limit, ends);
+	}
+
+	private boolean simulate(CharSequence sequence, int start, int end, @Nullable boolean[] ends) {
+		final Workspace workspace = WORKSPACE.get().ofSize(opcodes.length);
+		int[] current = workspace.current;
+		int[] next = workspace.next;
+		final int[] marks = workspace.marks;
+		final int[] stack = workspace.stack;
+
+		int count = addState(current, 0, 0, marks, workspace.nextGeneration(), stack);
+
+		for (int i = start; ; i++) {
+			if (ends != null && containsMatch(current, count)) {
+				ends[i - start] = true;
+			}
+			if (i == end || count == 0) {
+				return i == end && containsMatch(current, count);
+			}
+
+			final char c = sequence.charAt(i);
+			final int generation = workspace.nextGeneration();
+			int nextCount = 0;
+			for (int k = 0; k < count; k++) {
+				final int pc = current[k];
+				if (opcodes[pc] == CHAR && charClasses[pc].matches(c)) {
+					nextCount = addState(next, nextCount, pc + 1, marks, generation, stack);
+				}
+			}
+
+			final int[] swap = current;
+			current = next;
+			next = swap;
+			count = nextCount;
+		}
+	}
+
+	private boolean containsMatch(int[] states, int count) {
+		for (int k = 0; k < count; k++) {
+			if (opcodes[states[k]] == MATCH) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds {@code pc} and every state reachable from it without consuming a character to {@code states}. Each state is added at most once per
+	 * generation, which also takes care of loops matching the empty string like {@code (a*)*}.
+	 */
+	private int addState(int[] states, int count, int pc, int[] marks, int generation, int[] stack) {
+		int top = 0;
+		stack[top++] = pc;
+		while (top > 0) {
+			final int state = stack[--top];
+			if (marks[state] == generation) {
+				continue;
+			}
+			marks[state] = generation;
+
+			switch (opcodes[state]) {
+			case JUMP:
+				stack[top++] = x[state];
+				break;
+			case SPLIT:
+				stack[top++] = y[state];
+				stack[top++] = x[state];
+				break;
+			default:
+				states[count++] = state;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return regex;
+	}
+
+	/**
+	 * Arrays of {@link #simulate}, allocated once per thread instead of once per call.
+	 */
+	private static final class Workspace {
+
+		private int[] current = new int[0];
+
+		private int[] next = new int[0];
+
+		/**
+		 * Generation each state was last added in, see {@link #addState}. Generations only grow so that marks never need clearing, except when
+		 * they wrap around.
+		 */
+		private int[] marks = new int[0];
+
+		private int[] stack = new int[1];
+
+		private int generation;
+
+		Workspace ofSize(int size) {
+			if (current.length < size) {
+				current = new int[size];
+				next = new int[size];
+				marks = new int[size];
+				stack = new int[2 * size + 1];
+			}
+			return this;
+		}
+
+		int nextGeneration() {
+			if (generation == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				generation = 0;
+			}
+			return ++generation;
+		}
+	}
+
+	/**
+	 * Set of characters as inclusive ranges.
+	 */
+	private static final class CharClass {
+
+		private static final CharClass ANY = new CharClass(new int[]{'\n', '\n', '\r', '\r'}, true);
+
+		private static final int[] DIGITS = {'0', '9'};
+
+		private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+
+		private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+
+		private final int[] ranges;
+
+		private final boolean negated;
+
+		CharClass(int[] ranges, boolean negated) {
+			this.ranges = ranges;
+			this.negated = negated;
+		}
+
+		static CharClass of(char c) {
+			return new CharClass(new int[]{c, c}, false);
+		}
+
+		boolean matches(char c) {
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (c >= ranges[i] && c <= ranges[i + 1]) {
+					return !negated;
+				}
+			}
+			return negated;
+		}
+	}
+
+	private static final class Program {
+
+		private final String regex;
+
+		private final List<Byte> opcodes = new ArrayList<>();
+
+		private final List<Integer> x = new ArrayList<>();
+
+		private final List<Integer> y = new ArrayList<>();
+
+		private final List<CharClass> charClasses = new ArrayList<>();
+
+		private int size;
+
+		Program(String regex) {
+			this.regex = regex;
+		}
+
+		int add(byte opcode, int x, int y, @Nullable CharClass charClass) {
+			if (size == MAX_PROGRAM_SIZE) {
+				throw new IllegalArgumentException("Constraint " + regex + " is too complex, try to reduce counted repetitions");
+			}
+			opcodes.add(opcode);
+			this.x.add(x);
+			this.y.add(y);
+			charClasses.add(charClass);
+			return size++;
+		}
+
+		void setX(int pc, int target) {
+			x.set(pc, target);
+		}
+
+		void setY(int pc, int target) {
+			y.set(pc, target);
+		}
+	}
+
+	private interface Node {
+
+		void emit(Program program);
+	}
+
+	private static final class CharNode implements Node {
+
+		private final CharClass charClass;
+
+		CharNode(CharClass charClass) {
+			this.charClass = charClass;
+		}
+
+		@Override
+		public void emit(Program program) {
+			program.add(CHAR, 0, 0, charClass);
+		}
+	}
+
+	private static final class ConcatenationNode implements Node {
+
+		private final List<Node> nodes;
+
+		ConcatenationNode(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public void emit(Program program) {
+			for (Node node : nodes) {
+				node.emit(program);
+			}
+		}
+	}
+
+	private static final class AlternationNode implements Node {
+
+		private final List<Node> alternatives;
+
+		AlternationNode(List<Node> alternatives) {
+			this.alternatives = alternatives;
+		}
+
+		@Override
+		public void emit(Program program) {
+			final List<Integer> jumps = new ArrayList<>();
+			for (int i = 0; i < alternatives.size() - 1; i++) {
+				final int split = program.add(SPLIT, program.size + 1, 0, null);
+				alternatives.get(i).emit(program);
+				jumps.add(program.add(JUMP, 0, 0, null));
+				program.setY(split, program.size);
+			}
+			alternatives.get(alternatives.size() - 1).emit(program);
+			for (int jump : jumps) {
+				program.setX(jump, program.size);
+			}
+		}
+	}
+
+	private static final class RepetitionNode implements Node {
+
+		private final Node node;
+
+		private final int min;
+
+		/**
+		 * -1 for unbounded
+		 */
+		private final int max;
+
+		RepetitionNode(Node node, int min, int max) {
+			this.node = node;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public void emit(Program program) {
+			for (int i = 0; i < min; i++) {
+				node.emit(program);
+			}
+
+			if (max == -1) {
+				final int split = program.add(SPLIT, program.size + 1, 0, null);
+				node.emit(program);
+				program.add(JUMP, split, 0, null);
+				program.setY(split, program.size);
+				return;
+			}
+
+			final List<Integer> splits = new ArrayList<>();
+			for (int i = min; i < max; i++) {
+				splits.add(program.add(SPLIT, program.size + 1, 0, null));
+				node.emit(program);
+			}
+			for (int split : splits) {
+				program.setY(split, program.size);
+			}
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the supported subset.
+	 */
+	private static final class Parser {
+
+		private final String regex;
+
+		private int position;
+
+		Parser(String regex) {
+			this.regex = regex;
+		}
+
+		Node parse() {
+			if (peek('^')) {
+				position++;
+			}
+			final Node node = parseAlternation();
+			if (peek('$') && position == regex.length() - 1) {
+				position++;
+			}
+			if (position != regex.length()) {
+				throw error("Unexpected '" + regex.charAt(position) + "'");
+			}
+			return node;
+		}
+
+		private Node parseAlternation() {
+			final List<Node> alternatives = new ArrayList<>();
+			alternatives.add(parseConcatenation());
+			while (peek('|')) {
+				position++;
+				alternatives.add(parseConcatenation());
+			}
+			return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+		}
+
+		private Node parseConcatenation() {
+			final List<Node> nodes = new ArrayList<>();
+			while (position < regex.length() && !peek('|') && !peek(')') && !(peek('$') && position == regex.length() - 1)) {
+				nodes.add(parseRepetition(parseAtom()));
+			}
+			return new ConcatenationNode(nodes);
+		}
+
+		private Node parseRepetition(Node atom) {
+			Node node = atom;
+			while (position < regex.length()) {
+				final char c = regex.charAt(position);
+				final int min;
+				final int max;
+				if (c == '*') {
+					position++;
+					min = 0;
+					max = -1;
+				}
+				else if (c == '+') {
+					position++;
+					min = 1;
+					max = -1;
+				}
+				else if (c == '?') {
+					position++;
+					min = 0;
+					max = 1;
+				}
+				else if (c == '{') {
+					position++;
+					min = parseNumber();
+					if (peek(',')) {
+						position++;
+						max = peek('}') ? -1 : parseNumber();
+					}
+					else {
+						max = min;
+					}
+					expect('}');
+					if (max != -1 && max < min) {
+						throw error("Illegal repetition range");
+					}
+				}
+				else {
+					return node;
+				}
+
+				if (peek('+')) {
+					throw error("Possessive quantifiers are not supported");
+				}
+				if (peek('?')) {
+					position++; // lazy quantifiers match the same inputs as greedy ones
+				}
+				node = new RepetitionNode(node, min, max);
+			}
+			return node;
+		}
+
+		private Node parseAtom() {
+			final char c = regex.charAt(position++);
+			switch (c) {
+			case '(':
+				if (peek('?')) {
+					if (position + 1 < regex.length() && regex.charAt(position + 1) == ':') {
+						position += 2;
+					}
+					else {
+						throw error("Lookarounds, named groups and flags are not supported");
+					}
+				}
+				final Node group = parseAlternation();
+				expect(')');
+				return group;
+			case '[':
+				return new CharNode(parseCharClass());
+			case '.':
+				return new CharNode(CharClass.ANY);
+			case '\\':
+				return new CharNode(parseEscape(false));
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw error("Dangling quantifier '" + c + "'");
+			case '^':
+			case '$':
+				throw error("'" + c + "' is only allowed at the beginning or at the end");
+			default:
+				return new CharNode(CharClass.of(c));
+			}
+		}
+
+		private CharClass parseCharClass() {
+			final boolean negated = peek('^');
+			if (negated) {
+				position++;
+			}
+
+			final List<Integer> ranges = new ArrayList<>();
+			boolean first = true;
+			while (!peek(']') || first) {
+				if (position >= regex.length()) {
+					throw error("Unclosed character class");
+				}
+				first = false;
+
+				final CharClass from = regex.charAt(position) == '\\' ? parseEscapeAt() : CharClass.of(regex.charAt(position++));
+				if (from.ranges.length == 2 && from.ranges[0] == from.ranges[1] && !from.negated && peek('-') && position + 1 < regex.length() &&
+					regex.charAt(position + 1) != ']') {
+					position++;
+					final CharClass to = regex.charAt(position) == '\\' ? parseEscapeAt() : CharClass.of(regex.charAt(position++));
+					if (to.ranges.length != 2 || to.ranges[0] != to.ranges[1] || to.ranges[0] < from.ranges[0]) {
+						throw error("Illegal character range");
+					}
+					ranges.add(from.ranges[0]);
+					ranges.add(to.ranges[0]);
+				}
+				else {
+					for (int bound : from.ranges) {
+						ranges.add(bound);
+					}
+				}
+			}
+			position++; // ]
+			return new CharClass(ranges.stream().mapToInt(Integer::intValue).toArray(), negated);
+		}
+
+		private CharClass parseEscapeAt() {
+			position++; // backslash
+			return parseEscape(true);
+		}
+
+		private CharClass parseEscape(boolean inCharClass) {
+			if (position >= regex.length()) {
+				throw error("Dangling backslash");
+			}
+			final char c = regex.charAt(position++);
+			switch (c) {
+			case 'd':
+				return new CharClass(CharClass.DIGITS, false);
+			case 'w':
+				return new CharClass(CharClass.WORD, false);
+			case 's':
+				return new CharClass(CharClass.SPACE, false);
+			case 'D':
+			case 'W':
+			case 'S':
+				if (inCharClass) {
+					throw error("\\" + c + " is not supported in character classes");
+				}
+				return new CharClass(c == 'D' ? CharClass.DIGITS : c == 'W' ? CharClass.WORD : CharClass.SPACE, true);
+			case 't':
+				return CharClass.of('\t');
+			case 'n':
+				return CharClass.of('\n');
+			case 'r':
+				return CharClass.of('\r');
+			case 'f':
+				return CharClass.of('\f');
+			default:
+				if (Character.isLetterOrDigit(c)) {
+					throw error("\\" + c + " is not supported");
+				}
+				return CharClass.of(c);
+			}
+		}
+
+		private int parseNumber() {
+			final int start = position;
+			while (position < regex.length() && CharSequences.isDigit(regex.charAt(position))) {
+				position++;
+			}
+			if (start == position || position - start > 3) {
+				throw error("Illegal repetition");
+			}
+			final int number = Integer.parseInt(regex.substring(start, position));
+			if (number > MAX_REPETITION) {
+				throw error("Repetition count cannot be greater than " + MAX_REPETITION);
+			}
+			return number;
+		}
+
+		private boolean peek(char c) {
+			return position < regex.length() && regex.charAt(position) == c;
+		}
+
+		private void expect(char c) {
+			if (!peek(c)) {
+				throw error("'" + c + "' expected");
+			}
+			position++;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at index " + position + " of constraint " + regex);
+		}
+	}
+
+}
@@ -5,9 +5,10 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Handles any exception during doXXX methods of {@link MappingServlet}. {@link MappingServlet} uses
- * {@link LoggingExceptionHandler} as default implementation.
+ * {@link LoggingExceptionHandler} as default implementation, {@link MappingExceptionHandler} maps exceptions to responses instead.
  *
  * @see LoggingExceptionHandler
+ * @see MappingExceptionHandler
  */
 @FunctionalInterface
 public interface ExceptionHandler {
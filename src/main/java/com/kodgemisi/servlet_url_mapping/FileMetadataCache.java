@@ -0,0 +1,203 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * <p>Resolves paths relative to a root directory to the regular files under it and caches what is needed to serve them, so that serving a
+ * file doesn't touch the file system before opening it. Paths resolving to nothing servable are cached as well, so that requests for missing
+ * files are cheap too.</p>
+ *
+ * <p>A path is servable when it's relative, normalizes to a location under the root, its real path (symbolic links followed) is under the
+ * real path of the root too and it's a regular file. Paths containing {@code '\'} or NUL are never servable.</p>
+ *
+ * <p>Entries expire after a time to live so that changes to files are noticed. At most {@link #capacity} paths are cached, oldest entries
+ * are evicted first.</p>
+ *
+ * <p>This class IS thread-safe. Lookups don't lock.</p>
+ *
+ * @see FileRequestHandler
+ */
+final class FileMetadataCache {
+
+	private final Path root;
+
+	private final Path realRoot;
+
+	private final long timeToLiveNanos;
+
+	private final int capacity;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Paths in insertion order for eviction. May contain paths already removed from {@link #entries} or inserted again since.
+	 */
+	private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @throws IllegalArgumentException if the root is not a directory
+	 */
+	FileMetadataCache(Path root, long timeToLiveNanos, int capacity) {
+		if (!Files.isDirectory(root)) {
+			throw new IllegalArgumentException("Root of served files is not a directory: " + root);
+		}
+		this.root = root.toAbsolutePath().normalize();
+		try {
+			this.realRoot = root.toRealPath();
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Root of served files cannot be resolved: " + root, e);
+		}
+		this.timeToLiveNanos = timeToLiveNanos;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param relativePath e.g. {@code "docs/2020/report.pdf"}, a leading {@code '/'} is ignored
+	 * @param contentTypes content type of a file name, may return null
+	 * @return null if the path is not servable, see the class documentation
+	 */
+	@Nullable
+	FileMetadata get(String relativePath, Function<String, String> contentTypes) {
+		final long now = System.nanoTime();
+		final Entry entry = entries.get(relativePath);
+		if (entry != null && now - entry.expiresAtNanos < 0) {
+			return entry.metadata;
+		}
+
+		final FileMetadata metadata = load(relativePath, contentTypes);
+		if (capacity > 0) {
+			if (entries.put(relativePath, new Entry(metadata, now + timeToLiveNanos)) == null) {
+				insertionOrder.add(relativePath);
+			}
+			evict();
+		}
+		return metadata;
+	}
+
+	private void evict() {
+		while (entries.size() > capacity) {
+			final String oldest = insertionOrder.poll();
+			if (oldest == null) {
+				return;
+			}
+			entries.remove(oldest);
+		}
+	}
+
+	@Nullable
+	private FileMetadata load(String relativePath, Function<String, String> contentTypes) {
+		if (relativePath.indexOf('\\') >= 0 || relativePath.indexOf('\0') >= 0) {
+			return null;
+		}
+		final String relative = relativePath.startsWith("/") ? relativePath.substring(1) : relativePath;
+		if (relative.isEmpty()) {
+			return null;
+		}
+
+		try {
+			final Path resolved = root.resolve(relative).normalize();
+			if (!resolved.startsWith(root) || resolved.equals(root)) {
+				return null;
+			}
+			final Path realPath = resolved.toRealPath();
+			if (!realPath.startsWith(realRoot)) {
+				return null;
+			}
+			final BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+			if (!attributes.isRegularFile()) {
+				return null;
+			}
+
+			final String fileName = realPath.getFileName().toString();
+			final String contentType = contentTypes.apply(fileName);
+			final long lastModified = attributes.lastModifiedTime().toMillis();
+			return new FileMetadata(realPath, attributes.size(), lastModified, contentType == null ? "application/octet-stream" : contentType);
+		}
+		catch (InvalidPathException | IOException e) {
+			// missing or unreadable files are not servable
+			return null;
+		}
+	}
+
+	private static final class Entry {
+
+		/**
+		 * Null if the path is not servable
+		 */
+		@Nullable
+		private final FileMetadata metadata;
+
+		private final long expiresAtNanos;
+
+		private Entry(@Nullable FileMetadata metadata, long expiresAtNanos) {
+			this.metadata = metadata;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+
+	/**
+	 * What is needed to serve a file without touching the file system before opening it.
+	 */
+	static final class FileMetadata {
+
+		private final Path path;
+
+		private final long size;
+
+		private final long lastModified;
+
+		private final String eTag;
+
+		private final String contentType;
+
+		FileMetadata(Path path, long size, long lastModified, String contentType) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			// strong, changes whenever the size or the modification time does
+			this.eTag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+		}
+
+		/**
+		 * @return real path of the file
+		 */
+		Path getPath() {
+			return path;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+
+		String getETag() {
+			return eTag;
+		}
+
+		String getContentType() {
+			return contentType;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import com.kodgemisi.servlet_url_mapping.FileMetadataCache.FileMetadata;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * <p>Serves the files under a root directory, e.g. {@code get("/files/{path:**}", new FileRequestHandler(Paths.get("/var/downloads")))} or
+ * {@link ServletUrlPatternRegistrar#files(String, Path)}. The last path variable of the url pattern is the path of the file relative to the
+ * root. Paths leading outside of the root, including via symbolic links, and anything but regular files are 404.</p>
+ *
+ * <p>Responses have {@code Content-Type} from {@link ServletContext#getMimeType(String)}, {@code Content-Length}, a strong {@code ETag} made of
+ * the size and the modification time of the file and {@code Last-Modified}, so conditional requests are answered with 304. A single
+ * {@code Range} is served as 206 (respecting {@code If-Range}), an unsatisfiable one as 416 and multiple ranges as the whole file.</p>
+ *
+ * <p>Files are streamed without copying them to the heap as a whole or blocking a container thread while the client is slow:
+ * <ul>
+ * <li>On Tomcat with sendfile enabled, the container writes the file to the socket itself, without copying it to user space at all.</li>
+ * <li>Otherwise, if the request supports async processing, the file is read from a {@link FileChannel} into a single small buffer whenever
+ * the output stream is ready via Servlet 3.1 non-blocking I/O, see {@link FileTransfer}.</li>
+ * <li>Otherwise the same buffer is used with blocking writes.</li>
+ * </ul>
+ * Hence file routes cannot be {@link ServletUrlPattern#cache(Duration) cached} or {@link ServletUrlPattern#compress() compressed}.</p>
+ *
+ * <p>File metadata is cached for {@link #DEFAULT_METADATA_TIME_TO_LIVE} by default, so changes to files are noticed after that long.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ */
+public class FileRequestHandler implements ServletRequestHandler {
+
+	public static final Duration DEFAULT_METADATA_TIME_TO_LIVE = Duration.ofSeconds(1);
+
+	public static final int DEFAULT_METADATA_CAPACITY = 10_000;
+
+	static final int BUFFER_SIZE = 32 * 1024;
+
+	static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+	static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+	static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+	static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * Returned by {@link #range(String, long)} for ranges which cannot be satisfied
+	 */
+	static final long[] UNSATISFIABLE = new long[0];
+
+	private final FileMetadataCache metadataCache;
+
+	/**
+	 * @throws IllegalArgumentException if {@code root} is not a directory
+	 */
+	public FileRequestHandler(Path root) {
+		this(root, DEFAULT_METADATA_TIME_TO_LIVE, DEFAULT_METADATA_CAPACITY);
+	}
+
+	/**
+	 * @param metadataTimeToLive how long metadata of a file is used before looking at the file again, zero disables caching
+	 * @param metadataCapacity   number of paths whose metadata is cached at most, zero disables caching
+	 * @throws IllegalArgumentException if {@code root} is not a directory, or {@code metadataTimeToLive} or {@code metadataCapacity} is negative
+	 */
+	public FileRequestHandler(Path root, Duration metadataTimeToLive, int metadataCapacity) {
+		if (metadataTimeToLive.isNegative()) {
+			throw new IllegalArgumentException("Time to live cannot be negative: " + metadataTimeToLive);
+		}
+		if (metadataCapacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative: " + metadataCapacity);
+		}
+		final int capacity = metadataTimeToLive.isZero() ? 0 : metadataCapacity;
+		this.metadataCache = new FileMetadataCache(root, metadataTimeToLive.toNanos(), capacity);
+	}
+
+	/**
+	 * @throws IllegalStateException if the url pattern has no path variable
+	 */
+	@Override
+	public void handleRequest(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final Object[] values = servletUrl.variableValues();
+		if (values.length == 0) {
+			throw new IllegalStateException("Url pattern " + servletUrl.getUrlPattern() + " of a file request handler has no path variable");
+		}
+		final Object relativePath = values[values.length - 1];
+
+		final ServletContext servletContext = request.getServletContext();
+		final FileMetadata file = relativePath == null ? null : metadataCache.get(relativePath.toString(),
+																				  name -> servletContext == null ? null : servletContext.getMimeType(name));
+		if (file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		if (ConditionalRequests.isNotModified(request, response, servletUrl, url -> file.getETag(), url -> file.getLastModified(), null)) {
+			return;
+		}
+
+		final long size = file.getSize();
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setContentType(file.getContentType());
+
+		long[] range = range(request.getHeader("Range"), size);
+		if (range != null && !isRangeApplicable(request, file)) {
+			range = null;
+		}
+		if (range == UNSATISFIABLE) {
+			response.setHeader("Content-Range", "bytes */" + size);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		final long start = range == null ? 0 : range[0];
+		final long length = range == null ? size : range[1] - range[0] + 1;
+		if (range != null) {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + '-' + range[1] + '/' + size);
+		}
+		response.setContentLengthLong(length);
+
+		if ("HEAD".equals(request.getMethod()) || length == 0) {
+			return;
+		}
+
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, file.getPath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, start + length);
+		}
+		else if (request.isAsyncSupported()) {
+			FileTransfer.start(request, response, file.getPath(), start, length);
+		}
+		else {
+			copy(file.getPath(), start, length, response.getOutputStream());
+		}
+	}
+
+	/**
+	 * Whether {@code If-Range}, if any, allows serving a range, i.e. it is the strong entity tag or the modification time of the file.
+	 */
+	private static boolean isRangeApplicable(HttpServletRequest request, FileMetadata file) {
+		final String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// weak entity tags never match
+			return ifRange.equals(file.getETag());
+		}
+		try {
+			final long date = request.getDateHeader("If-Range");
+			// http dates have a precision of seconds
+			return date >= 0 && date / 1000 == file.getLastModified() / 1000;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param header value of a {@code Range} header, e.g. {@code "bytes=0-499"}, {@code "bytes=500-"} or {@code "bytes=-500"}
+	 * @return first and last byte positions (inclusive), {@link #UNSATISFIABLE} if none of the file is in the range, null if the whole file
+	 * should be served because there is no header, it is invalid, not in bytes or has multiple ranges
+	 */
+	@Nullable
+	static long[] range(@Nullable String header, long size) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return null;
+		}
+		final String spec = header.substring("bytes=".length()).trim();
+		final int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		final long first = parse(spec, 0, dash);
+		final long last = parse(spec, dash + 1, spec.length());
+		if (dash == 0) {
+			// suffix range, the last bytes
+			if (last < 0) {
+				return null;
+			}
+			return last == 0 || size == 0 ? UNSATISFIABLE : new long[] {Math.max(0, size - last), size - 1};
+		}
+		if (first < 0 || dash + 1 < spec.length() && (last < 0 || last < first)) {
+			return null;
+		}
+		if (first >= size) {
+			return UNSATISFIABLE;
+		}
+		return new long[] {first, dash + 1 == spec.length() ? size - 1 : Math.min(last, size - 1)};
+	}
+
+	/**
+	 * @return the non-negative decimal number between {@code start} and {@code end}, -1 if there isn't one
+	 */
+	private static long parse(String value, int start, int end) {
+		if (start == end || end - start > 18) {
+			return -1;
+		}
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static void copy(Path path, long start, long length, ServletOutputStream output) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long end = start + length;
+			long position = start;
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				final int count = channel.read(buffer, position);
+				if (count < 0) {
+					throw new EOFException("File " + path + " is shorter than expected");
+				}
+				output.write(buffer.array(), 0, count);
+				position += count;
+			}
+		}
+	}
+}
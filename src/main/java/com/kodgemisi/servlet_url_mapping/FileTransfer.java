@@ -0,0 +1,131 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Writes a part of a file to the response via Servlet 3.1 non-blocking I/O, see {@link FileRequestHandler}. The file is read with
+ * positional reads from a {@link FileChannel} into a single buffer of at most {@link FileRequestHandler#BUFFER_SIZE} bytes, one buffer at a
+ * time while the output stream is ready, so no thread waits for a slow client and the heap holds one buffer per transfer.</p>
+ *
+ * <p>Memory mapping is not used: {@link ServletOutputStream} only writes byte arrays, so a mapped file would be copied into one anyway, and
+ * mappings cannot be released reliably before the garbage collector gets to them.</p>
+ *
+ * <p>This class is NOT thread-safe, the container calls {@link #onWritePossible()} by one thread at a time.</p>
+ */
+final class FileTransfer implements WriteListener {
+
+	private static final Logger log = LoggerFactory.getLogger(FileTransfer.class);
+
+	private final AtomicBoolean done = new AtomicBoolean();
+
+	private final Path path;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer;
+
+	private final long end;
+
+	private long position;
+
+	private AsyncContext asyncContext;
+
+	private ServletOutputStream output;
+
+	private FileTransfer(Path path, FileChannel channel, long start, long length) {
+		this.path = path;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate((int) Math.min(FileRequestHandler.BUFFER_SIZE, length));
+		this.position = start;
+		this.end = start + length;
+	}
+
+	/**
+	 * Starts async processing of the request and writes {@code length} bytes of the file from {@code start} as the output stream gets ready.
+	 */
+	static void start(HttpServletRequest request, HttpServletResponse response, Path path, long start, long length) throws IOException {
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		final FileTransfer transfer = new FileTransfer(path, channel, start, length);
+		try {
+			transfer.asyncContext = request.startAsync(request, response);
+			// a large download to a slow client may take long, the connector's write timeout still applies while the client doesn't read
+			transfer.asyncContext.setTimeout(0);
+			transfer.output = response.getOutputStream();
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		// the container calls onWritePossible once the output stream is ready
+		transfer.output.setWriteListener(transfer);
+	}
+
+	@Override
+	public void onWritePossible() {
+		if (done.get()) {
+			return;
+		}
+		try {
+			while (output.isReady()) {
+				if (position == end) {
+					finish();
+					return;
+				}
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				final int count = channel.read(buffer, position);
+				if (count < 0) {
+					throw new EOFException("File " + path + " is shorter than expected");
+				}
+				position += count;
+				output.write(buffer.array(), 0, count);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			onError(e);
+		}
+	}
+
+	@Override
+	public void onError(Throwable failure) {
+		if (log.isDebugEnabled()) {
+			log.debug("Writing " + path + " failed at byte " + position, failure);
+		}
+		finish();
+	}
+
+	private void finish() {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			log.debug("Closing " + path + " failed", e);
+		}
+		finally {
+			asyncContext.complete();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * <p>Response given to a GET handler which handles a HEAD request. The body is counted to set {@code Content-Length} and is discarded
+ * without being buffered, status and headers are passed through to the wrapped response.</p>
+ *
+ * <p>The writer encodes characters through a fixed size buffer to count bytes in the response's character encoding.</p>
+ *
+ * @see ServletUrlPatternRegistrar#handle(javax.servlet.http.HttpServletRequest, HttpServletResponse)
+ */
+final class HeadResponse extends HttpServletResponseWrapper {
+
+	private static final String CONTENT_LENGTH = "Content-Length";
+
+	private final CountingOutputStream outputStream = new CountingOutputStream();
+
+	private PrintWriter writer;
+
+	private boolean contentLengthSet;
+
+	HeadResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		super.setContentLength(length);
+		contentLengthSet = true;
+	}
+
+	@Override
+	public void setContentLengthLong(long length) {
+		super.setContentLengthLong(length);
+		contentLengthSet = true;
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		super.setHeader(name, value);
+		contentLengthSet |= CONTENT_LENGTH.equalsIgnoreCase(name);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		super.addHeader(name, value);
+		contentLengthSet |= CONTENT_LENGTH.equalsIgnoreCase(name);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		super.setIntHeader(name, value);
+		contentLengthSet |= CONTENT_LENGTH.equalsIgnoreCase(name);
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		super.addIntHeader(name, value);
+		contentLengthSet |= CONTENT_LENGTH.equalsIgnoreCase(name);
+	}
+
+	/**
+	 * Sets {@code Content-Length} to the number of bytes the handler has written, unless the handler has set it, the response is committed or
+	 * is a 304.
+	 */
+	void finish() {
+		if (writer != null) {
+			writer.flush();
+		}
+		if (!contentLengthSet && !isCommitted() && getStatus() != SC_NOT_MODIFIED) {
+			final long count = outputStream.count;
+			if (count <= Integer.MAX_VALUE) {
+				super.setContentLength((int) count);
+			}
+			else {
+				super.setHeader(CONTENT_LENGTH, Long.toString(count));
+			}
+		}
+	}
+
+	private static final class CountingOutputStream extends ServletOutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			count += length;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			try {
+				writeListener.onWritePossible();
+			}
+			catch (IOException e) {
+				writeListener.onError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * <p>Cross-cutting logic like authentication, auditing or tenant resolution run around the request handlers of url patterns, instead of a
+ * separate filter matching the url once more:</p>
+ *
+ * <blockquote><pre>
+ * this.urlMappingRegistrar
+ *         .intercept("/admin", this::authorize)
+ *         .get("/admin/users", this::users)
+ *         .delete("/admin/users/{id}", this::delete, Long.class).intercept(auditLog);
+ * </pre></blockquote>
+ *
+ * <p>Interceptors of a url pattern are flattened into an array when they are attached, so handling a request runs exactly the applicable
+ * interceptors without any further matching.</p>
+ *
+ * @see ServletUrlPatternRegistrar#intercept(String, Interceptor)
+ * @see ServletUrlPattern#intercept(Interceptor)
+ */
+@FunctionalInterface
+public interface Interceptor {
+
+	/**
+	 * Called before the request handler, after matching and rate limiting.
+	 *
+	 * @return false to stop handling the request, then this interceptor should have written the response
+	 */
+	boolean before(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException, ServletException;
+
+	/**
+	 * Called after the request is handled, even if it failed or a later interceptor stopped it, only when {@link #before} of this interceptor
+	 * returned true. Interceptors are called in reverse order.
+	 *
+	 * @param failure what the request handler or a later interceptor threw, null if nothing
+	 */
+	default void after(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, @Nullable Throwable failure) {
+	}
+}
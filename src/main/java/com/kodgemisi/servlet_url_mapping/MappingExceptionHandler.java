@@ -0,0 +1,222 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Maps exceptions to responses instead of logging and rethrowing them like {@link LoggingExceptionHandler}:</p>
+ *
+ * <blockquote><pre>
+ * super(new MappingExceptionHandler()
+ *         .map(NoSuchElementException.class, HttpServletResponse.SC_NOT_FOUND)
+ *         .map(ValidationException.class, (request, response, e) -&gt; response.sendError(400, e.getMessage())), true);
+ * </pre></blockquote>
+ *
+ * <p>The mapping of an exception is the one registered for its class or its nearest superclass, resolved once per exception class and cached.
+ * When an exception has no mapping, its causes are tried in order, e.g. for exceptions wrapped in a {@code ServletException}.
+ * {@link UnsupportedMethodException} is mapped to 501 by default.</p>
+ *
+ * <p>Exceptions without a mapping get 500 and are logged at ERROR. To keep an error storm from turning logging into the bottleneck, the stack
+ * trace of an exception class is logged at most once per log interval, later occurrences within the interval are only counted and reported
+ * with the next log of the same class. Mapped exceptions are logged at DEBUG.</p>
+ *
+ * <p>Registering mappings is NOT thread-safe, handling exceptions IS thread-safe.</p>
+ */
+public class MappingExceptionHandler implements ExceptionHandler {
+
+	/**
+	 * Writes the response of a mapped exception.
+	 */
+	@FunctionalInterface
+	public interface Responder<E extends Exception> {
+
+		void respond(HttpServletRequest request, HttpServletResponse response, E e) throws IOException;
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(MappingExceptionHandler.class);
+
+	private static final Duration DEFAULT_LOG_INTERVAL = Duration.ofMinutes(1);
+
+	/**
+	 * Maximum number of causes tried for a mapping.
+	 */
+	private static final int MAX_CAUSE_DEPTH = 8;
+
+	/**
+	 * Maximum number of exception classes whose logs are tracked, tracking starts over when exceeded.
+	 */
+	private static final int MAX_LOG_WINDOWS = 256;
+
+	/**
+	 * Cached result of exception classes without a mapping.
+	 */
+	private static final Responder<Exception> UNMAPPED = (request, response, e) -> {};
+
+	private static final Responder<Exception> INTERNAL_SERVER_ERROR = (request, response, e) -> response.sendError(
+			HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+	private final Map<Class<?>, Responder<Exception>> mappings = new ConcurrentHashMap<>();
+
+	/**
+	 * Mappings resolved through the class hierarchy, including {@link #UNMAPPED}.
+	 */
+	private final Map<Class<?>, Responder<Exception>> resolved = new ConcurrentHashMap<>();
+
+	private final Map<Class<?>, LogWindow> logWindows = new ConcurrentHashMap<>();
+
+	private final long logIntervalNanos;
+
+	public MappingExceptionHandler() {
+		this(DEFAULT_LOG_INTERVAL);
+	}
+
+	/**
+	 * @param logInterval the stack trace of an unmapped exception class is logged at most once per this interval
+	 * @throws IllegalArgumentException if {@code logInterval} is negative
+	 */
+	public MappingExceptionHandler(Duration logInterval) {
+		if (logInterval.isNegative()) {
+			throw new IllegalArgumentException("logInterval cannot be negative: " + logInterval);
+		}
+		this.logIntervalNanos = logInterval.toNanos();
+		map(UnsupportedMethodException.class, HttpServletResponse.SC_NOT_IMPLEMENTED);
+	}
+
+	/**
+	 * Responds to exceptions of the given type and its subtypes with {@code sendError(status)}.
+	 *
+	 * @return Returns this object to allow method chaining
+	 */
+	public MappingExceptionHandler map(Class<? extends Exception> type, int status) {
+		return map(type, (request, response, e) -> response.sendError(status));
+	}
+
+	/**
+	 * Responds to exceptions of the given type and its subtypes with the given responder.
+	 *
+	 * @return Returns this object to allow method chaining
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Exception> MappingExceptionHandler map(Class<E> type, Responder<? super E> responder) {
+		mappings.put(type, (Responder<Exception>) responder);
+		resolved.clear();
+		return this;
+	}
+
+	@Override
+	public void handleException(HttpServletRequest request, HttpServletResponse response, Exception e) {
+		Throwable throwable = e;
+		for (int depth = 0; throwable instanceof Exception && depth < MAX_CAUSE_DEPTH; depth++) {
+			final Responder<Exception> responder = resolve(throwable.getClass());
+			if (responder != UNMAPPED) {
+				if (log.isDebugEnabled()) {
+					log.debug("Mapped {} for {}", throwable, request.getRequestURI());
+				}
+				respond(request, response, (Exception) throwable, responder);
+				return;
+			}
+			throwable = throwable.getCause();
+		}
+
+		logUnmapped(e);
+		respond(request, response, e, INTERNAL_SERVER_ERROR);
+	}
+
+	private Responder<Exception> resolve(Class<?> type) {
+		final Responder<Exception> cached = resolved.get(type);
+		if (cached != null) {
+			return cached;
+		}
+
+		Responder<Exception> responder = UNMAPPED;
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			final Responder<Exception> mapped = mappings.get(c);
+			if (mapped != null) {
+				responder = mapped;
+				break;
+			}
+		}
+		resolved.put(type, responder);
+		return responder;
+	}
+
+	private static void respond(HttpServletRequest request, HttpServletResponse response, Exception e, Responder<Exception> responder) {
+		if (response.isCommitted()) {
+			log.warn("Response of {} is already committed, cannot respond to {}", request.getRequestURI(), e.toString());
+			return;
+		}
+		try {
+			responder.respond(request, response, e);
+		}
+		catch (IOException | RuntimeException responderException) {
+			log.warn("Cannot respond to " + e + " for " + request.getRequestURI(), responderException);
+		}
+	}
+
+	private void logUnmapped(Exception e) {
+		if (!log.isErrorEnabled()) {
+			return;
+		}
+
+		if (logWindows.size() >= MAX_LOG_WINDOWS) {
+			logWindows.clear();
+		}
+		final long now = System.nanoTime();
+		final LogWindow window = logWindows.computeIfAbsent(e.getClass(), type -> new LogWindow(now));
+
+		final long suppressed = window.tryOpen(now, logIntervalNanos);
+		if (suppressed < 0) {
+			return;
+		}
+		if (suppressed == 0) {
+			log.error(e.toString(), e);
+		}
+		else {
+			log.error(e + " (" + suppressed + " more since last logged)", e);
+		}
+	}
+
+	/**
+	 * Tracks when an exception class was last logged and how many of its occurrences were not logged since then.
+	 */
+	private static final class LogWindow {
+
+		/**
+		 * In {@link System#nanoTime()}
+		 */
+		private final AtomicLong nextLogAt;
+
+		private final LongAdder suppressed = new LongAdder();
+
+		LogWindow(long now) {
+			this.nextLogAt = new AtomicLong(now);
+		}
+
+		/**
+		 * @return -1 if the occurrence must not be logged, otherwise number of occurrences not logged since the last log
+		 */
+		long tryOpen(long now, long intervalNanos) {
+			final long logAt = nextLogAt.get();
+			if (now - logAt < 0 || !nextLogAt.compareAndSet(logAt, now + intervalNanos)) {
+				suppressed.increment();
+				return -1;
+			}
+			return suppressed.sumThenReset();
+		}
+	}
+}
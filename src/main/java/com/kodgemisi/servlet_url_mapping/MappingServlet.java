@@ -6,6 +6,9 @@
 
 package com.kodgemisi.servlet_url_mapping;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -58,6 +61,8 @@ import java.io.IOException;
  */
 public class MappingServlet extends HttpServlet {
 
+	private static final Logger log = LoggerFactory.getLogger(MappingServlet.class);
+
 	/**
 	 * Every servlet needs a copy of {@link ServletUrlPatternRegistrar}. Servlets extending this servlet should use this field to register url
 	 * mappings.
@@ -88,6 +93,33 @@ public class MappingServlet extends HttpServlet {
 		this.exceptionHandler = exceptionHandler;
 	}
 
+	/**
+	 * <p>Registers the url patterns as an MBean named after the context path and the servlet name, see {@link RouteTableMBean}. A failure to
+	 * register is logged, not thrown. Subclasses overriding this method should call {@code super.init()} after registering url patterns.</p>
+	 */
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		final String name = getServletContext().getContextPath() + ':' + getServletName();
+		try {
+			urlMappingRegistrar.registerMBean(name);
+		}
+		catch (RuntimeException e) {
+			log.warn("Cannot register the route table MBean of " + name, e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		try {
+			urlMappingRegistrar.unregisterMBean();
+		}
+		catch (RuntimeException e) {
+			log.warn("Cannot unregister the route table MBean of " + getServletName(), e);
+		}
+		super.destroy();
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		doCommon(request, response);
@@ -0,0 +1,166 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>A media type like {@code "application/json"} or a media range of an {@code Accept} header like {@code "text/*;q=0.8"}. Parameters other
+ * than {@code q} are ignored.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+final class MediaType {
+
+	private static final String WILDCARD = "*";
+
+	private static final MediaType[] ACCEPT_ALL = {new MediaType(WILDCARD, WILDCARD, 1)};
+
+	/**
+	 * Clients send the same few {@code Accept} and {@code Content-Type} values over and over, so they are parsed once. At most this many are
+	 * cached, values seen once like made-up headers are evicted first.
+	 */
+	static final int MAX_CACHED_HEADERS = 256;
+
+	static final ClockCache<String, MediaType[]> parsedHeaders = new ClockCache<>(MAX_CACHED_HEADERS);
+
+	private final String type;
+
+	private final String subtype;
+
+	private final float quality;
+
+	private MediaType(String type, String subtype, float quality) {
+		this.type = type;
+		this.subtype = subtype;
+		this.quality = quality;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if {@code mediaType} is not in {@code type/subtype} form
+	 */
+	static MediaType parse(String mediaType) throws IllegalArgumentException {
+		final MediaType result = parseRange(mediaType);
+		if (result == null) {
+			throw new IllegalArgumentException("Invalid media type " + mediaType);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses an {@code Accept} header. Invalid media ranges are skipped.
+	 *
+	 * @param header null or empty if there is no {@code Accept} header, which accepts everything
+	 * @return media ranges in the order they appear, must not be modified
+	 */
+	static MediaType[] parseAccept(@Nullable String header) {
+		if (header == null || header.isEmpty()) {
+			return ACCEPT_ALL;
+		}
+
+		final MediaType[] cached = parsedHeaders.get(header);
+		if (cached != null) {
+			return cached;
+		}
+
+		final List<MediaType> ranges = new ArrayList<>();
+		int start = 0;
+		while (start <= header.length()) {
+			final int end = CharSequences.indexOf(header, ',', start, header.length());
+			final MediaType range = parseRange(header.substring(start, end));
+			if (range != null) {
+				ranges.add(range);
+			}
+			start = end + 1;
+		}
+
+		final MediaType[] result = ranges.toArray(new MediaType[0]);
+		parsedHeaders.put(header, result);
+		return result;
+	}
+
+	/**
+	 * Parses a {@code Content-Type} header. Parameters are stripped before looking the media type up in the cache, as they are often unique,
+	 * e.g. the boundary of {@code multipart/form-data}.
+	 *
+	 * @return null if there is no or an invalid {@code Content-Type}
+	 */
+	@Nullable
+	static MediaType parseContentType(@Nullable String header) {
+		if (header == null || header.isEmpty()) {
+			return null;
+		}
+		final int parametersStart = header.indexOf(';');
+		final MediaType[] mediaTypes = parseAccept(parametersStart < 0 ? header : header.substring(0, parametersStart));
+		return mediaTypes.length == 0 ? null : mediaTypes[0];
+	}
+
+	@Nullable
+	private static MediaType parseRange(String range) {
+		final int parametersStart = CharSequences.indexOf(range, ';', 0, range.length());
+		final String mediaType = range.substring(0, parametersStart).trim().toLowerCase(Locale.ENGLISH);
+
+		// some clients (e.g. HttpURLConnection) send "*" instead of "*/*"
+		final int slash = WILDCARD.equals(mediaType) ? -1 : mediaType.indexOf('/');
+		final String type = slash < 0 ? WILDCARD : mediaType.substring(0, slash);
+		final String subtype = slash < 0 ? WILDCARD : mediaType.substring(slash + 1);
+		if (type.isEmpty() || subtype.isEmpty() || subtype.indexOf('/') >= 0 || (slash < 0 && !WILDCARD.equals(mediaType)) ||
+			(WILDCARD.equals(type) && !WILDCARD.equals(subtype))) {
+			return null;
+		}
+
+		float quality = 1;
+		int parameterStart = parametersStart + 1;
+		while (parameterStart < range.length()) {
+			final int parameterEnd = CharSequences.indexOf(range, ';', parameterStart, range.length());
+			final String parameter = range.substring(parameterStart, parameterEnd).trim();
+			if (parameter.length() > 2 && (parameter.charAt(0) == 'q' || parameter.charAt(0) == 'Q') && parameter.charAt(1) == '=') {
+				try {
+					quality = Math.max(0, Math.min(1, Float.parseFloat(parameter.substring(2))));
+				}
+				catch (NumberFormatException e) {
+					return null;
+				}
+			}
+			parameterStart = parameterEnd + 1;
+		}
+		return new MediaType(type, subtype, quality);
+	}
+
+	/**
+	 * @return true if this media range includes the given media type, e.g. {@code "text/*"} includes {@code "text/html"}
+	 */
+	boolean includes(MediaType mediaType) {
+		if (WILDCARD.equals(type)) {
+			return true;
+		}
+		if (!type.equals(mediaType.type)) {
+			return false;
+		}
+		return WILDCARD.equals(subtype) || subtype.equals(mediaType.subtype);
+	}
+
+	/**
+	 * @return 0 for {@code "*&#47;*"}, 1 for {@code "type/*"} and 2 for {@code "type/subtype"}
+	 */
+	int specificity() {
+		return WILDCARD.equals(type) ? 0 : WILDCARD.equals(subtype) ? 1 : 2;
+	}
+
+	float quality() {
+		return quality;
+	}
+
+	@Override
+	public String toString() {
+		return type + '/' + subtype + (quality == 1 ? "" : ";q=" + quality);
+	}
+}
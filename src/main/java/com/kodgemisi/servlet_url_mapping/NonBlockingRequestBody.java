@@ -0,0 +1,251 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Reads the body of a request via Servlet 3.1 non-blocking I/O and hands it to a {@link RequestBodyListener} chunk by chunk, see
+ * {@link StreamingRequestHandler}.</p>
+ *
+ * <p>The body is read by whichever thread has something to do: a container thread calling {@link #onDataAvailable()} or
+ * {@link #onAllDataRead()}, or an application thread calling {@link #resume()}. Instead of a lock, {@link #pendingWork} counts the calls so
+ * that only the first one reads and the others make it read again before it stops, hence a call is never lost while another thread is
+ * reading.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ */
+final class NonBlockingRequestBody implements RequestBodyReader, ReadListener {
+
+	private static final Logger log = LoggerFactory.getLogger(NonBlockingRequestBody.class);
+
+	static final int CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * Calls of {@link #read()} which are not served yet, the one which finds it zero reads until it drops to zero again
+	 */
+	private final AtomicInteger pendingWork = new AtomicInteger();
+
+	/**
+	 * Incremented by each {@link #resume()}, so that the reading thread notices a resumption racing with the pause it's about to make
+	 */
+	private final AtomicInteger resumeCount = new AtomicInteger();
+
+	private final AtomicBoolean done = new AtomicBoolean();
+
+	private final byte[] buffer = new byte[CHUNK_SIZE];
+
+	private final ByteBuffer chunk = ByteBuffer.wrap(buffer);
+
+	private AsyncContext asyncContext;
+
+	private ServletInputStream input;
+
+	private HttpServletResponse response;
+
+	private RequestBodyListener listener;
+
+	/**
+	 * Whether the read listener is set, reading before that is not allowed. Written after the fields above, which are read only after it.
+	 */
+	private volatile boolean started;
+
+	private volatile boolean paused;
+
+	/**
+	 * Written only by the reading thread
+	 */
+	private volatile long bytesRead;
+
+	/**
+	 * @return a request handler calling {@code streamingRequestHandler} and then reading the body for the listener it returns
+	 */
+	static ServletRequestHandler handlerOf(StreamingRequestHandler streamingRequestHandler) {
+		return new Handler(streamingRequestHandler);
+	}
+
+	/**
+	 * Completes the response asynchronously, see {@link ServletUrl#isAsynchronous()}.
+	 */
+	static final class Handler implements ServletRequestHandler {
+
+		private final StreamingRequestHandler streamingRequestHandler;
+
+		private Handler(StreamingRequestHandler streamingRequestHandler) {
+			this.streamingRequestHandler = streamingRequestHandler;
+		}
+
+		@Override
+		public void handleRequest(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl)
+				throws IOException, ServletException {
+
+			if (!request.isAsyncSupported()) {
+				throw new IllegalStateException("Streaming request handler of " + servletUrl.getUrlPattern() +
+												" needs asynchronous processing, the servlet and its filters must support it");
+			}
+
+			final NonBlockingRequestBody body = new NonBlockingRequestBody();
+			final RequestBodyListener listener = streamingRequestHandler.handleRequest(request, response, servletUrl, body);
+			if (listener != null) {
+				body.start(request, response, listener);
+			}
+		}
+	}
+
+	private void start(HttpServletRequest request, HttpServletResponse response, RequestBodyListener listener) throws IOException {
+		this.asyncContext = request.startAsync(request, response);
+		// reading may pause for as long as the listener wants, the connector's read timeout still applies while waiting for the client
+		this.asyncContext.setTimeout(0);
+		this.input = request.getInputStream();
+		this.response = response;
+		this.listener = listener;
+
+		input.setReadListener(this);
+		started = true;
+		// the container may have notified us before started was set
+		read();
+	}
+
+	@Override
+	public void onDataAvailable() {
+		read();
+	}
+
+	@Override
+	public void onAllDataRead() {
+		read();
+	}
+
+	@Override
+	public void onError(Throwable failure) {
+		if (log.isDebugEnabled()) {
+			log.debug("Reading request body failed after " + bytesRead + " bytes", failure);
+		}
+		fail(failure);
+	}
+
+	@Override
+	public void resume() {
+		resumeCount.incrementAndGet();
+		paused = false;
+		read();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	private void read() {
+		if (pendingWork.getAndIncrement() != 0) {
+			return;
+		}
+		int work = 1;
+		do {
+			readWhileReady();
+			work = pendingWork.addAndGet(-work);
+		}
+		while (work != 0);
+	}
+
+	/**
+	 * Reads and hands chunks to the listener until reading is paused or would block. In the latter case the container calls
+	 * {@link #onDataAvailable()} or {@link #onAllDataRead()} once it can go on.
+	 */
+	private void readWhileReady() {
+		if (!started || done.get()) {
+			return;
+		}
+		try {
+			while (!paused) {
+				if (input.isFinished()) {
+					complete();
+					return;
+				}
+				if (!input.isReady()) {
+					return;
+				}
+
+				final int count = input.read(buffer);
+				if (count == -1) {
+					complete();
+					return;
+				}
+				if (count > 0) {
+					bytesRead += count;
+					chunk.clear();
+					chunk.limit(count);
+
+					final int resumesBefore = resumeCount.get();
+					if (!listener.onChunk(chunk)) {
+						paused = true;
+						if (resumeCount.get() != resumesBefore) {
+							// resumed while onChunk was running, see resume()
+							paused = false;
+						}
+					}
+				}
+			}
+		}
+		catch (Throwable e) {
+			log.error("Request body listener " + listener + " failed after " + bytesRead + " bytes", e);
+			fail(e);
+		}
+	}
+
+	private void complete() {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			listener.onComplete();
+		}
+		catch (Throwable e) {
+			log.error("Request body listener " + listener + " failed to complete", e);
+			respondWithError(e);
+		}
+		finally {
+			asyncContext.complete();
+		}
+	}
+
+	private void fail(Throwable failure) {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			respondWithError(failure);
+		}
+		finally {
+			asyncContext.complete();
+		}
+	}
+
+	private void respondWithError(Throwable failure) {
+		try {
+			listener.onError(failure);
+			if (!response.isCommitted()) {
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			log.debug("Responding to a failed request body failed", e);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import java.util.function.Function;
+
+/**
+ * <p>Matches and parses a path variable of a specific type. Converters are resolved once per path variable when a url pattern is registered, see
+ * {@link PathVariableConverters}.</p>
+ *
+ * <blockquote><pre>
+ * servletUrlPatternRegistrar.registerConverter(Color.class, PathVariableConverter.of("#[0-9a-f]{6}", Color::decode));
+ * </pre></blockquote>
+ *
+ * @param <T> type of the parsed path variable
+ * @see PathVariableConverters
+ */
+public interface PathVariableConverter<T> {
+
+	/**
+	 * @return A regular expression which matches valid values of this type. It must not contain capturing groups, use {@code (?:...)} instead.
+	 */
+	String regex();
+
+	/**
+	 * @param value the part of the url matching {@link #regex()}, never null
+	 * @return the parsed value
+	 */
+	T convert(String value);
+
+	/**
+	 * <p>Checks whether {@code path[start, end)} matches {@link #regex()} without creating a substring. Only called with a single path segment
+	 * i.e the range never contains a {@code '/'}.</p>
+	 *
+	 * <p>Built-in converters override this with allocation free checks. The default implementation evaluates {@link #regex()}, which is compiled
+	 * once and cached.</p>
+	 */
+	default boolean matches(CharSequence path, int start, int end) {
+		return PathVariableConverters.compile(regex()).matcher(path).region(start, end).matches();
+	}
+
+	static <T> PathVariableConverter<T> of(String regex, Function<String, T> parser) {
+		return new PathVariableConverter<T>() {
+
+			@Override
+			public String regex() {
+				return regex;
+			}
+
+			@Override
+			public T convert(String value) {
+				return parser.apply(value);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,249 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Registry of {@link PathVariableConverter}s by path variable type.</p>
+ *
+ * <p>Supported types out of the box are {@link String}, {@link Integer}, {@link Long}, {@link Short}, {@link Byte} (and their primitives),
+ * {@link BigDecimal}, {@link Boolean} (and its primitive), {@link UUID}, {@link LocalDate} and any {@code enum} (matched by constant names).</p>
+ *
+ * <p>Registering converters is NOT thread-safe. Should only be done before registering url patterns which use them.</p>
+ *
+ * @see PathVariableConverter
+ */
+public class PathVariableConverters {
+
+	private static final Map<String, Pattern> compiledRegexes = new ConcurrentHashMap<>();
+
+	private static final String[] BOOLEAN_VALUES = {"true", "false", "True", "False", "TRUE", "FALSE"};
+
+	private final Map<Class<?>, PathVariableConverter<?>> converters = new ConcurrentHashMap<>();
+
+	public PathVariableConverters() {
+		register(String.class, new BuiltInConverter<>("[^/]+", (path, start, end) -> start < end, value -> value));
+
+		final PathVariableConverter<Integer> integerConverter = new BuiltInConverter<>("\\d+", digitsAtMost(Integer.MAX_VALUE), Integer::valueOf, true);
+		register(Integer.class, integerConverter);
+		register(int.class, integerConverter);
+
+		final PathVariableConverter<Long> longConverter = new BuiltInConverter<>("\\d+", digitsAtMost(Long.MAX_VALUE), Long::valueOf, true);
+		register(Long.class, longConverter);
+		register(long.class, longConverter);
+
+		final PathVariableConverter<Short> shortConverter = new BuiltInConverter<>("\\d+", digitsAtMost(Short.MAX_VALUE), Short::valueOf, true);
+		register(Short.class, shortConverter);
+		register(short.class, shortConverter);
+
+		final PathVariableConverter<Byte> byteConverter = new BuiltInConverter<>("\\d+", digitsAtMost(Byte.MAX_VALUE), Byte::valueOf, true);
+		register(Byte.class, byteConverter);
+		register(byte.class, byteConverter);
+
+		register(BigDecimal.class, new BuiltInConverter<>("\\d+\\.?\\d*", PathVariableConverters::isDecimal, BigDecimal::new));
+
+		final PathVariableConverter<Boolean> booleanConverter = new BuiltInConverter<>("true|false|True|False|TRUE|FALSE",
+																					   (path, start, end) -> isOneOf(path, start, end, BOOLEAN_VALUES),
+																					   Boolean::valueOf);
+		register(Boolean.class, booleanConverter);
+		register(boolean.class, booleanConverter);
+
+		register(UUID.class, new BuiltInConverter<>("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}",
+													PathVariableConverters::isUuid, UUID::fromString));
+		register(LocalDate.class, new BuiltInConverter<>("\\d{4}-\\d{2}-\\d{2}", PathVariableConverters::isLocalDate, LocalDate::parse, true));
+	}
+
+	/**
+	 * Registers or replaces the converter of given type.
+	 *
+	 * @return Returns this object to allow method chaining
+	 */
+	public <T> PathVariableConverters register(Class<T> type, PathVariableConverter<? extends T> converter) {
+		converters.put(type, converter);
+		return this;
+	}
+
+	/**
+	 * <p>Resolves the converter of given type. Looks for an exact match first, then for a converter of a super class. Converters of enum types
+	 * are created on demand.</p>
+	 *
+	 * @throws IllegalArgumentException if there is no converter for the given type
+	 */
+	PathVariableConverter<?> find(Class<?> type) throws IllegalArgumentException {
+		final PathVariableConverter<?> converter = converters.get(type);
+		if (converter != null) {
+			return converter;
+		}
+
+		if (type.isEnum()) {
+			return converters.computeIfAbsent(type, PathVariableConverters::enumConverter);
+		}
+
+		for (Class<?> superType = type.getSuperclass(); superType != null; superType = superType.getSuperclass()) {
+			if (converters.containsKey(superType)) {
+				return converters.get(superType);
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported Type " + type.getName());
+	}
+
+	static Pattern compile(String regex) {
+		return compiledRegexes.computeIfAbsent(regex, Pattern::compile);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static PathVariableConverter<?> enumConverter(Class<?> type) {
+		final String[] names = Stream.of(type.getEnumConstants()).map(constant -> ((Enum<?>) constant).name()).toArray(String[]::new);
+		final String regex = Stream.of(names).map(Pattern::quote).collect(Collectors.joining("|"));
+		return new BuiltInConverter<>(regex, (path, start, end) -> isOneOf(path, start, end, names), value -> Enum.valueOf((Class<? extends Enum>) type, value));
+	}
+
+	private static boolean isOneOf(CharSequence path, int start, int end, String[] values) {
+		for (String value : values) {
+			if (CharSequences.contentEquals(path, start, end, value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Equivalent of {@code \d+} having a value up to {@code max}, so that values out of the range of a type don't match instead of failing to
+	 * convert
+	 */
+	private static RangeMatcher digitsAtMost(long max) {
+		return (path, start, end) -> CharSequences.isDigitsAtMost(path, start, end, max);
+	}
+
+	/**
+	 * Equivalent of {@code \d+\.?\d*}, all of which {@link BigDecimal#BigDecimal(String)} accepts, {@code "1."} included
+	 */
+	private static boolean isDecimal(CharSequence path, int start, int end) {
+		int i = start;
+		while (i < end && CharSequences.isDigit(path.charAt(i))) {
+			i++;
+		}
+		if (i == start) {
+			return false;
+		}
+		if (i < end && path.charAt(i) == '.') {
+			i++;
+		}
+		return i == end || CharSequences.isDigits(path, i, end);
+	}
+
+	private static boolean isUuid(CharSequence path, int start, int end) {
+		if (end - start != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			final char c = path.charAt(start + i);
+			if (i == 8 || i == 13 || i == 18 || i == 23 ? c != '-' : !CharSequences.isHexDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Equivalent of {@code \d{4}-\d{2}-\d{2}} being a valid date, i.e. {@link LocalDate#parse(CharSequence)} doesn't throw
+	 */
+	private static boolean isLocalDate(CharSequence path, int start, int end) {
+		if (end - start != 10) {
+			return false;
+		}
+		for (int i = 0; i < 10; i++) {
+			final char c = path.charAt(start + i);
+			if (i == 4 || i == 7 ? c != '-' : !CharSequences.isDigit(c)) {
+				return false;
+			}
+		}
+		final int year = digits(path, start, start + 4);
+		final int month = digits(path, start + 5, start + 7);
+		final int day = digits(path, start + 8, start + 10);
+		return month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year));
+	}
+
+	private static int digits(CharSequence path, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			value = 10 * value + path.charAt(i) - '0';
+		}
+		return value;
+	}
+
+	/**
+	 * Whether values matching the regex of the given converter may still fail to convert, e.g. numbers out of the range of their type, so that
+	 * captures of raw regular expressions must be checked with {@link PathVariableConverter#matches(CharSequence, int, int)} as well.
+	 */
+	static boolean isStricterThanRegex(PathVariableConverter<?> converter) {
+		return converter instanceof BuiltInConverter && ((BuiltInConverter<?>) converter).stricterThanRegex;
+	}
+
+	@FunctionalInterface
+	private interface RangeMatcher {
+
+		boolean matches(CharSequence path, int start, int end);
+	}
+
+	/**
+	 * A converter whose {@link #matches(CharSequence, int, int)} is an allocation free equivalent of its {@link #regex()}, or stricter if the
+	 * regex cannot express the values the parser accepts.
+	 */
+	private static final class BuiltInConverter<T> implements PathVariableConverter<T> {
+
+		private final String regex;
+
+		private final RangeMatcher matcher;
+
+		private final Function<String, T> parser;
+
+		/**
+		 * See {@link #isStricterThanRegex(PathVariableConverter)}
+		 */
+		private final boolean stricterThanRegex;
+
+		BuiltInConverter(String regex, RangeMatcher matcher, Function<String, T> parser) {
+			this(regex, matcher, parser, false);
+		}
+
+		BuiltInConverter(String regex, RangeMatcher matcher, Function<String, T> parser, boolean stricterThanRegex) {
+			this.regex = regex;
+			this.matcher = matcher;
+			this.parser = parser;
+			this.stricterThanRegex = stricterThanRegex;
+		}
+
+		@Override
+		public String regex() {
+			return regex;
+		}
+
+		@Override
+		public T convert(String value) {
+			return parser.apply(value);
+		}
+
+		@Override
+		public boolean matches(CharSequence path, int start, int end) {
+			return matcher.matches(path, start, end);
+		}
+	}
+
+}
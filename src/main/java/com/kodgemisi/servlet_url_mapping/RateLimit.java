@@ -0,0 +1,286 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Token bucket rate limit of one or more url patterns. A bucket holds up to {@code permits} tokens and is refilled with {@code permits}
+ * tokens per {@code period}, each request takes a token. Requests finding the bucket empty are rejected with 429 and {@code Retry-After}.</p>
+ *
+ * <p>A rate limit either has a single bucket or a bucket per key computed from the request, e.g. the client's IP address or a path variable:</p>
+ *
+ * <blockquote><pre>
+ * this.urlMappingRegistrar
+ *         .get("/search", this::search).rateLimit(100, Duration.ofSeconds(1))
+ *         .get("/users/{id}/feed", this::feed).rateLimit(new RateLimit(10, Duration.ofSeconds(1), RateLimit.byVariable("id"), 10_000));
+ * </pre></blockquote>
+ *
+ * <p>Buckets are lock-free: the token count and the last refill time of a bucket are packed into a single {@code long} updated by
+ * compare-and-set. Keyed buckets are bounded by {@code maxKeys}, when there are too many keys full buckets (which are equivalent to new ones)
+ * and then the least recently refilled ones among a few sampled buckets are evicted.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ *
+ * @see ServletUrlPattern#rateLimit(RateLimit)
+ */
+public final class RateLimit {
+
+	/**
+	 * Computes the bucket key of a request.
+	 */
+	@FunctionalInterface
+	public interface KeyFunction {
+
+		/**
+		 * @return the key of the bucket, requests with a null key share a bucket
+		 */
+		@Nullable
+		Object keyOf(HttpServletRequest request, ServletUrl servletUrl);
+	}
+
+	/**
+	 * Too Many Requests, not defined by {@link javax.servlet.http.HttpServletResponse}.
+	 */
+	static final int SC_TOO_MANY_REQUESTS = 429;
+
+	static final int MAX_PERMITS = (1 << 20) - 1;
+
+	private static final int TOKEN_BITS = 20;
+
+	private static final long TOKEN_MASK = MAX_PERMITS;
+
+	/**
+	 * Refill times are kept in microseconds in 44 bits and compared modulo 2^44, about 200 days.
+	 */
+	private static final long TIME_MASK = (1L << (64 - TOKEN_BITS)) - 1;
+
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	private static final Object NULL_KEY = new Object();
+
+	private final int permits;
+
+	private final long microsPerToken;
+
+	@Nullable
+	private final KeyFunction keyFunction;
+
+	private final int maxKeys;
+
+	private final long epochNanos = System.nanoTime();
+
+	@Nullable
+	private final AtomicLong bucket;
+
+	@Nullable
+	private final Map<Object, AtomicLong> buckets;
+
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * Creates a rate limit with a single bucket.
+	 *
+	 * @param permits maximum number of requests per period, also the maximum burst
+	 * @throws IllegalArgumentException if {@code permits} or {@code period} is not positive or {@code permits} is greater than {@value #MAX_PERMITS}
+	 */
+	public RateLimit(int permits, Duration period) {
+		this(permits, period, null, 1);
+	}
+
+	/**
+	 * Creates a rate limit with a bucket per key.
+	 *
+	 * @param permits     maximum number of requests per period per key, also the maximum burst
+	 * @param keyFunction computes the bucket key of a request, see {@link #byClientAddress()} and {@link #byVariable(String)}; null for a single
+	 *                    bucket
+	 * @param maxKeys     maximum number of buckets kept in memory
+	 * @throws IllegalArgumentException if {@code permits}, {@code period} or {@code maxKeys} is not positive or {@code permits} is greater than
+	 *                                  {@value #MAX_PERMITS}
+	 */
+	public RateLimit(int permits, Duration period, @Nullable KeyFunction keyFunction, int maxKeys) {
+		if (permits <= 0 || permits > MAX_PERMITS) {
+			throw new IllegalArgumentException("permits must be between 1 and " + MAX_PERMITS + ": " + permits);
+		}
+		if (period.isZero() || period.isNegative()) {
+			throw new IllegalArgumentException("period must be positive: " + period);
+		}
+		if (maxKeys <= 0) {
+			throw new IllegalArgumentException("maxKeys must be positive: " + maxKeys);
+		}
+		this.permits = permits;
+		this.microsPerToken = Math.max(1, period.toNanos() / 1000 / permits);
+		this.keyFunction = keyFunction;
+		this.maxKeys = maxKeys;
+		this.bucket = keyFunction == null ? newBucket(now()) : null;
+		this.buckets = keyFunction == null ? null : new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Keys buckets by {@link HttpServletRequest#getRemoteAddr()}.
+	 */
+	public static KeyFunction byClientAddress() {
+		return (request, servletUrl) -> request.getRemoteAddr();
+	}
+
+	/**
+	 * Keys buckets by the converted value of the given path variable.
+	 */
+	public static KeyFunction byVariable(String name) {
+		return (request, servletUrl) -> servletUrl.variable(name);
+	}
+
+	/**
+	 * Takes a token from the request's bucket.
+	 *
+	 * @return 0 if a token is taken, otherwise microseconds until the next token
+	 */
+	long tryAcquire(HttpServletRequest request, ServletUrl servletUrl) {
+		final long now = now();
+		final long waitMicros = tryAcquire(bucketOf(request, servletUrl, now), now);
+		if (waitMicros > 0) {
+			rejectedCount.increment();
+		}
+		return waitMicros;
+	}
+
+	/**
+	 * @param now the time read before looking the bucket up, which other threads may have refilled at a later time since
+	 */
+	long tryAcquire(AtomicLong bucket, long now) {
+		while (true) {
+			final long state = bucket.get();
+			final long tokens = state & TOKEN_MASK;
+			final long time = state >>> TOKEN_BITS;
+
+			final long elapsed = elapsed(now, time);
+			final long refill = elapsed / microsPerToken;
+
+			final long newTokens;
+			final long newTime;
+			if (tokens + refill >= permits) {
+				newTokens = permits;
+				// never move the refill time back
+				newTime = elapsed == 0 ? time : now;
+			}
+			else {
+				newTokens = tokens + refill;
+				// keep the remainder so that partial tokens are not lost
+				newTime = (time + refill * microsPerToken) & TIME_MASK;
+			}
+
+			if (newTokens == 0) {
+				return microsPerToken - elapsed % microsPerToken;
+			}
+			if (bucket.compareAndSet(state, pack(newTime, newTokens - 1))) {
+				return 0;
+			}
+		}
+	}
+
+	private AtomicLong bucketOf(HttpServletRequest request, ServletUrl servletUrl, long now) {
+		if (bucket != null) {
+			return bucket;
+		}
+
+		final Object key = keyOf(request, servletUrl);
+		final AtomicLong existing = buckets.get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		if (buckets.size() >= maxKeys) {
+			evict(now);
+		}
+		return buckets.computeIfAbsent(key, k -> newBucket(now));
+	}
+
+	private Object keyOf(HttpServletRequest request, ServletUrl servletUrl) {
+		final Object key = keyFunction.keyOf(request, servletUrl);
+		return key == null ? NULL_KEY : key;
+	}
+
+	/**
+	 * Removes full buckets among a few sampled ones, or the least recently refilled one if none of them is full.
+	 */
+	private void evict(long now) {
+		Map.Entry<Object, AtomicLong> leastRecentlyRefilled = null;
+		long longestElapsed = -1;
+		boolean removed = false;
+
+		final Iterator<Map.Entry<Object, AtomicLong>> iterator = buckets.entrySet().iterator();
+		for (int i = 0; i < EVICTION_SAMPLE_SIZE && iterator.hasNext(); i++) {
+			final Map.Entry<Object, AtomicLong> entry = iterator.next();
+			final long state = entry.getValue().get();
+			final long elapsed = elapsed(now, state >>> TOKEN_BITS);
+			if ((state & TOKEN_MASK) + elapsed / microsPerToken >= permits) {
+				removed |= buckets.remove(entry.getKey(), entry.getValue());
+			}
+			else if (elapsed > longestElapsed) {
+				longestElapsed = elapsed;
+				leastRecentlyRefilled = entry;
+			}
+		}
+
+		if (!removed && leastRecentlyRefilled != null) {
+			buckets.remove(leastRecentlyRefilled.getKey(), leastRecentlyRefilled.getValue());
+		}
+	}
+
+	AtomicLong newBucket(long now) {
+		return new AtomicLong(pack(now, permits));
+	}
+
+	/**
+	 * @return microseconds from {@code time} to {@code now} modulo 2^44, 0 if {@code time} is later, i.e. stored by a thread which read the
+	 * clock after this one
+	 */
+	private static long elapsed(long now, long time) {
+		final long elapsed = (now - time) & TIME_MASK;
+		return elapsed > TIME_MASK >>> 1 ? 0 : elapsed;
+	}
+
+	private static long pack(long time, long tokens) {
+		return time << TOKEN_BITS | tokens;
+	}
+
+	private long now() {
+		return ((System.nanoTime() - epochNanos) / 1000) & TIME_MASK;
+	}
+
+	public int getPermits() {
+		return permits;
+	}
+
+	/**
+	 * @return number of requests rejected so far
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	/**
+	 * @return number of buckets kept in memory
+	 */
+	public int getBucketCount() {
+		return buckets == null ? 1 : buckets.size();
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimit{" + "permits=" + permits + ", microsPerToken=" + microsPerToken + ", keyed=" + (keyFunction != null) + ", rejected=" +
+			   getRejectedCount() + '}';
+	}
+}
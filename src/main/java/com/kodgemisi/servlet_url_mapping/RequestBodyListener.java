@@ -0,0 +1,47 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Receives the body of a request handled by a {@link StreamingRequestHandler} chunk by chunk.</p>
+ *
+ * <p>Methods are called one at a time, though not always by the same thread. After {@link #onComplete()} or {@link #onError(Throwable)} the
+ * request is completed, so the response should be written by then.</p>
+ */
+public interface RequestBodyListener {
+
+	/**
+	 * <p>Called for each chunk of the body as it's read, chunks are at most {@value NonBlockingRequestBody#CHUNK_SIZE} bytes.</p>
+	 *
+	 * <p>The buffer is reused for the next chunk, it must not be used after this method returns. Copy what is needed, e.g. when the chunk is
+	 * processed on another thread.</p>
+	 *
+	 * @param chunk bytes of the body from its position to its limit
+	 * @return true to go on reading, false to pause reading until {@link RequestBodyReader#resume()} is called
+	 * @throws IOException fails reading, {@link #onError(Throwable)} is called with it
+	 */
+	boolean onChunk(ByteBuffer chunk) throws IOException;
+
+	/**
+	 * Called once the whole body has been read and reading is not paused.
+	 *
+	 * @throws IOException {@link #onError(Throwable)} is called with it
+	 */
+	void onComplete() throws IOException;
+
+	/**
+	 * <p>Called when the body cannot be read to its end, e.g. the client disconnects, or when another method of this listener fails. No other
+	 * method is called afterwards.</p>
+	 *
+	 * <p>When the response is not committed yet it's answered with 500 after this method returns. Does nothing by default.</p>
+	 */
+	default void onError(Throwable failure) {
+	}
+}
@@ -0,0 +1,28 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+/**
+ * <p>Flow control of a request body read for a {@link StreamingRequestHandler}.</p>
+ *
+ * <p>This interface IS thread-safe.</p>
+ */
+public interface RequestBodyReader {
+
+	/**
+	 * <p>Continues reading after {@link RequestBodyListener#onChunk} returned false. May be called from any thread, even while that
+	 * {@code onChunk} hasn't returned yet, e.g. by a thread the chunk was handed to. Does nothing if reading is not paused.</p>
+	 *
+	 * <p>Reading goes on in the calling thread as long as there is data which can be read without blocking, then on a container thread.</p>
+	 */
+	void resume();
+
+	/**
+	 * @return number of bytes of the body handed to the listener so far
+	 */
+	long getBytesRead();
+}
@@ -0,0 +1,163 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+
+/**
+ * <p>Conditions a request has to satisfy, in addition to its url, to be handled by a registered url pattern: required headers, required query
+ * parameters, media types the handler consumes and media types it produces.</p>
+ *
+ * <p>Conditions are collected at registration time and are NOT thread-safe to modify, evaluating them is thread-safe, also while they are
+ * modified: each array is replaced rather than modified.</p>
+ *
+ * @see ServletUrl#selectVariant(HttpServletRequest, MediaType[])
+ */
+final class RequestConditions {
+
+	static final float NOT_ACCEPTABLE = -1;
+
+	private static final String[] NONE = new String[0];
+
+	private static final MediaType[] NO_MEDIA_TYPES = new MediaType[0];
+
+	private volatile String[] headers = NONE;
+
+	private volatile String[] queryParameters = NONE;
+
+	private volatile MediaType[] consumes = NO_MEDIA_TYPES;
+
+	private volatile MediaType[] produces = NO_MEDIA_TYPES;
+
+	void addHeader(String name) {
+		headers = append(headers, name);
+	}
+
+	void addQueryParameter(String name) {
+		queryParameters = append(queryParameters, name);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a media type is invalid
+	 */
+	void addConsumes(String... mediaTypes) {
+		consumes = append(consumes, mediaTypes);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a media type is invalid
+	 */
+	void addProduces(String... mediaTypes) {
+		produces = append(produces, mediaTypes);
+	}
+
+	/**
+	 * @return true if the request has all required headers and query parameters and has a consumed {@code Content-Type}
+	 */
+	boolean matches(HttpServletRequest request) {
+		for (String header : headers) {
+			if (request.getHeader(header) == null) {
+				return false;
+			}
+		}
+
+		if (queryParameters.length > 0) {
+			final String queryString = request.getQueryString();
+			for (String queryParameter : queryParameters) {
+				if (!hasQueryParameter(queryString, queryParameter)) {
+					return false;
+				}
+			}
+		}
+
+		if (consumes.length > 0) {
+			final MediaType contentType = MediaType.parseContentType(request.getContentType());
+			if (contentType == null) {
+				return false;
+			}
+			for (MediaType mediaType : consumes) {
+				if (mediaType.includes(contentType)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * For each produced media type, the quality of the most specific media range including it is taken as in
+	 * <a href="https://tools.ietf.org/html/rfc7231#section-5.3.2">RFC 7231</a>, the best of them is returned.
+	 *
+	 * @param accept parsed {@code Accept} header of the request
+	 * @return between 0 and 1, or {@link #NOT_ACCEPTABLE}. 0 if nothing is declared to be produced.
+	 */
+	float quality(MediaType[] accept) {
+		if (produces.length == 0) {
+			return 0;
+		}
+
+		float best = NOT_ACCEPTABLE;
+		for (MediaType mediaType : produces) {
+			MediaType mostSpecific = null;
+			for (MediaType range : accept) {
+				if (range.includes(mediaType) && (mostSpecific == null || range.specificity() > mostSpecific.specificity())) {
+					mostSpecific = range;
+				}
+			}
+			if (mostSpecific != null && mostSpecific.quality() > 0 && mostSpecific.quality() > best) {
+				best = mostSpecific.quality();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Used to prefer more specific registrations when qualities are equal.
+	 */
+	int count() {
+		return headers.length + queryParameters.length + (consumes.length > 0 ? 1 : 0) + (produces.length > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Looks for {@code name} in the raw query string, without decoding or splitting it. {@code name}, {@code name=} and {@code name=value} are
+	 * all considered present.
+	 */
+	static boolean hasQueryParameter(@Nullable String queryString, String name) {
+		if (queryString == null) {
+			return false;
+		}
+
+		int start = 0;
+		while (start <= queryString.length()) {
+			final int end = CharSequences.indexOf(queryString, '&', start, queryString.length());
+			final int nameEnd = CharSequences.indexOf(queryString, '=', start, end);
+			if (nameEnd - start == name.length() && CharSequences.regionMatches(queryString, start, nameEnd, name)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static String[] append(String[] array, String element) {
+		final String[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = element;
+		return result;
+	}
+
+	private static MediaType[] append(MediaType[] array, String[] mediaTypes) {
+		final MediaType[] result = Arrays.copyOf(array, array.length + mediaTypes.length);
+		for (int i = 0; i < mediaTypes.length; i++) {
+			result[array.length + i] = MediaType.parse(mediaTypes[i]);
+		}
+		return result;
+	}
+}
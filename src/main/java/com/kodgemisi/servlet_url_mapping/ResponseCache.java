@@ -0,0 +1,260 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>In-memory cache of complete responses of url patterns registered with a time to live, see {@link ServletUrlPattern#cache(java.time.Duration)}.
+ * Responses are keyed by the url pattern and the converted values of its path variables, query strings and headers of requests are not part
+ * of the key.</p>
+ *
+ * <p>Only 200 responses of GET requests are stored, without cookies and only if complete when the request handler returns. Hits are served to GET and HEAD requests by writing the stored status,
+ * headers and body without calling the request handler.</p>
+ *
+ * <p>Total size of the cache is bounded by {@link #getCapacity()} bytes (estimated), oldest entries are evicted first. A single response
+ * larger than a quarter of the capacity is never stored. Expired entries are kept until they are replaced or evicted, so that the eviction
+ * queue holds each key once.</p>
+ *
+ * <p>This class IS thread-safe. Lookups don't lock.</p>
+ */
+final class ResponseCache {
+
+	static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	/**
+	 * Rough per entry overhead of the map, the key and the entry itself in bytes, used to estimate entry sizes.
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Keys in insertion order for eviction. A key is queued only when it's first inserted, replacing its entry doesn't queue it again.
+	 */
+	private final Queue<Key> insertionOrder = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong size = new AtomicLong();
+
+	private volatile long capacity = DEFAULT_CAPACITY;
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity in bytes, 0 disables caching
+	 */
+	void setCapacity(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		}
+		this.capacity = capacity;
+		evict();
+	}
+
+	/**
+	 * Serves the response from the cache or calls the handler and stores its response when possible.
+	 *
+	 * @param contentEncoding content coding the handler applies to the response, if any, e.g. {@code "gzip"}. Responses with different
+	 *                        codings are cached separately.
+	 */
+	void handle(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, ServletRequestHandler requestHandler,
+				long timeToLiveNanos, @Nullable String contentEncoding) throws IOException, ServletException {
+
+		final String method = request.getMethod();
+		final boolean isGet = "GET".equals(method);
+		if (!isGet && !"HEAD".equals(method)) {
+			requestHandler.handleRequest(request, response, servletUrl);
+			return;
+		}
+
+		final Key key = new Key(servletUrl, contentEncoding);
+		final long now = System.nanoTime();
+		final Entry entry = entries.get(key);
+		if (entry != null && now - entry.expiresAt < 0) {
+			entry.writeTo(response);
+			return;
+		}
+
+		final long capacity = this.capacity;
+		if (!isGet || capacity == 0) {
+			requestHandler.handleRequest(request, response, servletUrl);
+			return;
+		}
+
+		final CachingResponse cachingResponse = new CachingResponse(response, (int) Math.min(Integer.MAX_VALUE, capacity / 4));
+		requestHandler.handleRequest(request, cachingResponse, servletUrl);
+
+		final Entry newEntry = cachingResponse.toEntry(request, key, now + timeToLiveNanos);
+		if (newEntry != null) {
+			put(newEntry);
+		}
+	}
+
+	private void put(Entry entry) {
+		size.addAndGet(entry.size);
+		final Entry previous = entries.put(entry.key, entry);
+		if (previous == null) {
+			insertionOrder.add(entry.key);
+		}
+		else {
+			size.addAndGet(-previous.size);
+		}
+		evict();
+	}
+
+	private void evict() {
+		while (size.get() > capacity) {
+			final Key oldest = insertionOrder.poll();
+			if (oldest == null) {
+				return;
+			}
+			final Entry removed = entries.remove(oldest);
+			if (removed != null) {
+				size.addAndGet(-removed.size);
+			}
+		}
+	}
+
+	/**
+	 * @return estimated size of the cached entries in bytes
+	 */
+	long size() {
+		return size.get();
+	}
+
+	/**
+	 * @return number of keys queued for eviction
+	 */
+	int queuedKeys() {
+		return insertionOrder.size();
+	}
+
+	/**
+	 * The url pattern, converted values of its path variables and the content coding of the response.
+	 */
+	static final class Key {
+
+		private final ServletUrl route;
+
+		private final Object[] values;
+
+		@Nullable
+		private final String contentEncoding;
+
+		private final int hashCode;
+
+		Key(ServletUrl servletUrl) {
+			this(servletUrl, null);
+		}
+
+		Key(ServletUrl servletUrl, @Nullable String contentEncoding) {
+			this.route = servletUrl.getRoute();
+			this.values = servletUrl.variableValues();
+			this.contentEncoding = contentEncoding;
+			this.hashCode = 31 * (31 * System.identityHashCode(route) + Arrays.hashCode(values)) + Objects.hashCode(contentEncoding);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+
+			final Key key = (Key) o;
+			return route == key.route && Arrays.equals(values, key.values) && Objects.equals(contentEncoding, key.contentEncoding);
+		}
+	}
+
+	static final class Entry {
+
+		private final Key key;
+
+		/**
+		 * In {@link System#nanoTime()}
+		 */
+		private final long expiresAt;
+
+		/**
+		 * {@code {operation, name, value}} triples, operation is one of {@link CachingResponse#SET_HEADER}, {@link CachingResponse#ADD_HEADER},
+		 * {@link CachingResponse#CONTENT_TYPE} and {@link CachingResponse#CHARACTER_ENCODING}. Values of date headers are {@link Long}s.
+		 */
+		private final Object[][] headerOperations;
+
+		private final byte[] body;
+
+		private final long size;
+
+		Entry(Key key, long expiresAt, Object[][] headerOperations, byte[] body) {
+			this.key = key;
+			this.expiresAt = expiresAt;
+			this.headerOperations = headerOperations;
+			this.body = body;
+
+			long headersSize = 0;
+			for (Object[] operation : headerOperations) {
+				headersSize += ENTRY_OVERHEAD / 4 + 2 * (String.valueOf(operation[1]).length() + String.valueOf(operation[2]).length());
+			}
+			this.size = ENTRY_OVERHEAD + 16L * key.values.length + headersSize + body.length;
+		}
+
+		void writeTo(HttpServletResponse response) throws IOException {
+			response.setStatus(HttpServletResponse.SC_OK);
+			for (Object[] operation : headerOperations) {
+				final String name = (String) operation[1];
+				final Object value = operation[2];
+				switch ((byte) operation[0]) {
+				case CachingResponse.SET_HEADER:
+					if (value instanceof Long) {
+						response.setDateHeader(name, (Long) value);
+					}
+					else {
+						response.setHeader(name, (String) value);
+					}
+					break;
+				case CachingResponse.ADD_HEADER:
+					if (value instanceof Long) {
+						response.addDateHeader(name, (Long) value);
+					}
+					else {
+						response.addHeader(name, (String) value);
+					}
+					break;
+				case CachingResponse.CONTENT_TYPE:
+					response.setContentType((String) value);
+					break;
+				case CachingResponse.CHARACTER_ENCODING:
+					response.setCharacterEncoding((String) value);
+					break;
+				default:
+					throw new IllegalStateException("Unknown header operation " + operation[0]);
+				}
+			}
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+		}
+	}
+}
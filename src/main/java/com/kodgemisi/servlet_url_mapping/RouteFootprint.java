@@ -0,0 +1,250 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Estimates the heap retained by registered url patterns so that the footprint of large route tables can be tracked as they grow:</p>
+ *
+ * <blockquote><pre>
+ * final RouteFootprint footprint = RouteFootprint.of(this.urlMappingRegistrar);
+ * log.info("{} routes take {} bytes, {} bytes per route", footprint.getRouteCount(), footprint.getBytes(), footprint.getBytesPerRoute());
+ * </pre></blockquote>
+ *
+ * <p>Objects reachable from the url patterns are counted once each, hence shared objects like interned literal text are counted once for the
+ * whole table. Objects which belong to the application or are shared with other tables are not counted: request handlers and other lambdas,
+ * path variable converters, response cache and single-flight contents. Sizes are computed from the field layout of the running JVM (compressed
+ * references or not, 8 byte alignment), like a heap dump would report them, ignoring padding between fields.</p>
+ *
+ * <p>On Java 9 and later internals of JDK classes whose packages are not opened to this library are counted by their own size only.</p>
+ *
+ * <p>Measuring walks the whole table via reflection, it's meant for diagnostics and tests, not for request handling.</p>
+ */
+public final class RouteFootprint {
+
+	private static final int ALIGNMENT = 8;
+
+	private static final int REFERENCE_SIZE;
+
+	private static final int OBJECT_HEADER_SIZE;
+
+	private static final int ARRAY_HEADER_SIZE;
+
+	static {
+		final boolean is32Bit = "32".equals(System.getProperty("sun.arch.data.model"));
+		final boolean compressedReferences = is32Bit || usesCompressedReferences();
+		REFERENCE_SIZE = compressedReferences ? 4 : 8;
+		OBJECT_HEADER_SIZE = is32Bit ? 8 : compressedReferences ? 12 : 16;
+		ARRAY_HEADER_SIZE = is32Bit ? 12 : compressedReferences ? 16 : 24;
+	}
+
+	/**
+	 * Instance fields of each class, including the inherited ones, and their shallow size
+	 */
+	private static final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<>();
+
+	private final int routeCount;
+
+	private final long bytes;
+
+	private RouteFootprint(int routeCount, long bytes) {
+		this.routeCount = routeCount;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Measures url patterns of all HTTP methods of the given registrar.
+	 */
+	public static RouteFootprint of(ServletUrlPatternRegistrar registrar) {
+		return of(registrar.patternsByMethod().values().toArray(new ServletUrlPattern[0]));
+	}
+
+	public static RouteFootprint of(ServletUrlPattern... servletUrlPatterns) {
+		int routeCount = 0;
+		final List<Object> roots = new ArrayList<>();
+		for (ServletUrlPattern servletUrlPattern : servletUrlPatterns) {
+			routeCount += servletUrlPattern.routes().size();
+			roots.add(servletUrlPattern);
+		}
+		return new RouteFootprint(routeCount, retainedSize(roots));
+	}
+
+	/**
+	 * @return number of registered url patterns, each registration of url patterns registered more than once included
+	 */
+	public int getRouteCount() {
+		return routeCount;
+	}
+
+	/**
+	 * @return estimated heap retained by the url patterns, see the class documentation
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return {@link #getBytes()} divided by {@link #getRouteCount()}, 0 if there are no url patterns
+	 */
+	public long getBytesPerRoute() {
+		return routeCount == 0 ? 0 : bytes / routeCount;
+	}
+
+	@Override
+	public String toString() {
+		return routeCount + " routes, " + bytes + " bytes, " + getBytesPerRoute() + " bytes per route";
+	}
+
+	private static long retainedSize(List<Object> roots) {
+		final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Deque<Object> pending = new ArrayDeque<>(roots);
+		long size = 0;
+
+		while (!pending.isEmpty()) {
+			final Object object = pending.pop();
+			if (!visited.add(object)) {
+				continue;
+			}
+
+			final Class<?> type = object.getClass();
+			if (type.isArray()) {
+				final int length = Array.getLength(object);
+				final Class<?> componentType = type.getComponentType();
+				size += align(ARRAY_HEADER_SIZE + (long) length * sizeOf(componentType));
+				if (!componentType.isPrimitive()) {
+					for (Object element : (Object[]) object) {
+						if (isCounted(element)) {
+							pending.push(element);
+						}
+					}
+				}
+				continue;
+			}
+
+			final Layout layout = layouts.computeIfAbsent(type, Layout::new);
+			size += layout.size;
+			for (Field field : layout.referenceFields) {
+				final Object value;
+				try {
+					value = field.get(object);
+				}
+				catch (IllegalAccessException e) {
+					continue;
+				}
+				if (isCounted(value)) {
+					pending.push(value);
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return false for objects which don't belong to the route table, see the class documentation
+	 */
+	private static boolean isCounted(Object object) {
+		if (object == null || object instanceof Class || object instanceof PathVariableConverter || object instanceof PathVariableConverters ||
+			object instanceof ResponseCache || object instanceof SingleFlight) {
+			return false;
+		}
+
+		final Class<?> type = object.getClass();
+		if (type.isSynthetic() || type.getName().contains("$$Lambda")) {
+			return false;
+		}
+
+		// arrays, JDK classes and classes of this library, not application classes like request handlers or interceptors
+		final String name = type.getName();
+		return type.isArray() || name.startsWith("java.") || name.startsWith("javax.management.") ||
+			   type.getPackage() == RouteFootprint.class.getPackage();
+	}
+
+	private static long sizeOf(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		if (type == byte.class || type == boolean.class) {
+			return 1;
+		}
+		return REFERENCE_SIZE;
+	}
+
+	private static long align(long size) {
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static boolean usesCompressedReferences() {
+		try {
+			final HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			return hotSpot == null || Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+		}
+		catch (RuntimeException | LinkageError e) {
+			// not HotSpot, compressed references are the default for heaps under 32 GB
+			return true;
+		}
+	}
+
+	private static final class Layout {
+
+		private final long size;
+
+		/**
+		 * Accessible reference fields
+		 */
+		private final Field[] referenceFields;
+
+		Layout(Class<?> type) {
+			long fieldsSize = 0;
+			final List<Field> fields = new ArrayList<>();
+			for (Class<?> declaringClass = type; declaringClass != null; declaringClass = declaringClass.getSuperclass()) {
+				for (Field field : declaringClass.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					fieldsSize += sizeOf(field.getType());
+					if (!field.getType().isPrimitive() && isAccessible(field)) {
+						fields.add(field);
+					}
+				}
+			}
+			this.size = align(OBJECT_HEADER_SIZE + fieldsSize);
+			this.referenceFields = fields.toArray(new Field[0]);
+		}
+
+		private static boolean isAccessible(Field field) {
+			try {
+				field.setAccessible(true);
+				return true;
+			}
+			catch (RuntimeException e) {
+				// InaccessibleObjectException of Java 9+ for JDK internals
+				return false;
+			}
+		}
+	}
+}
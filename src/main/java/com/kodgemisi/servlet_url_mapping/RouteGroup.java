@@ -0,0 +1,155 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * <p>Shared url prefix of url patterns registered via {@link ServletUrlPattern#group}, e.g. {@code "/api/v1/users/{id}"}.</p>
+ *
+ * <p>Url patterns of a group are registered with their whole url patterns, so they behave like any other url pattern. Only matching differs:
+ * the prefix, including its path variables, is matched once per url for all url patterns of the group and then each url pattern matches only
+ * the rest of the url, see {@link ServletUrl#matchSuffix}.</p>
+ *
+ * <p>A prefix consists of whole path segments, hence it always ends where the url's {@code n}th path segment ends, {@code n} being the number of
+ * path segments of the prefix. Path variables never span {@code '/'} so this is exactly where the prefix would end within the whole url pattern
+ * as well.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ */
+final class RouteGroup {
+
+	/**
+	 * Prefix including prefixes of the enclosing groups, starts with {@code '/'} unless it's empty and never ends with {@code '/'}
+	 */
+	private final String urlPrefix;
+
+	/**
+	 * Type of each path variable of the prefix, default types included
+	 */
+	private final Class<?>[] types;
+
+	private final ServletUrl prefix;
+
+	/**
+	 * Number of {@code '/'} characters of the prefix
+	 */
+	private final int segmentCount;
+
+	@Nullable
+	private final RouteGroup enclosing;
+
+	/**
+	 * @param urlPrefix  relative to the enclosing group's prefix, if any
+	 * @param ignoreCase whether to match literal text of the prefix ASCII case insensitively
+	 * @throws IllegalArgumentException if the prefix contains a catch-all or a raw regular expression, or there is no converter for a path
+	 *                                  variable's type
+	 */
+	RouteGroup(@Nullable RouteGroup enclosing, String urlPrefix, Class<?>[] types, PathVariableConverters converters, boolean ignoreCase) {
+		String normalizedPrefix = urlPrefix.startsWith("/") ? urlPrefix : '/' + urlPrefix;
+		while (normalizedPrefix.endsWith("/")) {
+			normalizedPrefix = normalizedPrefix.substring(0, normalizedPrefix.length() - 1);
+		}
+		if (normalizedPrefix.contains("**")) {
+			throw new IllegalArgumentException("Url prefix of a group cannot contain a catch-all: " + urlPrefix);
+		}
+
+		this.enclosing = enclosing;
+		this.urlPrefix = enclosing == null ? normalizedPrefix : enclosing.urlPrefix + normalizedPrefix;
+		final Class<?>[] prefixTypes = enclosing == null ? types : concat(enclosing.types, types);
+
+		this.prefix = new ServletUrl(null, this.urlPrefix, prefixTypes, null, converters);
+		this.prefix.setIgnoreCase(ignoreCase);
+		if (prefix.isRegex()) {
+			throw new IllegalArgumentException("Url prefix of a group cannot contain a raw regular expression: " + urlPrefix);
+		}
+
+		this.types = Arrays.copyOf(prefixTypes, prefix.variableCount());
+		for (int i = prefixTypes.length; i < this.types.length; i++) {
+			this.types[i] = ServletUrl.DEFAULT_PATH_VARIABLE_TYPE;
+		}
+		this.segmentCount = segmentCount(this.urlPrefix);
+	}
+
+	/**
+	 * @param urlPattern relative to the prefix, {@code ""} for the prefix itself
+	 * @return the whole url pattern
+	 */
+	String urlPatternOf(String urlPattern) {
+		return urlPattern.isEmpty() || urlPattern.startsWith("/") ? urlPrefix + urlPattern : urlPrefix + '/' + urlPattern;
+	}
+
+	/**
+	 * @param types types of the path variables after the prefix
+	 * @return types of all path variables of the whole url pattern
+	 */
+	Class<?>[] typesOf(Class<?>[] types) {
+		return concat(this.types, types);
+	}
+
+	String getUrlPrefix() {
+		return urlPrefix;
+	}
+
+	int variableCount() {
+		return types.length;
+	}
+
+	@Nullable
+	RouteGroup getEnclosing() {
+		return enclosing;
+	}
+
+	/**
+	 * @return end of the window of the url which should match the prefix, see the class documentation
+	 */
+	int prefixEnd(CharSequence path, int start, int end) {
+		int position = start;
+		for (int i = 0; i < segmentCount && position < end; i++) {
+			position = CharSequences.indexOf(path, '/', position + 1, end);
+		}
+		return position;
+	}
+
+	/**
+	 * @param prefixEnd see {@link #prefixEnd(CharSequence, int, int)}
+	 * @return null if the prefix doesn't match, captured path variables of the prefix otherwise
+	 */
+	@Nullable
+	int[] matchPrefix(CharSequence path, int start, int prefixEnd) {
+		return prefix.matchCaptures(path, start, prefixEnd, false);
+	}
+
+	/**
+	 * Counts {@code '/'} characters outside of path variables, which may contain {@code '/'} in their constraints.
+	 */
+	private static int segmentCount(String urlPrefix) {
+		int segmentCount = 0;
+		int depth = 0;
+		for (int i = 0; i < urlPrefix.length(); i++) {
+			final char c = urlPrefix.charAt(i);
+			if (c == '{') {
+				depth++;
+			}
+			else if (c == '}' && depth > 0) {
+				depth--;
+			}
+			else if (c == '/' && depth == 0) {
+				segmentCount++;
+			}
+		}
+		return segmentCount;
+	}
+
+	private static Class<?>[] concat(Class<?>[] first, Class<?>[] second) {
+		final Class<?>[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Specificity of a url pattern for most-specific-wins matching, see {@link ServletUrlPattern#setUseMostSpecificMatch(boolean)}. Each path
+ * segment of the url pattern is ranked, from the most specific:</p>
+ * <ol>
+ * <li>{@link #LITERAL}, e.g. {@code "profile.pics"}</li>
+ * <li>{@link #MIXED} literal text and path variables, e.g. {@code "{name}.json"}</li>
+ * <li>{@link #TYPED} a path variable with a type other than {@code String} or an inline constraint, e.g. {@code "{id}"} of a {@code Long}</li>
+ * <li>{@link #STRING} a {@code String} path variable without a constraint</li>
+ * <li>{@link #REGEX} a raw regular expression</li>
+ * <li>{@link #CATCH_ALL}</li>
+ * </ol>
+ *
+ * <p>Url patterns are compared segment by segment from the left, the first differing segment decides. A url pattern ending where the other
+ * one continues with a catch-all is more specific, e.g. {@code "/files"} than {@code "/files/**"}.</p>
+ *
+ * <p>Computed once at registration time. This class is immutable.</p>
+ */
+final class RoutePrecedence implements Comparable<RoutePrecedence> {
+
+	static final byte LITERAL = 0;
+
+	static final byte MIXED = 1;
+
+	static final byte TYPED = 2;
+
+	static final byte STRING = 3;
+
+	static final byte REGEX = 4;
+
+	/**
+	 * Rank of the segment after the last one, more specific than a catch-all which also matches nothing
+	 */
+	private static final byte END = 5;
+
+	static final byte CATCH_ALL = 6;
+
+	private final ServletUrl route;
+
+	private final byte[] ranks;
+
+	/**
+	 * Literal text of {@link #LITERAL} and {@link #MIXED} segments, path variables replaced with {@code "{}"}. Null for other segments.
+	 */
+	private final String[] shapes;
+
+	RoutePrecedence(ServletUrl route, byte[] ranks, String[] shapes) {
+		this.route = route;
+		this.ranks = ranks;
+		this.shapes = shapes;
+	}
+
+	ServletUrl getRoute() {
+		return route;
+	}
+
+	/**
+	 * @return negative if this url pattern is more specific than the other one, 0 if they are equally specific
+	 */
+	@Override
+	public int compareTo(RoutePrecedence other) {
+		final int length = Math.max(ranks.length, other.ranks.length);
+		for (int i = 0; i < length; i++) {
+			final int difference = rank(i) - other.rank(i);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return 0;
+	}
+
+	private byte rank(int segment) {
+		return segment < ranks.length ? ranks[segment] : END;
+	}
+
+	/**
+	 * Whether both url patterns are equally specific and may match the same url, in which case the one registered first wins. Literal text is
+	 * compared as is, url patterns with different literal text at the same segment cannot match the same url.
+	 */
+	boolean isAmbiguousWith(RoutePrecedence other) {
+		if (compareTo(other) != 0) {
+			return false;
+		}
+		final boolean ignoreCase = route.isIgnoreCase() || other.route.isIgnoreCase();
+		for (int i = 0; i < shapes.length; i++) {
+			if (!sameShape(shapes[i], other.shapes[i], ignoreCase)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameShape(@Nullable String shape, @Nullable String other, boolean ignoreCase) {
+		if (shape == null || other == null) {
+			return shape == other;
+		}
+		return ignoreCase ? shape.equalsIgnoreCase(other) : shape.equals(other);
+	}
+
+	@Override
+	public String toString() {
+		return route.getUrlPattern();
+	}
+}
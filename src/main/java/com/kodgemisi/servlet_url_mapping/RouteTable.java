@@ -0,0 +1,162 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Exposes url patterns over JMX, see {@link RouteTableMBean}.</p>
+ *
+ * <p>Nothing is computed while matching: url patterns count their hits in a {@link java.util.concurrent.atomic.LongAdder} anyway and this class
+ * only reads them when asked. Url patterns are listed anew on each call, hence url patterns registered after the MBean are included.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ */
+final class RouteTable implements RouteTableMBean {
+
+	static final String DOMAIN = "com.kodgemisi.servlet_url_mapping";
+
+	/**
+	 * Url patterns by HTTP method, in listing order, a null key for url patterns not registered for a specific method
+	 */
+	private final Map<String, ServletUrlPattern> patternsByMethod;
+
+	RouteTable(Map<String, ServletUrlPattern> patternsByMethod) {
+		this.patternsByMethod = patternsByMethod;
+	}
+
+	/**
+	 * Registers a route table of the given url patterns with the platform MBean server.
+	 *
+	 * @throws IllegalArgumentException if an MBean with the same name is already registered
+	 */
+	static ObjectName register(String name, Map<String, ServletUrlPattern> patternsByMethod) {
+		try {
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type=RouteTable,name=" + ObjectName.quote(name));
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(new RouteTable(patternsByMethod), RouteTableMBean.class), objectName);
+			return objectName;
+		}
+		catch (InstanceAlreadyExistsException e) {
+			throw new IllegalArgumentException("There is already a route table named " + name, e);
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Cannot register route table " + name, e);
+		}
+	}
+
+	static void unregister(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (InstanceNotFoundException e) {
+			// already unregistered
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Cannot unregister route table " + objectName, e);
+		}
+	}
+
+	@Override
+	public String[] getRoutes() {
+		final List<String> methods = new ArrayList<>();
+		final List<ServletUrl> routes = routes(methods);
+		final String[] lines = new String[routes.size()];
+		for (int i = 0; i < lines.length; i++) {
+			final ServletUrl route = routes.get(i);
+			final long lastHitMillis = route.getLastHitMillis();
+
+			final StringBuilder line = new StringBuilder().append(i).append(' ');
+			if (methods.get(i) != null) {
+				line.append(methods.get(i)).append(' ');
+			}
+			line.append(route.getUrlPattern());
+			if (route.getName() != null && !route.getName().isEmpty()) {
+				line.append(" name=").append(route.getName());
+			}
+			line.append(" [").append(route.describe()).append(']')
+				.append(route.isDisabled() ? " disabled" : " enabled")
+				.append(" hits=").append(route.getHitCount())
+				.append(" lastHit=").append(lastHitMillis == 0 ? "never" : Instant.ofEpochMilli(lastHitMillis).toString());
+			lines[i] = line.toString();
+		}
+		return lines;
+	}
+
+	@Override
+	public int getRouteCount() {
+		return routes(null).size();
+	}
+
+	@Override
+	public long getHitCount() {
+		long hitCount = 0;
+		for (ServletUrl route : routes(null)) {
+			hitCount += route.getHitCount();
+		}
+		return hitCount;
+	}
+
+	@Override
+	public long getRouteHitCount(int index) {
+		return route(index).getHitCount();
+	}
+
+	@Override
+	public void enableRoute(int index) {
+		route(index).setDisabled(false);
+	}
+
+	@Override
+	public void disableRoute(int index) {
+		route(index).setDisabled(true);
+	}
+
+	@Override
+	public void resetCounters() {
+		for (ServletUrl route : routes(null)) {
+			route.resetHits();
+		}
+	}
+
+	/**
+	 * @param methods if not null, the HTTP method of each route is added to it, null for url patterns not registered for a specific method
+	 * @return currently registered url patterns in listing order
+	 */
+	private List<ServletUrl> routes(@Nullable List<String> methods) {
+		final List<ServletUrl> routes = new ArrayList<>();
+		for (Map.Entry<String, ServletUrlPattern> entry : patternsByMethod.entrySet()) {
+			for (ServletUrl route : entry.getValue().routes()) {
+				routes.add(route);
+				if (methods != null) {
+					methods.add(entry.getKey());
+				}
+			}
+		}
+		return routes;
+	}
+
+	private ServletUrl route(int index) {
+		final List<ServletUrl> routes = routes(null);
+		if (index < 0 || index >= routes.size()) {
+			throw new IllegalArgumentException("There is no route " + index + ", there are " + routes.size() + " routes");
+		}
+		return routes.get(index);
+	}
+}
@@ -0,0 +1,61 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+/**
+ * <p>Management interface of the url patterns of a {@link ServletUrlPatternRegistrar} or a {@link ServletUrlPattern}, registered under
+ * {@code com.kodgemisi.servlet_url_mapping:type=RouteTable,name=<name>}.</p>
+ *
+ * <p>Routes are identified by their index in {@link #getRoutes()}, which lists them in matching order per HTTP method. Registrations of the same
+ * url pattern with different conditions are listed separately. Url patterns registered while the MBean is registered are listed as well; with
+ * {@link ServletUrlPattern#setUseMostSpecificMatch(boolean)} they may shift the indexes of less specific ones.</p>
+ *
+ * @see ServletUrlPatternRegistrar#registerMBean(String)
+ * @see ServletUrlPattern#registerMBean(String)
+ */
+public interface RouteTableMBean {
+
+	/**
+	 * @return one line per route: index, HTTP method, url pattern, name, path variable types, matching engine, whether it's enabled, hit count
+	 * and last hit time
+	 */
+	String[] getRoutes();
+
+	int getRouteCount();
+
+	/**
+	 * @return total number of requests handled by all routes. Only requests handled via {@code handle} methods are counted, not bare
+	 * {@code parse} calls.
+	 */
+	long getHitCount();
+
+	/**
+	 * @param index index of the route in {@link #getRoutes()}
+	 * @return number of requests handled by the route
+	 * @throws IllegalArgumentException if there is no route with the given index
+	 */
+	long getRouteHitCount(int index);
+
+	/**
+	 * Makes the route match urls again.
+	 *
+	 * @throws IllegalArgumentException if there is no route with the given index
+	 */
+	void enableRoute(int index);
+
+	/**
+	 * Makes the route not match any url, as if it wasn't registered, until it's enabled again.
+	 *
+	 * @throws IllegalArgumentException if there is no route with the given index
+	 */
+	void disableRoute(int index);
+
+	/**
+	 * Resets hit counts and last hit times of all routes.
+	 */
+	void resetCounters();
+}
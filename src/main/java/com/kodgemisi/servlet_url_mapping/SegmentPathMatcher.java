@@ -0,0 +1,264 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * <p>Matches a url pattern consisting of literal text, path variables and an optional catch-all tail against a {@code [start, end)} window of a {@link CharSequence} without
+ * creating any objects. Captured path variables are recorded as index pairs into the window's {@link CharSequence}.</p>
+ *
+ * <p>Literal text is compared character by character, path variables are checked by {@link PathVariableConverter#matches(CharSequence, int, int)}
+ * and then by their inline {@link ConstraintPattern constraint}, if any. A path variable never spans more than one path segment.</p>
+ *
+ * <p>A catch-all ({@code "/admin/**"} or {@code "/files/{path:**}"}) can only be at the end of a url pattern and matches the rest of the url, including
+ * slashes, without any further checks. The slash before a catch-all is optional when nothing follows, i.e {@code "/admin/**"} matches
+ * {@code "/admin"} too.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+final class SegmentPathMatcher {
+
+	/**
+	 * The url pattern literal text is compared with, literal text is not copied out of it.
+	 */
+	private final String source;
+
+	/**
+	 * Two ints per token in the order they appear in the url pattern: start and end indexes of literal text in {@link #source}, or
+	 * {@link #VARIABLE} and the index of the path variable.
+	 */
+	private final int[] tokens;
+
+	/**
+	 * Whether the last token is literal text ending with the pattern's trailing slash, which is skipped when trailing slash match is enabled and
+	 * the url doesn't have it.
+	 */
+	private final boolean trailingSlashOptional;
+
+	private final PathVariableConverter<?>[] converters;
+
+	/**
+	 * Inline constraint of each path variable, null for unconstrained ones. Null if no path variable is constrained.
+	 */
+	@Nullable
+	private final ConstraintPattern[] constraints;
+
+	/**
+	 * Per thread buffers of {@link ConstraintPattern#matchingEnds}, one per path variable since candidates of a path variable are tried while the
+	 * path variables after it are matched. Taken out while in use, so that a converter parsing another url meanwhile gets buffers of its own.
+	 */
+	private static final ThreadLocal<boolean[][][]> CONSTRAINT_ENDS = ThreadLocal.withInitial(() -> new boolean[1][][]);
+
+	private static final int VARIABLE = -1;
+
+	static final int NO_CATCH_ALL = -2;
+
+	static final int ANONYMOUS_CATCH_ALL = -1;
+
+	/**
+	 * {@link #NO_CATCH_ALL}, {@link #ANONYMOUS_CATCH_ALL} for {@code "**"} or the index of the path variable for {@code "{name:**}"}
+	 */
+	private final int catchAll;
+
+	/**
+	 * @param source        the url pattern
+	 * @param tokens        Literal text or null for path variables, in the order they appear in the url pattern. Excludes the catch-all.
+	 * @param literalStarts Index of each literal token in {@code source}, ignored for path variables
+	 * @param converters    Converter of each path variable, in the order they appear in the url pattern
+	 * @param constraints   Inline constraint of each path variable, in the order they appear in the url pattern. Null elements for unconstrained
+	 *                      path variables, null if none of them is constrained.
+	 * @param catchAll      {@link #NO_CATCH_ALL}, {@link #ANONYMOUS_CATCH_ALL} or the index of the catch-all path variable
+	 */
+	SegmentPathMatcher(String source, List<String> tokens, int[] literalStarts, PathVariableConverter<?>[] converters,
+					   @Nullable ConstraintPattern[] constraints, int catchAll) {
+		this.source = source;
+		this.converters = converters;
+		this.constraints = constraints;
+		this.catchAll = catchAll;
+		this.tokens = new int[2 * tokens.size()];
+
+		int variableIndex = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			final String literal = tokens.get(i);
+			if (literal == null) {
+				this.tokens[2 * i] = VARIABLE;
+				this.tokens[2 * i + 1] = variableIndex++;
+			}
+			else {
+				this.tokens[2 * i] = literalStarts[i];
+				this.tokens[2 * i + 1] = literalStarts[i] + literal.length();
+			}
+		}
+
+		final int last = tokens.size() - 1;
+		this.trailingSlashOptional = catchAll == NO_CATCH_ALL && last >= 0 && tokens.get(last) != null && tokens.get(last).endsWith("/");
+	}
+
+	/**
+	 * @param missingTrailingSlash whether to match as if the url had the pattern's trailing slash
+	 * @param ignoreCase           whether to compare literal text ASCII case insensitively, path variables are always checked as is
+	 * @param captures             if not null, {@code captures[2 * i]} and {@code captures[2 * i + 1]} are set to the start and end indexes of
+	 *                             {@code i}th path variable when there is a match
+	 * @return true if the whole window matches
+	 */
+	boolean matches(CharSequence path, int start, int end, boolean missingTrailingSlash, boolean ignoreCase, @Nullable int[] captures) {
+		return matches(path, start, end, missingTrailingSlash, ignoreCase, captures, 0);
+	}
+
+	/**
+	 * Same with {@link #matches(CharSequence, int, int, boolean, boolean, int[])} but records {@code i}th path variable as the
+	 * {@code (captureOffset + i)}th one of {@code captures}, e.g. after the path variables of a url prefix.
+	 */
+	boolean matches(CharSequence path, int start, int end, boolean missingTrailingSlash, boolean ignoreCase, @Nullable int[] captures,
+					int captureOffset) {
+		final boolean skipTrailingSlash = missingTrailingSlash && trailingSlashOptional;
+		if (constraints == null) {
+			return matchFrom(0, skipTrailingSlash, path, start, end, ignoreCase, captures, captureOffset, null);
+		}
+
+		final boolean[][][] holder = CONSTRAINT_ENDS.get();
+		boolean[][] constraintEnds = holder[0];
+		holder[0] = null;
+		if (constraintEnds == null || constraintEnds.length < constraints.length) {
+			constraintEnds = new boolean[constraints.length][];
+		}
+		try {
+			return matchFrom(0, skipTrailingSlash, path, start, end, ignoreCase, captures, captureOffset, constraintEnds);
+		}
+		finally {
+			holder[0] = constraintEnds;
+		}
+	}
+
+	/**
+	 * Compares only the literal text the url pattern starts with, if any, as a cheap check before {@link #matches} with captures.
+	 *
+	 * @return false if the window cannot match, true if it may
+	 */
+	boolean mayMatch(CharSequence path, int start, int end, boolean ignoreCase) {
+		// the last literal text may be matched without its trailing slash, see trailingSlashOptional
+		if (tokens.length <= 2 || tokens[0] == VARIABLE || catchAll != NO_CATCH_ALL) {
+			return true;
+		}
+		return CharSequences.regionMatches(path, start, end, source, tokens[0], tokens[1] - tokens[0], ignoreCase);
+	}
+
+	/**
+	 * @param constraintEnds buffers of {@link ConstraintPattern#matchingEnds} per path variable, created when first needed. Null if no path
+	 *                       variable is constrained.
+	 */
+	private boolean matchFrom(int token, boolean skipTrailingSlash, CharSequence path, int position, int end, boolean ignoreCase,
+							  @Nullable int[] captures, int captureOffset, @Nullable boolean[][] constraintEnds) {
+		final int tokenCount = tokens.length / 2;
+		if (token == tokenCount) {
+			if (catchAll == NO_CATCH_ALL) {
+				return position == end;
+			}
+			capture(catchAll, position, end, captures, captureOffset);
+			return true;
+		}
+
+		if (tokens[2 * token] != VARIABLE) {
+			final int literalStart = tokens[2 * token];
+			final int literalLength = literalEnd(token, skipTrailingSlash) - literalStart;
+			if (CharSequences.regionMatches(path, position, end, source, literalStart, literalLength, ignoreCase)) {
+				return matchFrom(token + 1, skipTrailingSlash, path, position + literalLength, end, ignoreCase, captures, captureOffset,
+								 constraintEnds);
+			}
+
+			// "/admin/**" matches "/admin" too
+			final boolean precedesCatchAll = catchAll != NO_CATCH_ALL && token == tokenCount - 1 && source.charAt(literalStart + literalLength - 1) == '/';
+			if (precedesCatchAll && end - position == literalLength - 1 &&
+				CharSequences.regionMatches(path, position, end, source, literalStart, end - position, ignoreCase)) {
+				capture(catchAll, end, end, captures, captureOffset);
+				return true;
+			}
+			return false;
+		}
+
+		final int variable = tokens[2 * token + 1];
+		final int segmentEnd = CharSequences.indexOf(path, '/', position, end);
+		final boolean isLastToken = token + 1 == tokenCount;
+		final int next = token + 1;
+		final boolean nextIsLiteral = !isLastToken && tokens[2 * next] != VARIABLE;
+
+		// When nothing or a new segment follows, the variable covers the rest of the segment.
+		// Otherwise (literal text or another variable follows) candidates are tried from the longest to the shortest, just like a greedy regex would do.
+		final boolean coversSegment = isLastToken ||
+									  (nextIsLiteral && (literalEnd(next, skipTrailingSlash) == tokens[2 * next] || source.charAt(tokens[2 * next]) == '/'));
+		final int shortestEnd = coversSegment ? segmentEnd : position + 1;
+
+		// A constraint is evaluated once for all candidates instead of once per candidate, see ConstraintPattern#matchingEnds
+		final ConstraintPattern constraint = constraints == null ? null : constraints[variable];
+		boolean[] ends = null;
+		if (constraint != null && !coversSegment) {
+			ends = constraintEnds[variable];
+			if (ends == null) {
+				ends = constraintEnds[variable] = new boolean[ConstraintPattern.MAX_INPUT_LENGTH + 1];
+			}
+			constraint.matchingEnds(path, position, segmentEnd, ends);
+		}
+
+		for (int variableEnd = segmentEnd; variableEnd >= shortestEnd && variableEnd > position; variableEnd--) {
+			final boolean satisfiesConstraint = constraint == null || (ends == null ? constraint.matches(path, position, variableEnd) :
+																	   variableEnd - position <= ConstraintPattern.MAX_INPUT_LENGTH && ends[variableEnd - position]);
+			if (satisfiesConstraint && converters[variable].matches(path, position, variableEnd) &&
+				matchFrom(token + 1, skipTrailingSlash, path, variableEnd, end, ignoreCase, captures, captureOffset, constraintEnds)) {
+				capture(variable, position, variableEnd, captures, captureOffset);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param skipTrailingSlash whether the pattern's trailing slash is skipped, see {@link #trailingSlashOptional}
+	 * @return end index of a literal token in {@link #source}
+	 */
+	private int literalEnd(int token, boolean skipTrailingSlash) {
+		final boolean isLastToken = 2 * token + 2 == tokens.length;
+		return skipTrailingSlash && isLastToken ? tokens[2 * token + 1] - 1 : tokens[2 * token + 1];
+	}
+
+	private static void capture(int variable, int start, int end, @Nullable int[] captures, int captureOffset) {
+		if (captures != null && variable >= 0) {
+			captures[2 * (captureOffset + variable)] = start;
+			captures[2 * (captureOffset + variable) + 1] = end;
+		}
+	}
+
+	int variableCount() {
+		return converters.length;
+	}
+
+	/**
+	 * @return literal tokens quoted and path variables by index, e.g. {@code segments["/products/", {0}, **]}
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder description = new StringBuilder("segments[");
+		for (int i = 0; i < tokens.length / 2; i++) {
+			if (i > 0) {
+				description.append(", ");
+			}
+			if (tokens[2 * i] == VARIABLE) {
+				description.append('{').append(tokens[2 * i + 1]).append('}');
+			}
+			else {
+				description.append('"').append(source, tokens[2 * i], tokens[2 * i + 1]).append('"');
+			}
+		}
+		if (catchAll != NO_CATCH_ALL) {
+			description.append(tokens.length > 0 ? ", **" : "**");
+		}
+		return description.append(']').toString();
+	}
+
+}
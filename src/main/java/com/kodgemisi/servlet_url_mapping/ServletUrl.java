@@ -9,8 +9,13 @@ package com.kodgemisi.servlet_url_mapping;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.math.BigDecimal;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,139 +40,986 @@ public class ServletUrl {
 
 	static final ServletUrl NOT_FOUND;
 
-	private static Pattern pathVariablePattern = Pattern.compile("\\{[A-Za-z_$]\\w*\\}");
+	private static final String CATCH_ALL = "**";
+
+	/**
+	 * Url patterns containing any of these outside of path variables are treated as raw regular expressions for backward compatibility.
+	 */
+	private static Pattern regexMetaCharacters = Pattern.compile("[\\\\\\[\\](){}*+?^$|]");
 
 	static final Class<?> DEFAULT_PATH_VARIABLE_TYPE = String.class;
 
+	private static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+
+	private static final int[] NO_CAPTURES = new int[0];
+
+	/**
+	 * Per thread buffer path variables are captured into while matching, copied only when the url matches. Taken out while in use, so that a
+	 * converter parsing another url meanwhile gets a buffer of its own.
+	 */
+	private static final ThreadLocal<int[][]> CAPTURE_BUFFER = ThreadLocal.withInitial(() -> new int[1][]);
+
+	private static final String[] NO_VARIABLE_NAMES = new String[0];
+
+	private static final PathVariableConverter<?>[] NO_CONVERTERS = new PathVariableConverter<?>[0];
+
+	private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+	private static final AtomicReferenceFieldUpdater<ServletUrl, Hits> HITS_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(ServletUrl.class, Hits.class, "hits");
+
 	static {
-		NOT_FOUND = new ServletUrl(NOT_FOUND_404, "<not applicable>", new Class[0], null);
+		NOT_FOUND = new ServletUrl(NOT_FOUND_404, "<not applicable>", new Class[0], null, new PathVariableConverters());
 	}
 
 	private final String name;
 
-	private final Pattern pattern;
+	private final String urlPattern;
+
+	/**
+	 * Only used for url patterns containing raw regular expressions, null otherwise.
+	 */
+	@Nullable
+	private volatile Pattern pattern;
+
+	/**
+	 * Used for all url patterns without raw regular expressions, null otherwise.
+	 */
+	@Nullable
+	private final SegmentPathMatcher segmentPathMatcher;
 
-	private final List<String> variableNames;
+	private final String[] variableNames;
 
-	private final List<Class<?>> variableTypes;
+	/**
+	 * Resolved once per path variable at registration time, in the same order with {@link #variableNames}.
+	 */
+	private final PathVariableConverter<?>[] converters;
+
+	/**
+	 * Inline constraint of each path variable like {@code "{slug:[a-z0-9-]+}"}, null elements for unconstrained ones. In the same order with
+	 * {@link #variableNames}. Null if no path variable is constrained.
+	 */
+	@Nullable
+	private final ConstraintPattern[] constraints;
 
 	private final boolean hasTrailingSlash;
 
-	private final Map<String, Object> pathVariables;
+	/**
+	 * Whether literal text of the url pattern is matched case insensitively. Set at registration time.
+	 */
+	private volatile boolean ignoreCase;
 
 	private final ServletRequestHandler requestHandler;
 
-	private int index = 0;
+	/**
+	 * Header, query parameter and media type conditions of this registration, null if there is none. Set at registration time.
+	 */
+	@Nullable
+	private volatile RequestConditions conditions;
+
+	/**
+	 * <p>Registrations of the same url pattern (with the same path variable types) in registration order, starting with this one. Only the first
+	 * registration of a url pattern is matched against urls, then one of its variants is selected by their {@link #conditions}. Null when the url
+	 * pattern is registered only once. Set at registration time.</p>
+	 *
+	 * <p>This and the other fields set at registration time after the url pattern is registered are volatile, as requests may be parsed
+	 * meanwhile, see {@link ServletUrlPattern}. Arrays are replaced rather than modified.</p>
+	 */
+	@Nullable
+	private volatile ServletUrl[] variants;
+
+	/**
+	 * Settings most url patterns don't have, null until one of them is set. Set at registration time.
+	 */
+	@Nullable
+	private volatile Settings settings;
+
+	/**
+	 * {@link Settings#groupInterceptors} followed by {@link Settings#ownInterceptors}, flattened once at registration time so that no list is built per request.
+	 */
+	private volatile Interceptor[] interceptors = NO_INTERCEPTORS;
+
+	/**
+	 * Types of path variables as given at registration time, missing ones are {@link #DEFAULT_PATH_VARIABLE_TYPE}. Only used for descriptions.
+	 */
+	private final Class<?>[] types;
+
+	/**
+	 * Requests handled by this url pattern, created on the first hit since most url patterns of large route tables are rarely hit. Always null
+	 * for parsing results. See {@link RouteTable}.
+	 */
+	@Nullable
+	private volatile Hits hits;
+
+	/**
+	 * Disabled url patterns don't match any url. Only set on registered url patterns, see {@link RouteTable}.
+	 */
+	private volatile boolean disabled;
+
+	/**
+	 * Group this url pattern is registered in, null if none. Only set on registered url patterns.
+	 */
+	@Nullable
+	private RouteGroup group;
+
+	/**
+	 * Matches the part of the url pattern after the url prefix of {@link #group}, null if there is no group or the url pattern is a raw regular
+	 * expression.
+	 */
+	@Nullable
+	private SegmentPathMatcher suffixMatcher;
+
+	/**
+	 * The registered url pattern this parsing result belongs to. Points to itself for registered url patterns.
+	 */
+	private final ServletUrl route;
+
+	/**
+	 * The url this parsing result is parsed from, null for registered url patterns.
+	 */
+	@Nullable
+	private final CharSequence source;
+
+	/**
+	 * Start and end indexes of path variables in {@link #source}, {@code captures[2 * i]} and {@code captures[2 * i + 1]} for {@code i}th
+	 * variable. Null for registered url patterns.
+	 */
+	@Nullable
+	private final int[] captures;
+
+	/**
+	 * Path variables converted so far. Path variables are converted on first access.
+	 */
+	@Nullable
+	private Object[] values;
 
 	/**
 	 * @param name       May be null or empty
 	 * @param urlPattern
 	 * @param types
+	 * @param converterRegistry used to resolve a converter for each path variable
+	 * @throws IllegalArgumentException if there is no converter for a path variable's type or a path variable's constraint is invalid
 	 */
-	ServletUrl(@Nullable String name, @NotNull String urlPattern, @NotNull Class<?>[] types, ServletRequestHandler requestHandler) {
+	ServletUrl(@Nullable String name, @NotNull String urlPattern, @NotNull Class<?>[] types, ServletRequestHandler requestHandler,
+			   @NotNull PathVariableConverters converterRegistry) {
 		this.name = name;
-		this.variableTypes = Collections.unmodifiableList(Arrays.asList(types));
-		this.pathVariables = Collections.emptyMap();// prevent accidental use
+		this.urlPattern = urlPattern;
+		this.types = types.length == 0 ? NO_TYPES : types;
 		this.requestHandler = requestHandler;
+		this.route = this;
+		this.source = null;
+		this.captures = null;
 
+		final List<String> tokens = new ArrayList<>();
+		final List<Integer> literalStarts = new ArrayList<>();
 		final List<String> names = new ArrayList<>();
-		this.pattern = Pattern.compile(urlPatternToRegex(urlPattern, names, variableTypes));
+		final List<PathVariableConverter<?>> resolvedConverters = new ArrayList<>();
+		final List<ConstraintPattern> compiledConstraints = new ArrayList<>();
+		final int catchAll = tokenize(urlPattern, types, converterRegistry, tokens, literalStarts, names, resolvedConverters, compiledConstraints);
 
+		// url patterns without path variables are the majority of large route tables, they share empty arrays
 		this.hasTrailingSlash = urlPattern.endsWith("/");
-		this.variableNames = Collections.unmodifiableList(names);
+		this.variableNames = names.isEmpty() ? NO_VARIABLE_NAMES : names.toArray(new String[0]);
+		this.converters = resolvedConverters.isEmpty() ? NO_CONVERTERS : resolvedConverters.toArray(new PathVariableConverter<?>[0]);
+		this.constraints = compiledConstraints.stream().allMatch(Objects::isNull) ? null : compiledConstraints.toArray(new ConstraintPattern[0]);
+
+		if (tokens.stream().anyMatch(token -> token != null && regexMetaCharacters.matcher(token).find())) {
+			this.pattern = Pattern.compile(toRegex(tokens, converters, catchAll));
+			this.segmentPathMatcher = null;
+		}
+		else {
+			this.pattern = null;
+			this.segmentPathMatcher = new SegmentPathMatcher(urlPattern, tokens, literalStarts.stream().mapToInt(Integer::intValue).toArray(), converters,
+															 constraints, catchAll);
+		}
 
 		//TODO check if variableNames & variableTypes sizes are consistent (only if variableTypes is not empty)
 	}
 
-	ServletUrl(ServletUrl copy) {
-		this.name = copy.name;
-		this.variableTypes = copy.variableTypes;
-		this.pattern = copy.pattern;
-		this.hasTrailingSlash = copy.hasTrailingSlash;
-		this.variableNames = copy.variableNames;
-		this.pathVariables = new HashMap<>();
-		this.requestHandler = copy.requestHandler;
-		this.index = copy.index;
+	/**
+	 * Creates a parsing result.
+	 */
+	private ServletUrl(ServletUrl route, CharSequence source, int[] captures) {
+		this.name = route.name;
+		this.urlPattern = route.urlPattern;
+		this.pattern = route.pattern;
+		this.segmentPathMatcher = route.segmentPathMatcher;
+		this.hasTrailingSlash = route.hasTrailingSlash;
+		this.ignoreCase = route.ignoreCase;
+		this.variableNames = route.variableNames;
+		this.converters = route.converters;
+		this.constraints = route.constraints;
+		this.types = route.types;
+		this.requestHandler = route.requestHandler;
+		this.route = route;
+		this.source = source;
+		this.captures = captures;
 	}
 
-	private static Object getObjectAs(Class<?> clazz, String value) {
+	/**
+	 * <strong>Caveat</strong>
+	 * <p>Prefer primitive wrapper classes like Integer, Long etc. to avoid {@link NullPointerException} when the value might be null.</p>
+	 * <p>Note that casting {@code null} to {@code int} throws {@link NullPointerException} however casting {@code null} to {@link Integer} doesn't!</p>
+	 *
+	 * <p>Path variables are converted to their types on first access.</p>
+	 *
+	 * @param variable path variable name
+	 * @return T
+	 */
+	public <T> T variable(String variable) {
+		// searching backwards so that the last one wins when a name is used more than once, as it used to be
+		for (int i = variableNames.length - 1; i >= 0; i--) {
+			if (variableNames[i].equals(variable)) {
+				return (T) valueOf(i);//TODO return optional
+			}
+		}
+		return null;
+	}
 
-		if (String.class.equals(clazz)) {
-			return value;
+	/**
+	 * @return converted values of all path variables, in the order they appear in the url pattern
+	 */
+	Object[] variableValues() {
+		final Object[] result = new Object[variableNames.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = valueOf(i);
 		}
-		if (Integer.class.isAssignableFrom(clazz) || int.class.isAssignableFrom(clazz)) {
-			return Integer.valueOf(value);
+		return result;
+	}
+
+	@Nullable
+	private Object valueOf(int variableIndex) {
+		if (captures == null || captures[2 * variableIndex] < 0) {
+			return null;
 		}
-		if (Long.class.isAssignableFrom(clazz) || long.class.isAssignableFrom(clazz)) {
-			return Long.valueOf(value);
+		if (values == null) {
+			values = new Object[variableNames.length];
 		}
-		if (BigDecimal.class.isAssignableFrom(clazz)) {
-			return new BigDecimal(value);
+		if (values[variableIndex] == null) {
+			final String value = source.subSequence(captures[2 * variableIndex], captures[2 * variableIndex + 1]).toString();
+			values[variableIndex] = converters[variableIndex].convert(value);
 		}
-		if (Boolean.class.equals(clazz) || boolean.class.equals(clazz)) {
-			return Boolean.valueOf(value);
+		return values[variableIndex];
+	}
+
+	/**
+	 * Matches a {@code [start, end)} window of the given url against this registered url pattern in a single pass, see
+	 * {@link #matchCaptures(CharSequence, int, int, boolean)}. Only applicable to url patterns without raw regular expressions, see
+	 * {@link #isRegex()}.
+	 *
+	 * @param missingTrailingSlash whether to match as if the url had the trailing slash this pattern has
+	 * @return null if there is no match, {@code this} if there is a match and this url pattern has no path variables, a new parsing result
+	 * otherwise
+	 */
+	@Nullable
+	ServletUrl match(CharSequence path, int start, int end, boolean missingTrailingSlash) {
+		final int[] captures = matchCaptures(path, start, end, missingTrailingSlash);
+		if (captures == null) {
+			return null;
 		}
+		return captures == NO_CAPTURES ? this : new ServletUrl(this, path, captures);
+	}
 
-		throw new IllegalArgumentException("Unsupported Type " + clazz.getName());
+	/**
+	 * <p>Matches in a single pass, so converters and constraints are evaluated once per url. Also used for url prefixes, which are matched once
+	 * for several url patterns.</p>
+	 *
+	 * <p>Leading literal text is compared first and path variables are captured into a reused buffer, so urls not matching allocate
+	 * nothing.</p>
+	 *
+	 * @return null if there is no match, start and end indexes of path variables otherwise, see {@link #captures}
+	 */
+	@Nullable
+	int[] matchCaptures(CharSequence path, int start, int end, boolean missingTrailingSlash) {
+		if (converters.length == 0) {
+			return segmentPathMatcher.matches(path, start, end, missingTrailingSlash, ignoreCase, null) ? NO_CAPTURES : null;
+		}
+		if (!segmentPathMatcher.mayMatch(path, start, end, ignoreCase)) {
+			return null;
+		}
+		return matchCaptures(segmentPathMatcher, path, start, end, missingTrailingSlash, NO_CAPTURES);
 	}
 
 	/**
-	 * <strong>Caveat</strong>
-	 * <p>Prefer primitive wrapper classes like Integer, Long etc. to avoid {@link NullPointerException} when the value might be null.</p>
-	 * <p>Note that casting {@code null} to {@code int} throws {@link NullPointerException} however casting {@code null} to {@link Integer} doesn't!</p>
+	 * <p>Matches the {@code [start, end)} window of the url following its matching url prefix against the rest of this url pattern. Only
+	 * applicable to url patterns registered in a group, without raw regular expressions.</p>
 	 *
-	 * @param variable path variable name
-	 * @return T
+	 * <p>Path variables of the rest are captured right after the prefix's in a single array. Parsing results of url patterns without path
+	 * variables of their own share the prefix's array, which is never modified.</p>
+	 *
+	 * @param prefixCaptures path variables of the url prefix, see {@link RouteGroup#matchPrefix(CharSequence, int, int)}
+	 * @return null if there is no match, {@code this} if there is a match and this url pattern has no path variables, a new parsing result
+	 * otherwise
 	 */
-	public <T> T variable(String variable) {
-		return (T) pathVariables.get(variable);//TODO return optional
+	@Nullable
+	ServletUrl matchSuffix(CharSequence path, int start, int end, boolean missingTrailingSlash, int[] prefixCaptures) {
+		if (2 * converters.length == prefixCaptures.length) {
+			// no path variables of its own
+			if (!suffixMatcher.matches(path, start, end, missingTrailingSlash, ignoreCase, null)) {
+				return null;
+			}
+			return converters.length == 0 ? this : new ServletUrl(this, path, prefixCaptures);
+		}
+
+		if (!suffixMatcher.mayMatch(path, start, end, ignoreCase)) {
+			return null;
+		}
+		final int[] captures = matchCaptures(suffixMatcher, path, start, end, missingTrailingSlash, prefixCaptures);
+		return captures == null ? null : new ServletUrl(this, path, captures);
+	}
+
+	/**
+	 * Captures path variables after the given ones into {@link #CAPTURE_BUFFER} in a single pass.
+	 *
+	 * @return a copy of the buffer if there is a match, null otherwise
+	 */
+	@Nullable
+	private int[] matchCaptures(SegmentPathMatcher matcher, CharSequence path, int start, int end, boolean missingTrailingSlash,
+								int[] precedingCaptures) {
+		final int length = 2 * converters.length;
+		final int[][] holder = CAPTURE_BUFFER.get();
+		int[] buffer = holder[0];
+		holder[0] = null;
+		if (buffer == null || buffer.length < length) {
+			buffer = new int[length];
+		}
+		try {
+			System.arraycopy(precedingCaptures, 0, buffer, 0, precedingCaptures.length);
+			Arrays.fill(buffer, precedingCaptures.length, length, 0);
+			if (!matcher.matches(path, start, end, missingTrailingSlash, ignoreCase, buffer, precedingCaptures.length / 2)) {
+				return null;
+			}
+			return Arrays.copyOf(buffer, length);
+		}
+		finally {
+			holder[0] = buffer;
+		}
 	}
 
-	void addVariable(String value) {
+	/**
+	 * Matches the given url against this registered url pattern. Only applicable to url patterns with raw regular expressions, see {@link #isRegex()}.
+	 *
+	 * <p>Path variables are captured by their converter's regex and their inline constraints are checked afterwards, so that constraints are
+	 * never evaluated by {@link Pattern}. So are the ranges of built-in converters whose regex accepts values they cannot convert, like numbers
+	 * too large for their type.</p>
+	 *
+	 * @return null if there is no match, {@code this} if there is a match and this url pattern has no path variables, a new parsing result
+	 * otherwise
+	 */
+	@Nullable
+	ServletUrl matchRegex(String url) {
+		final Matcher matcher = pattern.matcher(url);
+		if (!matcher.matches()) {
+			return null;
+		}
+		if (converters.length == 0) {
+			return this;
+		}
+
+		final int[] captures = new int[2 * converters.length];
+		for (int i = 0; i < converters.length; i++) {
+			final boolean hasGroup = i < matcher.groupCount();
+			captures[2 * i] = hasGroup ? matcher.start(i + 1) : -1;
+			captures[2 * i + 1] = hasGroup ? matcher.end(i + 1) : -1;
 
-		// Cannot use simply variableTypes.isEmpty() because user may give only first parameter type out of total two
-		// E.g. servletUrlPattern.register("example", "/users/{id}/addresses/{addrId}", Long.class) here the second parameter is String (the default)
-		final Class<?> clazz = index >= variableTypes.size() ? DEFAULT_PATH_VARIABLE_TYPE : variableTypes.get(index);
-		pathVariables.put(variableNames.get(index++), getObjectAs(clazz, value));
+			if (constraints != null && constraints[i] != null && captures[2 * i] >= 0 && !constraints[i].matches(url, captures[2 * i], captures[2 * i + 1])) {
+				return null;
+			}
+			if (captures[2 * i] >= 0 && PathVariableConverters.isStricterThanRegex(converters[i]) &&
+				!converters[i].matches(url, captures[2 * i], captures[2 * i + 1])) {
+				return null;
+			}
+		}
+		return new ServletUrl(this, url, captures);
 	}
 
-	Pattern getPattern() {
-		return pattern;
+	/**
+	 * @return true if the url pattern contains raw regular expressions and needs to be matched via {@link #matchRegex(String)}
+	 */
+	boolean isRegex() {
+		return pattern != null;
 	}
 
 	boolean hasTrailingSlash() {
 		return hasTrailingSlash;
 	}
 
-	private String urlPatternToRegex(final String urlPattern, List<String> names, List<Class<?>> types) {
-		Matcher matcher = pathVariablePattern.matcher(urlPattern);
-		String result = urlPattern.replaceAll("/", "\\\\/");
-		while (matcher.find()) {
-			String variable = matcher.group();
-			names.add(variable.substring(1, variable.length() - 1));// get rid of {}
+	int variableCount() {
+		return variableNames.length;
+	}
 
-			final Class<?> clazz = names.size() > types.size() ? DEFAULT_PATH_VARIABLE_TYPE : types.get(names.size() - 1);
-			result = result.replace(variable, getRegexGroupByType(clazz));
+	/**
+	 * Makes this url pattern, whose url pattern starts with the group's url prefix, match via {@link #matchSuffix} after the prefix is matched.
+	 */
+	void joinGroup(RouteGroup group, PathVariableConverters converterRegistry) {
+		this.group = group;
+		if (pattern == null) {
+			final String suffix = urlPattern.substring(group.getUrlPrefix().length());
+			final Class<?>[] suffixTypes = Arrays.copyOfRange(types, group.variableCount(), types.length);
+			this.suffixMatcher = new ServletUrl(null, suffix, suffixTypes, null, converterRegistry).segmentPathMatcher;
 		}
-		return result;
 	}
 
-	private String getRegexGroupByType(Class<?> clazz) {
+	@Nullable
+	RouteGroup getGroup() {
+		return group;
+	}
+
+	/**
+	 * <p>Makes literal text of this url pattern match ASCII case insensitively, e.g {@code "/products/{id}"} matches {@code "/Products/13"}. Path
+	 * variables are not affected.</p>
+	 *
+	 * <p>Url patterns with raw regular expressions have no literal text to compare, their regular expression is recompiled with
+	 * {@link Pattern#CASE_INSENSITIVE} instead.</p>
+	 */
+	void setIgnoreCase(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		if (pattern != null) {
+			pattern = Pattern.compile(pattern.pattern(), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+		}
+	}
+
+	String getUrlPattern() {
+		return urlPattern;
+	}
+
+	boolean isIgnoreCase() {
+		return ignoreCase;
+	}
+
+	/**
+	 * @return true if the given registration of the same url pattern can share url matching with this one
+	 */
+	boolean isSameUrlPatternWith(ServletUrl other) {
+		return urlPattern.equals(other.urlPattern) && ignoreCase == other.ignoreCase && Arrays.equals(converters, other.converters);
+	}
+
+	/**
+	 * Adds a registration of the same url pattern, see {@link #isSameUrlPatternWith(ServletUrl)}.
+	 */
+	void addVariant(ServletUrl variant) {
+		final ServletUrl[] registered = variants == null ? new ServletUrl[]{this} : variants;
+		final ServletUrl[] variants = Arrays.copyOf(registered, registered.length + 1);
+		variants[registered.length] = variant;
+		this.variants = variants;
+	}
+
+	RequestConditions conditions() {
+		RequestConditions conditions = this.conditions;
+		if (conditions == null) {
+			conditions = new RequestConditions();
+			this.conditions = conditions;
+		}
+		return conditions;
+	}
+
+	/**
+	 * @return true if a variant has to be selected via {@link #selectVariant(HttpServletRequest, MediaType[])} after a url matches
+	 */
+	boolean hasVariants() {
+		return variants != null || conditions != null;
+	}
+
+	/**
+	 * <p>Selects the registration to handle the request among the variants of this url pattern. Variants whose headers, query parameters or consumed
+	 * media types don't match are skipped. Among the remaining ones the variant producing the media type with the highest quality in
+	 * {@code Accept} wins, then the one with more conditions, then the one registered first. A variant not declaring what it produces is
+	 * selected only if no other variant produces an acceptable media type.</p>
+	 *
+	 * @param request null when parsing a bare url, then conditions are not evaluated and the first registration is selected
+	 * @param accept  parsed {@code Accept} header of the request
+	 * @return null if no variant matches the request
+	 */
+	@Nullable
+	ServletUrl selectVariant(@Nullable HttpServletRequest request, MediaType[] accept) {
+		if (request == null) {
+			if (variants != null) {
+				for (ServletUrl variant : variants) {
+					if (!variant.disabled) {
+						return variant;
+					}
+				}
+			}
+			return this;
+		}
+		if (variants == null) {
+			return conditions.matches(request) && conditions.quality(accept) != RequestConditions.NOT_ACCEPTABLE ? this : null;
+		}
+
+		ServletUrl selected = null;
+		float selectedQuality = RequestConditions.NOT_ACCEPTABLE;
+		int selectedCount = -1;
+		for (ServletUrl variant : variants) {
+			if (variant.disabled) {
+				continue;
+			}
+
+			final RequestConditions variantConditions = variant.conditions;
+			final float quality;
+			final int count;
+			if (variantConditions == null) {
+				quality = 0;
+				count = 0;
+			}
+			else if (variantConditions.matches(request)) {
+				quality = variantConditions.quality(accept);
+				count = variantConditions.count();
+			}
+			else {
+				continue;
+			}
+
+			if (quality > selectedQuality || (quality == selectedQuality && quality != RequestConditions.NOT_ACCEPTABLE && count > selectedCount)) {
+				selected = variant;
+				selectedQuality = quality;
+				selectedCount = count;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Whether the request handler completes the response asynchronously, after it returns, i.e. serves files or reads the request body without
+	 * blocking. Such responses cannot be cached or compressed.
+	 */
+	boolean isAsynchronous() {
+		return requestHandler instanceof FileRequestHandler || requestHandler instanceof NonBlockingRequestBody.Handler;
+	}
 
-		if (String.class.equals(clazz)) {
-			return "([^/]+)";
+	void setCacheTimeToLiveNanos(long cacheTimeToLiveNanos) {
+		settings().cacheTimeToLiveNanos = cacheTimeToLiveNanos;
+	}
+
+	long getCacheTimeToLiveNanos() {
+		return route.settings == null ? 0 : route.settings.cacheTimeToLiveNanos;
+	}
+
+	void setSingleFlightTimeoutNanos(long singleFlightTimeoutNanos) {
+		settings().singleFlightTimeoutNanos = singleFlightTimeoutNanos;
+	}
+
+	long getSingleFlightTimeoutNanos() {
+		return route.settings == null ? 0 : route.settings.singleFlightTimeoutNanos;
+	}
+
+	void setCompressed(boolean compressed) {
+		settings().compressed = compressed;
+	}
+
+	boolean isCompressed() {
+		return route.settings != null && route.settings.compressed;
+	}
+
+	void setBulkhead(Bulkhead bulkhead) {
+		settings().bulkhead = bulkhead;
+	}
+
+	@Nullable
+	Bulkhead getBulkhead() {
+		return route.settings == null ? null : route.settings.bulkhead;
+	}
+
+	void setRateLimit(RateLimit rateLimit) {
+		settings().rateLimit = rateLimit;
+	}
+
+	@Nullable
+	RateLimit getRateLimit() {
+		return route.settings == null ? null : route.settings.rateLimit;
+	}
+
+	/**
+	 * @return the registered url pattern this parsing result belongs to
+	 */
+	ServletUrl getRoute() {
+		return route;
+	}
+
+	void setGroupInterceptors(Interceptor[] groupInterceptors) {
+		if (settings == null && groupInterceptors.length == 0) {
+			return;
 		}
-		if (Integer.class.isAssignableFrom(clazz) || int.class.isAssignableFrom(clazz) || Long.class.isAssignableFrom(clazz) || long.class.isAssignableFrom(clazz)) {
-			return "(\\d+)";
+		settings().groupInterceptors = groupInterceptors;
+		flattenInterceptors();
+	}
+
+	void addInterceptor(Interceptor interceptor) {
+		final Settings settings = settings();
+		final Interceptor[] ownInterceptors = Arrays.copyOf(settings.ownInterceptors, settings.ownInterceptors.length + 1);
+		ownInterceptors[ownInterceptors.length - 1] = interceptor;
+		settings.ownInterceptors = ownInterceptors;
+		flattenInterceptors();
+	}
+
+	private void flattenInterceptors() {
+		final Settings settings = this.settings;
+		final Interceptor[] groupInterceptors = settings.groupInterceptors;
+		final Interceptor[] ownInterceptors = settings.ownInterceptors;
+		final Interceptor[] flattened = Arrays.copyOf(groupInterceptors, groupInterceptors.length + ownInterceptors.length);
+		System.arraycopy(ownInterceptors, 0, flattened, groupInterceptors.length, ownInterceptors.length);
+		interceptors = flattened.length == 0 ? NO_INTERCEPTORS : flattened;
+	}
+
+	private Settings settings() {
+		Settings settings = this.settings;
+		if (settings == null) {
+			settings = new Settings();
+			this.settings = settings;
 		}
-		if (BigDecimal.class.isAssignableFrom(clazz)) {
-			return "(\\d+\\.*\\d*)";
+		return settings;
+	}
+
+	Interceptor[] getInterceptors() {
+		return route.interceptors;
+	}
+
+	/**
+	 * @return registrations of this url pattern, starting with this one
+	 */
+	ServletUrl[] variants() {
+		return variants == null ? new ServletUrl[]{this} : variants.clone();
+	}
+
+	/**
+	 * Counts a request handled by the registered url pattern of this parsing result.
+	 */
+	void recordHit() {
+		Hits hits = route.hits;
+		if (hits == null) {
+			HITS_UPDATER.compareAndSet(route, null, new Hits());
+			hits = route.hits;
+		}
+		hits.count.increment();
+
+		// written at most once a second so that concurrent hits mostly only read it
+		final long now = System.currentTimeMillis();
+		if (now / 1000 != hits.lastHitMillis / 1000) {
+			hits.lastHitMillis = now;
+		}
+	}
+
+	long getHitCount() {
+		final Hits hits = route.hits;
+		return hits == null ? 0 : hits.count.sum();
+	}
+
+	/**
+	 * @return when this url pattern last handled a request in milliseconds since epoch, accurate to a second, 0 if never
+	 */
+	long getLastHitMillis() {
+		final Hits hits = route.hits;
+		return hits == null ? 0 : hits.lastHitMillis;
+	}
+
+	void resetHits() {
+		final Hits hits = route.hits;
+		if (hits != null) {
+			hits.count.reset();
+			hits.lastHitMillis = 0;
 		}
-		if (Boolean.class.equals(clazz) || boolean.class.equals(clazz)) {
-			return "(true|false|True|False|TRUE|FALSE)";
+	}
+
+	boolean isDisabled() {
+		return route.disabled;
+	}
+
+	void setDisabled(boolean disabled) {
+		this.disabled = disabled;
+	}
+
+	/**
+	 * Whether the url pattern is skipped while matching. A url pattern with variants is matched as long as one of them is enabled.
+	 */
+	boolean isMatchingDisabled() {
+		if (variants == null) {
+			return disabled;
 		}
+		for (ServletUrl variant : variants) {
+			if (!variant.disabled) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-		throw new IllegalArgumentException("Unsupported Type " + clazz.getName());
+	/**
+	 * @return path variables with their types and how the url pattern is matched, e.g. {@code "id:Long segments["/products/", {0}]"}
+	 */
+	String describe() {
+		final StringBuilder description = new StringBuilder();
+		for (int i = 0; i < variableNames.length; i++) {
+			final Class<?> type = i < types.length ? types[i] : DEFAULT_PATH_VARIABLE_TYPE;
+			description.append(variableNames[i]).append(':').append(type.getSimpleName()).append(' ');
+		}
+		return description.append(pattern == null ? segmentPathMatcher : "regex " + pattern.pattern()).toString();
+	}
+
+	/**
+	 * Ranks each path segment of the url pattern by its specificity, a trailing slash doesn't make a segment. Path variables are recognized as
+	 * in {@link #tokenize}.
+	 */
+	RoutePrecedence precedence() {
+		final List<Byte> ranks = new ArrayList<>();
+		final List<String> shapes = new ArrayList<>();
+
+		final int end = hasTrailingSlash && urlPattern.length() > 1 ? urlPattern.length() - 1 : urlPattern.length();
+		int variableIndex = 0;
+		int segmentStart = urlPattern.startsWith("/") ? 1 : 0;
+		while (true) {
+			final StringBuilder shape = new StringBuilder();
+			boolean literal = false;
+			boolean regex = false;
+			boolean catchAll = false;
+			boolean typed = false;
+			int variables = 0;
+
+			int position = segmentStart;
+			while (position < end && urlPattern.charAt(position) != '/') {
+				final char c = urlPattern.charAt(position);
+				final int nameEnd = c == '{' ? identifierEnd(urlPattern, position + 1, end) : position + 1;
+				final int close = nameEnd == position + 1 || nameEnd == end ? -1
+						: urlPattern.charAt(nameEnd) == '}' ? nameEnd
+						: urlPattern.charAt(nameEnd) == ':' ? closingBrace(urlPattern, nameEnd + 1, end) : -1;
+				if (close >= 0) {
+					final String constraint = close == nameEnd ? null : urlPattern.substring(nameEnd + 1, close);
+					if (CATCH_ALL.equals(constraint)) {
+						catchAll = true;
+					}
+					else {
+						final Class<?> type = variableIndex < types.length ? types[variableIndex] : DEFAULT_PATH_VARIABLE_TYPE;
+						typed |= constraint != null || type != DEFAULT_PATH_VARIABLE_TYPE;
+						variables++;
+						shape.append("{}");
+					}
+					variableIndex++;
+					position = close + 1;
+					continue;
+				}
+				literal = true;
+				regex |= regexMetaCharacters.matcher(String.valueOf(c)).find();
+				shape.append(c);
+				position++;
+			}
+
+			final byte rank;
+			if (catchAll || CATCH_ALL.contentEquals(shape)) {
+				rank = RoutePrecedence.CATCH_ALL;
+			}
+			else if (regex) {
+				rank = RoutePrecedence.REGEX;
+			}
+			else if (variables == 0) {
+				rank = RoutePrecedence.LITERAL;
+			}
+			else if (literal) {
+				rank = RoutePrecedence.MIXED;
+			}
+			else {
+				rank = typed ? RoutePrecedence.TYPED : RoutePrecedence.STRING;
+			}
+			ranks.add(rank);
+			shapes.add(rank == RoutePrecedence.LITERAL || rank == RoutePrecedence.MIXED ? shape.toString() : null);
+
+			if (position >= end) {
+				break;
+			}
+			segmentStart = position + 1;
+		}
+
+		final byte[] rankArray = new byte[ranks.size()];
+		for (int i = 0; i < rankArray.length; i++) {
+			rankArray[i] = ranks.get(i);
+		}
+		return new RoutePrecedence(this, rankArray, shapes.toArray(new String[0]));
+	}
+
+	void setETagSupplier(Function<ServletUrl, String> eTagSupplier) {
+		settings().eTagSupplier = eTagSupplier;
+	}
+
+	void setLastModifiedSupplier(ToLongFunction<ServletUrl> lastModifiedSupplier) {
+		settings().lastModifiedSupplier = lastModifiedSupplier;
+	}
+
+	/**
+	 * Evaluates conditional GET and HEAD requests against validators of the url pattern this parsing result belongs to.
+	 *
+	 * @param contentCoding the {@code Content-Encoding} the response is sent with, null if none
+	 * @return null if 304 is sent and the request handler must not be called, otherwise the response to pass to the request handler
+	 * @see ConditionalRequests#evaluate
+	 */
+	@Nullable
+	HttpServletResponse evaluateConditions(HttpServletRequest request, HttpServletResponse response, @Nullable String contentCoding) {
+		final Settings settings = route.settings;
+		if (settings == null || (settings.eTagSupplier == null && settings.lastModifiedSupplier == null)) {
+			return response;
+		}
+		return ConditionalRequests.evaluate(request, response, this, settings.eTagSupplier, settings.lastModifiedSupplier, contentCoding);
+	}
+
+	/**
+	 * @return this parsing result as if it was parsed by the given variant of its url pattern
+	 */
+	ServletUrl withRoute(ServletUrl variant) {
+		if (variant == route) {
+			return this;
+		}
+		return captures == null ? variant : new ServletUrl(variant, source, captures);
+	}
+
+	/**
+	 * Splits the url pattern into literal text and path variables (nulls in {@code tokens}), resolves converters of path variables and compiles
+	 * their inline constraints. A trailing catch-all is not added to {@code tokens}. Index of each token in the url pattern is added to
+	 * {@code literalStarts}, -1 for path variables.
+	 *
+	 * <p>A path variable is {@code "{name}"}, {@code "{name:constraint}"} or {@code "{name:**}"} where name is a Java identifier without
+	 * {@code $} in the rest. Any other {@code '{'} is literal text, e.g. a quantifier of a raw regular expression.</p>
+	 *
+	 * @return {@link SegmentPathMatcher#NO_CATCH_ALL}, {@link SegmentPathMatcher#ANONYMOUS_CATCH_ALL} or index of the catch-all path variable
+	 * @throws IllegalArgumentException if a catch-all is not at the end of the url pattern or a constraint is invalid
+	 */
+	private static int tokenize(String urlPattern, Class<?>[] types, PathVariableConverters converterRegistry, List<String> tokens,
+								List<Integer> literalStarts, List<String> names, List<PathVariableConverter<?>> resolvedConverters,
+								List<ConstraintPattern> compiledConstraints) {
+		int catchAll = SegmentPathMatcher.NO_CATCH_ALL;
+		int patternEnd = urlPattern.length();
+		if (urlPattern.endsWith('/' + CATCH_ALL)) {
+			catchAll = SegmentPathMatcher.ANONYMOUS_CATCH_ALL;
+			patternEnd -= CATCH_ALL.length();
+		}
+
+		int literalStart = 0;
+		int open = urlPattern.indexOf('{');
+		while (open >= 0 && open < patternEnd) {
+			final int nameEnd = identifierEnd(urlPattern, open + 1, patternEnd);
+			if (nameEnd == open + 1 || nameEnd == patternEnd || (urlPattern.charAt(nameEnd) != '}' && urlPattern.charAt(nameEnd) != ':')) {
+				open = urlPattern.indexOf('{', open + 1);
+				continue;
+			}
+
+			final int close = urlPattern.charAt(nameEnd) == '}' ? nameEnd : closingBrace(urlPattern, nameEnd + 1, patternEnd);
+			if (close < 0) {
+				throw new IllegalArgumentException("Path variable " + urlPattern.substring(open, patternEnd) + " is not closed in the url pattern " + urlPattern);
+			}
+
+			if (open > literalStart) {
+				addLiteral(urlPattern, literalStart, open, tokens, literalStarts);
+			}
+			// the same few names like "id" repeat in every url pattern of a large route table
+			names.add(urlPattern.substring(open + 1, nameEnd).intern());
+
+			final String constraint = close == nameEnd ? null : urlPattern.substring(nameEnd + 1, close);
+			if (CATCH_ALL.equals(constraint)) {
+				if (close + 1 != urlPattern.length()) {
+					throw new IllegalArgumentException(
+							"Catch-all path variable " + urlPattern.substring(open, close + 1) + " must be at the end of the url pattern " + urlPattern);
+				}
+				catchAll = names.size() - 1;
+				compiledConstraints.add(null);
+			}
+			else {
+				tokens.add(null);
+				literalStarts.add(-1);
+				compiledConstraints.add(constraint == null ? null : ConstraintPattern.compile(constraint));
+			}
+
+			// Cannot use simply types.length == 0 because user may give only first parameter type out of total two
+			// E.g. servletUrlPattern.register("example", "/users/{id}/addresses/{addrId}", Long.class) here the second parameter is String (the default)
+			final Class<?> clazz = names.size() > types.length ? DEFAULT_PATH_VARIABLE_TYPE : types[names.size() - 1];
+			resolvedConverters.add(converterRegistry.find(clazz));
+			literalStart = close + 1;
+			open = urlPattern.indexOf('{', literalStart);
+		}
+		if (literalStart < patternEnd) {
+			addLiteral(urlPattern, literalStart, patternEnd, tokens, literalStarts);
+		}
+		return catchAll;
+	}
+
+	/**
+	 * @return end of the path variable name starting at {@code start}, {@code start} if there is no valid name
+	 */
+	private static int identifierEnd(String urlPattern, int start, int end) {
+		if (start == end) {
+			return start;
+		}
+		final char first = urlPattern.charAt(start);
+		if (!(first >= 'A' && first <= 'Z' || first >= 'a' && first <= 'z' || first == '_' || first == '$')) {
+			return start;
+		}
+
+		int position = start + 1;
+		while (position < end) {
+			final char c = urlPattern.charAt(position);
+			if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_')) {
+				break;
+			}
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Finds the brace closing a path variable, skipping escaped characters, character classes and nested braces of the constraint like in
+	 * {@code "{zip:\\d{5}}"}.
+	 *
+	 * @return index of the closing brace or -1
+	 */
+	private static int closingBrace(String urlPattern, int start, int end) {
+		int depth = 0;
+		boolean inCharClass = false;
+		for (int i = start; i < end; i++) {
+			final char c = urlPattern.charAt(i);
+			if (c == '\\') {
+				i++;
+			}
+			else if (inCharClass) {
+				inCharClass = c != ']';
+			}
+			else if (c == '[') {
+				inCharClass = true;
+			}
+			else if (c == '{') {
+				depth++;
+			}
+			else if (c == '}') {
+				if (depth == 0) {
+					return i;
+				}
+				depth--;
+			}
+		}
+		return -1;
+	}
+
+	private static void addLiteral(String urlPattern, int start, int end, List<String> tokens, List<Integer> literalStarts) {
+		final String literal = urlPattern.substring(start, end);
+		if (literal.contains(CATCH_ALL)) {
+			throw new IllegalArgumentException("Catch-all ** must be at the end of the url pattern " + urlPattern);
+		}
+		tokens.add(literal);
+		literalStarts.add(start);
+	}
+
+	private static String toRegex(List<String> tokens, PathVariableConverter<?>[] converters, int catchAll) {
+		final StringBuilder result = new StringBuilder();
+		int variableIndex = 0;
+		for (String token : tokens) {
+			if (token == null) {
+				result.append('(').append(converters[variableIndex++].regex()).append(')');
+			}
+			else {
+				result.append(token.replace("/", "\\/"));
+			}
+		}
+
+		if (catchAll == SegmentPathMatcher.ANONYMOUS_CATCH_ALL) {
+			result.append(".*");
+		}
+		else if (catchAll >= 0) {
+			result.append("(.*)");
+		}
+		return result.toString();
 	}
 
 	/**
@@ -207,11 +1059,12 @@ public class ServletUrl {
 		return requestHandler;
 	}
 
+	/**
+	 * Parsing results are equal to each other and to the registered url pattern they are parsed with.
+	 */
 	@Override
 	public int hashCode() {
-		int result = pattern.hashCode();
-		result = 31 * result + (requestHandler != null ? requestHandler.hashCode() : 0);
-		return result;
+		return System.identityHashCode(route);
 	}
 
 	@Override
@@ -221,15 +1074,85 @@ public class ServletUrl {
 		if (o == null || getClass() != o.getClass())
 			return false;
 
-		ServletUrl that = (ServletUrl) o;
-
-		if (!pattern.equals(that.pattern))
-			return false;
-		return requestHandler != null ? requestHandler.equals(that.requestHandler) : that.requestHandler == null;
+		return route == ((ServletUrl) o).route;
 	}
 
 	@Override
 	public String toString() {
-		return "ServletUrl{" + "name='" + name + '\'' + ", pattern=" + pattern + '}';
+		return "ServletUrl{" + "name='" + name + '\'' + ", pattern=" + urlPattern + '}';
+	}
+
+	/**
+	 * Settings of a url pattern which most url patterns don't have. They are kept apart so that they cost a single null reference for url patterns
+	 * without them, which are the majority of large route tables. Its fields are volatile for the same reason as
+	 * {@link ServletUrl#variants}.
+	 */
+	private static final class Settings {
+
+		/**
+		 * Computes the entity tag of the response from path variables, null if conditional requests are not supported. Set at registration time.
+		 */
+		@Nullable
+		private volatile Function<ServletUrl, String> eTagSupplier;
+
+		/**
+		 * Computes the last modification time of the response from path variables, null if conditional requests are not supported. Set at
+		 * registration time.
+		 */
+		@Nullable
+		private volatile ToLongFunction<ServletUrl> lastModifiedSupplier;
+
+		/**
+		 * How long responses are cached in nanoseconds, 0 if they are not cached. Set at registration time.
+		 */
+		private volatile long cacheTimeToLiveNanos;
+
+		/**
+		 * How long identical concurrent requests wait for the one being handled in nanoseconds, 0 if they are not coalesced. Set at registration
+		 * time.
+		 */
+		private volatile long singleFlightTimeoutNanos;
+
+		/**
+		 * Whether responses are gzip compressed for clients accepting it. Set at registration time.
+		 */
+		private volatile boolean compressed;
+
+		/**
+		 * Limits concurrent requests handled by this url pattern, null if unlimited. Set at registration time.
+		 */
+		@Nullable
+		private volatile Bulkhead bulkhead;
+
+		/**
+		 * Limits the rate of requests handled by this url pattern, null if unlimited. Set at registration time.
+		 */
+		@Nullable
+		private volatile RateLimit rateLimit;
+
+		/**
+		 * Interceptors of groups this url pattern belongs to, see {@link ServletUrlPatternRegistrar#intercept(String, Interceptor)}. Set at
+		 * registration time.
+		 */
+		private volatile Interceptor[] groupInterceptors = NO_INTERCEPTORS;
+
+		/**
+		 * Interceptors attached to this url pattern only. Set at registration time.
+		 */
+		private volatile Interceptor[] ownInterceptors = NO_INTERCEPTORS;
+	}
+
+	/**
+	 * Hit statistics of a registered url pattern, kept apart from the fields read while matching so that counting hits doesn't contend with
+	 * parsing on other cores.
+	 */
+	private static final class Hits {
+
+		private final LongAdder count = new LongAdder();
+
+		/**
+		 * When the url pattern last handled a request in milliseconds since epoch, 0 if never
+		 */
+		private volatile long lastHitMillis;
 	}
-}
\ No newline at end of file
+}
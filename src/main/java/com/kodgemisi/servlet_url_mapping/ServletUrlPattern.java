@@ -11,12 +11,21 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.LinkedHashSet;
-import java.util.regex.Matcher;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * <p>If you are in a Servlet please prefer {@link ServletUrlPatternRegistrar} instead of this class because this is a low level API.</p><br>
@@ -75,6 +84,20 @@ import java.util.regex.Matcher;
  *      }
  * }
  * </pre></blockquote>
+ * <br>
+ * <h2>Thread safety</h2>
+ *
+ * <p>Parsing and handling requests never lock. Registered url patterns are kept in an immutable snapshot of an array and the number of its
+ * elements in use, replaced when a url pattern is registered. A registration either appends to the spare capacity of the array, beyond what
+ * any published snapshot reads, or copies it, so each parse iterates a consistent snapshot and url patterns can be registered while requests
+ * are being handled, without per-thread copies of the table. Registering and customizing url patterns synchronize on this object and publish the table anew
+ * when they are done, hence a request parsed after such a call returns sees its effect.</p>
+ *
+ * <p>A url pattern matches requests as soon as it's registered, so while requests are being handled a few of them may reach it before the
+ * calls customizing it, like {@link #produces(String...)}, that follow. Interceptors of
+ * {@link ServletUrlPatternRegistrar#intercept(String, Interceptor)} are attached before a url pattern is published. When several threads
+ * register url patterns at once, calls customizing "the last registered url pattern" should be made in a block synchronized on this
+ * object.</p>
  *
  * @author destan
  */
@@ -82,7 +105,12 @@ public class ServletUrlPattern {
 
 	private static final Logger log = LoggerFactory.getLogger(ServletUrlPattern.class);
 
-	private final LinkedHashSet<ServletUrl> urlMappings;
+	/**
+	 * Registered url patterns in matching order, i.e. registration order or {@link #setUseMostSpecificMatch(boolean) precedence}. An array rather than a set since url patterns registered more than once are kept as
+	 * variants of the first registration, see {@link ServletUrl#addVariant(ServletUrl)}. Replaced on write and written again after each
+	 * customization, see {@link #publish()}.
+	 */
+	private volatile UrlMappings urlMappings = UrlMappings.NONE;
 
 	/**
 	 * <p>Whether to match to URLs irrespective of the presence of a trailing slash. If enabled a method mapped to "/users" also matches to "/users/".</p>
@@ -91,13 +119,101 @@ public class ServletUrlPattern {
 	 */
 	private final boolean useTrailingSlashMatch;
 
+	/**
+	 * Elements of {@link #urlMappings} by their url pattern, to find the registration a url pattern registered again is a variant of without
+	 * scanning the table. Url patterns are rarely registered with different {@link ServletUrl#isSameUrlPatternWith(ServletUrl) case
+	 * sensitivity or types}, hence the lists mostly have a single element. Guarded by this.
+	 */
+	private final Map<String, List<ServletUrl>> urlMappingsByUrlPattern = new HashMap<>();
+
+	/**
+	 * Whether url patterns registered from now on match case insensitively, see {@link #setUseCaseInsensitiveMatch(boolean)}.
+	 */
+	private boolean useCaseInsensitiveMatch;
+
+	/**
+	 * Whether url patterns are matched most specific first rather than in registration order, see {@link #setUseMostSpecificMatch(boolean)}.
+	 */
+	private boolean useMostSpecificMatch;
+
+	/**
+	 * Precedence of each element of {@link #urlMappings}, in the same order. Only kept if {@link #useMostSpecificMatch} is enabled.
+	 */
+	private final List<RoutePrecedence> precedences = new ArrayList<>();
+
+	/**
+	 * Descriptions of equally specific url patterns which may match the same urls, see {@link #getAmbiguities()}.
+	 */
+	private final List<String> ambiguities = new ArrayList<>();
+
+	private final PathVariableConverters converters;
+
+	private final ResponseCache responseCache = new ResponseCache();
+
+	private final SingleFlight singleFlights = new SingleFlight();
+
+	/**
+	 * Coalesces identical requests if the url pattern is registered with {@link #singleFlight(Duration)} and calls the request handler within
+	 * the url pattern's bulkhead, if any. Kept in a field to avoid creating it per request.
+	 */
+	private final ServletRequestHandler singleFlightHandler = this::handleSingleFlight;
+
+	/**
+	 * Gzip compresses the response of {@link #singleFlightHandler}. Kept in a field to avoid creating it per request.
+	 */
+	private final ServletRequestHandler compressingHandler = this::handleCompressed;
+
+	/**
+	 * Calls the request handler within the url pattern's bulkhead, if any. Kept in a field to avoid creating it per request.
+	 */
+	private final ServletRequestHandler bulkheadHandler = this::handleWithinBulkhead;
+
+	/**
+	 * Target of the methods customizing the last registered url pattern like {@link #ignoreCase()}
+	 */
+	private ServletUrl lastRegistered;
+
+	/**
+	 * Group url patterns are registered in, see {@link #group(String, Consumer, Class[])}. Null outside of groups.
+	 */
+	@Nullable
+	private RouteGroup group;
+
+	/**
+	 * Name of the MBean registered by {@link #registerMBean(String)}, null if there is none.
+	 */
+	@Nullable
+	private ObjectName objectName;
+
 	/**
 	 * @param useTrailingSlashMatch Whether to match to URLs irrespective of the presence of a trailing slash. If enabled a method mapped to "/users" also matches to "/users/".
 	 * @see <a href="http://docs.spring.io/spring/docs/5.0.x/javadoc-api/org/springframework/web/servlet/mvc/method/annotation/RequestMappingHandlerMapping.html#setUseTrailingSlashMatch-boolean-">Spring Documentation on trailing slash</a>
 	 */
 	public ServletUrlPattern(boolean useTrailingSlashMatch) {
-		this.urlMappings = new LinkedHashSet<>();
+		this(useTrailingSlashMatch, new PathVariableConverters());
+	}
+
+	/**
+	 * @param useTrailingSlashMatch Whether to match to URLs irrespective of the presence of a trailing slash. If enabled a method mapped to "/users" also matches to "/users/".
+	 * @param converters            Converters to resolve path variable types with. May be shared between several {@code ServletUrlPattern}s.
+	 */
+	public ServletUrlPattern(boolean useTrailingSlashMatch, @NotNull PathVariableConverters converters) {
 		this.useTrailingSlashMatch = useTrailingSlashMatch;
+		this.converters = converters;
+	}
+
+	/**
+	 * <p>Registers a converter for a path variable type. Must be called before registering url patterns using that type because converters are
+	 * resolved at registration time.</p>
+	 *
+	 * <p>This method is NOT thread-safe.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @see PathVariableConverters
+	 */
+	public <T> ServletUrlPattern registerConverter(Class<T> type, PathVariableConverter<? extends T> converter) {
+		converters.register(type, converter);
+		return this;
 	}
 
 	/**
@@ -105,8 +221,7 @@ public class ServletUrlPattern {
 	 * com.kodgemisi.servlet_url_mapping.ServletUrlPatternRegistrar}'s {@code get}, {@code post}, {@code put} etc. methods.
 	 * However when you want to manually check url mappings, for example in a Servlet Filter, you can use this method.</p>
 	 *
-	 * <p>This method is NOT thread-safe. Should only be called from a {@code constructor} or {@link javax.servlet.http.HttpServlet#init()} or called
-	 * in a synchronized block.</p>
+	 * <p>This method IS thread-safe, url patterns can be registered while requests are being parsed, see the class documentation.</p>
 	 *
 	 * @param name           (optional, maybe null or empty) The name of your choice for this url pattern. This parameter is optional when using this
 	 *                       version of {@code register} method.
@@ -117,31 +232,594 @@ public class ServletUrlPattern {
 	 *                       default. You
 	 *                       should give types in the same order as you type {@literal { }} expressions in {@code urlPattern}
 	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if there is no {@link PathVariableConverter} for one of the path variable types
 	 */
 	public ServletUrlPattern register(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... types) throws IllegalArgumentException {
+		return register(name, urlPattern, requestHandler, types, null);
+	}
+
+	/**
+	 * <p>Same with {@link #register(String, String, ServletRequestHandler, Class[])} but the request body is read without blocking a container
+	 * thread and handed to the listener {@code streamingRequestHandler} returns, see {@link StreamingRequestHandler}.</p>
+	 *
+	 * <p>This method IS thread-safe, url patterns can be registered while requests are being parsed, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if there is no {@link PathVariableConverter} for one of the path variable types
+	 */
+	public ServletUrlPattern register(String name, String urlPattern, StreamingRequestHandler streamingRequestHandler, Class<?>... types)
+			throws IllegalArgumentException {
+		return register(name, urlPattern, NonBlockingRequestBody.handlerOf(streamingRequestHandler), types, null);
+	}
 
+	/**
+	 * @param prepare customizes the url pattern before it's published, so that no request is handled without the customization
+	 */
+	synchronized ServletUrlPattern register(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>[] types,
+											@Nullable Consumer<ServletUrl> prepare) {
 		if (requestHandler == null && (name == null || name.isEmpty())) {
 			throw new IllegalArgumentException("Name cannot be null when registering without a 'requestHandler' function. How will you check whether the request matches your pattern or not?");
 		}
 
-		//TODO throw IllegalArgumentException when an unsupported class is given in type param
-
+		if (group != null) {
+			urlPattern = group.urlPatternOf(urlPattern);
+			types = group.typesOf(types);
+		}
 		// be tolerant :)
-		if (!urlPattern.startsWith("/")) {
+		else if (!urlPattern.startsWith("/")) {
 			urlPattern = '/' + urlPattern;
 		}
 
-		urlMappings.add(new ServletUrl(name, urlPattern, types, requestHandler));
+		final ServletUrl servletUrl = new ServletUrl(name, urlPattern, types, requestHandler, converters);
+		servletUrl.setIgnoreCase(useCaseInsensitiveMatch);
+		if (group != null) {
+			servletUrl.joinGroup(group, converters);
+		}
+
+		if (prepare != null) {
+			prepare.accept(servletUrl);
+		}
+
+		// registrations of the same url pattern are told apart by their conditions, see produces(), consumes() etc.
+		final List<ServletUrl> sameUrlPatterns = urlMappingsByUrlPattern.computeIfAbsent(urlPattern, key -> new ArrayList<>(1));
+		ServletUrl sameUrlPattern = null;
+		for (ServletUrl route : sameUrlPatterns) {
+			if (route.isSameUrlPatternWith(servletUrl)) {
+				sameUrlPattern = route;
+				break;
+			}
+		}
+		lastRegistered = servletUrl;
+		if (sameUrlPattern == null) {
+			sameUrlPatterns.add(servletUrl);
+			urlMappings = useMostSpecificMatch ? urlMappings.insert(rank(servletUrl), servletUrl) : urlMappings.append(servletUrl);
+		}
+		else {
+			sameUrlPattern.addVariant(servletUrl);
+			publish();
+		}
+		return this;
+	}
+
+	/**
+	 * Finds where a new url pattern goes in {@link #urlMappings} so that more specific url patterns come first and equally specific ones stay
+	 * in registration order, and reports equally specific url patterns it may be confused with.
+	 *
+	 * @return index of the new url pattern
+	 */
+	private int rank(ServletUrl servletUrl) {
+		final RoutePrecedence precedence = servletUrl.precedence();
+
+		// the first url pattern less specific than the new one
+		int low = 0;
+		int high = precedences.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (precedences.get(middle).compareTo(precedence) <= 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		// equally specific url patterns are right before it
+		for (int i = low - 1; i >= 0 && precedences.get(i).compareTo(precedence) == 0; i--) {
+			if (precedences.get(i).isAmbiguousWith(precedence)) {
+				final String ambiguity = "Url patterns " + precedences.get(i) + " and " + precedence +
+										 " are equally specific and may match the same urls, the former is registered first and wins";
+				log.warn(ambiguity);
+				ambiguities.add(ambiguity);
+			}
+		}
+
+		precedences.add(low, precedence);
+		return low;
+	}
+
+	/**
+	 * <p>Registers the url patterns registered by {@code routes} under a shared url prefix, e.g.</p>
+	 *
+	 * <blockquote><pre>
+	 * servletUrlPattern.group("/api/v1/users/{id}", group -> group
+	 *         .register("show", "", this::show)
+	 *         .register("addresses", "/addresses/{addressId}", this::address, Integer.class), Long.class);
+	 * </pre></blockquote>
+	 *
+	 * <p>registers {@code "/api/v1/users/{id}"} and {@code "/api/v1/users/{id}/addresses/{addressId}"} where {@code id} is a {@code Long}. While
+	 * parsing, the prefix and its path variables are matched once for all url patterns of the group and the rest of the url is matched against the
+	 * rest of each url pattern, instead of matching the prefix once per url pattern. When the prefix doesn't match, url patterns of the group are
+	 * skipped altogether.</p>
+	 *
+	 * <p>Url patterns of a group are otherwise the same with url patterns registered with their whole url pattern: they are matched in registration
+	 * (or {@link #setUseMostSpecificMatch(boolean) precedence}) order along with the others and can be customized via {@link #ignoreCase()}, {@link #produces(String...)} etc. Groups can be nested. The
+	 * prefix cannot contain a catch-all or a raw regular expression, url patterns within the group can. The prefix matches case insensitively if
+	 * {@link #setUseCaseInsensitiveMatch(boolean)} is enabled when the group is registered, {@link #ignoreCase()} affects only the rest of a url
+	 * pattern.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @param urlPrefix whole path segments, url patterns within the group are relative to it, {@code ""} for the prefix itself
+	 * @param routes    registers url patterns of the group on the given {@code ServletUrlPattern}, which is this object
+	 * @param types     optional type information for path variables of the prefix, see {@link #register(String, String, ServletRequestHandler, Class[])}
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if the prefix contains a catch-all or a raw regular expression, or there is no {@link PathVariableConverter}
+	 *                                  for one of the path variable types
+	 */
+	public synchronized ServletUrlPattern group(String urlPrefix, Consumer<ServletUrlPattern> routes, Class<?>... types) {
+		beginGroup(urlPrefix, types);
+		try {
+			routes.accept(this);
+		}
+		finally {
+			endGroup();
+		}
+		return this;
+	}
+
+	/**
+	 * Url patterns registered until {@link #endGroup()} are registered in a new group, within the current group if any.
+	 *
+	 * @throws IllegalArgumentException see {@link #group(String, Consumer, Class[])}
+	 */
+	synchronized void beginGroup(String urlPrefix, Class<?>[] types) {
+		group = new RouteGroup(group, urlPrefix, types, converters, useCaseInsensitiveMatch);
+	}
+
+	synchronized void endGroup() {
+		group = group.getEnclosing();
+	}
+
+	/**
+	 * <p>Whether to match literal text of url patterns registered after this call ASCII case insensitively. If enabled a method mapped to
+	 * "/products" also matches to "/Products". Path variables are not affected. The default value is false.</p>
+	 *
+	 * <p>No lower case copy of the url is created, literal text is compared in place.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @see #ignoreCase()
+	 */
+	public synchronized ServletUrlPattern setUseCaseInsensitiveMatch(boolean useCaseInsensitiveMatch) {
+		this.useCaseInsensitiveMatch = useCaseInsensitiveMatch;
+		return this;
+	}
+
+	/**
+	 * <p>Whether a url matching several url patterns is matched by the most specific one rather than the one registered first. The default
+	 * value is false. Path segments are compared from the left and the first differing one decides: literal text beats a path variable with a
+	 * type or constraint, which beats a {@code String} path variable, which beats a raw regular expression, which beats a catch-all. E.g.
+	 * {@code "/images/profile.pics/{name}"} matches {@code "/images/profile.pics/me"} even if {@code "/images/{name}/{size}"} is registered
+	 * before it. Equally specific url patterns are matched in registration order.</p>
+	 *
+	 * <p>Url patterns are ranked once when they are registered, parsing costs the same as in registration order. Equally specific url patterns
+	 * which may match the same urls, like {@code "/users/{id}"} and {@code "/users/{name}"}, are logged as warnings when the latter is registered
+	 * and listed by {@link #getAmbiguities()}, so that they can be caught at startup.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if url patterns are already registered
+	 * @see RoutePrecedence
+	 */
+	public synchronized ServletUrlPattern setUseMostSpecificMatch(boolean useMostSpecificMatch) {
+		if (urlMappings.count > 0) {
+			throw new IllegalStateException("Precedence of url patterns must be set before registering url patterns.");
+		}
+		this.useMostSpecificMatch = useMostSpecificMatch;
+		return this;
+	}
+
+	/**
+	 * <p>Equally specific url patterns which may match the same urls, in which case the one registered first wins. Always empty unless
+	 * {@link #setUseMostSpecificMatch(boolean)} is enabled. Url patterns with different literal text in the same path segment are not
+	 * ambiguous, path variables with different types or constraints may be.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 *
+	 * @return a description of each ambiguity in the order they are found
+	 */
+	public synchronized List<String> getAmbiguities() {
+		return Collections.unmodifiableList(new ArrayList<>(ambiguities));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern match ASCII case insensitively, e.g. {@code register("show", "/products/{id}").ignoreCase()}
+	 * matches "/Products/13".</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see #setUseCaseInsensitiveMatch(boolean)
+	 */
+	public ServletUrlPattern ignoreCase() {
+		return customize(servletUrl -> servletUrl.setIgnoreCase(true));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern match only requests whose {@code Accept} header accepts one of the given media types, e.g.
+	 * {@code register("/reports/{id}", this::json).produces("application/json").register("/reports/{id}", this::csv).produces("text/csv")}.</p>
+	 *
+	 * <p>When the same url pattern is registered more than once, the registration producing the media type with the highest quality in
+	 * {@code Accept} handles the request. {@code Accept} headers are parsed once per request and parsed values are cached.</p>
+	 *
+	 * <p>Conditions are evaluated only when parsing a request, not when parsing a bare url like in {@link #parse(String)}.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @param mediaTypes like {@code "application/json"}
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if a media type is invalid
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 */
+	public ServletUrlPattern produces(String... mediaTypes) {
+		return customize(servletUrl -> servletUrl.conditions().addProduces(mediaTypes));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern match only requests whose {@code Content-Type} is included by one of the given media types, e.g.
+	 * {@code "application/json"} or {@code "text/*"}. Requests without a {@code Content-Type} don't match.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if a media type is invalid
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 * @see #produces(String...)
+	 */
+	public ServletUrlPattern consumes(String... mediaTypes) {
+		return customize(servletUrl -> servletUrl.conditions().addConsumes(mediaTypes));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern match only requests having the given header.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see #produces(String...)
+	 */
+	public ServletUrlPattern header(String name) {
+		return customize(servletUrl -> servletUrl.conditions().addHeader(name));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern match only requests having the given query parameter, with or without a value. The parameter name
+	 * is compared with the raw query string, without url decoding. Request bodies are never read.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see #produces(String...)
+	 */
+	public ServletUrlPattern queryParameter(String name) {
+		return customize(servletUrl -> servletUrl.conditions().addQueryParameter(name));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern answer conditional GET and HEAD requests. The given function computes the entity tag of the
+	 * response from the parsed {@link ServletUrl}, e.g. {@code register("/products/{id}", this::show, Long.class).eTag(url ->
+	 * productService.version(url.variable("id")))}. It should be much cheaper than rendering the response.</p>
+	 *
+	 * <p>{@link #handle(HttpServletRequest, HttpServletResponse)} sets the {@code ETag} header and when {@code If-None-Match} matches it, sends
+	 * 304 without calling the request handler. The {@code ETag} header is not sent with error responses of the request handler, e.g. when it
+	 * finds out that the resource doesn't exist. Entity tags are quoted unless already quoted, {@code W/} prefixed weak tags are supported.
+	 * Gzip compressed responses of {@link #compress()} get the tag with a {@code -gzip} suffix, e.g. {@code "v13-gzip"}.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @param eTagSupplier returns null if there is no entity tag for the parsed url
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see #lastModified(ToLongFunction)
+	 */
+	public ServletUrlPattern eTag(Function<ServletUrl, String> eTagSupplier) {
+		return customize(servletUrl -> servletUrl.setETagSupplier(eTagSupplier));
+	}
+
+	/**
+	 * <p>Makes the last registered url pattern answer conditional GET and HEAD requests. The given function computes the last modification time
+	 * of the response, in milliseconds since epoch, from the parsed {@link ServletUrl}.</p>
+	 *
+	 * <p>{@link #handle(HttpServletRequest, HttpServletResponse)} sets the {@code Last-Modified} header and when the response is not modified
+	 * since {@code If-Modified-Since}, sends 304 without calling the request handler. {@code If-Modified-Since} is ignored when the request
+	 * has {@code If-None-Match}. Like {@code ETag}, the header is not sent with error responses of the request handler.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @param lastModifiedSupplier returns a negative value if the modification time is unknown for the parsed url
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see #eTag(Function)
+	 */
+	public ServletUrlPattern lastModified(ToLongFunction<ServletUrl> lastModifiedSupplier) {
+		return customize(servletUrl -> servletUrl.setLastModifiedSupplier(lastModifiedSupplier));
+	}
+
+	/**
+	 * <p>Caches responses of the last registered url pattern in memory for the given duration. Responses are cached per converted path variable
+	 * values, so the response must depend only on the url pattern and its path variables, not on query parameters, headers or the user. Only
+	 * 200 responses of GET requests without cookies are cached, hits are also served to HEAD requests.</p>
+	 *
+	 * <p>Status, headers and body are recorded while the response is sent as usual. Hits are written from the stored bytes without calling
+	 * the request handler.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if {@code timeToLive} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet or it serves files or streams the request body, whose responses
+	 *                                  are completed asynchronously
+	 * @see #setResponseCacheCapacity(long)
+	 */
+	public ServletUrlPattern cache(Duration timeToLive) {
+		if (timeToLive.isZero() || timeToLive.isNegative()) {
+			throw new IllegalArgumentException("Time to live must be positive: " + timeToLive);
+		}
+		return customize(servletUrl -> {
+			requireSynchronous(servletUrl, "cached");
+			servletUrl.setCacheTimeToLiveNanos(timeToLive.toNanos());
+		});
+	}
+
+	/**
+	 * <p>Coalesces identical concurrent GET requests of the last registered url pattern. While a request is being handled, later requests with
+	 * the same path variable values wait for it up to {@code timeout} and replay its response instead of calling the request handler, like a
+	 * {@link #cache(Duration) cache} whose entries live only while they are being computed. So the response must depend only on the url pattern
+	 * and its path variables.</p>
+	 *
+	 * <p>Only 200 responses without cookies are replayed. Waiters call the request handler themselves if the timeout elapses or the response
+	 * cannot be replayed.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if {@code timeout} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet or it serves files or streams the request body, whose responses
+	 *                                  are completed asynchronously
+	 */
+	public ServletUrlPattern singleFlight(Duration timeout) {
+		if (timeout.isZero() || timeout.isNegative()) {
+			throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+		}
+		return customize(servletUrl -> {
+			requireSynchronous(servletUrl, "coalesced");
+			servletUrl.setSingleFlightTimeoutNanos(timeout.toNanos());
+		});
+	}
+
+	/**
+	 * <p>Gzip compresses responses of the last registered url pattern for clients accepting it via {@code Accept-Encoding}. The body is
+	 * compressed while the request handler writes it and completed when it returns, so url patterns completing their response asynchronously
+	 * cannot be compressed. Responses get {@code Vary: Accept-Encoding}, bodies with a {@code Content-Length} below 256 bytes or a
+	 * {@code Content-Encoding} are left as they are.</p>
+	 *
+	 * <p>With {@link #cache(Duration)} compressed and uncompressed responses are cached separately, hence a cached response is compressed only
+	 * once. Otherwise identical concurrent requests coalesced by {@link #singleFlight(Duration)} are compressed one by one.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet or it serves files or streams the request body, whose responses are
+	 *                               completed asynchronously
+	 */
+	public ServletUrlPattern compress() {
+		return customize(servletUrl -> {
+			requireSynchronous(servletUrl, "compressed");
+			servletUrl.setCompressed(true);
+		});
+	}
+
+	/**
+	 * <p>Sets the maximum total size of cached responses in bytes, oldest responses are evicted first. A single response larger than a quarter
+	 * of the capacity is not cached. The default value is 16 MB.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 *
+	 * @param capacity in bytes, 0 disables caching
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if {@code capacity} is negative
+	 * @see #cache(Duration)
+	 */
+	public ServletUrlPattern setResponseCacheCapacity(long capacity) {
+		responseCache.setCapacity(capacity);
+		return this;
+	}
+
+	/**
+	 * <p>Limits the number of requests the last registered url pattern handles concurrently. Requests over the limit are rejected immediately
+	 * with 503 and {@code Retry-After}. Use {@link #bulkhead(Bulkhead)} for a queue or to limit several url patterns together.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if {@code maxConcurrentRequests} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 */
+	public synchronized ServletUrlPattern bulkhead(int maxConcurrentRequests) {
+		final ServletUrl servletUrl = lastRegistered();
+		final String name = servletUrl.getName() == null || servletUrl.getName().isEmpty() ? servletUrl.getUrlPattern() : servletUrl.getName();
+		return bulkhead(new Bulkhead(name, maxConcurrentRequests));
+	}
+
+	/**
+	 * <p>Limits the number of requests the last registered url pattern handles concurrently with the given bulkhead, which may be shared with
+	 * other url patterns. Cached responses and 304s are served without taking a permit.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see Bulkhead
+	 */
+	public ServletUrlPattern bulkhead(Bulkhead bulkhead) {
+		return customize(servletUrl -> servletUrl.setBulkhead(bulkhead));
+	}
+
+	/**
+	 * <p>Limits the rate of requests of the last registered url pattern to {@code permits} per {@code period} with a single token bucket.
+	 * Requests over the limit are rejected with 429 and {@code Retry-After}. Use {@link #rateLimit(RateLimit)} for per client or per path
+	 * variable limits or to limit several url patterns together.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if {@code permits} or {@code period} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 */
+	public ServletUrlPattern rateLimit(int permits, Duration period) {
+		return rateLimit(new RateLimit(permits, period));
+	}
+
+	/**
+	 * <p>Limits the rate of requests of the last registered url pattern with the given rate limit, which may be shared with other url patterns.
+	 * The limit is checked right after matching, before conditional requests, the response cache and the bulkhead.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see RateLimit
+	 */
+	public ServletUrlPattern rateLimit(RateLimit rateLimit) {
+		return customize(servletUrl -> servletUrl.setRateLimit(rateLimit));
+	}
+
+	/**
+	 * <p>Runs the given interceptor around the request handler of the last registered url pattern, after the interceptors already attached.
+	 * Interceptors run after matching and rate limiting, before conditional requests, the response cache etc.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see Interceptor
+	 */
+	public ServletUrlPattern intercept(Interceptor interceptor) {
+		return customize(servletUrl -> servletUrl.addInterceptor(interceptor));
+	}
+
+	/**
+	 * <p>Registers an MBean listing the url patterns, their hit counts and last hit times with the platform MBean server, see
+	 * {@link RouteTableMBean}. Url patterns can be disabled and enabled through the MBean without redeploying.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 *
+	 * @param name unique among MBeans of this library, like the servlet name
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if an MBean with the same name is already registered
+	 * @see #unregisterMBean()
+	 */
+	public synchronized ServletUrlPattern registerMBean(String name) {
+		unregisterMBean();
+		objectName = RouteTable.register(name, Collections.singletonMap(null, this));
+		return this;
+	}
+
+	/**
+	 * <p>Unregisters the MBean registered by {@link #registerMBean(String)}, if any.</p>
+	 *
+	 * <p>This method IS thread-safe, see the class documentation.</p>
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName != null) {
+			RouteTable.unregister(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return registered url patterns in matching order, including all registrations of url patterns registered more than once
+	 */
+	List<ServletUrl> routes() {
+		final UrlMappings urlMappings = this.urlMappings;
+		final List<ServletUrl> routes = new ArrayList<>();
+		for (int i = 0; i < urlMappings.count; i++) {
+			routes.addAll(Arrays.asList(urlMappings.routes[i].variants()));
+		}
+		return routes;
+	}
+
+	/**
+	 * @throws IllegalStateException if the request handler of the url pattern completes its response asynchronously
+	 */
+	private static void requireSynchronous(ServletUrl servletUrl, String customization) {
+		if (servletUrl.isAsynchronous()) {
+			throw new IllegalStateException("Responses of " + servletUrl.getUrlPattern() + " are completed asynchronously and cannot be " + customization);
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 */
+	private ServletUrl lastRegistered() {
+		if (lastRegistered == null) {
+			throw new IllegalStateException("There is no registered url pattern to customize, register a url pattern first.");
+		}
+		return lastRegistered;
+	}
+
+	/**
+	 * Applies the given customization to the last registered url pattern and publishes it.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 */
+	private synchronized ServletUrlPattern customize(Consumer<ServletUrl> customization) {
+		customization.accept(lastRegistered());
+		publish();
 		return this;
 	}
 
+	/**
+	 * Applies the given customization to all registered url patterns, including all registrations of url patterns registered more than once, and
+	 * publishes them.
+	 */
+	synchronized void customizeRoutes(Consumer<ServletUrl> customization) {
+		routes().forEach(customization);
+		publish();
+	}
+
+	/**
+	 * <p>Makes changes to registered url patterns visible to requests parsed from now on. {@link #parse} starts reading the volatile
+	 * {@link #urlMappings}, hence writing it, even the same snapshot, after a change happens-before every later parse.</p>
+	 *
+	 * <p>Parses already running may see each changed field either before or after the change, never a partially built value: arrays are built
+	 * before they are assigned and objects read while parsing have final fields.</p>
+	 */
+	private void publish() {
+		urlMappings = urlMappings;
+	}
+
 	/**
 	 * <p>For a Servlet extending {@link com.kodgemisi.servlet_url_mapping.MappingServlet} you normally should use {@link
 	 * com.kodgemisi.servlet_url_mapping.ServletUrlPatternRegistrar}'s {@code get}, {@code post}, {@code put} etc. methods.
 	 * However when you want to manually check url mappings, for example in a Servlet Filter, you can use this method.</p>
 	 *
-	 * <p>This method is NOT thread-safe. Should only be called from a {@code constructor} or {@link javax.servlet.http.HttpServlet#init()} or called
-	 * in a synchronized block.</p>
+	 * <p>This method IS thread-safe, url patterns can be registered while requests are being parsed, see the class documentation.</p>
 	 *
 	 * @param requestHandler A lambda function or function reference which will be used as the handler of matching requests
 	 * @param urlPattern     Similar to Spring's or JAX-RS's url patterns but only supports variables through {@literal { }}
@@ -191,8 +869,7 @@ public class ServletUrlPattern {
 	 *     }
 	 * </pre></blockquote>
 	 *
-	 * <p>This method is NOT thread-safe. Should only be called from a {@code constructor} or {@link javax.servlet.http.HttpServlet#init()} or called
-	 * in a synchronized block.</p>
+	 * <p>This method IS thread-safe, url patterns can be registered while requests are being parsed, see the class documentation.</p>
 	 *
 	 * @param name       (mandatory) The name of your choice for this url pattern. This name will be used to check if the parsed {@link ServletUrl}
 	 *                   matches this
@@ -202,62 +879,145 @@ public class ServletUrlPattern {
 	 *                   You
 	 *                   should give types in the same order as you type {@literal { }} expressions in {@code urlPattern}
 	 * @return
-	 * @throws IllegalArgumentException if type is not one of those: {@link String}, {@link java.lang.Number}, {@link java.lang.Boolean}
+	 * @throws IllegalArgumentException if there is no {@link PathVariableConverter} for one of the types, see {@link PathVariableConverters}
 	 * @throws IllegalArgumentException if name is null
 	 */
 	public ServletUrlPattern register(@NotNull String name, String urlPattern, Class<?>... type) {
-		return this.register(name, urlPattern, null, type);
+		return this.register(name, urlPattern, null, type, null);
 	}
 
 	/**
-	 * Equivalent of calling {@code parse(request.getPathInfo())}
+	 * Equivalent of calling {@code parse(request.getPathInfo())}, also evaluates conditions like {@link #produces(String...)} on the request.
 	 *
 	 * @param request Http request
-	 * @return Copy of the matched {@code ServletUrl} or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
+	 * @return The matched {@code ServletUrl} or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
 	 * @see ServletUrlPattern#parse(String)
 	 */
 	@NotNull
 	public ServletUrl parse(HttpServletRequest request) {
-		return parse(request.getPathInfo());
+		final String url = request.getPathInfo();
+		return url == null ? parse("", 0, 0, request) : parse(url, 0, url.length(), request);
 	}
 
 	/**
 	 * This method is thread-safe and intended to be used in Servlet's {@code doXxx} methods.
 	 *
 	 * @param url It should be {@link javax.servlet.http.HttpServletRequest#getPathInfo()}
-	 * @return Copy of the matched {@code ServletUrl} or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
+	 * @return The matched {@code ServletUrl} or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
+	 * @see ServletUrlPattern#parse(CharSequence, int, int)
 	 */
 	@NotNull
-	public ServletUrl parse(final String url) {
-		for (final ServletUrl servletUrl : urlMappings) {
+	public ServletUrl parse(@Nullable final String url) {
+		return url == null ? parse("", 0, 0) : parse(url, 0, url.length());
+	}
 
-			final String processedUrl = arrangeUrlForTrailingSlash(url, servletUrl.hasTrailingSlash());
-			final Matcher matcher = servletUrl.getPattern().matcher(processedUrl);
+	/**
+	 * <p>Parses the {@code [start, end)} window of {@code path}, for example the path info part of
+	 * {@link javax.servlet.http.HttpServletRequest#getRequestURI()}, without copying it.</p>
+	 *
+	 * <p>No substrings are created while matching. Path variables are recorded as indexes into {@code path} and converted only when
+	 * {@link ServletUrl#variable(String)} is called, hence {@code path} must not be modified while the returned {@code ServletUrl} is in use.
+	 * When the matching url pattern has no path variables the registered {@code ServletUrl} itself is returned and nothing is allocated.</p>
+	 *
+	 * <p>Url patterns containing raw regular expressions (like {@code "/admin/.*"}) are still matched via {@link java.util.regex.Pattern} on a
+	 * {@link String} copy of the window.</p>
+	 *
+	 * <p>This method is thread-safe and intended to be used in Servlet's {@code doXxx} methods.</p>
+	 *
+	 * @param path  Contains the url to parse, in the form of {@link javax.servlet.http.HttpServletRequest#getPathInfo()}
+	 * @param start Index of the first character of the url in {@code path}
+	 * @param end   Index after the last character of the url in {@code path}
+	 * @return The matched {@code ServletUrl} or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
+	 */
+	@NotNull
+	public ServletUrl parse(@NotNull CharSequence path, int start, int end) {
+		return parse(path, start, end, null);
+	}
+
+	/**
+	 * @param request null when parsing a bare url, then conditions of url patterns are not evaluated
+	 */
+	@NotNull
+	private ServletUrl parse(@NotNull CharSequence path, int start, int end, @Nullable HttpServletRequest request) {
+		final boolean urlHasTrailingSlash = end > start && path.charAt(end - 1) == '/';
 
-			if (matcher.matches()) {//FIXME consider using servletUrl.toParsedServletUrl(matcher)
-				final ServletUrl result = new ServletUrl(servletUrl);
+		MediaType[] accept = null;
 
-				for (int i = 0; i < matcher.groupCount(); i++) {//FIXME consider moving this block to ServletUrl ctor
-					final String variable = matcher.group(i + 1);
-					result.addVariable(variable);
+		// the url prefix of the last group and its matching result, see RouteGroup
+		RouteGroup matchedGroup = null;
+		int prefixEnd = start;
+		int[] prefixCaptures = null;
+
+		final UrlMappings urlMappings = this.urlMappings;
+		final ServletUrl[] routes = urlMappings.routes;
+		for (int i = 0; i < urlMappings.count; i++) {
+			final ServletUrl servletUrl = routes[i];
+			if (servletUrl.isMatchingDisabled()) {
+				continue;
+			}
+
+			final RouteGroup group = servletUrl.getGroup();
+			if (group != null && group != matchedGroup) {
+				// a group within a group whose prefix doesn't match cannot match either
+				final boolean enclosingMismatch = matchedGroup != null && group.getEnclosing() == matchedGroup && prefixCaptures == null;
+				matchedGroup = group;
+				if (!enclosingMismatch) {
+					prefixEnd = group.prefixEnd(path, start, end);
+					prefixCaptures = group.matchPrefix(path, start, prefixEnd);
 				}
+			}
+			if (group != null && prefixCaptures == null) {
+				continue;
+			}
 
+			ServletUrl result;
+			if (servletUrl.isRegex()) {
+				result = servletUrl.matchRegex(arrangeUrlForTrailingSlash(path.subSequence(start, end).toString(), servletUrl.hasTrailingSlash()));
+			}
+			else if (group != null) {
+				final boolean trimTrailingSlash = useTrailingSlashMatch && urlHasTrailingSlash && !servletUrl.hasTrailingSlash() && end > prefixEnd;
+				result = servletUrl.matchSuffix(path, prefixEnd, trimTrailingSlash ? end - 1 : end,
+												useTrailingSlashMatch && !urlHasTrailingSlash && servletUrl.hasTrailingSlash(), prefixCaptures);
+			}
+			else if (useTrailingSlashMatch && urlHasTrailingSlash && !servletUrl.hasTrailingSlash()) {
+				result = servletUrl.match(path, start, end - 1, false);
+			}
+			else {
+				result = servletUrl.match(path, start, end, useTrailingSlashMatch && !urlHasTrailingSlash && servletUrl.hasTrailingSlash());
+			}
+
+			if (result != null && servletUrl.hasVariants()) {
+				if (request != null && accept == null) {
+					accept = MediaType.parseAccept(request.getHeader("Accept"));
+				}
+				final ServletUrl variant = servletUrl.selectVariant(request, accept);
+				result = variant == null ? null : result.withRoute(variant);
+			}
+
+			if (result != null) {
 				return result;
 			}
 		}
 
 		if (log.isTraceEnabled()) {
-			log.trace("URL {} didn't match any registered urls!", url);
+			log.trace("URL {} didn't match any registered urls!", path.subSequence(start, end));
 		}
 		return ServletUrl.NOT_FOUND; // TODO Consider making this case a checked exception.
 	}
 
 	/**
-	 * This method is thread-safe and intended to be used in Servlet's {@code doXxx} methods.
+	 * <p>This method is thread-safe and intended to be used in Servlet's {@code doXxx} methods.</p>
+	 *
+	 * <p>For url patterns with validators (see {@link #eTag(Function)} and {@link #lastModified(ToLongFunction)}) conditional GET and HEAD
+	 * requests are answered with 304 without calling the {@code requestHandler}. Responses of url patterns registered with
+	 * {@link #cache(Duration)} are served from the cache when possible and identical concurrent requests of url patterns registered with
+	 * {@link #singleFlight(Duration)} are coalesced. Requests over the limit of a {@link #bulkhead(Bulkhead) bulkhead}
+	 * are rejected with 503, requests over a {@link #rateLimit(RateLimit) rate limit} with 429. Responses of url patterns registered with
+	 * {@link #compress()} are gzip compressed for clients accepting it.</p>
 	 *
 	 * @param request  {@link javax.servlet.http.HttpServletRequest}
 	 * @param response {@link javax.servlet.http.HttpServletResponse}
-	 * @return Copy of the matched ServletUrl or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
+	 * @return The matched ServletUrl or a special instance of ServletUrl whose name is {@link ServletUrl#NOT_FOUND_404}
 	 * @throws IOException It might be thrown from
 	 * {@link com.kodgemisi.servlet_url_mapping.ServletRequestHandler#handleRequest}
 	 * @throws ServletException It might be thrown from {@link com.kodgemisi.servlet_url_mapping.ServletRequestHandler#handleRequest}
@@ -265,16 +1025,153 @@ public class ServletUrlPattern {
 	@NotNull
 	public ServletUrl handle(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 		final ServletUrl servletUrl = this.parse(request);
+		if (servletUrl != ServletUrl.NOT_FOUND) {
+			servletUrl.recordHit();
+		}
 		final ServletRequestHandler servletRequestHandler = servletUrl.getRequestHandler();
-		if (servletRequestHandler != null) {
-			if (log.isTraceEnabled()) {
-				log.trace("Handling request for {}, {}", servletUrl.getName(), servletUrl.getPattern());
+		if (servletRequestHandler != null && !isRateLimited(request, response, servletUrl)) {
+			final Interceptor[] interceptors = servletUrl.getInterceptors();
+			if (interceptors.length == 0) {
+				handleMatched(request, response, servletUrl);
+			}
+			else {
+				handleIntercepted(request, response, servletUrl, interceptors);
 			}
-			servletRequestHandler.handleRequest(request, response, servletUrl);
 		}
 		return servletUrl;
 	}
 
+	/**
+	 * Runs {@link Interceptor#before} of interceptors in order, handles the request if all of them return true and runs {@link Interceptor#after}
+	 * of the ones which returned true in reverse order.
+	 */
+	private void handleIntercepted(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, Interceptor[] interceptors)
+			throws IOException, ServletException {
+
+		int passed = 0;
+		Throwable failure = null;
+		try {
+			while (passed < interceptors.length) {
+				if (!interceptors[passed].before(request, response, servletUrl)) {
+					if (log.isTraceEnabled()) {
+						log.trace("Request for {}, {} is stopped by {}", servletUrl.getName(), servletUrl.getUrlPattern(), interceptors[passed]);
+					}
+					return;
+				}
+				passed++;
+			}
+			handleMatched(request, response, servletUrl);
+		}
+		catch (Throwable e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			for (int i = passed - 1; i >= 0; i--) {
+				interceptors[i].after(request, response, servletUrl, failure);
+			}
+		}
+	}
+
+	private void handleMatched(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException, ServletException {
+		final boolean compressed = servletUrl.isCompressed();
+		if (compressed) {
+			// caches must not serve a compressed response to clients not accepting it, 304s included
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+		final boolean gzip = compressed && CompressingResponse.acceptsGzip(request.getHeader("Accept-Encoding"));
+		// validators are set unless the request handler sends an error
+		final HttpServletResponse validatedResponse = servletUrl.evaluateConditions(request, response, gzip ? CompressingResponse.GZIP : null);
+		if (validatedResponse == null) {
+			if (log.isTraceEnabled()) {
+				log.trace("Not modified {}, {}", servletUrl.getName(), servletUrl.getUrlPattern());
+			}
+			return;
+		}
+		if (log.isTraceEnabled()) {
+			log.trace("Handling request for {}, {}", servletUrl.getName(), servletUrl.getUrlPattern());
+		}
+		final long cacheTimeToLiveNanos = servletUrl.getCacheTimeToLiveNanos();
+		if (cacheTimeToLiveNanos > 0) {
+			// compressed responses are cached compressed, so a cache hit is never compressed again
+			responseCache.handle(request, validatedResponse, servletUrl, gzip ? compressingHandler : singleFlightHandler, cacheTimeToLiveNanos,
+								 gzip ? CompressingResponse.GZIP : null);
+		}
+		else if (gzip) {
+			handleCompressed(request, validatedResponse, servletUrl);
+		}
+		else {
+			handleSingleFlight(request, validatedResponse, servletUrl);
+		}
+		ConditionalRequests.complete(validatedResponse);
+	}
+
+	private void handleCompressed(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl)
+			throws IOException, ServletException {
+
+		CompressingResponse.handle(request, response, servletUrl, singleFlightHandler);
+	}
+
+	/**
+	 * Takes a token from the url pattern's rate limit, if any, or rejects the request with 429.
+	 *
+	 * @return true if the request is rejected
+	 */
+	private boolean isRateLimited(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final RateLimit rateLimit = servletUrl.getRateLimit();
+		if (rateLimit == null) {
+			return false;
+		}
+
+		final long waitMicros = rateLimit.tryAcquire(request, servletUrl);
+		if (waitMicros == 0) {
+			return false;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Rejecting request for {}, {} by {}", servletUrl.getName(), servletUrl.getUrlPattern(), rateLimit);
+		}
+		response.setIntHeader("Retry-After", (int) Math.min(Integer.MAX_VALUE, (waitMicros + 999_999) / 1_000_000));
+		response.sendError(RateLimit.SC_TOO_MANY_REQUESTS);
+		return true;
+	}
+
+	private void handleSingleFlight(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl)
+			throws IOException, ServletException {
+
+		final long singleFlightTimeoutNanos = servletUrl.getSingleFlightTimeoutNanos();
+		if (singleFlightTimeoutNanos > 0) {
+			singleFlights.handle(request, response, servletUrl, bulkheadHandler, singleFlightTimeoutNanos);
+		}
+		else {
+			handleWithinBulkhead(request, response, servletUrl);
+		}
+	}
+
+	private void handleWithinBulkhead(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl)
+			throws IOException, ServletException {
+
+		final Bulkhead bulkhead = servletUrl.getBulkhead();
+		if (bulkhead == null) {
+			servletUrl.getRequestHandler().handleRequest(request, response, servletUrl);
+			return;
+		}
+
+		if (!bulkhead.tryAcquire()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Rejecting request for {}, {} by {}", servletUrl.getName(), servletUrl.getUrlPattern(), bulkhead);
+			}
+			response.setIntHeader("Retry-After", Bulkhead.RETRY_AFTER_SECONDS);
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		try {
+			servletUrl.getRequestHandler().handleRequest(request, response, servletUrl);
+		}
+		finally {
+			bulkhead.release();
+		}
+	}
+
 	/**
 	 *
 	 * <table>
@@ -316,5 +1213,43 @@ public class ServletUrlPattern {
 		return url;
 	}
 
-}
+	/**
+	 * <p>Immutable snapshot of the registered url patterns, the first {@link #count} elements of {@link #routes}. Snapshots appending to an
+	 * array share it: the new url pattern goes in its spare capacity, which none of the published snapshots read, hence registering url
+	 * patterns one by one copies the table a logarithmic number of times rather than once per url pattern.</p>
+	 */
+	private static final class UrlMappings {
+
+		private static final UrlMappings NONE = new UrlMappings(new ServletUrl[0], 0);
+
+		private final ServletUrl[] routes;
+
+		private final int count;
+
+		private UrlMappings(ServletUrl[] routes, int count) {
+			this.routes = routes;
+			this.count = count;
+		}
+
+		/**
+		 * Must be called holding the lock of the {@code ServletUrlPattern} and only on its latest snapshot, which is the only one that may
+		 * write the spare capacity.
+		 */
+		UrlMappings append(ServletUrl servletUrl) {
+			final ServletUrl[] routes = count < this.routes.length ? this.routes : Arrays.copyOf(this.routes, Math.max(16, count * 2));
+			routes[count] = servletUrl;
+			return new UrlMappings(routes, count + 1);
+		}
 
+		/**
+		 * Copies the table since url patterns after the given index move, which parses of this snapshot may be reading.
+		 */
+		UrlMappings insert(int index, ServletUrl servletUrl) {
+			final ServletUrl[] routes = new ServletUrl[count + 1];
+			System.arraycopy(this.routes, 0, routes, 0, index);
+			routes[index] = servletUrl;
+			System.arraycopy(this.routes, index, routes, index + 1, count - index);
+			return new UrlMappings(routes, count + 1);
+		}
+	}
+}
@@ -6,15 +6,31 @@
 
 package com.kodgemisi.servlet_url_mapping;
 
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * <p>Convenience class to ease usage of {@link ServletUrlPattern}.</p>
  *
- * <p>Note that methods of this class is NOT thread safe unless explicitly stated otherwise in their Javadocs.</p>
+ * <p>Registering and customizing url patterns synchronize on this object and can be done while requests are being handled, see the thread
+ * safety section of {@link ServletUrlPattern}. Calls customizing the last registered url pattern should be made in a block synchronized on
+ * this object when several threads register url patterns at once.</p>
  *
  * @author destan
  * @see com.kodgemisi.servlet_url_mapping.MappingServlet
@@ -35,6 +51,24 @@ public class ServletUrlPatternRegistrar {
 
 	private final ServletUrlPattern TRACE;
 
+	private final PathVariableConverters converters = new PathVariableConverters();
+
+	/**
+	 * Target of the methods customizing the last registered url pattern like {@link #ignoreCase()}
+	 */
+	private ServletUrlPattern lastRegistered;
+
+	/**
+	 * Interceptors attached to url pattern prefixes in attachment order, see {@link #intercept(String, Interceptor)}
+	 */
+	private final List<GroupInterceptor> groupInterceptors = new ArrayList<>();
+
+	/**
+	 * Name of the MBean registered by {@link #registerMBean(String)}, null if there is none.
+	 */
+	@Nullable
+	private ObjectName objectName;
+
 	public ServletUrlPatternRegistrar() {
 		this(true);
 	}
@@ -46,82 +80,347 @@ public class ServletUrlPatternRegistrar {
 	 *                              <a href="http://docs.spring.io/spring/docs/5.0.x/javadoc-api/org/springframework/web/servlet/mvc/method/annotation/RequestMappingHandlerMapping.html#setUseTrailingSlashMatch-boolean-">Spring API</a>
 	 */
 	public ServletUrlPatternRegistrar(boolean useTrailingSlashMatch) {
-		GET = new ServletUrlPattern(useTrailingSlashMatch);
-		POST = new ServletUrlPattern(useTrailingSlashMatch);
-		PUT = new ServletUrlPattern(useTrailingSlashMatch);
-		DELETE = new ServletUrlPattern(useTrailingSlashMatch);
-		HEAD = new ServletUrlPattern(useTrailingSlashMatch);
-		OPTIONS = new ServletUrlPattern(useTrailingSlashMatch);
-		TRACE = new ServletUrlPattern(useTrailingSlashMatch);
+		GET = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		POST = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		PUT = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		DELETE = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		HEAD = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		OPTIONS = new ServletUrlPattern(useTrailingSlashMatch, converters);
+		TRACE = new ServletUrlPattern(useTrailingSlashMatch, converters);
 	}
 
-	public ServletUrlPatternRegistrar get(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		GET.register(name, urlPattern, requestHandler, type);
+	/**
+	 * <p>Registers a converter for a path variable type, shared by all HTTP methods. Must be called before registering url patterns using that type
+	 * because converters are resolved at registration time.</p>
+	 *
+	 * @see PathVariableConverters
+	 */
+	public <T> ServletUrlPatternRegistrar registerConverter(Class<T> type, PathVariableConverter<? extends T> converter) {
+		converters.register(type, converter);
 		return this;
 	}
 
+	public ServletUrlPatternRegistrar get(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
+		return register(GET, name, urlPattern, requestHandler, type);
+	}
+
 	public ServletUrlPatternRegistrar get(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		GET.register(urlPattern, requestHandler, type);
-		return this;
+		return register(GET, "", urlPattern, requestHandler, type);
+	}
+
+	/**
+	 * Registers a GET url pattern serving the files under {@code root}, whose last path variable is the path of the file relative to it, e.g.
+	 * {@code files("/downloads/{path:**}", Paths.get("/var/downloads"))}. See {@link FileRequestHandler}.
+	 *
+	 * @throws IllegalArgumentException if {@code root} is not a directory
+	 */
+	public ServletUrlPatternRegistrar files(String urlPattern, Path root) {
+		return register(GET, "", urlPattern, new FileRequestHandler(root));
 	}
 
 	public ServletUrlPatternRegistrar post(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		POST.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(POST, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar post(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		POST.register(urlPattern, requestHandler, type);
-		return this;
+		return register(POST, "", urlPattern, requestHandler, type);
+	}
+
+	/**
+	 * Registers a POST url pattern whose request body is read without blocking a container thread, e.g. for uploads, see
+	 * {@link StreamingRequestHandler}.
+	 */
+	public ServletUrlPatternRegistrar post(String name, String urlPattern, StreamingRequestHandler streamingRequestHandler, Class<?>... type) {
+		return register(POST, name, urlPattern, NonBlockingRequestBody.handlerOf(streamingRequestHandler), type);
+	}
+
+	/**
+	 * @see #post(String, String, StreamingRequestHandler, Class[])
+	 */
+	public ServletUrlPatternRegistrar post(String urlPattern, StreamingRequestHandler streamingRequestHandler, Class<?>... type) {
+		return register(POST, "", urlPattern, NonBlockingRequestBody.handlerOf(streamingRequestHandler), type);
 	}
 
 	public ServletUrlPatternRegistrar put(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		PUT.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(PUT, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar put(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		PUT.register(urlPattern, requestHandler, type);
-		return this;
+		return register(PUT, "", urlPattern, requestHandler, type);
+	}
+
+	/**
+	 * Registers a PUT url pattern whose request body is read without blocking a container thread, e.g. for uploads, see
+	 * {@link StreamingRequestHandler}.
+	 */
+	public ServletUrlPatternRegistrar put(String name, String urlPattern, StreamingRequestHandler streamingRequestHandler, Class<?>... type) {
+		return register(PUT, name, urlPattern, NonBlockingRequestBody.handlerOf(streamingRequestHandler), type);
+	}
+
+	/**
+	 * @see #put(String, String, StreamingRequestHandler, Class[])
+	 */
+	public ServletUrlPatternRegistrar put(String urlPattern, StreamingRequestHandler streamingRequestHandler, Class<?>... type) {
+		return register(PUT, "", urlPattern, NonBlockingRequestBody.handlerOf(streamingRequestHandler), type);
 	}
 
 	public ServletUrlPatternRegistrar delete(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		DELETE.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(DELETE, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar delete(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		DELETE.register(urlPattern, requestHandler, type);
-		return this;
+		return register(DELETE, "", urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar head(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		HEAD.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(HEAD, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar head(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		HEAD.register(urlPattern, requestHandler, type);
-		return this;
+		return register(HEAD, "", urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar options(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		OPTIONS.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(OPTIONS, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar options(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		OPTIONS.register(urlPattern, requestHandler, type);
-		return this;
+		return register(OPTIONS, "", urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar trace(String name, String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		TRACE.register(name, urlPattern, requestHandler, type);
-		return this;
+		return register(TRACE, name, urlPattern, requestHandler, type);
 	}
 
 	public ServletUrlPatternRegistrar trace(String urlPattern, ServletRequestHandler requestHandler, Class<?>... type) {
-		TRACE.register(urlPattern, requestHandler, type);
+		return register(TRACE, "", urlPattern, requestHandler, type);
+	}
+
+	/**
+	 * <p>Whether to match literal text of url patterns registered after this call ASCII case insensitively, for all HTTP methods. If enabled a
+	 * method mapped to "/products" also matches to "/Products". The default value is false.</p>
+	 *
+	 * @see ServletUrlPattern#setUseCaseInsensitiveMatch(boolean)
+	 */
+	public synchronized ServletUrlPatternRegistrar setUseCaseInsensitiveMatch(boolean useCaseInsensitiveMatch) {
+		for (ServletUrlPattern servletUrlPattern : new ServletUrlPattern[]{GET, POST, PUT, DELETE, HEAD, OPTIONS, TRACE}) {
+			servletUrlPattern.setUseCaseInsensitiveMatch(useCaseInsensitiveMatch);
+		}
+		return this;
+	}
+
+	/**
+	 * <p>Whether a url matching several url patterns is matched by the most specific one rather than the one registered first, for all HTTP
+	 * methods. The default value is false. E.g. {@code "/images/profile.pics/{name}"} then wins over {@code "/images/{name}"} whichever is
+	 * registered first.</p>
+	 *
+	 * @throws IllegalStateException if url patterns are already registered
+	 * @see ServletUrlPattern#setUseMostSpecificMatch(boolean)
+	 */
+	public synchronized ServletUrlPatternRegistrar setUseMostSpecificMatch(boolean useMostSpecificMatch) {
+		for (ServletUrlPattern servletUrlPattern : new ServletUrlPattern[]{GET, POST, PUT, DELETE, HEAD, OPTIONS, TRACE}) {
+			servletUrlPattern.setUseMostSpecificMatch(useMostSpecificMatch);
+		}
+		return this;
+	}
+
+	/**
+	 * Equally specific url patterns of all HTTP methods which may match the same urls, e.g. to fail at startup if there is any. Always empty
+	 * unless {@link #setUseMostSpecificMatch(boolean)} is enabled.
+	 *
+	 * @return a description of each ambiguity prefixed with its HTTP method, e.g. {@code "GET: Url patterns /users/{id} and /users/{name} ..."}
+	 * @see ServletUrlPattern#getAmbiguities()
+	 */
+	public List<String> getAmbiguities() {
+		final List<String> ambiguities = new ArrayList<>();
+		for (Map.Entry<String, ServletUrlPattern> method : patternsByMethod().entrySet()) {
+			for (String ambiguity : method.getValue().getAmbiguities()) {
+				ambiguities.add(method.getKey() + ": " + ambiguity);
+			}
+		}
+		return ambiguities;
+	}
+
+	/**
+	 * Makes the last registered url pattern match ASCII case insensitively, e.g. {@code get("/products/{id}", this::show).ignoreCase()}.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#ignoreCase()
+	 */
+	public ServletUrlPatternRegistrar ignoreCase() {
+		lastRegistered().ignoreCase();
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern match only requests accepting one of the given media types, e.g.
+	 * {@code get("/reports/{id}", this::json).produces("application/json").get("/reports/{id}", this::csv).produces("text/csv")}.
+	 *
+	 * @throws IllegalArgumentException if a media type is invalid
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 * @see ServletUrlPattern#produces(String...)
+	 */
+	public ServletUrlPatternRegistrar produces(String... mediaTypes) {
+		lastRegistered().produces(mediaTypes);
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern match only requests with one of the given {@code Content-Type}s, e.g.
+	 * {@code post("/reports", this::importCsv).consumes("text/csv")}.
+	 *
+	 * @throws IllegalArgumentException if a media type is invalid
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 * @see ServletUrlPattern#consumes(String...)
+	 */
+	public ServletUrlPatternRegistrar consumes(String... mediaTypes) {
+		lastRegistered().consumes(mediaTypes);
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern match only requests having the given header.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#header(String)
+	 */
+	public ServletUrlPatternRegistrar header(String name) {
+		lastRegistered().header(name);
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern match only requests having the given query parameter, e.g.
+	 * {@code get("/reports/{id}", this::download).queryParameter("download")}.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#queryParameter(String)
+	 */
+	public ServletUrlPatternRegistrar queryParameter(String name) {
+		lastRegistered().queryParameter(name);
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern answer conditional requests via the entity tag computed by the given function, e.g.
+	 * {@code get("/products/{id}", this::show, Long.class).eTag(url -> productService.version(url.variable("id")))}.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#eTag(Function)
+	 */
+	public ServletUrlPatternRegistrar eTag(Function<ServletUrl, String> eTagSupplier) {
+		lastRegistered().eTag(eTagSupplier);
+		return this;
+	}
+
+	/**
+	 * Makes the last registered url pattern answer conditional requests via the modification time computed by the given function, in
+	 * milliseconds since epoch.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#lastModified(ToLongFunction)
+	 */
+	public ServletUrlPatternRegistrar lastModified(ToLongFunction<ServletUrl> lastModifiedSupplier) {
+		lastRegistered().lastModified(lastModifiedSupplier);
+		return this;
+	}
+
+	/**
+	 * Caches responses of the last registered url pattern in memory for the given duration, e.g.
+	 * {@code get("/products/{id}", this::show, Long.class).cache(Duration.ofMinutes(5))}. Only GET responses are cached.
+	 *
+	 * @throws IllegalArgumentException if {@code timeToLive} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet or it completes its response asynchronously
+	 * @see ServletUrlPattern#cache(Duration)
+	 */
+	public ServletUrlPatternRegistrar cache(Duration timeToLive) {
+		lastRegistered().cache(timeToLive);
+		return this;
+	}
+
+	/**
+	 * Coalesces identical concurrent GET requests of the last registered url pattern, later ones wait up to {@code timeout} and replay the
+	 * response of the first one, e.g. {@code get("/products/{id}", this::show, Long.class).singleFlight(Duration.ofSeconds(2))}.
+	 *
+	 * @throws IllegalArgumentException if {@code timeout} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet or it completes its response asynchronously
+	 * @see ServletUrlPattern#singleFlight(Duration)
+	 */
+	public ServletUrlPatternRegistrar singleFlight(Duration timeout) {
+		lastRegistered().singleFlight(timeout);
+		return this;
+	}
+
+	/**
+	 * Gzip compresses responses of the last registered url pattern for clients accepting it, e.g.
+	 * {@code get("/styles/{name}", this::css).cache(Duration.ofMinutes(5)).compress()}. Cached responses are cached compressed.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet or it completes its response asynchronously
+	 * @see ServletUrlPattern#compress()
+	 */
+	public ServletUrlPatternRegistrar compress() {
+		lastRegistered().compress();
+		return this;
+	}
+
+	/**
+	 * Sets the maximum total size of cached GET responses in bytes, the default value is 16 MB.
+	 *
+	 * @throws IllegalArgumentException if {@code capacity} is negative
+	 * @see ServletUrlPattern#setResponseCacheCapacity(long)
+	 */
+	public ServletUrlPatternRegistrar setResponseCacheCapacity(long capacity) {
+		GET.setResponseCacheCapacity(capacity);
+		return this;
+	}
+
+	/**
+	 * Limits the number of requests the last registered url pattern handles concurrently, requests over the limit are rejected with 503, e.g.
+	 * {@code get("/reports/{id}", this::report, Long.class).bulkhead(4)}.
+	 *
+	 * @throws IllegalArgumentException if {@code maxConcurrentRequests} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 * @see ServletUrlPattern#bulkhead(int)
+	 */
+	public ServletUrlPatternRegistrar bulkhead(int maxConcurrentRequests) {
+		lastRegistered().bulkhead(maxConcurrentRequests);
+		return this;
+	}
+
+	/**
+	 * Limits the number of requests the last registered url pattern handles concurrently with a bulkhead which may be shared with other url
+	 * patterns.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#bulkhead(Bulkhead)
+	 */
+	public ServletUrlPatternRegistrar bulkhead(Bulkhead bulkhead) {
+		lastRegistered().bulkhead(bulkhead);
+		return this;
+	}
+
+	/**
+	 * Limits the rate of requests of the last registered url pattern to {@code permits} per {@code period}, requests over the limit are
+	 * rejected with 429, e.g. {@code get("/search", this::search).rateLimit(100, Duration.ofSeconds(1))}.
+	 *
+	 * @throws IllegalArgumentException if {@code permits} or {@code period} is not positive
+	 * @throws IllegalStateException    if no url pattern is registered yet
+	 * @see ServletUrlPattern#rateLimit(int, Duration)
+	 */
+	public ServletUrlPatternRegistrar rateLimit(int permits, Duration period) {
+		lastRegistered().rateLimit(permits, period);
+		return this;
+	}
+
+	/**
+	 * Limits the rate of requests of the last registered url pattern with a rate limit which may be keyed by client or path variable and
+	 * may be shared with other url patterns.
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#rateLimit(RateLimit)
+	 */
+	public ServletUrlPatternRegistrar rateLimit(RateLimit rateLimit) {
+		lastRegistered().rateLimit(rateLimit);
 		return this;
 	}
 
@@ -129,30 +428,33 @@ public class ServletUrlPatternRegistrar {
 	 * <p>Only parses the url and returns a {@link com.kodgemisi.servlet_url_mapping.ServletUrl} object representing matched url mapping. This method
 	 * doesn't invoke the {@code requestHandler} even there is a match.</p>
 	 *
+	 * <p>A HEAD request not matching any HEAD url pattern is parsed with GET url patterns.</p>
+	 *
 	 * <p>This method IS thread-safe</p>
 	 *
 	 * @param request
 	 * @return a {@link com.kodgemisi.servlet_url_mapping.ServletUrl} object representing matched url mapping.
 	 */
 	public ServletUrl parse(HttpServletRequest request) {
-		switch (request.getMethod().toLowerCase()) {
-		case "get":
-			return GET.parse(request);
-		case "post":
-			return POST.parse(request);
-		case "put":
-			return PUT.parse(request);
-		case "delete":
-			return DELETE.parse(request);
-		case "head":
-			return HEAD.parse(request);
-		case "options":
-			return OPTIONS.parse(request);
-		case "trace":
-			return TRACE.parse(request);
-		default:
-			throw new IllegalArgumentException(request.getMethod().toLowerCase() + " is not supported.");
-		}
+		final ServletUrlPattern servletUrlPattern = patternFor(request.getMethod());
+		final ServletUrl servletUrl = servletUrlPattern.parse(request);
+		return servletUrl.is404() && servletUrlPattern == HEAD ? GET.parse(request) : servletUrl;
+	}
+
+	/**
+	 * <p>Same as {@link #parse(HttpServletRequest)} but works on a plain HTTP method and path. Useful outside of a request, for example when
+	 * replaying recorded traffic.</p>
+	 *
+	 * <p>This method IS thread-safe</p>
+	 *
+	 * @param method HTTP method, case insensitive
+	 * @param url    It should be in the form of {@link javax.servlet.http.HttpServletRequest#getPathInfo()}
+	 * @return a {@link com.kodgemisi.servlet_url_mapping.ServletUrl} object representing matched url mapping.
+	 */
+	public ServletUrl parse(String method, String url) {
+		final ServletUrlPattern servletUrlPattern = patternFor(method);
+		final ServletUrl servletUrl = servletUrlPattern.parse(url);
+		return servletUrl.is404() && servletUrlPattern == HEAD ? GET.parse(url) : servletUrl;
 	}
 
 	/**
@@ -160,32 +462,222 @@ public class ServletUrlPatternRegistrar {
 	 *
 	 * <p>If the request matches one of your registered HTTP method and url pattern then corresponding method will be invoked automatically.</p>
 	 *
+	 * <p>A HEAD request not matching any HEAD url pattern is handled by the matching GET handler. The handler's response body is counted for
+	 * {@code Content-Length} and discarded without being buffered, so there is no need to register GET handlers for HEAD too.</p>
+	 *
 	 * <p>This method IS thread-safe</p>
 	 *
 	 * @param request
 	 * @param response
 	 * @return a {@link com.kodgemisi.servlet_url_mapping.ServletUrl} object representing matched url mapping.
-	 * @throws ServletException It might be thrown from {@link com.kodgemisi.servlet_url_mapping.ServletUrlPattern#handle}
-	 * @throws IOException      It might be thrown from {@link com.kodgemisi.servlet_url_mapping.ServletUrlPattern#handle}
+	 * @throws ServletException           It might be thrown from {@link com.kodgemisi.servlet_url_mapping.ServletUrlPattern#handle}
+	 * @throws IOException                It might be thrown from {@link com.kodgemisi.servlet_url_mapping.ServletUrlPattern#handle}
+	 * @throws UnsupportedMethodException if the request's method is not one of the methods url patterns can be registered for
 	 */
 	public ServletUrl handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		switch (request.getMethod().toLowerCase()) {
-		case "get":
-			return GET.handle(request, response);
-		case "post":
-			return POST.handle(request, response);
-		case "put":
-			return PUT.handle(request, response);
-		case "delete":
-			return DELETE.handle(request, response);
-		case "head":
-			return HEAD.handle(request, response);
-		case "options":
-			return OPTIONS.handle(request, response);
-		case "trace":
-			return TRACE.handle(request, response);
+		final ServletUrlPattern servletUrlPattern = patternFor(request.getMethod());
+		if (servletUrlPattern != HEAD) {
+			return servletUrlPattern.handle(request, response);
+		}
+
+		final ServletUrl servletUrl = HEAD.handle(request, response);
+		if (!servletUrl.is404()) {
+			return servletUrl;
+		}
+
+		final HeadResponse headResponse = new HeadResponse(response);
+		final ServletUrl getServletUrl = GET.handle(request, headResponse);
+		if (!getServletUrl.is404()) {
+			headResponse.finish();
+		}
+		return getServletUrl;
+	}
+
+	/**
+	 * <p>Registers an MBean listing the url patterns of all HTTP methods with their hit counts and last hit times with the platform MBean server,
+	 * see {@link RouteTableMBean}. Url patterns can be disabled and enabled through the MBean without redeploying. Url patterns registered after
+	 * the MBean are listed too, {@link MappingServlet} registers it in {@code init()}.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 *
+	 * @param name unique among MBeans of this library, like the servlet name
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if an MBean with the same name is already registered
+	 * @see #unregisterMBean()
+	 */
+	public synchronized ServletUrlPatternRegistrar registerMBean(String name) {
+		unregisterMBean();
+
+		objectName = RouteTable.register(name, patternsByMethod());
+		return this;
+	}
+
+	Map<String, ServletUrlPattern> patternsByMethod() {
+		final Map<String, ServletUrlPattern> patternsByMethod = new LinkedHashMap<>();
+		patternsByMethod.put("GET", GET);
+		patternsByMethod.put("POST", POST);
+		patternsByMethod.put("PUT", PUT);
+		patternsByMethod.put("DELETE", DELETE);
+		patternsByMethod.put("HEAD", HEAD);
+		patternsByMethod.put("OPTIONS", OPTIONS);
+		patternsByMethod.put("TRACE", TRACE);
+		return patternsByMethod;
+	}
+
+	/**
+	 * <p>Unregisters the MBean registered by {@link #registerMBean(String)}, if any.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName != null) {
+			RouteTable.unregister(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * <p>Runs the given interceptor around the request handler of the last registered url pattern, after interceptors of its groups, e.g.
+	 * {@code delete("/users/{id}", this::delete, Long.class).intercept(auditLog)}.</p>
+	 *
+	 * @throws IllegalStateException if no url pattern is registered yet
+	 * @see ServletUrlPattern#intercept(Interceptor)
+	 */
+	public ServletUrlPatternRegistrar intercept(Interceptor interceptor) {
+		lastRegistered().intercept(interceptor);
+		return this;
+	}
+
+	/**
+	 * <p>Runs the given interceptor around the request handlers of all url patterns starting with {@code urlPatternPrefix}, of all HTTP methods,
+	 * registered before or after this call. Group interceptors run in the order they are attached, before interceptors attached to url patterns
+	 * themselves.</p>
+	 *
+	 * <p>The prefix is compared with url patterns as registered, not with urls, e.g. {@code intercept("/admin", this::authorize)} applies to
+	 * {@code "/admin/users/{id}"} and {@code "/admin"} but not to {@code "/administrators"}. Interceptors are flattened into an array per url pattern here, at registration time.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 *
+	 * @param urlPatternPrefix "/" for all url patterns
+	 * @return Returns this object to allow method chaining
+	 * @see Interceptor
+	 */
+	public synchronized ServletUrlPatternRegistrar intercept(String urlPatternPrefix, Interceptor interceptor) {
+		groupInterceptors.add(new GroupInterceptor(urlPatternPrefix.startsWith("/") ? urlPatternPrefix : '/' + urlPatternPrefix, interceptor));
+		for (ServletUrlPattern servletUrlPattern : patternsByMethod().values()) {
+			servletUrlPattern.customizeRoutes(route -> route.setGroupInterceptors(groupInterceptorsOf(route.getUrlPattern())));
+		}
+		return this;
+	}
+
+	/**
+	 * <p>Registers the url patterns registered by {@code routes}, of any HTTP method, under a shared url prefix, e.g.</p>
+	 *
+	 * <blockquote><pre>
+	 * this.urlMappingRegistrar.group("/api/v1/users/{id}", users -> users
+	 *         .get("", this::show)
+	 *         .put("", this::update)
+	 *         .get("/addresses/{addressId}", this::address, Integer.class), Long.class);
+	 * </pre></blockquote>
+	 *
+	 * <p>The prefix and its path variables are matched once per request for all url patterns of the group, then the rest of the url is matched
+	 * against the rest of each url pattern. See {@link ServletUrlPattern#group(String, Consumer, Class[])} for details.
+	 * {@link #intercept(String, Interceptor)} compares prefixes with whole url patterns, also within a group.</p>
+	 *
+	 * <p>This method IS thread-safe.</p>
+	 *
+	 * @param urlPrefix whole path segments, url patterns within the group are relative to it, {@code ""} for the prefix itself
+	 * @param routes    registers url patterns of the group on the given {@code ServletUrlPatternRegistrar}, which is this object
+	 * @param types     optional type information for path variables of the prefix
+	 * @return Returns this object to allow method chaining
+	 * @throws IllegalArgumentException if the prefix contains a catch-all or a raw regular expression, or there is no {@link PathVariableConverter}
+	 *                                  for one of the path variable types
+	 */
+	public synchronized ServletUrlPatternRegistrar group(String urlPrefix, Consumer<ServletUrlPatternRegistrar> routes, Class<?>... types) {
+		final Collection<ServletUrlPattern> servletUrlPatterns = patternsByMethod().values();
+		for (ServletUrlPattern servletUrlPattern : servletUrlPatterns) {
+			servletUrlPattern.beginGroup(urlPrefix, types);
+		}
+		try {
+			routes.accept(this);
+		}
+		finally {
+			for (ServletUrlPattern servletUrlPattern : servletUrlPatterns) {
+				servletUrlPattern.endGroup();
+			}
+		}
+		return this;
+	}
+
+	private Interceptor[] groupInterceptorsOf(String urlPattern) {
+		final List<Interceptor> interceptors = new ArrayList<>();
+		for (GroupInterceptor groupInterceptor : groupInterceptors) {
+			if (isUnder(urlPattern, groupInterceptor.urlPatternPrefix)) {
+				interceptors.add(groupInterceptor.interceptor);
+			}
+		}
+		return interceptors.toArray(new Interceptor[0]);
+	}
+
+	/**
+	 * @return true if the url pattern is the prefix itself or continues with a new path segment after it
+	 */
+	private static boolean isUnder(String urlPattern, String urlPatternPrefix) {
+		return urlPattern.startsWith(urlPatternPrefix) && (urlPatternPrefix.endsWith("/") || urlPattern.length() == urlPatternPrefix.length() ||
+														   urlPattern.charAt(urlPatternPrefix.length()) == '/');
+	}
+
+	private synchronized ServletUrlPatternRegistrar register(ServletUrlPattern servletUrlPattern, String name, String urlPattern, ServletRequestHandler requestHandler,
+															 Class<?>... type) {
+		// group interceptors are attached before the url pattern can match any request
+		servletUrlPattern.register(name, urlPattern, requestHandler, type,
+								   groupInterceptors.isEmpty() ? null : route -> route.setGroupInterceptors(groupInterceptorsOf(route.getUrlPattern())));
+		lastRegistered = servletUrlPattern;
+		return this;
+	}
+
+	private static final class GroupInterceptor {
+
+		private final String urlPatternPrefix;
+
+		private final Interceptor interceptor;
+
+		GroupInterceptor(String urlPatternPrefix, Interceptor interceptor) {
+			this.urlPatternPrefix = urlPatternPrefix;
+			this.interceptor = interceptor;
+		}
+	}
+
+	private synchronized ServletUrlPattern lastRegistered() {
+		if (lastRegistered == null) {
+			throw new IllegalStateException("There is no registered url pattern to customize, register a url pattern first.");
+		}
+		return lastRegistered;
+	}
+
+	private ServletUrlPattern patternFor(String method) {
+		// switching on the method as is, HTTP methods are upper case in practice and this way no new String is created per request
+		switch (method) {
+		case "GET":
+			return GET;
+		case "POST":
+			return POST;
+		case "PUT":
+			return PUT;
+		case "DELETE":
+			return DELETE;
+		case "HEAD":
+			return HEAD;
+		case "OPTIONS":
+			return OPTIONS;
+		case "TRACE":
+			return TRACE;
 		default:
-			throw new IllegalArgumentException(request.getMethod().toUpperCase() + " is not supported.");
+			final String upperCaseMethod = method.toUpperCase(Locale.ENGLISH);
+			if (!upperCaseMethod.equals(method)) {
+				return patternFor(upperCaseMethod);
+			}
+			throw new UnsupportedMethodException(method);
 		}
 	}
 
@@ -0,0 +1,112 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Coalesces identical concurrent GET requests of url patterns registered with {@link ServletUrlPattern#singleFlight(java.time.Duration)}.
+ * Requests are identical when they match the same url pattern with the same path variable values. While such a request is being handled,
+ * later ones wait for it and replay its response instead of calling the request handler.</p>
+ *
+ * <p>Only 200 responses without cookies up to {@link #MAX_BODY_SIZE} bytes are replayed, see {@link CachingResponse}. Waiters whose timeout
+ * elapses or whose leader's response cannot be replayed call the request handler themselves.</p>
+ *
+ * <p>This class IS thread-safe.</p>
+ */
+final class SingleFlight {
+
+	static final int MAX_BODY_SIZE = 1024 * 1024;
+
+	private final Map<ResponseCache.Key, Flight> flights = new ConcurrentHashMap<>();
+
+	void handle(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, ServletRequestHandler requestHandler,
+				long timeoutNanos) throws IOException, ServletException {
+
+		final String method = request.getMethod();
+		final boolean isGet = "GET".equals(method);
+		if (!isGet && !"HEAD".equals(method)) {
+			requestHandler.handleRequest(request, response, servletUrl);
+			return;
+		}
+
+		final ResponseCache.Key key = new ResponseCache.Key(servletUrl);
+		final Flight flight = flights.get(key);
+		if (flight != null) {
+			final ResponseCache.Entry entry = flight.await(timeoutNanos);
+			if (entry != null) {
+				entry.writeTo(response);
+			}
+			else {
+				requestHandler.handleRequest(request, response, servletUrl);
+			}
+			return;
+		}
+
+		if (!isGet) {
+			requestHandler.handleRequest(request, response, servletUrl);
+			return;
+		}
+
+		final Flight newFlight = new Flight();
+		final Flight existing = flights.putIfAbsent(key, newFlight);
+		if (existing != null) {
+			// lost the race to become the leader, retry as a waiter
+			handle(request, response, servletUrl, requestHandler, timeoutNanos);
+			return;
+		}
+
+		ResponseCache.Entry entry = null;
+		try {
+			final CachingResponse cachingResponse = new CachingResponse(response, MAX_BODY_SIZE);
+			requestHandler.handleRequest(request, cachingResponse, servletUrl);
+			entry = cachingResponse.toEntry(request, key, System.nanoTime());
+		}
+		finally {
+			flights.remove(key, newFlight);
+			newFlight.complete(entry);
+		}
+	}
+
+	private static final class Flight {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		@Nullable
+		private volatile ResponseCache.Entry entry;
+
+		void complete(@Nullable ResponseCache.Entry entry) {
+			this.entry = entry;
+			done.countDown();
+		}
+
+		/**
+		 * @return the leader's response or null if it cannot be replayed or the leader didn't complete in time
+		 */
+		@Nullable
+		ResponseCache.Entry await(long timeoutNanos) {
+			try {
+				if (done.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+					return entry;
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}
+	}
+}
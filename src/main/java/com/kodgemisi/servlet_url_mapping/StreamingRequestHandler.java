@@ -0,0 +1,59 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * <p>Handles a request whose body is read without blocking a container thread, e.g. a large upload:</p>
+ *
+ * <blockquote><pre>
+ * this.urlMappingRegistrar.post("/files/{name}", (request, response, servletUrl, reader) -&gt; {
+ *     final FileChannel file = FileChannel.open(target(servletUrl.variable("name")), CREATE_NEW, WRITE);
+ *     return new RequestBodyListener() {
+ *         public boolean onChunk(ByteBuffer chunk) throws IOException {
+ *             file.write(chunk);
+ *             return true;
+ *         }
+ *         public void onComplete() throws IOException {
+ *             file.close();
+ *             response.setStatus(HttpServletResponse.SC_CREATED);
+ *         }
+ *     };
+ * });
+ * </pre></blockquote>
+ *
+ * <p>The handler is called on the container thread like a {@link ServletRequestHandler}, then the request is put into asynchronous mode and
+ * its body is read via Servlet 3.1 non-blocking I/O: chunks are handed to the returned {@link RequestBodyListener} as they arrive, by whichever
+ * thread the container notifies, and no thread waits for the client in between. A listener which cannot keep up pauses reading by returning
+ * false from {@link RequestBodyListener#onChunk} and continues it via {@link RequestBodyReader#resume()}.</p>
+ *
+ * <p>The servlet and the filters in front of it must support asynchronous processing, e.g. {@code @WebServlet(asyncSupported = true)}.
+ * Interceptors, rate limits and bulkheads apply as usual but only up to the point where reading starts: {@link Interceptor#after} runs and
+ * bulkhead permits are released when the handler returns, not when the body has been read.</p>
+ *
+ * @see ServletUrlPatternRegistrar#post(String, StreamingRequestHandler, Class[])
+ */
+@FunctionalInterface
+public interface StreamingRequestHandler {
+
+	/**
+	 * @param reader controls reading of the body, see {@link RequestBodyReader#resume()}
+	 * @return listener of the body, or null if the handler has already responded without reading it, e.g. with {@code 413}
+	 * @throws ServletException like {@link ServletRequestHandler#handleRequest}, before reading starts
+	 * @throws IOException      like {@link ServletRequestHandler#handleRequest}, before reading starts
+	 */
+	@Nullable
+	RequestBodyListener handleRequest(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, RequestBodyReader reader)
+			throws ServletException, IOException;
+
+}
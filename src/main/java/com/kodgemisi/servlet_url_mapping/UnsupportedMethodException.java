@@ -0,0 +1,34 @@
+/* © 2017 Kod Gemisi Ltd.
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.kodgemisi.servlet_url_mapping;
+
+/**
+ * <p>Thrown for requests whose HTTP method is not one of the methods url patterns can be registered for. Mapped to 501 by
+ * {@link MappingExceptionHandler}.</p>
+ *
+ * <p>This exception doesn't capture a stack trace, it's part of the library's control flow and is cheap to throw.</p>
+ */
+public final class UnsupportedMethodException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String method;
+
+	UnsupportedMethodException(String method) {
+		super(method + " is not supported.");
+		this.method = method;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,240 @@
+package com.kodgemisi.servlet_url_mapping;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * <p>Keeps allocations from creeping into the routing hot path: each scenario declares how many bytes a single {@code parse} or {@code handle}
+ * call may allocate and fails when it allocates more, as measured by {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.</p>
+ *
+ * <p>Budgets are what the interpreter allocates, escape analysis of the JIT compiler may only lower them. Non-zero budgets are object sizes of
+ * 64-bit HotSpot with compressed references, the default for heaps under 32 GB. A scenario is run many times before it's measured so that lazy
+ * initialization, like caches or hit counters, is not counted, and it's measured a few times to leave out allocations of other code running on
+ * the same thread now and then, like class loading.</p>
+ */
+class AllocationBudgetTest {
+
+	private static final int WARMUP = 20_000;
+
+	private static final int ITERATIONS = 10_000;
+
+	private static final int MEASUREMENTS = 3;
+
+	/**
+	 * A {@link ServletUrl} created as the result of parsing a url matching a url pattern with path variables
+	 */
+	private static final long PARSING_RESULT = 104;
+
+	/**
+	 * Start and end indexes of a single path variable in {@link ServletUrl#captures}, {@code int[2]}
+	 */
+	private static final long CAPTURES_OF_ONE = 24;
+
+	/**
+	 * Start and end indexes of two path variables in {@link ServletUrl#captures}, {@code int[4]}
+	 */
+	private static final long CAPTURES_OF_TWO = 32;
+
+	/**
+	 * Converted value of a single path variable: {@code Object[1]} in {@link ServletUrl#values}, the {@link String} given to its converter with
+	 * its {@code char[4]} and the {@link Long}
+	 */
+	private static final long CONVERTED_LONG = 24 + 24 + 24 + 24;
+
+	private static com.sun.management.ThreadMXBean threadMXBean;
+
+	private final ServletRequestHandler noop = (request, response, servletUrl) -> {};
+
+	private ServletUrlPattern servletUrlPattern;
+
+	@BeforeAll
+	static void setUpThreadMXBean() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "Allocated bytes per thread are not available in this JVM");
+		threadMXBean = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threadMXBean.isThreadAllocatedMemorySupported(), "Allocated bytes per thread are not available in this JVM");
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@BeforeEach
+	void setUp() {
+		servletUrlPattern = new ServletUrlPattern(true);
+		// a table of some size so that misses are matched against every kind of url pattern
+		for (int i = 0; i < 50; i++) {
+			servletUrlPattern.register("static" + i, "/static/" + i, noop);
+		}
+		servletUrlPattern.register("list", "/products", noop)
+				.register("show", "/products/{id}", noop, Long.class)
+				.register("images", "/products/{id}/images/{imageId}", noop, Integer.class, Long.class)
+				.register("help", "/Help", noop).ignoreCase()
+				.register("json", "/reports", noop).produces("application/json")
+				.register("csv", "/reports", noop).produces("text/csv")
+				.register("admin", "/admin/**", noop)
+				.group("/tenants/{tenant}", tenant -> tenant
+						.register("tenantOrders", "/orders", noop)
+						.register("tenantOrder", "/orders/{orderId}", noop, Integer.class), String.class);
+	}
+
+	@Test
+	@DisplayName("Matching a url pattern without path variables allocates nothing")
+	void staticRoute() {
+		assertBudget(0, () -> servletUrlPattern.parse("/products"), "list");
+		assertBudget(0, () -> servletUrlPattern.parse("/products/"), "list");
+		assertBudget(0, () -> servletUrlPattern.parse("/HELP"), "help");
+		assertBudget(0, () -> servletUrlPattern.parse("/admin/users/13"), "admin");
+	}
+
+	@Test
+	@DisplayName("A url matching no url pattern allocates nothing unless it matches the url prefix of a group")
+	void notFound() {
+		assertBudget(0, () -> servletUrlPattern.parse("/orders/13/lines"), ServletUrl.NOT_FOUND_404);
+		assertBudget(0, () -> servletUrlPattern.parse("/tenants"), ServletUrl.NOT_FOUND_404);
+
+		assumeTrue(usesCompressedReferences(), "Budgets are object sizes with compressed references");
+		// path variables of the prefix are captured while it's matched, before url patterns of the group are tried
+		assertBudget(CAPTURES_OF_ONE, () -> servletUrlPattern.parse("/tenants/acme/invoices/7"), ServletUrl.NOT_FOUND_404);
+	}
+
+	@Test
+	@DisplayName("Matching a url pattern with path variables allocates only the parsing result")
+	void pathVariables() {
+		assumeTrue(usesCompressedReferences(), "Budgets are object sizes with compressed references");
+
+		assertBudget(PARSING_RESULT + CAPTURES_OF_ONE, () -> servletUrlPattern.parse("/products/4242"), "show");
+		assertBudget(PARSING_RESULT + CAPTURES_OF_TWO, () -> servletUrlPattern.parse("/products/4242/images/7"), "images");
+		// the parsing result shares captures of the prefix
+		assertBudget(PARSING_RESULT + CAPTURES_OF_ONE, () -> servletUrlPattern.parse("/tenants/acme/orders"), "tenantOrders");
+		assertBudget(PARSING_RESULT + CAPTURES_OF_ONE + CAPTURES_OF_TWO, () -> servletUrlPattern.parse("/tenants/acme/orders/7"), "tenantOrder");
+	}
+
+	@Test
+	@DisplayName("Matching url patterns with constrained path variables allocates only the parsing result")
+	void constraints() {
+		servletUrlPattern.register("article", "/articles/{slug:[a-z0-9-]+}", noop)
+				.register("download", "/downloads/{name:[a-z]+(-[0-9]+)?}.{extension:tar\\.gz|zip}", noop);
+		assumeTrue(usesCompressedReferences(), "Budgets are object sizes with compressed references");
+
+		assertBudget(PARSING_RESULT + CAPTURES_OF_ONE, () -> servletUrlPattern.parse("/articles/allocation-free-routing"), "article");
+		// candidate ends of the name are found in a single pass before the extension is matched
+		assertBudget(PARSING_RESULT + CAPTURES_OF_TWO, () -> servletUrlPattern.parse("/downloads/report-2.tar.gz"), "download");
+		assertBudget(0, () -> servletUrlPattern.parse("/downloads/report.rar"), ServletUrl.NOT_FOUND_404);
+	}
+
+	@Test
+	@DisplayName("Reading a path variable allocates only its converted value")
+	void variable() {
+		assumeTrue(usesCompressedReferences(), "Budgets are object sizes with compressed references");
+
+		assertBudget(PARSING_RESULT + CAPTURES_OF_ONE + CONVERTED_LONG, () -> {
+			final ServletUrl servletUrl = servletUrlPattern.parse("/products/4242");
+			servletUrl.variable("id");
+			servletUrl.variable("id");
+			return servletUrl;
+		}, "show");
+	}
+
+	@Test
+	@DisplayName("Selecting a variant by a cached Accept header allocates nothing")
+	void variants() {
+		final HttpServletRequest request = request("GET", "/reports", "text/csv");
+		assertBudget(0, () -> servletUrlPattern.parse(request), "csv");
+	}
+
+	@Test
+	@DisplayName("Handling a request of a url pattern without path variables allocates nothing")
+	void handle() {
+		servletUrlPattern.register("intercepted", "/intercepted", noop).intercept((request, response, servletUrl) -> true);
+		final HttpServletRequest listRequest = request("GET", "/products", null);
+		final HttpServletRequest interceptedRequest = request("GET", "/intercepted", null);
+		final HttpServletResponse response = new HttpServletResponseWrapper(Mockito.mock(HttpServletResponse.class));
+
+		assertBudget(0, () -> servletUrlPattern.handle(listRequest, response), "list");
+		assertBudget(0, () -> servletUrlPattern.handle(interceptedRequest, response), "intercepted");
+	}
+
+	/**
+	 * Runs {@code scenario} {@link #WARMUP} times, then measures the average bytes allocated by {@link #ITERATIONS} runs of it
+	 * {@link #MEASUREMENTS} times and compares the lowest average with the budget.
+	 */
+	private static void assertBudget(long budgetBytes, Scenario scenario, String expectedName) {
+		assertEquals(expectedName, run(scenario).getName());
+		for (int i = 0; i < WARMUP; i++) {
+			run(scenario);
+		}
+
+		final long threadId = Thread.currentThread().getId();
+		// reading allocated bytes may allocate itself
+		final long overhead = -threadMXBean.getThreadAllocatedBytes(threadId) + threadMXBean.getThreadAllocatedBytes(threadId);
+		long bytesPerCall = Long.MAX_VALUE;
+		for (int measurement = 0; measurement < MEASUREMENTS; measurement++) {
+			final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < ITERATIONS; i++) {
+				run(scenario);
+			}
+			final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before - overhead;
+			bytesPerCall = Math.min(bytesPerCall, Math.max(0, allocated) / ITERATIONS);
+		}
+
+		final long measured = bytesPerCall;
+		assertTrue(measured <= budgetBytes, () -> expectedName + " allocates " + measured + " bytes per call, its budget is " + budgetBytes);
+	}
+
+	private static ServletUrl run(Scenario scenario) {
+		try {
+			return scenario.run();
+		}
+		catch (IOException | ServletException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean usesCompressedReferences() {
+		final HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		return hotSpot != null && Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+	}
+
+	/**
+	 * Stubs without Mockito on the measured path, calls of mocks allocate.
+	 */
+	private static HttpServletRequest request(String method, String pathInfo, String accept) {
+		return new HttpServletRequestWrapper(Mockito.mock(HttpServletRequest.class)) {
+
+			@Override
+			public String getMethod() {
+				return method;
+			}
+
+			@Override
+			public String getPathInfo() {
+				return pathInfo;
+			}
+
+			@Override
+			public String getHeader(String name) {
+				return "Accept".equalsIgnoreCase(name) ? accept : null;
+			}
+		};
+	}
+
+	@FunctionalInterface
+	private interface Scenario {
+
+		ServletUrl run() throws IOException, ServletException;
+	}
+}
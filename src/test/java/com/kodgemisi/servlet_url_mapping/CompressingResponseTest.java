@@ -0,0 +1,244 @@
+package com.kodgemisi.servlet_url_mapping;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+
+class CompressingResponseTest {
+
+	private static final String CSS = repeat("body { margin: 0; padding: 0; }\n", 100);
+
+	private final int[] renders = {0};
+
+	private ServletUrlPatternRegistrar registrar;
+
+	@BeforeEach
+	void setUp() {
+		registrar = new ServletUrlPatternRegistrar().get("/styles/{name}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.setContentType("text/css");
+			response.setContentLength(CSS.length());
+			response.getWriter().write(CSS);
+		}).compress().get("/cached/{name}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.setContentType("text/css");
+			response.getOutputStream().write(CSS.getBytes(StandardCharsets.UTF_8));
+		}).cache(Duration.ofMinutes(1)).compress().get("/small", (request, response, servletUrl) -> {
+			response.setContentLength(2);
+			response.getWriter().write("{}");
+		}).compress();
+	}
+
+	@Test
+	@DisplayName("Responses are gzip compressed while written for clients accepting gzip")
+	void compressed() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			// compressors are reused
+			final Exchange exchange = new Exchange("/styles/site.css", "gzip, deflate, br");
+			registrar.handle(exchange.request, exchange.response);
+
+			Assertions.assertEquals(CSS, gunzip(exchange.body()));
+			Assertions.assertTrue(exchange.body().length < CSS.length() / 10);
+			Mockito.verify(exchange.response).setHeader("Content-Encoding", "gzip");
+			Mockito.verify(exchange.response).addHeader("Vary", "Accept-Encoding");
+			Mockito.verify(exchange.response, Mockito.never()).setContentLengthLong(Mockito.anyLong());
+			Mockito.verify(exchange.response, Mockito.never()).setContentLength(Mockito.anyInt());
+		}
+	}
+
+	@Test
+	@DisplayName("Clients not accepting gzip and small bodies get the response as is")
+	void identity() throws Exception {
+		for (String acceptEncoding : new String[] {null, "br", "gzip;q=0", "*;q=0"}) {
+			final Exchange exchange = new Exchange("/styles/site.css", acceptEncoding);
+			registrar.handle(exchange.request, exchange.response);
+
+			Assertions.assertEquals(CSS, new String(exchange.body(), StandardCharsets.UTF_8));
+			Mockito.verify(exchange.response).addHeader("Vary", "Accept-Encoding");
+			Mockito.verify(exchange.response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+		}
+
+		final Exchange small = new Exchange("/small", "gzip");
+		registrar.handle(small.request, small.response);
+		Assertions.assertEquals("{}", new String(small.body(), StandardCharsets.UTF_8));
+		Mockito.verify(small.response).setContentLengthLong(2);
+		Mockito.verify(small.response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+	}
+
+	@Test
+	@DisplayName("Compressed and uncompressed responses are cached separately, cached responses are not compressed again")
+	void cached() throws Exception {
+		final Exchange first = new Exchange("/cached/site.css", "gzip");
+		registrar.handle(first.request, first.response);
+		final Exchange hit = new Exchange("/cached/site.css", "gzip");
+		registrar.handle(hit.request, hit.response);
+
+		Assertions.assertEquals(1, renders[0]);
+		Assertions.assertArrayEquals(first.body(), hit.body());
+		Assertions.assertEquals(CSS, gunzip(hit.body()));
+		Mockito.verify(hit.response).setHeader("Content-Encoding", "gzip");
+		Mockito.verify(hit.response).setContentLength(hit.body().length);
+
+		final Exchange identity = new Exchange("/cached/site.css", null);
+		registrar.handle(identity.request, identity.response);
+		final Exchange identityHit = new Exchange("/cached/site.css", null);
+		registrar.handle(identityHit.request, identityHit.response);
+
+		Assertions.assertEquals(2, renders[0]);
+		Assertions.assertEquals(CSS, new String(identityHit.body(), StandardCharsets.UTF_8));
+		Mockito.verify(identityHit.response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+	}
+
+	@Test
+	@DisplayName("Compressed and uncompressed responses have different entity tags")
+	void eTag() throws Exception {
+		registrar.get("/tagged/{name}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.getWriter().write(CSS);
+		}).eTag(servletUrl -> "v1").compress();
+
+		final Exchange compressed = new Exchange("/tagged/site.css", "gzip");
+		registrar.handle(compressed.request, compressed.response);
+		Mockito.verify(compressed.response).setHeader("ETag", "\"v1-gzip\"");
+
+		final Exchange identity = new Exchange("/tagged/site.css", null);
+		registrar.handle(identity.request, identity.response);
+		Mockito.verify(identity.response).setHeader("ETag", "\"v1\"");
+		Assertions.assertEquals(2, renders[0]);
+
+		// a tag validates only the representation it is sent with
+		final Exchange identityWithGzipTag = new Exchange("/tagged/site.css", null);
+		Mockito.when(identityWithGzipTag.request.getHeader("If-None-Match")).thenReturn("\"v1-gzip\"");
+		registrar.handle(identityWithGzipTag.request, identityWithGzipTag.response);
+		Assertions.assertEquals(3, renders[0]);
+
+		final Exchange compressedWithIdentityTag = new Exchange("/tagged/site.css", "gzip");
+		Mockito.when(compressedWithIdentityTag.request.getHeader("If-None-Match")).thenReturn("\"v1\"");
+		registrar.handle(compressedWithIdentityTag.request, compressedWithIdentityTag.response);
+		Assertions.assertEquals(4, renders[0]);
+
+		final Exchange notModified = new Exchange("/tagged/site.css", "gzip");
+		Mockito.when(notModified.request.getHeader("If-None-Match")).thenReturn("W/\"v1-gzip\"");
+		registrar.handle(notModified.request, notModified.response);
+		Assertions.assertEquals(4, renders[0]);
+		Mockito.verify(notModified.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+	}
+
+	@Test
+	@DisplayName("Bodies written after the request handler returns are not compressed")
+	void asynchronous() throws Exception {
+		final HttpServletResponse[] asyncResponse = {null};
+		registrar.get("/async/{name}", (request, response, servletUrl) -> {
+			Mockito.when(request.isAsyncStarted()).thenReturn(true);
+			asyncResponse[0] = response;
+		}).compress().get("/late/{name}", (request, response, servletUrl) -> {
+			response.getOutputStream().write(CSS.getBytes(StandardCharsets.UTF_8));
+			Mockito.when(request.isAsyncStarted()).thenReturn(true);
+			asyncResponse[0] = response;
+		}).compress();
+
+		final Exchange exchange = new Exchange("/async/site.css", "gzip");
+		registrar.handle(exchange.request, exchange.response);
+		asyncResponse[0].getOutputStream().write(CSS.getBytes(StandardCharsets.UTF_8));
+
+		Assertions.assertEquals(CSS, new String(exchange.body(), StandardCharsets.UTF_8));
+		Mockito.verify(exchange.response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+
+		final Exchange late = new Exchange("/late/site.css", "gzip");
+		registrar.handle(late.request, late.response);
+		Assertions.assertEquals(CSS, gunzip(late.body()));
+		Assertions.assertThrows(IllegalStateException.class, () -> asyncResponse[0].getOutputStream().write('x'));
+	}
+
+	@Test
+	void acceptEncodingNegotiation() {
+		Assertions.assertTrue(CompressingResponse.acceptsGzip("gzip"));
+		Assertions.assertTrue(CompressingResponse.acceptsGzip("deflate, GZIP;q=0.5"));
+		Assertions.assertTrue(CompressingResponse.acceptsGzip("br;q=1.0, *"));
+		Assertions.assertTrue(CompressingResponse.acceptsGzip("gzip;q=0.01"));
+
+		Assertions.assertFalse(CompressingResponse.acceptsGzip(null));
+		Assertions.assertFalse(CompressingResponse.acceptsGzip(""));
+		Assertions.assertFalse(CompressingResponse.acceptsGzip("identity"));
+		Assertions.assertFalse(CompressingResponse.acceptsGzip("x-gzipped"));
+		Assertions.assertFalse(CompressingResponse.acceptsGzip("gzip;q=0.000"));
+		Assertions.assertFalse(CompressingResponse.acceptsGzip("*, gzip;q=0"));
+	}
+
+	private static String gunzip(byte[] compressed) throws IOException {
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return result.toString("UTF-8");
+		}
+	}
+
+	private static String repeat(String value, int times) {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			result.append(value);
+		}
+		return result.toString();
+	}
+
+	private static final class Exchange {
+
+		private final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+
+		private final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+		private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(written, StandardCharsets.UTF_8));
+
+		Exchange(String pathInfo, String acceptEncoding) throws IOException {
+			Mockito.when(request.getMethod()).thenReturn("GET");
+			Mockito.when(request.getPathInfo()).thenReturn(pathInfo);
+			Mockito.when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+			Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+			Mockito.when(response.getWriter()).thenReturn(writer);
+			Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void write(int b) {
+					written.write(b);
+				}
+			});
+		}
+
+		byte[] body() {
+			writer.flush();
+			return written.toByteArray();
+		}
+	}
+}
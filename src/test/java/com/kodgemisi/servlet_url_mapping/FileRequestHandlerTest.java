@@ -0,0 +1,304 @@
+package com.kodgemisi.servlet_url_mapping;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+class FileRequestHandlerTest {
+
+	@TempDir
+	Path directory;
+
+	private Path root;
+
+	private ServletUrlPatternRegistrar registrar;
+
+	private HttpServletRequest request;
+
+	private HttpServletResponse response;
+
+	private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		root = Files.createDirectories(directory.resolve("downloads"));
+		Files.createDirectories(root.resolve("docs"));
+		Files.write(root.resolve("docs/report.csv"), "id,name\n1,a\n2,b\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+
+		registrar = new ServletUrlPatternRegistrar().files("/files/{path:**}", root);
+
+		response = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void write(int b) {
+				written.write(b);
+			}
+		});
+		request = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(request.getMethod()).thenReturn("GET");
+		Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+	}
+
+	@Test
+	@DisplayName("The file at the path in the last path variable is served with its length and validators")
+	void serve() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+
+		registrar.handle(request, response);
+
+		Assertions.assertEquals("id,name\n1,a\n2,b\n", written.toString("UTF-8"));
+		Mockito.verify(response).setContentLengthLong(16);
+		Mockito.verify(response).setContentType("application/octet-stream");
+		Mockito.verify(response).setHeader("Accept-Ranges", "bytes");
+		Mockito.verify(response).setHeader(Mockito.eq("ETag"), Mockito.startsWith("\"10-"));
+		Mockito.verify(response).setDateHeader(Mockito.eq("Last-Modified"), Mockito.anyLong());
+		Mockito.verify(response, Mockito.never()).setStatus(Mockito.anyInt());
+	}
+
+	@Test
+	@DisplayName("Paths leading outside of the root, directories and missing files are 404")
+	void outsideOfRoot() throws Exception {
+		Files.createSymbolicLink(root.resolve("link.txt"), directory.resolve("secret.txt"));
+		for (String path : new String[] {"/files/../secret.txt", "/files/docs/../../secret.txt", "/files/docs/..\\..\\secret.txt", "/files/link.txt",
+										 "/files/docs", "/files/", "/files/missing.txt", "/files//etc/passwd"}) {
+			Mockito.reset(response);
+			Mockito.when(request.getPathInfo()).thenReturn(path);
+
+			registrar.handle(request, response);
+
+			Mockito.verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+			Mockito.verify(response, Mockito.never()).getOutputStream();
+		}
+	}
+
+	@Test
+	@DisplayName("Symbolic links within the root are followed")
+	void linkWithinRoot() throws Exception {
+		Files.createSymbolicLink(root.resolve("latest.csv"), root.resolve("docs/report.csv"));
+		Mockito.when(request.getPathInfo()).thenReturn("/files/latest.csv");
+
+		registrar.handle(request, response);
+
+		Assertions.assertEquals("id,name\n1,a\n2,b\n", written.toString("UTF-8"));
+	}
+
+	@Test
+	@DisplayName("A single range is served as 206")
+	void range() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=8-11");
+
+		registrar.handle(request, response);
+
+		Assertions.assertEquals("1,a\n", written.toString("UTF-8"));
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		Mockito.verify(response).setHeader("Content-Range", "bytes 8-11/16");
+		Mockito.verify(response).setContentLengthLong(4);
+	}
+
+	@Test
+	@DisplayName("Ranges out of the file are 416")
+	void unsatisfiableRange() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=16-");
+
+		registrar.handle(request, response);
+
+		Mockito.verify(response).setHeader("Content-Range", "bytes */16");
+		Mockito.verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		Assertions.assertEquals(0, written.size());
+	}
+
+	@Test
+	@DisplayName("Range is ignored unless If-Range is the current entity tag")
+	void ifRange() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=8-11");
+		Mockito.when(request.getHeader("If-Range")).thenReturn("\"outdated\"");
+
+		registrar.handle(request, response);
+
+		Assertions.assertEquals("id,name\n1,a\n2,b\n", written.toString("UTF-8"));
+		Mockito.verify(response, Mockito.never()).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+	}
+
+	@Test
+	void rangeParsing() {
+		Assertions.assertArrayEquals(new long[] {0, 499}, FileRequestHandler.range("bytes=0-499", 1000));
+		Assertions.assertArrayEquals(new long[] {500, 999}, FileRequestHandler.range("bytes=500-", 1000));
+		Assertions.assertArrayEquals(new long[] {500, 999}, FileRequestHandler.range("bytes=500-5000", 1000));
+		Assertions.assertArrayEquals(new long[] {900, 999}, FileRequestHandler.range("bytes=-100", 1000));
+		Assertions.assertArrayEquals(new long[] {0, 999}, FileRequestHandler.range("bytes=-5000", 1000));
+
+		Assertions.assertSame(FileRequestHandler.UNSATISFIABLE, FileRequestHandler.range("bytes=1000-", 1000));
+		Assertions.assertSame(FileRequestHandler.UNSATISFIABLE, FileRequestHandler.range("bytes=-0", 1000));
+		Assertions.assertSame(FileRequestHandler.UNSATISFIABLE, FileRequestHandler.range("bytes=-1", 0));
+
+		Assertions.assertNull(FileRequestHandler.range(null, 1000));
+		Assertions.assertNull(FileRequestHandler.range("bytes=0-1,5-6", 1000));
+		Assertions.assertNull(FileRequestHandler.range("bytes=5-1", 1000));
+		Assertions.assertNull(FileRequestHandler.range("bytes=a-b", 1000));
+		Assertions.assertNull(FileRequestHandler.range("bytes=-", 1000));
+		Assertions.assertNull(FileRequestHandler.range("items=0-1", 1000));
+		Assertions.assertNull(FileRequestHandler.range("bytes=99999999999999999999-", 1000));
+	}
+
+	@Test
+	@DisplayName("Clients having the current file get 304")
+	void notModified() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+		final String eTag = "\"10-" + Long.toHexString(Files.getLastModifiedTime(root.resolve("docs/report.csv")).toMillis()) + '"';
+		Mockito.when(request.getHeader("If-None-Match")).thenReturn(eTag);
+
+		registrar.handle(request, response);
+
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		Assertions.assertEquals(0, written.size());
+	}
+
+	@Test
+	@DisplayName("HEAD requests get the headers only")
+	void head() throws Exception {
+		Mockito.when(request.getMethod()).thenReturn("HEAD");
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+
+		registrar.handle(request, response);
+
+		Mockito.verify(response).setContentLengthLong(16);
+		Assertions.assertEquals(0, written.size());
+	}
+
+	@Test
+	@DisplayName("With async support the file is written only while the output stream is ready, without blocking")
+	void nonBlocking() throws Exception {
+		final byte[] content = new byte[FileRequestHandler.BUFFER_SIZE * 2 + 10];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		Files.write(root.resolve("large.bin"), content);
+
+		final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+		final boolean[] ready = {false};
+		final WriteListener[] writeListener = {null};
+		Mockito.when(request.getPathInfo()).thenReturn("/files/large.bin");
+		Mockito.when(request.isAsyncSupported()).thenReturn(true);
+		Mockito.when(request.startAsync(request, response)).thenReturn(asyncContext);
+		Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+			@Override
+			public boolean isReady() {
+				// a slow client, one buffer at a time
+				final boolean result = ready[0];
+				ready[0] = false;
+				return result;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener listener) {
+				writeListener[0] = listener;
+			}
+
+			@Override
+			public void write(int b) {
+				written.write(b);
+			}
+		});
+
+		registrar.handle(request, response);
+		Assertions.assertEquals(0, written.size());
+
+		for (int i = 1; i <= 3; i++) {
+			ready[0] = true;
+			writeListener[0].onWritePossible();
+			Assertions.assertEquals(Math.min(i * FileRequestHandler.BUFFER_SIZE, content.length), written.size());
+		}
+		Mockito.verify(asyncContext, Mockito.never()).complete();
+
+		ready[0] = true;
+		writeListener[0].onWritePossible();
+		Assertions.assertArrayEquals(content, written.toByteArray());
+		Mockito.verify(asyncContext).complete();
+	}
+
+	@Test
+	@DisplayName("On Tomcat with sendfile, the container writes the file")
+	void sendfile() throws Exception {
+		Mockito.when(request.getPathInfo()).thenReturn("/files/docs/report.csv");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=-4");
+		Mockito.when(request.getAttribute(FileRequestHandler.SENDFILE_SUPPORT)).thenReturn(Boolean.TRUE);
+
+		registrar.handle(request, response);
+
+		Mockito.verify(request).setAttribute(FileRequestHandler.SENDFILE_FILENAME, root.resolve("docs/report.csv").toRealPath().toString());
+		Mockito.verify(request).setAttribute(FileRequestHandler.SENDFILE_START, 12L);
+		Mockito.verify(request).setAttribute(FileRequestHandler.SENDFILE_END, 16L);
+		Assertions.assertEquals(0, written.size());
+	}
+
+	@Test
+	@DisplayName("File metadata is cached for its time to live, missing files too")
+	void metadataCache() throws Exception {
+		final FileMetadataCache cache = new FileMetadataCache(root, Duration.ofHours(1).toNanos(), 2);
+
+		final FileMetadataCache.FileMetadata report = cache.get("docs/report.csv", name -> "text/csv");
+		Assertions.assertEquals(16, report.getSize());
+		Assertions.assertEquals("text/csv", report.getContentType());
+		Assertions.assertNull(cache.get("new.txt", name -> null));
+
+		Files.write(root.resolve("new.txt"), "new".getBytes(StandardCharsets.UTF_8));
+		Files.delete(root.resolve("docs/report.csv"));
+		Assertions.assertSame(report, cache.get("docs/report.csv", name -> "text/csv"));
+		Assertions.assertNull(cache.get("new.txt", name -> null));
+
+		// evicts the oldest
+		cache.get("other.txt", name -> null);
+		Assertions.assertNull(cache.get("docs/report.csv", name -> "text/csv"));
+
+		final FileMetadataCache uncached = new FileMetadataCache(root, 0, 0);
+		Assertions.assertEquals("application/octet-stream", uncached.get("new.txt", name -> null).getContentType());
+	}
+
+	@Test
+	@DisplayName("File responses are completed asynchronously and cannot be cached or compressed")
+	void notCacheable() {
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.cache(Duration.ofMinutes(1)));
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.singleFlight(Duration.ofSeconds(1)));
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.compress());
+	}
+
+	@Test
+	void invalidRoot() {
+		Mockito.when(request.getPathInfo()).thenReturn("/files");
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new FileRequestHandler(root.resolve("missing")));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new FileRequestHandler(root, Duration.ofSeconds(-1), 10));
+		Assertions.assertThrows(IllegalStateException.class, () -> new ServletUrlPatternRegistrar().files("/files", root)
+				.handle(request, response));
+	}
+}
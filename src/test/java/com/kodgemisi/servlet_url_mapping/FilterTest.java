@@ -56,6 +56,26 @@ class FilterTest {
 		verify(filterChain).doFilter(any(), any());
 	}
 
+	@Test
+	void getAdminRootUrl() throws ServletException, IOException {
+		final SampleAuthorizationFilter filter = prepareFor("GET", "/admin");
+
+		filter.doFilter(request, response, filterChain);
+
+		verify(filter).isCurrentUserAdmin();
+		verify(filterChain).doFilter(any(), any());
+	}
+
+	@Test
+	void getNonAdminUrl() throws ServletException, IOException {
+		final SampleAuthorizationFilter filter = prepareFor("GET", "/administrator");
+
+		filter.doFilter(request, response, filterChain);
+
+		verify(filter, never()).isCurrentUserAdmin();
+		verify(filterChain).doFilter(any(), any());
+	}
+
 	@Test
 	void getLogoutUrl() throws ServletException, IOException {
 		final SampleAuthorizationFilter filter = prepareFor("GET", "/logout");
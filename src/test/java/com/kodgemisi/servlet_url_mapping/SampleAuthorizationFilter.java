@@ -20,7 +20,7 @@ class SampleAuthorizationFilter implements Filter {
 
 	SampleAuthorizationFilter(boolean useTrailingSlashMatch) {
 		servletUrlPattern = new ServletUrlPattern(useTrailingSlashMatch);
-		servletUrlPattern.register("admin", "/admin/.*");
+		servletUrlPattern.register("admin", "/admin/**");
 		servletUrlPattern.register("logout", "/logout");
 	}
 
@@ -62,6 +62,37 @@ class SampleServletTest {
 		verify(exceptionHandler, times(1)).handleException(any(), any(), any());
 	}
 
+	@Test
+	@DisplayName("MappingExceptionHandler responds by the nearest mapped superclass and with 500 for unmapped exceptions")
+	void mappingExceptionHandler() throws IOException, ServletException {
+
+		prepareFor("GET", "/exception");
+
+		new SampleServlet(new MappingExceptionHandler().map(RuntimeException.class, HttpServletResponse.SC_BAD_REQUEST), true).doGet(request, response);
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+
+		final SampleServlet sampleServlet = new SampleServlet(new MappingExceptionHandler().map(IllegalStateException.class, 409), true);
+		sampleServlet.doGet(request, response);
+		sampleServlet.doGet(request, response);
+		verify(response, times(2)).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	}
+
+	@Test
+	@DisplayName("Unsupported methods throw a stackless exception which is mapped to 501")
+	void unsupportedMethod() throws IOException {
+
+		when(request.getMethod()).thenReturn("PATCH");
+		when(request.getPathInfo()).thenReturn("/products");
+
+		final UnsupportedMethodException e = Assertions.assertThrows(UnsupportedMethodException.class,
+																	 () -> new ServletUrlPatternRegistrar(true).handle(request, response));
+		assertEquals("PATCH", e.getMethod());
+		assertEquals(0, e.getStackTrace().length);
+
+		new MappingExceptionHandler().handleException(request, response, e);
+		verify(response).sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
+	}
+
 	@Test
 	void getMappingSimple() throws ServletException, IOException {
 		final StringWriter sw = prepareFor("GET", "/products");
@@ -150,6 +181,32 @@ class SampleServletTest {
 		verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
 	}
 
+	@Test
+	@DisplayName("HEAD requests are handled by GET handlers without writing the body")
+	void headDerivedFromGet() throws ServletException, IOException {
+		prepareFor("HEAD", "/products/13");
+		when(response.getCharacterEncoding()).thenReturn("UTF-8");
+
+		final SampleServlet sampleServlet = new SampleServlet(true);
+		sampleServlet.doHead(request, response);
+
+		verify(response).setStatus(HttpServletResponse.SC_OK);
+		verify(response).setContentLength(2);
+		verify(response, never()).getWriter();
+		verify(response, never()).getOutputStream();
+		verify(response, never()).sendError(anyInt());
+	}
+
+	@Test
+	void headWithoutGetMapping() throws ServletException, IOException {
+		prepareFor("HEAD", "/unknown");
+
+		final SampleServlet sampleServlet = new SampleServlet(true);
+		sampleServlet.doHead(request, response);
+
+		verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+	}
+
 	private StringWriter prepareFor(String method, String url) throws IOException {
 		when(request.getPathInfo()).thenReturn(url);
 		when(request.getMethod()).thenReturn(method);
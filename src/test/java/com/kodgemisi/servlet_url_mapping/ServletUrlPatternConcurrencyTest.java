@@ -0,0 +1,185 @@
+package com.kodgemisi.servlet_url_mapping;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests parsing and handling requests from many threads while url patterns are registered and customized.
+ */
+class ServletUrlPatternConcurrencyTest {
+
+	private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+	private static final int REGISTRATIONS = 2_000;
+
+	@Test
+	@DisplayName("Url patterns registered before traffic always match and url patterns registered during traffic match once registered")
+	void parseWhileRegistering() {
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("show", "/users/{id}", Long.class)
+				.register("json", "/users/{id}/reports", Long.class).produces("application/json")
+				.group("/tenants/{tenant}", tenant -> tenant.register("orders", "/orders/{orderId}", Integer.class), String.class);
+
+		final HttpServletRequest jsonRequest = request("/users/13/reports", "application/json");
+		final HttpServletRequest groupRequest = request("/tenants/acme/orders/7/", null);
+		final AtomicInteger registered = new AtomicInteger(-1);
+
+		final Queue<Throwable> failures = stress(() -> {
+			final int generated = registered.get();
+			if (generated >= 0) {
+				final ServletUrl servletUrl = servletUrlPattern.parse("/generated/" + generated + "/42");
+				assertEquals("generated" + generated, servletUrl.getName());
+				assertEquals("42", servletUrl.variable("id"));
+			}
+			final ServletUrl next = servletUrlPattern.parse("/generated/" + (generated + 1) + "/42");
+			assertTrue(next.is404() || next.getName().equals("generated" + (generated + 1)), next::getName);
+
+			final ServletUrl show = servletUrlPattern.parse("/users/13");
+			assertEquals("show", show.getName());
+			assertEquals(Long.valueOf(13), show.variable("id"));
+
+			final ServletUrl json = servletUrlPattern.parse(jsonRequest);
+			assertEquals("json", json.getName());
+			assertEquals(Long.valueOf(13), json.variable("id"));
+
+			final ServletUrl orders = servletUrlPattern.parse(groupRequest);
+			assertEquals("orders", orders.getName());
+			assertEquals("acme", orders.variable("tenant"));
+			assertEquals(Integer.valueOf(7), orders.variable("orderId"));
+		}, () -> {
+			for (int i = 0; i < REGISTRATIONS; i++) {
+				servletUrlPattern.register("generated" + i, "/generated/" + i + "/{id}");
+				// variants of a url pattern which is being matched, none of them is acceptable for the json request
+				servletUrlPattern.register("csv" + i, "/users/{id}/reports", Long.class).produces("text/csv");
+				servletUrlPattern.group("/tenants/{tenant}", tenant -> tenant.register("invoices", "/invoices/{invoiceId}", Integer.class), String.class);
+				registered.set(i);
+			}
+		});
+
+		assertTrue(failures.isEmpty(), () -> "Failed " + failures.size() + " times, first: " + failures.peek());
+		assertEquals(3 + 3 * REGISTRATIONS, servletUrlPattern.routes().size());
+	}
+
+	@Test
+	@DisplayName("Group interceptors attached during traffic apply to url patterns registered later as soon as they match")
+	void handleWhileIntercepting() {
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar();
+		final ThreadLocal<Boolean> authorized = ThreadLocal.withInitial(() -> false);
+		final AtomicInteger unauthorized = new AtomicInteger();
+		final AtomicInteger handled = new AtomicInteger();
+		final AtomicInteger registered = new AtomicInteger(-1);
+
+		final Interceptor authorization = (request, response, servletUrl) -> {
+			authorized.set(true);
+			return true;
+		};
+		final ServletRequestHandler adminHandler = (request, response, servletUrl) -> {
+			if (!authorized.get()) {
+				unauthorized.incrementAndGet();
+			}
+			authorized.set(false);
+			handled.incrementAndGet();
+		};
+		registrar.get("home", "/", (request, response, servletUrl) -> handled.incrementAndGet());
+
+		final HttpServletResponse response = Mockito.mock(HttpServletResponse.class, Mockito.withSettings().stubOnly());
+		final HttpServletRequest homeRequest = request("/", null);
+
+		final Queue<Throwable> failures = stress(() -> {
+			assertEquals("home", registrar.handle(homeRequest, response).getName());
+
+			// the url pattern being registered either doesn't match yet or is already intercepted
+			final int admin = registered.get();
+			if (admin >= 0) {
+				assertEquals("admin" + admin, registrar.handle(request("/admin/" + admin, null), response).getName());
+			}
+			registrar.handle(request("/admin/" + (admin + 1), null), response);
+		}, () -> {
+			registrar.intercept("/admin", authorization);
+			for (int i = 0; i < REGISTRATIONS; i++) {
+				registrar.get("admin" + i, "/admin/" + i, adminHandler);
+				registered.set(i);
+			}
+		});
+
+		assertTrue(failures.isEmpty(), () -> "Failed " + failures.size() + " times, first: " + failures.peek());
+		assertTrue(handled.get() > 0);
+		assertEquals(0, unauthorized.get());
+	}
+
+	/**
+	 * Runs {@code reader} repeatedly on {@link #THREADS} threads until {@code writer} is done, then a little longer.
+	 *
+	 * @return what the reader and the writer threw
+	 */
+	private static Queue<Throwable> stress(Reader reader, Runnable writer) {
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		final List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			readers.add(new Thread(() -> {
+				try {
+					start.await();
+					// a few more rounds after writing ends so that the last registrations are parsed too
+					int rounds = 0;
+					while (writing.get() || rounds++ < 100) {
+						reader.read();
+					}
+				}
+				catch (Throwable e) {
+					failures.add(e);
+				}
+			}, "reader-" + i));
+		}
+		readers.forEach(Thread::start);
+
+		assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+			start.countDown();
+			try {
+				writer.run();
+			}
+			catch (Throwable e) {
+				failures.add(e);
+			}
+			finally {
+				writing.set(false);
+			}
+			for (Thread thread : readers) {
+				thread.join();
+			}
+		});
+		return failures;
+	}
+
+	private static HttpServletRequest request(String pathInfo, String accept) {
+		final HttpServletRequest request = Mockito.mock(HttpServletRequest.class, Mockito.withSettings().stubOnly());
+		Mockito.when(request.getMethod()).thenReturn("GET");
+		Mockito.when(request.getPathInfo()).thenReturn(pathInfo);
+		Mockito.when(request.getHeader("Accept")).thenReturn(accept);
+		return request;
+	}
+
+	@FunctionalInterface
+	private interface Reader {
+
+		void read() throws Exception;
+	}
+}
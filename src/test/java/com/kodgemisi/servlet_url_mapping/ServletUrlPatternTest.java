@@ -4,19 +4,43 @@ import com.kodgemisi.servlet_url_mapping.dynamic_parsing.ParsingTestCase;
 import org.junit.jupiter.api.*;
 import org.mockito.Mockito;
 
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -44,6 +68,133 @@ class ServletUrlPatternTest {
 		servletUrlPattern.register("/users", servletRequestHandler, URL.class);
 	}
 
+	@Test
+	@DisplayName("register() throws IllegalArgumentException when there is no converter for a path variable's type")
+	void registerWithUnsupportedType() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("users", "/users/{id}", URL.class));
+	}
+
+	@Test
+	@DisplayName("register() throws IllegalArgumentException when a catch-all is not at the end of the url pattern")
+	void registerWithMisplacedCatchAll() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("files", "/files/**/details"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("files", "/files/{path:**}/details"));
+	}
+
+	@Test
+	@DisplayName("Register should fail for constraints with backtracking-only constructs")
+	void registerWithUnsupportedConstraint() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("backreference", "/words/{word:(a)\\1}"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("lookahead", "/words/{word:(?!admin)\\w+}"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("possessive", "/words/{word:\\w++}"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("too big", "/words/{word:(\\w{1,200}){1,200}}"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.register("syntax error", "/words/{word:[a-z}"));
+	}
+
+	@Test
+	@DisplayName("Constraints evaluate in linear time even for catastrophic backtracking patterns")
+	void constraintIsNotVulnerableToReDoS() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		servletUrlPattern.register("evil", "/evil/{x:(a|aa)*(a+)+}-{y:b}");
+
+		final StringBuilder url = new StringBuilder("/evil/");
+		for (int i = 0; i < ConstraintPattern.MAX_INPUT_LENGTH; i++) {
+			url.append('a');
+		}
+		url.append("-!");
+
+		assertTimeoutPreemptively(Duration.ofSeconds(2), () -> Assertions.assertEquals(ServletUrl.NOT_FOUND, servletUrlPattern.parse(url.toString())));
+		assertTimeoutPreemptively(Duration.ofSeconds(2), () -> Assertions.assertEquals("evil", servletUrlPattern.parse("/evil/aaaa-b").getName()));
+	}
+
+	@Test
+	@DisplayName("Custom converters are used for matching and parsing path variables")
+	void registerConverter() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		servletUrlPattern.registerConverter(Character.class, PathVariableConverter.of("[a-z]", value -> value.charAt(0)));
+		servletUrlPattern.register("initials", "/users/{initial}", Character.class);
+
+		final ServletUrl servletUrl = servletUrlPattern.parse("/users/k");
+		Assertions.assertEquals("initials", servletUrl.getName());
+		Assertions.assertEquals(Character.valueOf('k'), servletUrl.<Character>variable("initial"));
+
+		Assertions.assertTrue(servletUrlPattern.parse("/users/kg").is404());
+	}
+
+	@Test
+	@DisplayName("Path variables out of the range of their type don't match instead of failing to convert")
+	void convertersRange() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		servletUrlPattern.register("byte", "/bytes/{value}", Byte.class)
+						 .register("short", "/shorts/{value}", Short.class)
+						 .register("int", "/ints/{value}", Integer.class)
+						 .register("long", "/longs/{value}", Long.class)
+						 .register("date", "/dates/{value}", LocalDate.class)
+						 .register("decimal", "/decimals/{value}", BigDecimal.class)
+						 .register("regexInt", "/regex/[a-z]+/{value}", Integer.class)
+						 .register("regexDate", "/regex/[0-9]+/{value}", LocalDate.class);
+
+		final String[][] valid = {{"/bytes/127", "127"}, {"/bytes/0127", "127"}, {"/shorts/32767", "32767"}, {"/ints/2147483647", "2147483647"},
+								  {"/longs/9223372036854775807", "9223372036854775807"}, {"/dates/2020-02-29", "2020-02-29"},
+								  {"/dates/2021-12-31", "2021-12-31"}, {"/decimals/1.5", "1.5"}, {"/decimals/1.", "1"}, {"/decimals/15", "15"},
+								  {"/regex/x/2147483647", "2147483647"}, {"/regex/1/2020-02-29", "2020-02-29"}};
+		for (String[] url : valid) {
+			Assertions.assertEquals(url[1], servletUrlPattern.parse(url[0]).variable("value").toString(), url[0]);
+		}
+
+		for (String url : new String[] {"/bytes/128", "/bytes/300", "/shorts/32768", "/shorts/70000", "/ints/2147483648", "/longs/9223372036854775808",
+										"/longs/99999999999999999999", "/dates/2020-13-45", "/dates/2020-00-10", "/dates/2021-02-29", "/dates/2021-04-31",
+										"/dates/2021-01-00", "/decimals/1..2", "/decimals/1...", "/decimals/.5", "/regex/x/99999999999",
+										"/regex/1/2021-02-29"}) {
+			Assertions.assertTrue(servletUrlPattern.parse(url).is404(), url);
+		}
+	}
+
+	@Test
+	@DisplayName("A matching url is matched against the url pattern once, converters are not asked again to capture path variables")
+	void singlePassMatch() {
+
+		final AtomicInteger checks = new AtomicInteger();
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		servletUrlPattern.registerConverter(Character.class, new PathVariableConverter<Character>() {
+
+			@Override
+			public String regex() {
+				return "[a-z]";
+			}
+
+			@Override
+			public Character convert(String value) {
+				return value.charAt(0);
+			}
+
+			@Override
+			public boolean matches(CharSequence path, int start, int end) {
+				checks.incrementAndGet();
+				return end - start == 1 && Character.isLowerCase(path.charAt(start));
+			}
+		});
+		servletUrlPattern.register("initials", "/users/{initial}", Character.class)
+						 .group("/teams/{team}", team -> team.register("member", "/members/{initial}", Character.class), Character.class);
+
+		Assertions.assertEquals(Character.valueOf('k'), servletUrlPattern.parse("/users/k").<Character>variable("initial"));
+		Assertions.assertEquals(1, checks.getAndSet(0));
+
+		final ServletUrl member = servletUrlPattern.parse("/teams/a/members/k");
+		Assertions.assertEquals(Character.valueOf('a'), member.<Character>variable("team"));
+		Assertions.assertEquals(Character.valueOf('k'), member.<Character>variable("initial"));
+		Assertions.assertEquals(2, checks.get());
+	}
+
 	@Test
 	@DisplayName("Overloaded parse() method calls request.getPathInfo() to extract url path")
 	void parse() {
@@ -56,6 +207,809 @@ class ServletUrlPatternTest {
 		verify(httpServletRequest, times(1)).getPathInfo();
 	}
 
+	@Test
+	@DisplayName("parse(CharSequence, int, int) only considers the given window of the path")
+	void parseWindow() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("images", "/products/{id}/images/{imgId}", Integer.class, Long.class);
+
+		final StringBuilder requestUri = new StringBuilder("/shop/products/13/images/35/?expand=true");
+		final ServletUrl servletUrl = servletUrlPattern.parse(requestUri, "/shop".length(), requestUri.indexOf("?"));
+
+		Assertions.assertEquals("images", servletUrl.getName());
+		Assertions.assertEquals(Integer.valueOf(13), servletUrl.<Integer>variable("id"));
+		Assertions.assertEquals(Long.valueOf(35), servletUrl.<Long>variable("imgId"));
+		Assertions.assertNull(servletUrl.variable("unknown"));
+
+		Assertions.assertTrue(servletUrlPattern.parse(requestUri, 0, requestUri.length()).is404());
+	}
+
+	@Test
+	@DisplayName("Path variables are converted on first access and converted values are reused")
+	void lazyConversion() {
+
+		final int[] conversions = {0};
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		servletUrlPattern.registerConverter(Integer.class, PathVariableConverter.of("\\d+", value -> {
+			conversions[0]++;
+			return Integer.valueOf(value);
+		}));
+		servletUrlPattern.register("details", "/users/{id}", Integer.class);
+
+		final ServletUrl servletUrl = servletUrlPattern.parse("/users/13");
+		Assertions.assertEquals(0, conversions[0]);
+
+		Assertions.assertEquals(Integer.valueOf(13), servletUrl.<Integer>variable("id"));
+		Assertions.assertEquals(Integer.valueOf(13), servletUrl.<Integer>variable("id"));
+		Assertions.assertEquals(1, conversions[0]);
+	}
+
+	@Test
+	@DisplayName("Url patterns without path variables are returned as is instead of being copied")
+	void staticRouteIsNotCopied() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("list", "/users");
+
+		Assertions.assertSame(servletUrlPattern.parse("/users"), servletUrlPattern.parse("/users/"));
+	}
+
+	@Test
+	@DisplayName("Registrations of the same url pattern are selected by the quality of the media type they produce")
+	void produces() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("json", "/reports/{id}", Integer.class).produces("application/json")
+						 .register("csv", "/reports/{id}", Integer.class).produces("text/csv", "application/vnd.ms-excel")
+						 .register("html", "/reports/{id}", Integer.class);
+
+		Assertions.assertEquals("json", servletUrlPattern.parse(mockRequest("/reports/13", "application/json")).getName());
+		Assertions.assertEquals("csv", servletUrlPattern.parse(mockRequest("/reports/13", "text/*, application/json;q=0.5")).getName());
+		Assertions.assertEquals("json", servletUrlPattern.parse(mockRequest("/reports/13", "text/*;q=0.2, text/csv;q=0, */*;q=0.1")).getName());
+		Assertions.assertEquals("html", servletUrlPattern.parse(mockRequest("/reports/13", "text/html")).getName());
+		Assertions.assertEquals("json", servletUrlPattern.parse(mockRequest("/reports/13", null)).getName());
+
+		final ServletUrl servletUrl = servletUrlPattern.parse(mockRequest("/reports/13/", "text/csv"));
+		Assertions.assertEquals("csv", servletUrl.getName());
+		Assertions.assertEquals(Integer.valueOf(13), servletUrl.<Integer>variable("id"));
+
+		// without a request conditions are not evaluated
+		Assertions.assertEquals("json", servletUrlPattern.parse("/reports/13").getName());
+	}
+
+	@Test
+	@DisplayName("Registrations of the same url pattern are selected by Content-Type, headers and query parameters")
+	void consumesHeaderAndQueryParameter() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("import csv", "/reports").consumes("text/csv")
+						 .register("import json", "/reports").consumes("application/*")
+						 .register("export", "/reports").queryParameter("export").header("X-Requested-With")
+						 .register("fallback", "/reports/**");
+
+		final HttpServletRequest csv = mockRequest("/reports", null);
+		Mockito.when(csv.getContentType()).thenReturn("text/csv; charset=UTF-8");
+		Assertions.assertEquals("import csv", servletUrlPattern.parse(csv).getName());
+
+		final HttpServletRequest json = mockRequest("/reports", null);
+		Mockito.when(json.getContentType()).thenReturn("application/json");
+		Assertions.assertEquals("import json", servletUrlPattern.parse(json).getName());
+
+		final HttpServletRequest export = mockRequest("/reports", null);
+		Mockito.when(export.getQueryString()).thenReturn("format=pdf&export");
+		Mockito.when(export.getHeader("X-Requested-With")).thenReturn("XMLHttpRequest");
+		Assertions.assertEquals("export", servletUrlPattern.parse(export).getName());
+
+		final HttpServletRequest exportWithoutHeader = mockRequest("/reports", null);
+		Mockito.when(exportWithoutHeader.getQueryString()).thenReturn("export=true");
+		Assertions.assertEquals("fallback", servletUrlPattern.parse(exportWithoutHeader).getName());
+
+		final HttpServletRequest similarQueryParameter = mockRequest("/reports", null);
+		Mockito.when(similarQueryParameter.getQueryString()).thenReturn("exports=1");
+		Mockito.when(similarQueryParameter.getHeader("X-Requested-With")).thenReturn("XMLHttpRequest");
+		Assertions.assertEquals("fallback", servletUrlPattern.parse(similarQueryParameter).getName());
+	}
+
+	@Test
+	@DisplayName("Parsed headers used over and over stay cached while unique values are evicted")
+	void mediaTypeCache() {
+
+		final String accept = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
+		final MediaType[] parsed = MediaType.parseAccept(accept);
+		for (int i = 0; i < 10 * MediaType.MAX_CACHED_HEADERS; i++) {
+			Assertions.assertSame(parsed, MediaType.parseAccept(accept));
+			MediaType.parseAccept("application/vnd.made-up-" + i);
+			final MediaType upload = MediaType.parseContentType("multipart/form-data; boundary=----" + i);
+			Assertions.assertEquals("multipart/form-data", upload.toString());
+		}
+
+		Assertions.assertSame(parsed, MediaType.parseAccept(accept));
+		Assertions.assertNull(MediaType.parsedHeaders.get("multipart/form-data; boundary=----0"));
+		Assertions.assertNotNull(MediaType.parsedHeaders.get("multipart/form-data"));
+		Assertions.assertTrue(MediaType.parsedHeaders.size() <= MediaType.MAX_CACHED_HEADERS);
+	}
+
+	@Test
+	@DisplayName("Conditions throw IllegalArgumentException for invalid media types and IllegalStateException before registering")
+	void invalidConditions() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false);
+		assertThrows(IllegalStateException.class, () -> servletUrlPattern.produces("application/json"));
+
+		servletUrlPattern.register("show", "/reports/{id}");
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.produces("json"));
+		assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.consumes("*/json"));
+	}
+
+	@Test
+	@DisplayName("Conditional GET requests are answered with 304 without calling the request handler")
+	void conditionalGet() throws IOException, ServletException {
+
+		final int[] renders = {0};
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/products/{id}", (request, response, servletUrl) -> renders[0]++, Long.class)
+						 .eTag(servletUrl -> "v" + servletUrl.<Long>variable("id"))
+						 .lastModified(servletUrl -> 1_500_000_000_000L);
+
+		final HttpServletRequest matchingETag = mockRequest("/products/13", null);
+		Mockito.when(matchingETag.getMethod()).thenReturn("GET");
+		Mockito.when(matchingETag.getHeader("If-None-Match")).thenReturn("\"v12\", W/\"v13\"");
+		Mockito.when(matchingETag.getDateHeader("If-Modified-Since")).thenReturn(1_000_000_000_000L);
+		final HttpServletResponse notModified = Mockito.mock(HttpServletResponse.class);
+		servletUrlPattern.handle(matchingETag, notModified);
+		verify(notModified).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		verify(notModified).setHeader("ETag", "\"v13\"");
+		Assertions.assertEquals(0, renders[0]);
+
+		final HttpServletRequest notModifiedSince = mockRequest("/products/13", null);
+		Mockito.when(notModifiedSince.getMethod()).thenReturn("HEAD");
+		Mockito.when(notModifiedSince.getDateHeader("If-Modified-Since")).thenReturn(1_500_000_000_999L);
+		servletUrlPattern.handle(notModifiedSince, Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(0, renders[0]);
+
+		final HttpServletRequest otherETag = mockRequest("/products/14", null);
+		Mockito.when(otherETag.getMethod()).thenReturn("GET");
+		Mockito.when(otherETag.getHeader("If-None-Match")).thenReturn("\"v13\"");
+		Mockito.when(otherETag.getDateHeader("If-Modified-Since")).thenReturn(1_500_000_000_000L);
+		final HttpServletResponse modified = Mockito.mock(HttpServletResponse.class);
+		servletUrlPattern.handle(otherETag, modified);
+		verify(modified, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		verify(modified).setDateHeader("Last-Modified", 1_500_000_000_000L);
+		Assertions.assertEquals(1, renders[0]);
+
+		final HttpServletRequest post = mockRequest("/products/13", null);
+		Mockito.when(post.getMethod()).thenReturn("POST");
+		Mockito.when(post.getHeader("If-None-Match")).thenReturn("*");
+		servletUrlPattern.handle(post, Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(2, renders[0]);
+	}
+
+	@Test
+	@DisplayName("Validators are not sent with error responses of the request handler")
+	void conditionalGetError() throws IOException, ServletException {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/products/{id}", (request, response, servletUrl) -> {
+			final long id = servletUrl.<Long>variable("id");
+			if (id == 404) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			}
+			else if (id == 500) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				response.getWriter().write("failed");
+			}
+			else if (id == 200) {
+				response.getWriter().write("found");
+			}
+		}, Long.class).eTag(servletUrl -> "v1").lastModified(servletUrl -> 1_500_000_000_000L);
+
+		for (String id : new String[] {"404", "500"}) {
+			final HttpServletRequest request = mockRequest("/products/" + id, null);
+			Mockito.when(request.getMethod()).thenReturn("GET");
+			final HttpServletResponse error = Mockito.mock(HttpServletResponse.class);
+			Mockito.when(error.getWriter()).thenReturn(new PrintWriter(new ByteArrayOutputStream()));
+			servletUrlPattern.handle(request, error);
+
+			verify(error, never()).setHeader(Mockito.eq("ETag"), Mockito.anyString());
+			verify(error, never()).setDateHeader(Mockito.eq("Last-Modified"), Mockito.anyLong());
+		}
+
+		for (String id : new String[] {"200", "204"}) {
+			final HttpServletRequest request = mockRequest("/products/" + id, null);
+			Mockito.when(request.getMethod()).thenReturn("GET");
+			final HttpServletResponse found = Mockito.mock(HttpServletResponse.class);
+			Mockito.when(found.getWriter()).thenReturn(new PrintWriter(new ByteArrayOutputStream()));
+			servletUrlPattern.handle(request, found);
+
+			verify(found).setHeader("ETag", "\"v1\"");
+			verify(found).setDateHeader("Last-Modified", 1_500_000_000_000L);
+		}
+	}
+
+	@Test
+	@DisplayName("Cached responses are served per path variable values without calling the request handler")
+	void responseCache() throws IOException, ServletException {
+
+		final int[] renders = {0};
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/products/{id}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.setContentType("text/plain");
+			response.setHeader("X-Product", servletUrl.variable("id"));
+			response.getWriter().write("product " + servletUrl.variable("id"));
+		}).cache(Duration.ofMinutes(1)).register("/uncached/{id}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.getWriter().write("uncached");
+		}).cache(Duration.ofNanos(1));
+
+		Assertions.assertEquals("product 13", handleGet(servletUrlPattern, "/products/13"));
+		Assertions.assertEquals("product 13", handleGet(servletUrlPattern, "/products/13/"));
+		Assertions.assertEquals(1, renders[0]);
+
+		final HttpServletResponse hit = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(hit.getOutputStream()).thenReturn(new CapturingOutputStream());
+		servletUrlPattern.handle(getRequest("/products/13"), hit);
+		verify(hit).setContentType("text/plain");
+		verify(hit).setHeader("X-Product", "13");
+		verify(hit).setContentLength("product 13".length());
+		Assertions.assertEquals(1, renders[0]);
+
+		Assertions.assertEquals("product 14", handleGet(servletUrlPattern, "/products/14"));
+		Assertions.assertEquals(2, renders[0]);
+
+		// expired
+		handleGet(servletUrlPattern, "/uncached/1");
+		handleGet(servletUrlPattern, "/uncached/1");
+		Assertions.assertEquals(4, renders[0]);
+
+		servletUrlPattern.setResponseCacheCapacity(0);
+		Assertions.assertEquals("product 13", handleGet(servletUrlPattern, "/products/13"));
+		Assertions.assertEquals(5, renders[0]);
+	}
+
+	@Test
+	@DisplayName("Responses completed asynchronously and discarded output are not cached")
+	void responseCacheIncomplete() throws IOException, ServletException {
+
+		final int[] renders = {0};
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/async/{id}", (request, response, servletUrl) -> {
+			renders[0]++;
+			Mockito.when(request.isAsyncStarted()).thenReturn(true);
+		}).cache(Duration.ofMinutes(1)).register("/reset/{id}", (request, response, servletUrl) -> {
+			renders[0]++;
+			response.setHeader("X-Draft", "true");
+			response.getOutputStream().write("draft".getBytes(StandardCharsets.UTF_8));
+			response.reset();
+			response.getOutputStream().write("final ".getBytes(StandardCharsets.UTF_8));
+			response.resetBuffer();
+			response.getOutputStream().write("final".getBytes(StandardCharsets.UTF_8));
+		}).cache(Duration.ofMinutes(1));
+
+		handleGet(servletUrlPattern, "/async/1");
+		handleGet(servletUrlPattern, "/async/1");
+		Assertions.assertEquals(2, renders[0]);
+
+		handleGet(servletUrlPattern, "/reset/1");
+		final HttpServletResponse hit = Mockito.mock(HttpServletResponse.class);
+		final CapturingOutputStream outputStream = new CapturingOutputStream();
+		Mockito.when(hit.getOutputStream()).thenReturn(outputStream);
+		servletUrlPattern.handle(getRequest("/reset/1"), hit);
+		Assertions.assertEquals(3, renders[0]);
+		Assertions.assertEquals("final", outputStream.toString());
+		verify(hit, never()).setHeader("X-Draft", "true");
+	}
+
+	@Test
+	@DisplayName("Refreshing an expired response replaces its entry without growing the cache")
+	void responseCacheRefresh() throws IOException, ServletException {
+
+		final byte[] body = new byte[64 * 1024];
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		final ServletRequestHandler requestHandler = (request, response, servletUrl) -> response.getOutputStream().write(body);
+		servletUrlPattern.register("/reports/{id}", requestHandler);
+		final ServletUrl servletUrl = servletUrlPattern.parse("/reports/1");
+
+		final ResponseCache responseCache = new ResponseCache();
+		for (int i = 0; i < 1000; i++) {
+			final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+			Mockito.when(response.getOutputStream()).thenReturn(new CapturingOutputStream());
+			// expires immediately
+			responseCache.handle(getRequest("/reports/1"), response, servletUrl, requestHandler, 0, null);
+		}
+
+		Assertions.assertEquals(1, responseCache.queuedKeys());
+		Assertions.assertTrue(responseCache.size() < 2 * body.length);
+	}
+
+	@Test
+	@DisplayName("Requests over the limit of a bulkhead are rejected with 503 and Retry-After")
+	void bulkhead() throws IOException, ServletException {
+
+		final Bulkhead reports = new Bulkhead("reports", 1, 1, Duration.ofMillis(10));
+		final HttpServletResponse[] nestedResponses = {Mockito.mock(HttpServletResponse.class), Mockito.mock(HttpServletResponse.class)};
+		final int[] renders = {0};
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/reports/daily", (request, response, servletUrl) -> {
+			renders[0]++;
+			// while this request holds the only permit
+			servletUrlPattern.handle(getRequest("/reports/monthly"), nestedResponses[0]);
+			servletUrlPattern.handle(getRequest("/products"), nestedResponses[1]);
+		}).bulkhead(reports).register("/reports/monthly", (request, response, servletUrl) -> renders[0]++).bulkhead(reports)
+						 .register("/products", (request, response, servletUrl) -> renders[0]++).bulkhead(1);
+
+		servletUrlPattern.handle(getRequest("/reports/daily"), Mockito.mock(HttpServletResponse.class));
+
+		verify(nestedResponses[0]).setIntHeader("Retry-After", Bulkhead.RETRY_AFTER_SECONDS);
+		verify(nestedResponses[0]).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		verify(nestedResponses[1], never()).sendError(Mockito.anyInt());
+		Assertions.assertEquals(2, renders[0]);
+		Assertions.assertEquals(1, reports.getRejectedCount());
+		Assertions.assertEquals(0, reports.getInFlightCount());
+
+		servletUrlPattern.handle(getRequest("/reports/monthly"), Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(3, renders[0]);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.bulkhead(0));
+	}
+
+	@Test
+	@DisplayName("Requests over a rate limit are rejected with 429 and Retry-After")
+	void rateLimit() throws IOException, ServletException {
+
+		final RateLimit perUser = new RateLimit(1, Duration.ofHours(1), RateLimit.byVariable("id"), 2);
+		final int[] renders = {0};
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/search", (request, response, servletUrl) -> renders[0]++).rateLimit(2, Duration.ofHours(1))
+						 .register("/users/{id}", (request, response, servletUrl) -> renders[0]++, Integer.class).rateLimit(perUser);
+
+		servletUrlPattern.handle(getRequest("/search"), Mockito.mock(HttpServletResponse.class));
+		servletUrlPattern.handle(getRequest("/search"), Mockito.mock(HttpServletResponse.class));
+		final HttpServletResponse rejected = Mockito.mock(HttpServletResponse.class);
+		servletUrlPattern.handle(getRequest("/search"), rejected);
+
+		verify(rejected).sendError(RateLimit.SC_TOO_MANY_REQUESTS);
+		verify(rejected).setIntHeader(Mockito.eq("Retry-After"), Mockito.intThat(seconds -> seconds > 0 && seconds <= 1800));
+		Assertions.assertEquals(2, renders[0]);
+
+		final HttpServletResponse user1 = Mockito.mock(HttpServletResponse.class);
+		servletUrlPattern.handle(getRequest("/users/1"), Mockito.mock(HttpServletResponse.class));
+		servletUrlPattern.handle(getRequest("/users/1"), user1);
+		servletUrlPattern.handle(getRequest("/users/2"), Mockito.mock(HttpServletResponse.class));
+		servletUrlPattern.handle(getRequest("/users/3"), Mockito.mock(HttpServletResponse.class));
+
+		verify(user1).sendError(RateLimit.SC_TOO_MANY_REQUESTS);
+		Assertions.assertEquals(5, renders[0]);
+		Assertions.assertEquals(1, perUser.getRejectedCount());
+		Assertions.assertTrue(perUser.getBucketCount() <= 2);
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.rateLimit(0, Duration.ofSeconds(1)));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.rateLimit(1, Duration.ZERO));
+	}
+
+	@Test
+	@DisplayName("A thread which read the clock before another one refilled the bucket doesn't refill it again")
+	void rateLimitClockRace() {
+
+		final RateLimit rateLimit = new RateLimit(10, Duration.ofSeconds(100));
+		final long start = 1_000_000_000L;
+		final AtomicLong bucket = rateLimit.newBucket(start);
+		for (int i = 0; i < 10; i++) {
+			Assertions.assertEquals(0, rateLimit.tryAcquire(bucket, start + i));
+		}
+
+		Assertions.assertEquals(10_000_000, rateLimit.tryAcquire(bucket, start - 1));
+		Assertions.assertTrue(rateLimit.tryAcquire(bucket, start + 10) > 0);
+		Assertions.assertEquals(0, rateLimit.tryAcquire(bucket, start + 10_000_000));
+		Assertions.assertTrue(rateLimit.tryAcquire(bucket, start + 10_000_001) > 0);
+	}
+
+	@Test
+	@DisplayName("Identical concurrent requests of single-flight url patterns replay the response of the first one")
+	void singleFlight() throws Exception {
+
+		final AtomicInteger renders = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final int[] nested = {0};
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("/products/{id}", (request, response, servletUrl) -> {
+			renders.incrementAndGet();
+			entered.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				throw new ServletException(e);
+			}
+			response.getWriter().write("product " + servletUrl.variable("id"));
+		}, Integer.class).singleFlight(Duration.ofSeconds(10)).register("/slow", (request, response, servletUrl) -> {
+			// the nested identical request times out waiting for this one and is handled on its own
+			if (nested[0]++ == 0) {
+				Assertions.assertEquals("", handleGet(servletUrlPattern, "/slow"));
+			}
+		}).singleFlight(Duration.ofMillis(10));
+
+		final String[] bodies = new String[2];
+		final Thread leader = new Thread(() -> bodies[0] = handleGetUnchecked(servletUrlPattern, "/products/1"));
+		final Thread waiter = new Thread(() -> bodies[1] = handleGetUnchecked(servletUrlPattern, "/products/1"));
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			leader.start();
+			entered.await();
+			waiter.start();
+			while (waiter.getState() != Thread.State.TIMED_WAITING) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+			leader.join();
+			waiter.join();
+		});
+
+		Assertions.assertEquals("product 1", bodies[0]);
+		Assertions.assertEquals("product 1", bodies[1]);
+		Assertions.assertEquals(1, renders.get());
+
+		Assertions.assertEquals("product 2", handleGet(servletUrlPattern, "/products/2"));
+		Assertions.assertEquals(2, renders.get());
+
+		handleGet(servletUrlPattern, "/slow");
+		Assertions.assertEquals(2, nested[0]);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> servletUrlPattern.singleFlight(Duration.ZERO));
+	}
+
+	@Test
+	@DisplayName("The route table MBean lists url patterns with hit counts and enables and disables them")
+	void routeTableMBean() throws Exception {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		servletUrlPattern.register("list", "/products", (request, response, servletUrl) -> {})
+						 .register("show", "/products/{id}", (request, response, servletUrl) -> {}, Long.class)
+						 .register("json", "/reports/{id}", (request, response, servletUrl) -> {}).produces("application/json")
+						 .register("csv", "/reports/{id}", (request, response, servletUrl) -> {}).produces("text/csv")
+						 .registerMBean("routeTableMBean test");
+
+		try {
+			final RouteTableMBean routeTable = JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(), new ObjectName(
+					RouteTable.DOMAIN + ":type=RouteTable,name=" + ObjectName.quote("routeTableMBean test")), RouteTableMBean.class);
+			Assertions.assertEquals(4, routeTable.getRouteCount());
+			Assertions.assertTrue(routeTable.getRoutes()[1].startsWith("1 /products/{id} name=show [id:Long segments[\"/products/\", {0}]] enabled hits=0"),
+								  routeTable.getRoutes()[1]);
+
+			servletUrlPattern.handle(getRequest("/products/13"), Mockito.mock(HttpServletResponse.class));
+			servletUrlPattern.handle(getRequest("/products/14"), Mockito.mock(HttpServletResponse.class));
+			servletUrlPattern.handle(getRequest("/products"), Mockito.mock(HttpServletResponse.class));
+			servletUrlPattern.handle(getRequest("/unknown"), Mockito.mock(HttpServletResponse.class));
+			Assertions.assertEquals(2, routeTable.getRouteHitCount(1));
+			Assertions.assertEquals(3, routeTable.getHitCount());
+			Assertions.assertFalse(routeTable.getRoutes()[1].endsWith("lastHit=never"));
+
+			routeTable.disableRoute(1);
+			Assertions.assertTrue(servletUrlPattern.parse("/products/13").is404());
+			Assertions.assertEquals("json", servletUrlPattern.parse(mockRequest("/reports/1", "*/*")).getName());
+			routeTable.disableRoute(2);
+			Assertions.assertEquals("csv", servletUrlPattern.parse(mockRequest("/reports/1", "*/*")).getName());
+			routeTable.disableRoute(3);
+			Assertions.assertTrue(servletUrlPattern.parse("/reports/1").is404());
+			routeTable.enableRoute(1);
+			Assertions.assertEquals("show", servletUrlPattern.parse("/products/13").getName());
+
+			// url patterns registered after the MBean are managed too
+			servletUrlPattern.register("orders", "/orders/{id}", (request, response, servletUrl) -> {}, Long.class);
+			Assertions.assertEquals(5, routeTable.getRouteCount());
+			Assertions.assertTrue(routeTable.getRoutes()[4].startsWith("4 /orders/{id} name=orders"), routeTable.getRoutes()[4]);
+			servletUrlPattern.handle(getRequest("/orders/7"), Mockito.mock(HttpServletResponse.class));
+			Assertions.assertEquals(1, routeTable.getRouteHitCount(4));
+			Assertions.assertEquals(4, routeTable.getHitCount());
+			routeTable.disableRoute(4);
+			Assertions.assertTrue(servletUrlPattern.parse("/orders/7").is404());
+
+			routeTable.resetCounters();
+			Assertions.assertEquals(0, routeTable.getHitCount());
+			Assertions.assertThrows(IllegalArgumentException.class, () -> routeTable.disableRoute(5));
+			Assertions.assertThrows(IllegalArgumentException.class, () -> new ServletUrlPattern(true).registerMBean("routeTableMBean test"));
+		}
+		finally {
+			servletUrlPattern.unregisterMBean();
+		}
+		Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(RouteTable.DOMAIN + ":*"), null).stream()
+												.anyMatch(name -> name.toString().contains("routeTableMBean test")));
+	}
+
+	@Test
+	@DisplayName("Group interceptors run before route interceptors around the handler and after() runs in reverse order")
+	void interceptors() throws IOException, ServletException {
+
+		final List<String> calls = new ArrayList<>();
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar(true);
+		registrar.intercept("/admin", new RecordingInterceptor("auth", calls, servletUrl -> !"secret".equals(servletUrl.getName())))
+				 .get("/admin/users", (request, response, servletUrl) -> calls.add("handler"))
+				 .intercept(new RecordingInterceptor("audit", calls, servletUrl -> true))
+				 .get("secret", "/admin/secret", (request, response, servletUrl) -> calls.add("handler"))
+				 .get("/admin/fail", (request, response, servletUrl) -> {
+					 throw new ServletException("fail");
+				 })
+				 .get("/administrators", (request, response, servletUrl) -> calls.add("handler"))
+				 .intercept("/", new RecordingInterceptor("log", calls, servletUrl -> true));
+
+		registrar.handle(getRequest("/admin/users"), Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(Arrays.asList("auth", "log", "audit", "handler", "audit after", "log after", "auth after"), calls);
+
+		calls.clear();
+		registrar.handle(getRequest("/admin/secret"), Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(Collections.singletonList("auth"), calls);
+
+		calls.clear();
+		Assertions.assertThrows(ServletException.class, () -> registrar.handle(getRequest("/admin/fail"), Mockito.mock(HttpServletResponse.class)));
+		Assertions.assertEquals(Arrays.asList("auth", "log", "log after fail", "auth after fail"), calls);
+
+		calls.clear();
+		registrar.handle(getRequest("/administrators"), Mockito.mock(HttpServletResponse.class));
+		Assertions.assertEquals(Arrays.asList("log", "handler", "log after"), calls);
+	}
+
+	@Test
+	@DisplayName("Url prefix of a group and its path variables are matched once for all url patterns of the group")
+	void groups() {
+
+		final AtomicInteger prefixChecks = new AtomicInteger();
+		final PathVariableConverter<Long> countingConverter = new PathVariableConverter<Long>() {
+
+			@Override
+			public String regex() {
+				return "\\d+";
+			}
+
+			@Override
+			public Long convert(String value) {
+				return Long.valueOf(value);
+			}
+
+			@Override
+			public boolean matches(CharSequence path, int start, int end) {
+				prefixChecks.incrementAndGet();
+				return CharSequences.isDigits(path, start, end);
+			}
+		};
+
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar(true);
+		registrar.registerConverter(Long.class, countingConverter)
+				 .group("/api/v1/users/{id}", users -> users
+						 .get("show", "", (request, response, servletUrl) -> {})
+						 .get("orders", "/orders", (request, response, servletUrl) -> {})
+						 .group("/addresses", addresses -> addresses
+								 .get("addresses", "", (request, response, servletUrl) -> {})
+								 .get("address", "{addressId}", (request, response, servletUrl) -> {}, Integer.class))
+						 .post("create", "/addresses", (request, response, servletUrl) -> {}), Long.class)
+				 .get("other", "/api/v1/users/{id}/other", (request, response, servletUrl) -> {}, Long.class);
+
+		Assertions.assertEquals("orders", registrar.parse("GET", "/api/v1/users/5/orders").getName());
+		Assertions.assertEquals(1, prefixChecks.getAndSet(0));
+
+		final ServletUrl address = registrar.parse("GET", "/api/v1/users/5/addresses/7/");
+		Assertions.assertEquals("address", address.getName());
+		Assertions.assertEquals(Long.valueOf(5), address.variable("id"));
+		Assertions.assertEquals(Integer.valueOf(7), address.variable("addressId"));
+		// once by each group
+		Assertions.assertEquals(2, prefixChecks.getAndSet(0));
+
+		Assertions.assertEquals("show", registrar.parse("GET", "/api/v1/users/5").getName());
+		Assertions.assertEquals("show", registrar.parse("GET", "/api/v1/users/5/").getName());
+		Assertions.assertEquals("addresses", registrar.parse("GET", "/api/v1/users/5/addresses").getName());
+		Assertions.assertEquals("create", registrar.parse("POST", "/api/v1/users/5/addresses").getName());
+		prefixChecks.set(0);
+
+		Assertions.assertEquals(ServletUrl.NOT_FOUND, registrar.parse("GET", "/api/v1/users/x/orders"));
+		// once by the groups, once by "/api/v1/users/{id}/other"
+		Assertions.assertEquals(2, prefixChecks.get());
+		Assertions.assertEquals(ServletUrl.NOT_FOUND, registrar.parse("GET", "/api/v1/users/5/orders/1"));
+		Assertions.assertEquals(Long.valueOf(5), registrar.parse("GET", "/api/v1/users/5/other").variable("id"));
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(false)
+				.group("products/", products -> products.register("list", "").register("show", "{id}"));
+		Assertions.assertEquals(Arrays.asList("/products", "/products/{id}"),
+								servletUrlPattern.routes().stream().map(ServletUrl::getUrlPattern).collect(Collectors.toList()));
+		Assertions.assertEquals("13", servletUrlPattern.parse("/products/13").variable("id"));
+
+		assertThrows(IllegalArgumentException.class, () -> registrar.group("/files/**", files -> {}));
+		assertThrows(IllegalArgumentException.class, () -> new ServletUrlPattern(true).group("/files/[a-z]+", files -> {}));
+	}
+
+	@Test
+	@DisplayName("Most specific url pattern wins regardless of registration order when enabled")
+	void mostSpecificMatch() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true).setUseMostSpecificMatch(true)
+				.register("files", "/files/**")
+				.register("image", "/images/{name}")
+				.register("typedImage", "/images/{id}", Long.class)
+				.register("json", "/images/{name}.json")
+				.register("profilePictures", "/images/profile.pics")
+				.register("profilePicture", "/images/profile.pics/{name}")
+				.register("regex", "/images/[a-z]+/{size}")
+				.register("size", "/images/{name}/{size}")
+				.register("file", "/files")
+				.group("/files/{id}", files -> files.register("fileMeta", "/meta"), Long.class);
+
+		Assertions.assertEquals("profilePictures", servletUrlPattern.parse("/images/profile.pics").getName());
+		Assertions.assertEquals("profilePicture", servletUrlPattern.parse("/images/profile.pics/me").getName());
+		Assertions.assertEquals("json", servletUrlPattern.parse("/images/me.json").getName());
+		Assertions.assertEquals("typedImage", servletUrlPattern.parse("/images/13").getName());
+		Assertions.assertEquals("image", servletUrlPattern.parse("/images/me").getName());
+		Assertions.assertEquals("size", servletUrlPattern.parse("/images/me/1x").getName());
+		Assertions.assertEquals("file", servletUrlPattern.parse("/files").getName());
+		Assertions.assertEquals("fileMeta", servletUrlPattern.parse("/files/13/meta").getName());
+		Assertions.assertEquals(13L, (Long) servletUrlPattern.parse("/files/13/meta").variable("id"));
+		Assertions.assertEquals("files", servletUrlPattern.parse("/files/13/data").getName());
+		Assertions.assertEquals(Collections.emptyList(), servletUrlPattern.getAmbiguities());
+
+		// registration order when disabled
+		final ServletUrlPattern inRegistrationOrder = new ServletUrlPattern(true)
+				.register("image", "/images/{name}")
+				.register("profilePictures", "/images/profile.pics");
+		Assertions.assertEquals("image", inRegistrationOrder.parse("/images/profile.pics").getName());
+		assertThrows(IllegalStateException.class, () -> inRegistrationOrder.setUseMostSpecificMatch(true));
+	}
+
+	@Test
+	@DisplayName("Equally specific url patterns which may match the same urls are reported when registered")
+	void ambiguities() {
+
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar(true).setUseMostSpecificMatch(true)
+				.get("user", "/users/{id}", (request, response, servletUrl) -> {})
+				.get("userByName", "/users/{name}/", (request, response, servletUrl) -> {})
+				.get("userByLong", "/users/{id}", (request, response, servletUrl) -> {}, Long.class)
+				.get("userByZip", "/users/{zip:\\d{5}}", (request, response, servletUrl) -> {})
+				.get("json", "/users/{id}.json", (request, response, servletUrl) -> {})
+				.get("xml", "/users/{id}.xml", (request, response, servletUrl) -> {})
+				.get("orders", "/orders/{id}", (request, response, servletUrl) -> {})
+				.post("create", "/users/{id}", (request, response, servletUrl) -> {});
+
+		Assertions.assertEquals(Arrays.asList("GET: Url patterns /users/{id} and /users/{name}/ are equally specific and may match the same urls, " +
+											  "the former is registered first and wins",
+											  "GET: Url patterns /users/{id} and /users/{zip:\\d{5}} are equally specific and may match the same " +
+											  "urls, the former is registered first and wins"), registrar.getAmbiguities());
+		Assertions.assertEquals("user", registrar.parse(getRequest("/users/me")).getName());
+	}
+
+	@Test
+	@DisplayName("Registering url patterns one by one takes linear time and keeps registrations of the same url pattern together")
+	void registerMany() {
+
+		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(true);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			for (int i = 0; i < 50_000; i++) {
+				servletUrlPattern.register("resource" + i, "/resources" + i + "/{id}", Long.class);
+			}
+		});
+		Assertions.assertEquals(50_000, servletUrlPattern.routes().size());
+		Assertions.assertEquals("resource0", servletUrlPattern.parse("/resources0/13").getName());
+		Assertions.assertEquals("resource49999", servletUrlPattern.parse("/resources49999/13").getName());
+
+		servletUrlPattern.register("json", "/resources7/{id}", Long.class).produces("application/json")
+						 .register("name", "/resources7/{id}")
+						 .setUseCaseInsensitiveMatch(true)
+						 .register("ignoreCase", "/resources7/{id}", Long.class)
+						 .setUseCaseInsensitiveMatch(false)
+						 .register("text", "/resources7/{id}", Long.class).produces("text/plain");
+		Assertions.assertEquals(50_004, servletUrlPattern.routes().size());
+		Assertions.assertEquals("resource7", servletUrlPattern.parse(mockRequest("/resources7/13", "text/html")).getName());
+		Assertions.assertEquals("text", servletUrlPattern.parse(mockRequest("/resources7/13", "text/plain")).getName());
+		Assertions.assertEquals("name", servletUrlPattern.parse(mockRequest("/resources7/me", "text/html")).getName());
+		Assertions.assertEquals("ignoreCase", servletUrlPattern.parse(mockRequest("/RESOURCES7/13", "text/html")).getName());
+	}
+
+	@Test
+	@DisplayName("Heap used per url pattern stays the same as the route table grows")
+	void routeFootprint() {
+
+		final RouteFootprint thousand = RouteFootprint.of(tenantRoutes(1000));
+		final RouteFootprint tenThousand = RouteFootprint.of(tenantRoutes(10_000));
+
+		Assertions.assertEquals(2000, thousand.getRouteCount());
+		Assertions.assertEquals(20_000, tenThousand.getRouteCount());
+		Assertions.assertTrue(thousand.getBytesPerRoute() < 512, thousand::toString);
+		Assertions.assertEquals(thousand.getBytesPerRoute(), tenThousand.getBytesPerRoute(), thousand.getBytesPerRoute() / 20.0, tenThousand::toString);
+		Assertions.assertEquals(0, RouteFootprint.of(new ServletUrlPattern(true)).getBytesPerRoute());
+	}
+
+	private static ServletUrlPatternRegistrar tenantRoutes(int tenants) {
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar(true);
+		for (int i = 0; i < tenants; i++) {
+			registrar.get("/tenants/tenant-" + i + "/orders", (request, response, servletUrl) -> {})
+					 .get("/tenants/tenant-" + i + "/orders/{id}", (request, response, servletUrl) -> {}, Long.class);
+		}
+		return registrar;
+	}
+
+	private static class RecordingInterceptor implements Interceptor {
+
+		private final String name;
+
+		private final List<String> calls;
+
+		private final Predicate<ServletUrl> proceed;
+
+		RecordingInterceptor(String name, List<String> calls, Predicate<ServletUrl> proceed) {
+			this.name = name;
+			this.calls = calls;
+			this.proceed = proceed;
+		}
+
+		@Override
+		public boolean before(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) {
+			calls.add(name);
+			return proceed.test(servletUrl);
+		}
+
+		@Override
+		public void after(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl, Throwable failure) {
+			calls.add(name + " after" + (failure == null ? "" : ' ' + failure.getMessage()));
+		}
+	}
+
+	private static String handleGetUnchecked(ServletUrlPattern servletUrlPattern, String pathInfo) {
+		try {
+			return handleGet(servletUrlPattern, pathInfo);
+		}
+		catch (IOException | ServletException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String handleGet(ServletUrlPattern servletUrlPattern, String pathInfo) throws IOException, ServletException {
+		final CapturingOutputStream outputStream = new CapturingOutputStream();
+		final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+		Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		Mockito.when(response.getWriter()).thenReturn(writer);
+
+		servletUrlPattern.handle(getRequest(pathInfo), response);
+		writer.flush();
+		return outputStream.toString();
+	}
+
+	private static HttpServletRequest getRequest(String pathInfo) {
+		final HttpServletRequest request = mockRequest(pathInfo, null);
+		Mockito.when(request.getMethod()).thenReturn("GET");
+		return request;
+	}
+
+	private static class CapturingOutputStream extends ServletOutputStream {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) {
+			bytes.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static HttpServletRequest mockRequest(String pathInfo, String accept) {
+		final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(request.getPathInfo()).thenReturn(pathInfo);
+		Mockito.when(request.getHeader("Accept")).thenReturn(accept);
+		return request;
+	}
+
 	/**
 	 * Picks all json files with prefix {@code ServletUrlPattern} and suffix {@code .json} and creates {@link DynamicTest} out of them.
 	 *
@@ -0,0 +1,300 @@
+package com.kodgemisi.servlet_url_mapping;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+class StreamingRequestHandlerTest {
+
+	private ServletUrlPatternRegistrar registrar;
+
+	private HttpServletRequest request;
+
+	private HttpServletResponse response;
+
+	private AsyncContext asyncContext;
+
+	private ScriptedInputStream input;
+
+	private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		registrar = new ServletUrlPatternRegistrar();
+		input = new ScriptedInputStream();
+		asyncContext = Mockito.mock(AsyncContext.class);
+		response = Mockito.mock(HttpServletResponse.class);
+		request = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(request.getMethod()).thenReturn("POST");
+		Mockito.when(request.getPathInfo()).thenReturn("/files/report.csv");
+		Mockito.when(request.isAsyncSupported()).thenReturn(true);
+		Mockito.when(request.startAsync(request, response)).thenReturn(asyncContext);
+		Mockito.when(request.getInputStream()).thenReturn(input);
+	}
+
+	@Test
+	@DisplayName("Body is handed to the listener chunk by chunk as it arrives, without blocking the container thread in between")
+	void chunks() throws Exception {
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> {
+			Assertions.assertEquals("report.csv", servletUrl.variable("name"));
+			return new RequestBodyListener() {
+
+				@Override
+				public boolean onChunk(ByteBuffer chunk) {
+					received.write(chunk.array(), chunk.position(), chunk.remaining());
+					return true;
+				}
+
+				@Override
+				public void onComplete() {
+					response.setStatus(HttpServletResponse.SC_CREATED);
+				}
+			};
+		});
+
+		input.arrive("id,name\n");
+		registrar.handle(request, response);
+
+		// the handler returned, the rest of the body hasn't arrived yet
+		Assertions.assertEquals("id,name\n", received.toString("UTF-8"));
+		Mockito.verify(asyncContext).setTimeout(0);
+		Mockito.verify(asyncContext, Mockito.never()).complete();
+
+		input.arrive("1,a\n");
+		input.arrive("2,b\n");
+		input.readListener.onDataAvailable();
+		Assertions.assertEquals("id,name\n1,a\n2,b\n", received.toString("UTF-8"));
+		Mockito.verify(asyncContext, Mockito.never()).complete();
+
+		input.end();
+		input.readListener.onAllDataRead();
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_CREATED);
+		Mockito.verify(asyncContext).complete();
+	}
+
+	@Test
+	@DisplayName("A paused listener gets no chunks nor completion until it resumes reading, even if it resumes while being called")
+	void backpressure() throws Exception {
+		final AtomicReference<RequestBodyReader> bodyReader = new AtomicReference<>();
+		final Queue<Boolean> answers = new ArrayDeque<>();
+		final Runnable[] whileCalled = {null};
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> {
+			bodyReader.set(reader);
+			return new RequestBodyListener() {
+
+				@Override
+				public boolean onChunk(ByteBuffer chunk) {
+					received.write(chunk.array(), chunk.position(), chunk.remaining());
+					if (whileCalled[0] != null) {
+						whileCalled[0].run();
+					}
+					return answers.isEmpty() || answers.poll();
+				}
+
+				@Override
+				public void onComplete() {
+					response.setStatus(HttpServletResponse.SC_CREATED);
+				}
+			};
+		});
+
+		answers.add(false);
+		input.arrive("a");
+		input.arrive("b");
+		input.end();
+		registrar.handle(request, response);
+
+		Assertions.assertEquals("a", received.toString("UTF-8"));
+		input.readListener.onDataAvailable();
+		input.readListener.onAllDataRead();
+		Assertions.assertEquals("a", received.toString("UTF-8"));
+		Mockito.verify(asyncContext, Mockito.never()).complete();
+		Assertions.assertEquals(1, bodyReader.get().getBytesRead());
+
+		// another thread resumes before onChunk returns false, reading must not stay paused
+		answers.add(false);
+		whileCalled[0] = () -> {
+			final Thread resumer = new Thread(bodyReader.get()::resume);
+			resumer.start();
+			try {
+				resumer.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		final Thread resumer = new Thread(bodyReader.get()::resume);
+		resumer.start();
+		resumer.join();
+
+		Assertions.assertEquals("ab", received.toString("UTF-8"));
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_CREATED);
+		Mockito.verify(asyncContext).complete();
+	}
+
+	@Test
+	@DisplayName("A failing listener is told so, the response is 500 and the request is completed once")
+	void listenerFailure() throws Exception {
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		registrar.put("/files/{name}", (request, response, servletUrl, reader) -> new RequestBodyListener() {
+
+			@Override
+			public boolean onChunk(ByteBuffer chunk) throws IOException {
+				throw new IOException("Disk full");
+			}
+
+			@Override
+			public void onComplete() {
+				Assertions.fail("Completed after failing");
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				failure.set(e);
+			}
+		});
+		Mockito.when(request.getMethod()).thenReturn("PUT");
+
+		input.arrive("a");
+		input.end();
+		registrar.handle(request, response);
+		input.readListener.onAllDataRead();
+		input.readListener.onError(new IOException("Connection reset"));
+
+		Assertions.assertEquals("Disk full", failure.get().getMessage());
+		Mockito.verify(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		Mockito.verify(asyncContext).complete();
+	}
+
+	@Test
+	@DisplayName("A client disconnecting is reported to the listener")
+	void clientFailure() throws Exception {
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> new RequestBodyListener() {
+
+			@Override
+			public boolean onChunk(ByteBuffer chunk) {
+				return true;
+			}
+
+			@Override
+			public void onComplete() {
+				Assertions.fail("Completed after failing");
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				failure.set(e);
+			}
+		});
+
+		input.arrive("a");
+		registrar.handle(request, response);
+		input.readListener.onError(new IOException("Connection reset"));
+
+		Assertions.assertEquals("Connection reset", failure.get().getMessage());
+		Mockito.verify(asyncContext).complete();
+	}
+
+	@Test
+	@DisplayName("A handler may respond without reading the body")
+	void rejected() throws Exception {
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> {
+			response.sendError(413);
+			return null;
+		});
+
+		registrar.handle(request, response);
+
+		Mockito.verify(response).sendError(413);
+		Mockito.verify(request, Mockito.never()).startAsync(request, response);
+		Assertions.assertNull(input.readListener);
+	}
+
+	@Test
+	@DisplayName("Streaming request handlers need asynchronous processing")
+	void asyncNotSupported() {
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> Assertions.fail("Handled without async support"));
+		Mockito.when(request.isAsyncSupported()).thenReturn(false);
+
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.handle(request, response));
+	}
+
+	@Test
+	@DisplayName("Streaming responses are completed asynchronously and cannot be cached or compressed")
+	void notCacheable() {
+		registrar.post("/files/{name}", (request, response, servletUrl, reader) -> null);
+
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.cache(Duration.ofMinutes(1)));
+		Assertions.assertThrows(IllegalStateException.class, () -> registrar.compress());
+	}
+
+	/**
+	 * Non-blocking input stream whose data arrives when the test says so. Like a container's, it's ready when data has arrived and otherwise
+	 * expects {@link ReadListener#onDataAvailable()} to be called once data arrives.
+	 */
+	private static final class ScriptedInputStream extends ServletInputStream {
+
+		private final Queue<byte[]> arrived = new ArrayDeque<>();
+
+		private boolean ended;
+
+		private ReadListener readListener;
+
+		void arrive(String data) {
+			arrived.add(data.getBytes(StandardCharsets.UTF_8));
+		}
+
+		void end() {
+			ended = true;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return ended && arrived.isEmpty();
+		}
+
+		@Override
+		public boolean isReady() {
+			Assertions.assertNotNull(readListener, "isReady() called before setting a read listener");
+			return !arrived.isEmpty() || ended;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			this.readListener = readListener;
+		}
+
+		@Override
+		public int read(byte[] b) {
+			Assertions.assertTrue(isReady(), "read() would block");
+			if (arrived.isEmpty()) {
+				return -1;
+			}
+			final byte[] data = arrived.poll();
+			System.arraycopy(data, 0, b, 0, data.length);
+			return data.length;
+		}
+
+		@Override
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -30,6 +30,8 @@ public class ParsingTestCase {
 
 	private boolean useTrailingSlashMatch;
 
+	private boolean useCaseInsensitiveMatch;
+
 	/**
 	 * This list represents a ServletUrlPattern
 	 */
@@ -89,8 +91,12 @@ public class ParsingTestCase {
 	public Collection<DynamicTest> toDynamicTests() {
 
 		final ServletUrlPattern servletUrlPattern = new ServletUrlPattern(useTrailingSlashMatch);
+		servletUrlPattern.setUseCaseInsensitiveMatch(useCaseInsensitiveMatch);
 		for (RegisteredUrl registeredUrl : registeredUrls) {
 			servletUrlPattern.register(registeredUrl.getName(), registeredUrl.getUrl(), registeredUrl.getClasses());
+			if (registeredUrl.isIgnoreCase()) {
+				servletUrlPattern.ignoreCase();
+			}
 		}
 
 		return testConditions.stream().map(testCondition -> toDynamicTest(fileName, testCondition, servletUrlPattern)).collect(Collectors.toList());
@@ -13,6 +13,8 @@ class RegisteredUrl {
 
 	private Class<?>[] classes;
 
+	private boolean ignoreCase;
+
 	public Class<?>[] getClasses() {
 		return classes == null ? new Class[]{} : classes;
 	}
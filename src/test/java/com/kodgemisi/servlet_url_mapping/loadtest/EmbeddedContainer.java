@@ -0,0 +1,139 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Serves a single servlet on localhost for load tests, with the JDK's built-in HTTP server as the container and a fixed pool of worker
+ * threads. The servlet is initialized and destroyed like a container would, see {@link ServletExchange} for how requests are adapted.</p>
+ *
+ * <p>The connector is much simpler than those of production containers, so absolute numbers are lower. Only the difference between servlets
+ * served the same way is meaningful.</p>
+ */
+final class EmbeddedContainer implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(EmbeddedContainer.class);
+
+	static {
+		// response headers and bodies are written separately, without TCP_NODELAY each response would wait for a delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+
+	private final ExecutorService workers;
+
+	private final HttpServlet servlet;
+
+	private EmbeddedContainer(HttpServer server, ExecutorService workers, HttpServlet servlet) {
+		this.server = server;
+		this.workers = workers;
+		this.servlet = servlet;
+	}
+
+	/**
+	 * @param contextPath like {@code "/app"}, the servlet is mapped to {@code "/*"} within it
+	 */
+	static EmbeddedContainer start(HttpServlet servlet, String servletName, String contextPath, int workerThreads) throws IOException, ServletException {
+		servlet.init(servletConfig(servletName, contextPath));
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		final AtomicInteger workerCount = new AtomicInteger();
+		final ExecutorService workers = Executors.newFixedThreadPool(workerThreads, task -> {
+			final Thread thread = new Thread(task, servletName + "-worker-" + workerCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		server.createContext(contextPath.isEmpty() ? "/" : contextPath, exchange -> {
+			final ServletExchange servletExchange = new ServletExchange(exchange, contextPath);
+			try {
+				servlet.service(servletExchange.request(), servletExchange.response());
+			}
+			catch (ServletException | RuntimeException e) {
+				log.error("Servlet " + servletName + " failed", e);
+				servletExchange.fail();
+			}
+			servletExchange.send();
+		});
+		server.setExecutor(workers);
+		server.start();
+		return new EmbeddedContainer(server, workers, servlet);
+	}
+
+	InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		workers.shutdownNow();
+		servlet.destroy();
+	}
+
+	private static ServletConfig servletConfig(String servletName, String contextPath) {
+		final InvocationHandler contextMethods = (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getContextPath":
+				return contextPath;
+			case "getServletContextName":
+				return servletName;
+			case "getInitParameter":
+			case "getAttribute":
+				return null;
+			case "getInitParameterNames":
+			case "getAttributeNames":
+				return Collections.emptyEnumeration();
+			case "log":
+				log.info(String.valueOf(args[0]));
+				return null;
+			case "toString":
+				return "ServletContext " + contextPath;
+			default:
+				throw new UnsupportedOperationException("ServletContext." + method.getName());
+			}
+		};
+		final ServletContext servletContext = (ServletContext) Proxy.newProxyInstance(EmbeddedContainer.class.getClassLoader(),
+																					  new Class<?>[]{ServletContext.class}, contextMethods);
+
+		return new ServletConfig() {
+
+			@Override
+			public String getServletName() {
+				return servletName;
+			}
+
+			@Override
+			public ServletContext getServletContext() {
+				return servletContext;
+			}
+
+			@Override
+			public String getInitParameter(String name) {
+				return null;
+			}
+
+			@Override
+			public Enumeration<String> getInitParameterNames() {
+				return Collections.emptyEnumeration();
+			}
+		};
+	}
+}
@@ -0,0 +1,247 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Closed-loop HTTP/1.1 load generator: each client thread keeps a connection alive and sends the next request of the mix as soon as the
+ * previous response is read. Requests are written from pre-encoded bytes and responses are parsed just enough to skip their bodies, so the
+ * generator itself allocates and costs little compared to the server.</p>
+ *
+ * <p>Responses whose status differs from the expected one are counted as errors, as are broken connections, which are reopened.</p>
+ */
+final class LoadGenerator {
+
+	private final InetSocketAddress address;
+
+	private final List<Request> mix;
+
+	private final int clients;
+
+	LoadGenerator(InetSocketAddress address, List<Request> mix, int clients) {
+		this.address = address;
+		this.mix = mix;
+		this.clients = clients;
+	}
+
+	Result run(Duration duration) throws InterruptedException {
+		final AtomicLong errors = new AtomicLong();
+		final List<long[]> latencies = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(clients);
+		final long start = System.nanoTime();
+		final long deadline = start + duration.toNanos();
+
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < clients; i++) {
+			final int client = i;
+			final Latencies clientLatencies = new Latencies();
+			threads.add(new Thread(() -> {
+				try {
+					runClient(client, deadline, clientLatencies, errors);
+				}
+				finally {
+					synchronized (latencies) {
+						latencies.add(clientLatencies.toArray());
+					}
+					done.countDown();
+				}
+			}, "load-client-" + i));
+		}
+		threads.forEach(Thread::start);
+		done.await();
+		final long elapsedNanos = System.nanoTime() - start;
+
+		final long[] sortedLatencies = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+		return new Result(sortedLatencies, errors.get(), elapsedNanos);
+	}
+
+	private void runClient(int client, long deadline, Latencies latencies, AtomicLong errors) {
+		// clients start at different requests of the mix so that all of them are in flight at any time
+		int next = client;
+		while (System.nanoTime() < deadline) {
+			try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+				socket.setTcpNoDelay(true);
+				final OutputStream out = socket.getOutputStream();
+				final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+				while (System.nanoTime() < deadline) {
+					final Request request = mix.get(next++ % mix.size());
+					final long sent = System.nanoTime();
+					out.write(request.bytes);
+					out.flush();
+					final int status = readResponse(in);
+					latencies.add(System.nanoTime() - sent);
+					if (status != request.expectedStatus) {
+						errors.incrementAndGet();
+					}
+				}
+			}
+			catch (IOException e) {
+				errors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Reads the status line and the headers and skips the body of a response with a {@code Content-Length}.
+	 *
+	 * @return status code
+	 */
+	private static int readResponse(InputStream in) throws IOException {
+		final String statusLine = readLine(in);
+		final int status = Integer.parseInt(statusLine.substring(9, 12));
+
+		long contentLength = 0;
+		for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+			if (header.regionMatches(true, 0, "Content-Length:", 0, "Content-Length:".length())) {
+				contentLength = Long.parseLong(header.substring("Content-Length:".length()).trim());
+			}
+		}
+		while (contentLength > 0) {
+			final long skipped = in.skip(contentLength);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("Connection closed within a response body");
+				}
+				contentLength--;
+			}
+			else {
+				contentLength -= skipped;
+			}
+		}
+		return status;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		final StringBuilder line = new StringBuilder(64);
+		for (int c = in.read(); c != '\n'; c = in.read()) {
+			if (c == -1) {
+				throw new EOFException("Connection closed within a response");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	static final class Request {
+
+		private final String method;
+
+		private final String target;
+
+		private final int expectedStatus;
+
+		private final byte[] bytes;
+
+		/**
+		 * @param target path and query as sent, e.g. {@code "/app/products/42"}
+		 */
+		Request(String method, String target, int expectedStatus) {
+			this.method = method;
+			this.target = target;
+			this.expectedStatus = expectedStatus;
+			this.bytes = (method + ' ' + target + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		}
+
+		String getMethod() {
+			return method;
+		}
+
+		String getTarget() {
+			return target;
+		}
+
+		int getExpectedStatus() {
+			return expectedStatus;
+		}
+
+		@Override
+		public String toString() {
+			return method + ' ' + target + " -> " + expectedStatus;
+		}
+	}
+
+	static final class Result {
+
+		private final long[] sortedLatencies;
+
+		private final long errors;
+
+		private final long elapsedNanos;
+
+		Result(long[] sortedLatencies, long errors, long elapsedNanos) {
+			this.sortedLatencies = sortedLatencies;
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return results of consecutive runs as one, as if the runs were a single run with pauses left out
+		 */
+		static Result combine(List<Result> results) {
+			final long[] sortedLatencies = results.stream().flatMapToLong(result -> Arrays.stream(result.sortedLatencies)).sorted().toArray();
+			final long errors = results.stream().mapToLong(result -> result.errors).sum();
+			final long elapsedNanos = results.stream().mapToLong(result -> result.elapsedNanos).sum();
+			return new Result(sortedLatencies, errors, elapsedNanos);
+		}
+
+		long getRequests() {
+			return sortedLatencies.length;
+		}
+
+		long getErrors() {
+			return errors;
+		}
+
+		double getRequestsPerSecond() {
+			return elapsedNanos == 0 ? 0 : sortedLatencies.length * 1_000_000_000d / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return latency of a single request in microseconds, from writing the request to reading the response
+		 */
+		double getLatencyMicros(double percentile) {
+			if (sortedLatencies.length == 0) {
+				return 0;
+			}
+			final int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1000d;
+		}
+	}
+
+	/**
+	 * Growable array of latencies in nanoseconds, recorded by a single client.
+	 */
+	private static final class Latencies {
+
+		private long[] values = new long[1024];
+
+		private int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
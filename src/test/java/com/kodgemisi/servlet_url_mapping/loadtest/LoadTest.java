@@ -0,0 +1,195 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Quantifies the overhead of the mapper end to end, including {@code MappingServlet.doCommon}, {@code sendError} and the container's
+ * dispatch: serves {@link ProductsMappingServlet} and {@link ProductsManualServlet} from an {@link EmbeddedContainer} each, drives both
+ * with the same request mix via {@link LoadGenerator} and compares requests per second and latency percentiles.</p>
+ *
+ * <p>Run it via the {@code loadtest} profile, e.g. before each release:</p>
+ *
+ * <blockquote><pre>
+ * mvn -Ploadtest test-compile exec:java -Dexec.args="--clients=16 --workers=16 --warmup=5 --duration=20 --rounds=4"
+ * </pre></blockquote>
+ *
+ * <ul>
+ *     <li>{@code --clients} is the number of concurrent connections, default is 8</li>
+ *     <li>{@code --workers} is the number of worker threads of each container, default is 8</li>
+ *     <li>{@code --warmup} is how long each servlet is driven before it's measured in seconds, default is 5</li>
+ *     <li>{@code --duration} is how long each servlet is measured in seconds, default is 10</li>
+ *     <li>{@code --rounds} is the number of parts the measurement of each servlet is split into, default is 4</li>
+ * </ul>
+ *
+ * <p>Both servlets are warmed up before either is measured, then they are measured in alternating rounds, in ABBA order, so that drift of the
+ * machine like JIT compilation or frequency scaling affects both alike. The load generator runs in the same JVM and competes with the servlets
+ * for CPU, so compare results of the same machine and arguments only.</p>
+ */
+public class LoadTest {
+
+	static final String CONTEXT_PATH = "/app";
+
+	/**
+	 * {@code SampleServlet}-style requests: listing, path variables of several types, the trailing slash and a 404.
+	 */
+	static final List<LoadGenerator.Request> MIX = Collections.unmodifiableList(Arrays.asList(
+			new LoadGenerator.Request("GET", CONTEXT_PATH + "/products", HttpServletResponse.SC_OK),
+			new LoadGenerator.Request("GET", CONTEXT_PATH + "/products/42", HttpServletResponse.SC_OK),
+			new LoadGenerator.Request("GET", CONTEXT_PATH + "/products/42/images/7", HttpServletResponse.SC_OK),
+			new LoadGenerator.Request("PUT", CONTEXT_PATH + "/products/42/discounts/true", HttpServletResponse.SC_OK),
+			new LoadGenerator.Request("POST", CONTEXT_PATH + "/products/42/discounts/9.90", HttpServletResponse.SC_CREATED),
+			new LoadGenerator.Request("POST", CONTEXT_PATH + "/products/", HttpServletResponse.SC_CREATED),
+			new LoadGenerator.Request("GET", CONTEXT_PATH + "/orders/1", HttpServletResponse.SC_NOT_FOUND)));
+
+	private final int clients;
+
+	private final int workers;
+
+	private final Duration warmup;
+
+	private final Duration duration;
+
+	private final int rounds;
+
+	public LoadTest(int clients, int workers, Duration warmup, Duration duration, int rounds) {
+		this.clients = clients;
+		this.workers = workers;
+		this.warmup = warmup;
+		this.duration = duration;
+		this.rounds = rounds;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = 8;
+		int workers = 8;
+		long warmupSeconds = 5;
+		long durationSeconds = 10;
+		int rounds = 4;
+		for (String arg : args) {
+			if (arg.startsWith("--clients=")) {
+				clients = Integer.parseInt(arg.substring("--clients=".length()));
+			}
+			else if (arg.startsWith("--workers=")) {
+				workers = Integer.parseInt(arg.substring("--workers=".length()));
+			}
+			else if (arg.startsWith("--warmup=")) {
+				warmupSeconds = Long.parseLong(arg.substring("--warmup=".length()));
+			}
+			else if (arg.startsWith("--duration=")) {
+				durationSeconds = Long.parseLong(arg.substring("--duration=".length()));
+			}
+			else if (arg.startsWith("--rounds=")) {
+				rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		new LoadTest(clients, workers, Duration.ofSeconds(warmupSeconds), Duration.ofSeconds(durationSeconds), rounds).run().print(System.out);
+	}
+
+	public Report run() throws IOException, ServletException, InterruptedException {
+		try (EmbeddedContainer manual = EmbeddedContainer.start(new ProductsManualServlet(), "manual", CONTEXT_PATH, workers);
+			 EmbeddedContainer mapping = EmbeddedContainer.start(new ProductsMappingServlet(), "mapping", CONTEXT_PATH, workers)) {
+
+			final LoadGenerator manualLoad = new LoadGenerator(manual.getAddress(), MIX, clients);
+			final LoadGenerator mappingLoad = new LoadGenerator(mapping.getAddress(), MIX, clients);
+
+			manualLoad.run(warmup);
+			mappingLoad.run(warmup);
+
+			final Duration round = duration.dividedBy(rounds);
+			final List<LoadGenerator.Result> manualResults = new ArrayList<>();
+			final List<LoadGenerator.Result> mappingResults = new ArrayList<>();
+			for (int i = 0; i < rounds; i++) {
+				// ABBA order
+				if (i % 4 == 0 || i % 4 == 3) {
+					manualResults.add(manualLoad.run(round));
+					mappingResults.add(mappingLoad.run(round));
+				}
+				else {
+					mappingResults.add(mappingLoad.run(round));
+					manualResults.add(manualLoad.run(round));
+				}
+			}
+			return new Report(clients, workers, duration, LoadGenerator.Result.combine(manualResults), LoadGenerator.Result.combine(mappingResults));
+		}
+	}
+
+	public static class Report {
+
+		private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+		private final int clients;
+
+		private final int workers;
+
+		private final Duration duration;
+
+		private final LoadGenerator.Result manual;
+
+		private final LoadGenerator.Result mapping;
+
+		Report(int clients, int workers, Duration duration, LoadGenerator.Result manual, LoadGenerator.Result mapping) {
+			this.clients = clients;
+			this.workers = workers;
+			this.duration = duration;
+			this.manual = manual;
+			this.mapping = mapping;
+		}
+
+		LoadGenerator.Result getManual() {
+			return manual;
+		}
+
+		LoadGenerator.Result getMapping() {
+			return mapping;
+		}
+
+		/**
+		 * @return how much lower the throughput with the mapper is, as a ratio, negative if it's higher
+		 */
+		public double getThroughputOverhead() {
+			return manual.getRequestsPerSecond() == 0 ? 0 : 1 - mapping.getRequestsPerSecond() / manual.getRequestsPerSecond();
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return how much higher the latency with the mapper is at the given percentile, as a ratio, negative if it's lower
+		 */
+		public double getLatencyOverhead(double percentile) {
+			final double manualLatency = manual.getLatencyMicros(percentile);
+			return manualLatency == 0 ? 0 : mapping.getLatencyMicros(percentile) / manualLatency - 1;
+		}
+
+		public void print(PrintStream out) {
+			out.printf("Clients      : %d, container workers: %d, measured for %d s per servlet%n", clients, workers, duration.getSeconds());
+			out.printf("%-16s %10s %10s %10s %10s %10s %8s %8s%n", "", "req/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "requests", "errors");
+			print(out, "manual if/else", manual);
+			print(out, "MappingServlet", mapping);
+
+			out.printf("%-16s %+9.1f%%", "overhead", getThroughputOverhead() * 100);
+			for (double percentile : PERCENTILES) {
+				out.printf(" %+9.1f%%", getLatencyOverhead(percentile) * 100);
+			}
+			out.println();
+		}
+
+		private static void print(PrintStream out, String name, LoadGenerator.Result result) {
+			out.printf("%-16s %10.0f", name, result.getRequestsPerSecond());
+			for (double percentile : PERCENTILES) {
+				out.printf(" %10.1f", result.getLatencyMicros(percentile));
+			}
+			out.printf(" %8d %8d%n", result.getRequests(), result.getErrors());
+		}
+	}
+}
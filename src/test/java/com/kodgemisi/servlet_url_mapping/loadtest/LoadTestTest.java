@@ -0,0 +1,73 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoadTestTest {
+
+	@Test
+	@DisplayName("The mapping servlet and the manual baseline answer the request mix the same way")
+	void sameResponses() throws Exception {
+		try (EmbeddedContainer manual = EmbeddedContainer.start(new ProductsManualServlet(), "manual", LoadTest.CONTEXT_PATH, 2);
+			 EmbeddedContainer mapping = EmbeddedContainer.start(new ProductsMappingServlet(), "mapping", LoadTest.CONTEXT_PATH, 2)) {
+
+			for (LoadGenerator.Request request : LoadTest.MIX) {
+				final String manualResponse = fetch(manual.getAddress(), request);
+				assertTrue(manualResponse.startsWith(request.getExpectedStatus() + " "), request + " answered " + manualResponse);
+				assertEquals(manualResponse, fetch(mapping.getAddress(), request), request::toString);
+			}
+			assertEquals("200 42 7", fetch(mapping.getAddress(), LoadTest.MIX.get(2)));
+		}
+	}
+
+	@Test
+	@DisplayName("A short load test drives both servlets without errors and reports the overhead")
+	void run() throws Exception {
+		final LoadTest.Report report = new LoadTest(2, 2, Duration.ofMillis(200), Duration.ofMillis(600), 2).run();
+
+		assertTrue(report.getManual().getRequests() > 0);
+		assertTrue(report.getMapping().getRequests() > 0);
+		assertEquals(0, report.getManual().getErrors());
+		assertEquals(0, report.getMapping().getErrors());
+		assertTrue(report.getMapping().getLatencyMicros(50) <= report.getMapping().getLatencyMicros(99.9));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		report.print(new PrintStream(out));
+		assertTrue(out.toString().contains("MappingServlet"));
+		assertTrue(out.toString().contains("overhead"));
+	}
+
+	/**
+	 * @return status code and body separated by a space
+	 */
+	private static String fetch(InetSocketAddress address, LoadGenerator.Request request) throws IOException {
+		final URL url = new URL("http", address.getHostString(), address.getPort(), request.getTarget());
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(request.getMethod());
+		final int status = connection.getResponseCode();
+		final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (body != null) {
+			try (InputStream in = body) {
+				final byte[] buffer = new byte[1024];
+				for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+					bytes.write(buffer, 0, read);
+				}
+			}
+		}
+		return status + " " + new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+}
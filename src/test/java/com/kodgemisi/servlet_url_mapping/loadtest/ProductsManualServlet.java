@@ -0,0 +1,97 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * The baseline of {@link LoadTest}: {@link ProductsMappingServlet}'s url patterns dispatched by hand with {@code if/else} on path segments, as
+ * a servlet not using this library would.
+ */
+class ProductsManualServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String[] segments = segments(request);
+		try {
+			if (segments.length == 1 && segments[0].equals("products")) {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().write("list");
+			}
+			else if (segments.length == 2 && segments[0].equals("products")) {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().write(segments[1]);
+			}
+			else if (segments.length == 4 && segments[0].equals("products") && segments[2].equals("images")) {
+				final int id = Integer.parseInt(segments[1]);
+				final long imageId = Long.parseLong(segments[3]);
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().write(id + " " + imageId);
+			}
+			else {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			}
+		}
+		catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	@Override
+	protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String[] segments = segments(request);
+		try {
+			if (segments.length == 4 && segments[0].equals("products") && segments[2].equals("discounts")) {
+				final BigDecimal id = new BigDecimal(segments[1]);
+				final boolean enabled = Boolean.parseBoolean(segments[3]);
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().write(id + " " + enabled);
+			}
+			else {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			}
+		}
+		catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String[] segments = segments(request);
+		try {
+			if (segments.length == 4 && segments[0].equals("products") && segments[2].equals("discounts")) {
+				final Long id = Long.valueOf(segments[1]);
+				final BigDecimal amount = new BigDecimal(segments[3]);
+				response.setStatus(HttpServletResponse.SC_CREATED);
+				response.getWriter().write(id + " " + amount);
+			}
+			else if (segments.length == 1 && segments[0].equals("products")) {
+				response.setStatus(HttpServletResponse.SC_CREATED);
+				response.getWriter().write("created");
+			}
+			else {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			}
+		}
+		catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	/**
+	 * @return path segments of the path info, ignoring a trailing slash like {@code MappingServlet} does by default
+	 */
+	private static String[] segments(HttpServletRequest request) {
+		String path = request.getPathInfo() == null ? "" : request.getPathInfo();
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.split("/");
+	}
+}
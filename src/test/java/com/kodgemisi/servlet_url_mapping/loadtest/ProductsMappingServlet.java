@@ -0,0 +1,63 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import com.kodgemisi.servlet_url_mapping.MappingServlet;
+import com.kodgemisi.servlet_url_mapping.ServletUrl;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * {@code SampleServlet}'s url patterns served by a {@link MappingServlet}, the mapper side of {@link LoadTest}. Responses are the same with
+ * {@link ProductsManualServlet}'s.
+ */
+class ProductsMappingServlet extends MappingServlet {
+
+	ProductsMappingServlet() {
+		this.urlMappingRegistrar
+				.get("/products", this::list)
+				.get("/products/{id}", this::get)
+				.get("/products/{id}/images/{imgId}", this::images, int.class, long.class)
+				.put("/products/{id}/discounts/{isEnabled}", this::toggleDiscount, BigDecimal.class, boolean.class)
+				.post("/products/{id}/discounts/{amount}", this::makeDiscount, Long.class, BigDecimal.class)
+				.post("/products/", this::create);
+	}
+
+	private void list(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write("list");
+	}
+
+	private void get(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final String id = servletUrl.variable("id");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(id);
+	}
+
+	private void images(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final int id = servletUrl.variable("id");
+		final long imageId = servletUrl.variable("imgId");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(id + " " + imageId);
+	}
+
+	private void toggleDiscount(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final BigDecimal id = servletUrl.variable("id");
+		final boolean enabled = servletUrl.variable("isEnabled");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(id + " " + enabled);
+	}
+
+	private void makeDiscount(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		final Long id = servletUrl.variable("id");
+		final BigDecimal amount = servletUrl.variable("amount");
+		response.setStatus(HttpServletResponse.SC_CREATED);
+		response.getWriter().write(id + " " + amount);
+	}
+
+	private void create(HttpServletRequest request, HttpServletResponse response, ServletUrl servletUrl) throws IOException {
+		response.setStatus(HttpServletResponse.SC_CREATED);
+		response.getWriter().write("created");
+	}
+}
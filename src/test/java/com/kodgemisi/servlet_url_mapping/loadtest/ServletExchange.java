@@ -0,0 +1,392 @@
+package com.kodgemisi.servlet_url_mapping.loadtest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Adapts an exchange of the JDK's built-in HTTP server to {@link HttpServletRequest} and {@link HttpServletResponse}, implementing what
+ * {@link javax.servlet.http.HttpServlet} and the servlets under load test use. Other methods throw {@link UnsupportedOperationException} so that
+ * a gap shows up as a failed request rather than as a wrong measurement.</p>
+ *
+ * <p>The response is buffered and sent with a {@code Content-Length} by {@link #send()} after the servlet returns.</p>
+ */
+final class ServletExchange {
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	private final HttpExchange exchange;
+
+	private final String contextPath;
+
+	private final Map<String, Object> attributes = new HashMap<>();
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	private int status = HttpServletResponse.SC_OK;
+
+	private String characterEncoding = StandardCharsets.ISO_8859_1.name();
+
+	private PrintWriter writer;
+
+	private ServletOutputStream outputStream;
+
+	private boolean committed;
+
+	ServletExchange(HttpExchange exchange, String contextPath) {
+		this.exchange = exchange;
+		this.contextPath = contextPath;
+	}
+
+	HttpServletRequest request() {
+		return proxy(HttpServletRequest.class, this::onRequest);
+	}
+
+	HttpServletResponse response() {
+		return proxy(HttpServletResponse.class, this::onResponse);
+	}
+
+	/**
+	 * Sends the buffered response and completes the exchange.
+	 */
+	void send() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+		final byte[] bytes = body.toByteArray();
+		final boolean noBody = bytes.length == 0 || "HEAD".equals(exchange.getRequestMethod()) || status == HttpServletResponse.SC_NO_CONTENT ||
+							   status == HttpServletResponse.SC_NOT_MODIFIED;
+		exchange.sendResponseHeaders(status, noBody ? -1 : bytes.length);
+		if (!noBody) {
+			exchange.getResponseBody().write(bytes);
+		}
+		exchange.close();
+	}
+
+	/**
+	 * Replaces the response with a 500 if the servlet threw, as a container would.
+	 */
+	void fail() {
+		if (!committed) {
+			resetBuffer();
+			exchange.getResponseHeaders().clear();
+			status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		}
+	}
+
+	private Object onRequest(String method, Object[] args) throws IOException {
+		final Headers headers = exchange.getRequestHeaders();
+		switch (method) {
+		case "getMethod":
+			return exchange.getRequestMethod();
+		case "getRequestURI":
+			return exchange.getRequestURI().getRawPath();
+		case "getRequestURL":
+			return new StringBuffer("http://").append(headers.getFirst("Host")).append(exchange.getRequestURI().getRawPath());
+		case "getContextPath":
+			return contextPath;
+		case "getServletPath":
+			return "";
+		case "getPathInfo":
+			final String pathInfo = exchange.getRequestURI().getPath().substring(contextPath.length());
+			return pathInfo.isEmpty() ? null : pathInfo;
+		case "getQueryString":
+			return exchange.getRequestURI().getRawQuery();
+		case "getHeader":
+			return headers.getFirst((String) args[0]);
+		case "getHeaders":
+			final List<String> values = headers.get((String) args[0]);
+			return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+		case "getHeaderNames":
+			return Collections.enumeration(headers.keySet());
+		case "getIntHeader":
+			final String intHeader = headers.getFirst((String) args[0]);
+			return intHeader == null ? -1 : Integer.parseInt(intHeader);
+		case "getDateHeader":
+			final String dateHeader = headers.getFirst((String) args[0]);
+			return dateHeader == null ? -1L : ZonedDateTime.parse(dateHeader, HTTP_DATE).toInstant().toEpochMilli();
+		case "getContentType":
+			return headers.getFirst("Content-Type");
+		case "getContentLength":
+			final String contentLength = headers.getFirst("Content-Length");
+			return contentLength == null ? -1 : Integer.parseInt(contentLength);
+		case "getContentLengthLong":
+			final String contentLengthLong = headers.getFirst("Content-Length");
+			return contentLengthLong == null ? -1L : Long.parseLong(contentLengthLong);
+		case "getCharacterEncoding":
+			return null;
+		case "setCharacterEncoding":
+			return null;
+		case "getInputStream":
+			return new ExchangeInputStream(exchange.getRequestBody());
+		case "getProtocol":
+			return exchange.getProtocol();
+		case "getScheme":
+			return "http";
+		case "isSecure":
+			return false;
+		case "getServerName":
+			return exchange.getLocalAddress().getHostString();
+		case "getServerPort":
+		case "getLocalPort":
+			return exchange.getLocalAddress().getPort();
+		case "getRemoteAddr":
+		case "getRemoteHost":
+			return exchange.getRemoteAddress().getAddress().getHostAddress();
+		case "getRemotePort":
+			return exchange.getRemoteAddress().getPort();
+		case "getAttribute":
+			return attributes.get((String) args[0]);
+		case "getAttributeNames":
+			return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+		case "setAttribute":
+			attributes.put((String) args[0], args[1]);
+			return null;
+		case "removeAttribute":
+			attributes.remove((String) args[0]);
+			return null;
+		case "getCookies":
+			return null;
+		case "getDispatcherType":
+			return DispatcherType.REQUEST;
+		case "isAsyncStarted":
+		case "isAsyncSupported":
+			return false;
+		case "getLocale":
+			return Locale.getDefault();
+		default:
+			throw new UnsupportedOperationException("HttpServletRequest." + method);
+		}
+	}
+
+	private Object onResponse(String method, Object[] args) throws IOException {
+		final Headers headers = exchange.getResponseHeaders();
+		switch (method) {
+		case "setStatus":
+			status = (int) args[0];
+			return null;
+		case "getStatus":
+			return status;
+		case "sendError":
+			resetBuffer();
+			status = (int) args[0];
+			// an error page like containers send, the JDK's HTTP server closes the connection after an error without a body
+			final String message = args.length > 1 && args[1] != null ? (String) args[1] : "Error " + status;
+			body.write(message.getBytes(StandardCharsets.ISO_8859_1));
+			committed = true;
+			return null;
+		case "sendRedirect":
+			resetBuffer();
+			status = HttpServletResponse.SC_FOUND;
+			headers.set("Location", (String) args[0]);
+			committed = true;
+			return null;
+		case "setHeader":
+			headers.set((String) args[0], (String) args[1]);
+			return null;
+		case "addHeader":
+			headers.add((String) args[0], (String) args[1]);
+			return null;
+		case "setIntHeader":
+			headers.set((String) args[0], String.valueOf(args[1]));
+			return null;
+		case "addIntHeader":
+			headers.add((String) args[0], String.valueOf(args[1]));
+			return null;
+		case "setDateHeader":
+			headers.set((String) args[0], formatDate((long) args[1]));
+			return null;
+		case "addDateHeader":
+			headers.add((String) args[0], formatDate((long) args[1]));
+			return null;
+		case "containsHeader":
+			return headers.containsKey((String) args[0]);
+		case "getHeader":
+			return headers.getFirst((String) args[0]);
+		case "getHeaders":
+			final List<String> values = headers.get((String) args[0]);
+			return values == null ? Collections.<String>emptyList() : new ArrayList<>(values);
+		case "getHeaderNames":
+			return new ArrayList<>(headers.keySet());
+		case "setContentType":
+			if (args[0] != null) {
+				headers.set("Content-Type", (String) args[0]);
+			}
+			return null;
+		case "getContentType":
+			return headers.getFirst("Content-Type");
+		case "setCharacterEncoding":
+			characterEncoding = (String) args[0];
+			return null;
+		case "getCharacterEncoding":
+			return characterEncoding;
+		case "setContentLength":
+		case "setContentLengthLong":
+		case "setLocale":
+		case "setBufferSize":
+			// the response is buffered as a whole and its length is sent by send()
+			return null;
+		case "getBufferSize":
+			return body.size();
+		case "getLocale":
+			return Locale.getDefault();
+		case "getWriter":
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(body, characterEncoding));
+			}
+			return writer;
+		case "getOutputStream":
+			if (outputStream == null) {
+				outputStream = new BufferOutputStream();
+			}
+			return outputStream;
+		case "flushBuffer":
+			if (writer != null) {
+				writer.flush();
+			}
+			committed = true;
+			return null;
+		case "isCommitted":
+			return committed;
+		case "resetBuffer":
+			resetBuffer();
+			return null;
+		case "reset":
+			resetBuffer();
+			headers.clear();
+			status = HttpServletResponse.SC_OK;
+			return null;
+		case "encodeURL":
+		case "encodeRedirectURL":
+		case "encodeUrl":
+		case "encodeRedirectUrl":
+			return args[0];
+		default:
+			throw new UnsupportedOperationException("HttpServletResponse." + method);
+		}
+	}
+
+	private void resetBuffer() {
+		if (committed) {
+			throw new IllegalStateException("Response is already committed");
+		}
+		if (writer != null) {
+			writer.flush();
+		}
+		body.reset();
+	}
+
+	private static String formatDate(long millis) {
+		return HTTP_DATE.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+	}
+
+	@FunctionalInterface
+	private interface Methods {
+
+		Object invoke(String method, Object[] args) throws IOException;
+	}
+
+	private static <T> T proxy(Class<T> type, Methods methods) {
+		final InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return type.getSimpleName() + " of " + ServletExchange.class.getSimpleName();
+			default:
+				return methods.invoke(method.getName(), args == null ? new Object[0] : args);
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(ServletExchange.class.getClassLoader(), new Class<?>[]{type}, handler));
+	}
+
+	private static final class ExchangeInputStream extends ServletInputStream {
+
+		private final InputStream in;
+
+		private boolean finished;
+
+		ExchangeInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int read = in.read();
+			finished = read == -1;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int read = in.read(b, off, len);
+			finished = read == -1;
+			return read;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			throw new UnsupportedOperationException("Non-blocking IO is not supported");
+		}
+	}
+
+	private final class BufferOutputStream extends ServletOutputStream {
+
+		@Override
+		public void write(int b) {
+			body.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			body.write(b, off, len);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new UnsupportedOperationException("Non-blocking IO is not supported");
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.kodgemisi.servlet_url_mapping.replay;
+
+import com.kodgemisi.servlet_url_mapping.ServletRequestHandler;
+import com.kodgemisi.servlet_url_mapping.ServletUrl;
+import com.kodgemisi.servlet_url_mapping.ServletUrlPatternRegistrar;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Replays a local access log through {@link ServletUrlPatternRegistrar#parse(String, String)} and reports routing throughput, per-route hit
+ * counts, miss rate and per-lookup latency percentiles.</p>
+ *
+ * <p>Both Common and Combined Log Formats are supported. Run it via the {@code replay} profile:</p>
+ *
+ * <blockquote><pre>
+ * mvn -Preplay test-compile exec:java -Dexec.args="routes.json access.log --prefix=/shop/products --warmup=3"
+ * </pre></blockquote>
+ *
+ * <ul>
+ *     <li>{@code routes.json} is a route definition file, see {@link RouteDefinitions}</li>
+ *     <li>{@code --prefix} is stripped from logged paths, it should be the context path plus the servlet path of the servlet under test.
+ *     Lines not starting with the prefix are ignored.</li>
+ *     <li>{@code --warmup} is the number of untimed passes before the measured pass, default is 1</li>
+ * </ul>
+ */
+public class AccessLogReplay {
+
+	static final ServletRequestHandler NO_OP_HANDLER = (request, response, servletUrl) -> {};
+
+	/**
+	 * {@code host ident authuser [date] "METHOD target protocol" status bytes}, anything after that (referer and user agent of Combined Log
+	 * Format) is ignored.
+	 */
+	private static final Pattern LOG_LINE = Pattern.compile("^\\S+ \\S+ \\S+ \\[[^\\]]*\\] \"(\\S+) (\\S+)[^\"]*\" \\d{3} .*$");
+
+	private static final Set<String> SUPPORTED_METHODS = new HashSet<>(Arrays.asList("GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "TRACE"));
+
+	private final ServletUrlPatternRegistrar registrar;
+
+	private final String prefix;
+
+	private final int warmupPasses;
+
+	public AccessLogReplay(ServletUrlPatternRegistrar registrar, String prefix, int warmupPasses) {
+		this.registrar = registrar;
+		this.prefix = prefix;
+		this.warmupPasses = warmupPasses;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: AccessLogReplay <routes.json> <access.log> [--prefix=/context/servlet] [--warmup=1]");
+			System.exit(1);
+		}
+
+		String prefix = "";
+		int warmupPasses = 1;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith("--prefix=")) {
+				prefix = args[i].substring("--prefix=".length());
+			}
+			else if (args[i].startsWith("--warmup=")) {
+				warmupPasses = Integer.parseInt(args[i].substring("--warmup=".length()));
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		final ServletUrlPatternRegistrar registrar = RouteDefinitions.from(Paths.get(args[0])).toRegistrar();
+		new AccessLogReplay(registrar, prefix, warmupPasses).replay(Paths.get(args[1])).print(System.out);
+	}
+
+	public Report replay(Path accessLog) throws IOException {
+		final List<String> methods = new ArrayList<>();
+		final List<String> paths = new ArrayList<>();
+		int skippedLines = 0;
+
+		for (String line : Files.readAllLines(accessLog)) {
+			final Matcher matcher = LOG_LINE.matcher(line);
+			if (!matcher.matches() || !SUPPORTED_METHODS.contains(matcher.group(1))) {
+				skippedLines++;
+				continue;
+			}
+
+			final String path = toPathInfo(matcher.group(2));
+			if (path == null) {
+				skippedLines++;
+				continue;
+			}
+			methods.add(matcher.group(1));
+			paths.add(path);
+		}
+
+		return replay(methods.toArray(new String[0]), paths.toArray(new String[0]), skippedLines);
+	}
+
+	private Report replay(String[] methods, String[] paths, int skippedLines) {
+		for (int pass = 0; pass < warmupPasses; pass++) {
+			for (int i = 0; i < paths.length; i++) {
+				registrar.parse(methods[i], paths[i]);
+			}
+		}
+
+		final ServletUrl[] results = new ServletUrl[paths.length];
+		final long[] latencies = new long[paths.length];
+
+		final long start = System.nanoTime();
+		for (int i = 0; i < paths.length; i++) {
+			final long lookupStart = System.nanoTime();
+			results[i] = registrar.parse(methods[i], paths[i]);
+			latencies[i] = System.nanoTime() - lookupStart;
+		}
+		final long elapsed = System.nanoTime() - start;
+
+		final Map<String, Integer> hits = new TreeMap<>();
+		int misses = 0;
+		for (ServletUrl result : results) {
+			if (result.is404()) {
+				misses++;
+			}
+			else {
+				final String route = result.getName() == null || result.getName().isEmpty() ? result.toString() : result.getName();
+				hits.merge(route, 1, Integer::sum);
+			}
+		}
+
+		Arrays.sort(latencies);
+		return new Report(paths.length, skippedLines, misses, hits, latencies, elapsed);
+	}
+
+	/**
+	 * Converts a logged request target to what {@link javax.servlet.http.HttpServletRequest#getPathInfo()} would return.
+	 *
+	 * @return null if the target is not a valid URI or is outside of the prefix
+	 */
+	private String toPathInfo(String target) {
+		final String path;
+		try {
+			path = URI.create(target).getPath();
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		if (path == null || !path.startsWith(prefix)) {
+			return null;
+		}
+
+		final String pathInfo = path.substring(prefix.length());
+		return pathInfo.isEmpty() ? null : pathInfo;
+	}
+
+	public static class Report {
+
+		private final int lookups;
+
+		private final int skippedLines;
+
+		private final int misses;
+
+		private final Map<String, Integer> hits;
+
+		private final long[] sortedLatencies;
+
+		private final long elapsedNanos;
+
+		Report(int lookups, int skippedLines, int misses, Map<String, Integer> hits, long[] sortedLatencies, long elapsedNanos) {
+			this.lookups = lookups;
+			this.skippedLines = skippedLines;
+			this.misses = misses;
+			this.hits = hits;
+			this.sortedLatencies = sortedLatencies;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getLookups() {
+			return lookups;
+		}
+
+		public int getSkippedLines() {
+			return skippedLines;
+		}
+
+		public int getMisses() {
+			return misses;
+		}
+
+		public double getMissRate() {
+			return lookups == 0 ? 0 : (double) misses / lookups;
+		}
+
+		public Map<String, Integer> getHits() {
+			return Collections.unmodifiableMap(hits);
+		}
+
+		public double getLookupsPerSecond() {
+			return elapsedNanos == 0 ? 0 : lookups * 1_000_000_000d / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return latency of a single lookup in nanoseconds
+		 */
+		public long getLatencyPercentile(double percentile) {
+			if (sortedLatencies.length == 0) {
+				return 0;
+			}
+			final int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+		}
+
+		public void print(PrintStream out) {
+			out.printf("Lookups      : %d (%d log lines skipped)%n", lookups, skippedLines);
+			out.printf("Throughput   : %.0f lookups/s%n", getLookupsPerSecond());
+			out.printf("Misses       : %d (%.2f%%)%n", misses, getMissRate() * 100);
+			out.printf("Latency (ns) : p50=%d p90=%d p99=%d p99.9=%d max=%d%n", getLatencyPercentile(50), getLatencyPercentile(90),
+					   getLatencyPercentile(99), getLatencyPercentile(99.9), getLatencyPercentile(100));
+			out.println("Hits per route:");
+
+			hits.entrySet()
+				.stream()
+				.sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+				.forEach(entry -> out.printf("  %8d  %s%n", entry.getValue(), entry.getKey()));
+		}
+	}
+}
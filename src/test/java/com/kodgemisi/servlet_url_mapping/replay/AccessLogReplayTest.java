@@ -0,0 +1,44 @@
+package com.kodgemisi.servlet_url_mapping.replay;
+
+import com.kodgemisi.servlet_url_mapping.ServletUrlPatternRegistrar;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessLogReplayTest {
+
+	@Test
+	@DisplayName("Replays an access log against a ServletUrlPattern_*.json fixture used as the route definition file")
+	void replay() throws IOException, URISyntaxException {
+		final ServletUrlPatternRegistrar registrar = RouteDefinitions.from(resource("ServletUrlPattern_basic.json")).toRegistrar();
+
+		final AccessLogReplay.Report report = new AccessLogReplay(registrar, "/app", 1).replay(resource("replay/access.log"));
+
+		assertEquals(7, report.getLookups());
+		assertEquals(3, report.getSkippedLines());
+		assertEquals(1, report.getMisses());
+		assertEquals(2, report.getHits().get("details"));
+		assertEquals(1, report.getHits().get("list"));
+		assertEquals(1, report.getHits().get("create"));
+		assertEquals(1, report.getHits().get("addresses"));
+		assertEquals(1, report.getHits().get("address details"));
+		assertTrue(report.getLatencyPercentile(50) <= report.getLatencyPercentile(100));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		report.print(new PrintStream(out));
+		assertTrue(out.toString().contains("Misses       : 1 (14.29%)"));
+	}
+
+	private static Path resource(String name) throws URISyntaxException {
+		return Paths.get(AccessLogReplayTest.class.getClassLoader().getResource(name).toURI());
+	}
+}
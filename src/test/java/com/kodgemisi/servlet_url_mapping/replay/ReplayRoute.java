@@ -0,0 +1,27 @@
+package com.kodgemisi.servlet_url_mapping.replay;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A route entry of a route definition file. Same shape as {@code registeredUrls} entries of {@code ServletUrlPattern_*.json} test fixtures
+ * plus an optional HTTP {@code method} which defaults to {@code GET}.
+ */
+@Getter
+@Setter
+public class ReplayRoute {
+
+	private String name;
+
+	private String url;
+
+	private String method = "GET";
+
+	private Class<?>[] classes;
+
+	private boolean ignoreCase;
+
+	public Class<?>[] getClasses() {
+		return classes == null ? new Class[]{} : classes;
+	}
+}
@@ -0,0 +1,67 @@
+package com.kodgemisi.servlet_url_mapping.replay;
+
+import com.kodgemisi.servlet_url_mapping.ServletUrlPatternRegistrar;
+import jodd.json.JsonParser;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Represents a route definition file. Any {@code ServletUrlPattern_*.json} test fixture is a valid route definition file, extra fields like
+ * {@code testConditions} are ignored.
+ */
+@Getter
+@Setter
+public class RouteDefinitions {
+
+	private boolean useTrailingSlashMatch;
+
+	private boolean useCaseInsensitiveMatch;
+
+	private List<ReplayRoute> registeredUrls;
+
+	public static RouteDefinitions from(Path jsonPath) throws IOException {
+		final String json = new String(Files.readAllBytes(jsonPath));
+		return new JsonParser().parse(json, RouteDefinitions.class);
+	}
+
+	public ServletUrlPatternRegistrar toRegistrar() {
+		final ServletUrlPatternRegistrar registrar = new ServletUrlPatternRegistrar(useTrailingSlashMatch);
+		registrar.setUseCaseInsensitiveMatch(useCaseInsensitiveMatch);
+		for (ReplayRoute route : registeredUrls) {
+			switch (route.getMethod().toUpperCase()) {
+			case "GET":
+				registrar.get(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "POST":
+				registrar.post(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "PUT":
+				registrar.put(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "DELETE":
+				registrar.delete(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "HEAD":
+				registrar.head(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "OPTIONS":
+				registrar.options(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			case "TRACE":
+				registrar.trace(route.getName(), route.getUrl(), AccessLogReplay.NO_OP_HANDLER, route.getClasses());
+				break;
+			default:
+				throw new IllegalArgumentException(route.getMethod() + " is not supported.");
+			}
+			if (route.isIgnoreCase()) {
+				registrar.ignoreCase();
+			}
+		}
+		return registrar;
+	}
+}